@@ -21,9 +21,8 @@ public class Aggregate extends Operator {
     /**
      * Constructor.
      * 
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
+     * The groups are kept by a {@link HashAggregator}, which spills them to
+     * temporary files if there are too many to hold in memory.
      * 
      * 
      * @param child
@@ -64,11 +63,7 @@ public class Aggregate extends Operator {
         Type afieldtype = child_td.getFieldType(afield);
         Type gfieldtype = null;
         if (gfield != -1) gfieldtype = child_td.getFieldType(gfield);
-        if (afieldtype == Type.INT_TYPE) {
-            ag = new IntegerAggregator(gfield, gfieldtype, afield, aop);
-        } else {
-            ag = new StringAggregator(gfield, gfieldtype, afield, aop);
-        }
+        ag = new HashAggregator(gfield, gfieldtype, afield, afieldtype, aop);
     }
 
     /**
@@ -181,6 +176,12 @@ public class Aggregate extends Operator {
         it.close();
         child.close();
         super.close();
+        if (ag instanceof HashAggregator && ((HashAggregator) ag).spilled()) {
+            // the child is read again rather than keep the files
+            ((HashAggregator) ag).delete();
+            it = null;
+            initialAggregator();
+        }
     }
 
     @Override
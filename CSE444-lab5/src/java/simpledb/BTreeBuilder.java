@@ -0,0 +1,342 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * BTreeBuilder builds a BTreeFile from the table it indexes in one pass,
+ * instead of inserting the entries one at a time through the BufferPool.
+ * <p>
+ * The table's pages are split into ranges, and one thread per range reads
+ * its entries and sorts them with an ExternalSort. The sorted ranges are
+ * merged, and the leaves are packed to a fill factor and written in order,
+ * then each level of internal pages above them, until one page is left for
+ * the root. Every page is written once, sequentially, to a temporary file
+ * that is forced to disk and renamed over the index file, so nothing is
+ * logged: a crash leaves either the empty index or the whole tree.
+ * <p>
+ * The fill factor leaves room in every page for later inserts, so they do
+ * not split pages right away.
+ */
+public class BTreeBuilder {
+
+    /** Default fraction of each page the build fills. */
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+    private final BTreeFile index;
+    private double fillFactor = DEFAULT_FILL_FACTOR;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = ExternalSort.getDefaultMemoryBudget();
+
+    /**
+     * @param index the index to build; its file must be empty, and it must
+     *   not be in use yet
+     */
+    public BTreeBuilder(BTreeFile index) {
+        this.index = index;
+    }
+
+    /**
+     * Set the fraction of each page the build fills; every page gets at
+     * least one entry, or two children.
+     */
+    public void setFillFactor(double fillFactor) {
+        if (!(fillFactor > 0 && fillFactor <= 1))
+            throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        this.fillFactor = fillFactor;
+    }
+
+    public double getFillFactor() {
+        return fillFactor;
+    }
+
+    /** Set the most threads that read and sort the table at once. */
+    public void setThreads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("need at least one thread");
+        this.threads = threads;
+    }
+
+    /**
+     * Set the memory budget of the build, shared by the sorts of its
+     * threads.
+     *
+     * @param bytes the most tuple data to hold in memory
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        memoryBudget = bytes;
+    }
+
+    /**
+     * Build the index from the tuples of its table, as tid reads them. The
+     * table's pages are read through the BufferPool and stay locked shared
+     * until tid completes, as does its end of file, so the table does not
+     * change under the build; register the index in the Catalog before tid
+     * completes, so that no later change to the table is missed.
+     *
+     * @return the number of entries in the index
+     * @throws DbException if the index is not empty, or its table is not a
+     *   HeapFile
+     */
+    public int build(TransactionId tid)
+            throws DbException, TransactionAbortedException, IOException {
+        if (index.numPages() > 1 || (index.numPages() == 1
+            && ((BTreeHeaderPage) index.readPage(new BTreePageId(index.getId(), 0))).getRoot() != 0))
+            throw new DbException("index to build is not empty");
+        DbFile file = Database.getCatalog().getDatabaseFile(index.getIndexedTableId());
+        if (!(file instanceof HeapFile))
+            throw new DbException("can only build an index of a heap file");
+        HeapFile table = (HeapFile) file;
+        Database.getBufferPool().lockPage(tid, table.extentId(), Permissions.READ_ONLY);
+
+        int pages = table.numPages();
+        int n = Math.max(1, Math.min(threads, pages));
+        ExternalSort[] sorts = new ExternalSort[n];
+        for (int i = 0; i < n; i++) {
+            PartitionScan scan = new PartitionScan(tid, table, index,
+                                                   (int) ((long) pages * i / n),
+                                                   (int) ((long) pages * (i + 1) / n));
+            sorts[i] = new ExternalSort(0, true, scan);
+            sorts[i].setMemoryBudget(Math.max(1, memoryBudget / n));
+            // the partitions are already sorted on a thread each
+            sorts[i].setThreads(1);
+        }
+        try {
+            sort(sorts);
+            return write(sorts);
+        } finally {
+            for (ExternalSort s : sorts) {
+                s.close();
+            }
+        }
+    }
+
+    // open (and so sort) every partition, each in a thread of its own
+    private void sort(ExternalSort[] sorts) throws DbException, TransactionAbortedException {
+        SortWorker[] workers = new SortWorker[sorts.length];
+        for (int i = 0; i < sorts.length; i++) {
+            workers[i] = new SortWorker(sorts[i]);
+            workers[i].start();
+        }
+        Exception failure = null;
+        for (SortWorker w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted building index");
+            }
+            if (failure == null)
+                failure = w.failure;
+        }
+        if (failure instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) failure;
+        if (failure instanceof DbException)
+            throw (DbException) failure;
+        if (failure != null)
+            throw new DbException("can not build index: " + failure);
+    }
+
+    private static class SortWorker extends Thread {
+        private final ExternalSort sort;
+        volatile Exception failure;
+
+        SortWorker(ExternalSort sort) {
+            this.sort = sort;
+        }
+
+        public void run() {
+            try {
+                sort.open();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    // the next entry of a sorted partition being merged
+    private static class Head {
+        BTreeEntry entry;
+        final ExternalSort sort;
+        final int order; // of the partition, for entries with equal keys
+
+        Head(ExternalSort sort, int order) {
+            this.sort = sort;
+            this.order = order;
+        }
+
+        // false if the partition is done
+        boolean advance() throws DbException, TransactionAbortedException {
+            if (!sort.hasNext())
+                return false;
+            Tuple t = sort.next();
+            entry = new BTreeEntry(t.getField(0), ((IntField) t.getField(1)).getValue(),
+                                   ((IntField) t.getField(2)).getValue());
+            return true;
+        }
+    }
+
+    // merge the sorted partitions into the pages of the tree, and put it
+    // in place of the index file
+    private int write(ExternalSort[] sorts)
+            throws DbException, TransactionAbortedException, IOException {
+        // the partitions are page ranges in order, and their sorts are
+        // stable, so equal keys merge in record id order
+        PriorityQueue<Head> heads = new PriorityQueue<Head>(sorts.length, new Comparator<Head>() {
+                public int compare(Head h1, Head h2) {
+                    int c = BTreeEntry.compareKeys(h1.entry.key, h2.entry.key);
+                    return c != 0 ? c : h1.order - h2.order;
+                }
+            });
+        for (int i = 0; i < sorts.length; i++) {
+            Head h = new Head(sorts[i], i);
+            if (h.advance())
+                heads.add(h);
+        }
+
+        File target = index.getFile().getAbsoluteFile();
+        File tmp = File.createTempFile(target.getName(), ".build", target.getParentFile());
+        Type keyType = index.getKeyType();
+        int entries = 0;
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                FileChannel ch = out.getChannel();
+                ch.position(BufferPool.getPageSize()); // the header goes last
+                int pgNo = 1;
+
+                // the leaves, and the first entry of each
+                ArrayList<BTreeEntry> firsts = new ArrayList<BTreeEntry>();
+                int perLeaf = Math.max(1, (int) (BTreeLeafPage.capacity(keyType) * fillFactor));
+                BTreeLeafPage leaf = null;
+                while (!heads.isEmpty()) {
+                    Head h = heads.poll();
+                    if (leaf == null || leaf.getNumEntries() == perLeaf) {
+                        if (leaf != null) {
+                            leaf.setNext(pgNo);
+                            write(ch, leaf);
+                        }
+                        leaf = new BTreeLeafPage(new BTreePageId(index.getId(), pgNo++), keyType,
+                                                 BTreePage.emptyPageData(BTreePage.LEAF));
+                        firsts.add(h.entry);
+                    }
+                    leaf.insert(h.entry);
+                    entries++;
+                    if (h.advance())
+                        heads.add(h);
+                }
+                if (leaf != null)
+                    write(ch, leaf);
+
+                // each level of internal pages over the one below it
+                int levelStart = 1;
+                int height = firsts.isEmpty() ? 0 : 1;
+                int capacity = BTreeInternalPage.capacity(keyType);
+                int fanout = Math.min(capacity + 1, Math.max(3, (int) (capacity * fillFactor) + 1));
+                while (firsts.size() > 1) {
+                    ArrayList<BTreeEntry> upper = new ArrayList<BTreeEntry>();
+                    int start = pgNo;
+                    for (int i = 0; i < firsts.size(); ) {
+                        int take = Math.min(fanout, firsts.size() - i);
+                        if (firsts.size() - i - take == 1)
+                            take--; // rather than leave a page with one child
+                        ArrayList<Integer> children = new ArrayList<Integer>(take);
+                        for (int c = 0; c < take; c++) {
+                            children.add(levelStart + i + c);
+                        }
+                        BTreeInternalPage p = new BTreeInternalPage(
+                            new BTreePageId(index.getId(), pgNo++), keyType,
+                            BTreePage.emptyPageData(BTreePage.INTERNAL));
+                        p.fill(children, firsts.subList(i + 1, i + take));
+                        write(ch, p);
+                        upper.add(firsts.get(i));
+                        i += take;
+                    }
+                    firsts = upper;
+                    levelStart = start;
+                    height++;
+                }
+
+                BTreeHeaderPage header = new BTreeHeaderPage(new BTreePageId(index.getId(), 0),
+                                                             keyType, new byte[BufferPool.getPageSize()]);
+                header.setRoot(height == 0 ? 0 : levelStart, height);
+                ch.position(0);
+                write(ch, header);
+                ch.force(true);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        // the BufferPool may have read the empty header
+        Database.getBufferPool().discardPage(new BTreePageId(index.getId(), 0));
+        return entries;
+    }
+
+    private static void write(FileChannel ch, Page p) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(p.getPageData());
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    // the entries of the tuples on a range of the pages of a table
+    private static class PartitionScan implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private final TransactionId tid;
+        private final HeapFile table;
+        private final IndexFile index;
+        private final int from;
+        private final int to;
+        private int pgNo; // the next page to read
+        private Iterator<Tuple> tuples;
+
+        PartitionScan(TransactionId tid, HeapFile table, IndexFile index, int from, int to) {
+            this.tid = tid;
+            this.table = table;
+            this.index = index;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void open() {
+            pgNo = from;
+            tuples = Collections.<Tuple>emptyList().iterator();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (!tuples.hasNext() && pgNo < to) {
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(table.getId(), pgNo++), Permissions.READ_ONLY);
+                tuples = p.iterator();
+            }
+            return tuples.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return IndexFile.entry(index, tuples.next());
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return index.getTupleDesc();
+        }
+
+        public void close() {
+            tuples = null;
+        }
+    }
+}
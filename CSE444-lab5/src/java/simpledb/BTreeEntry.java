@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * An index entry, or the key of one: a key and the record id of its tuple,
+ * as a page number and slot in the indexed table. Entries order by key,
+ * then by record id. A search for a key alone uses the lowest record id,
+ * which orders before every entry with that key.
+ */
+final class BTreeEntry implements Comparable<BTreeEntry> {
+    final Field key;
+    final int page;
+    final int slot;
+
+    BTreeEntry(Field key, int page, int slot) {
+        this.key = key;
+        this.page = page;
+        this.slot = slot;
+    }
+
+    /** @return the key that orders before every entry with key */
+    static BTreeEntry lowest(Field key) {
+        return new BTreeEntry(key, Integer.MIN_VALUE, Integer.MIN_VALUE);
+    }
+
+    static int compareKeys(Field k1, Field k2) {
+        if (k1.equals(k2))
+            return 0;
+        return k1.compare(Predicate.Op.LESS_THAN, k2) ? -1 : 1;
+    }
+
+    public int compareTo(BTreeEntry o) {
+        int c = compareKeys(key, o.key);
+        if (c != 0)
+            return c;
+        if (page != o.page)
+            return page < o.page ? -1 : 1;
+        return slot < o.slot ? -1 : slot == o.slot ? 0 : 1;
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof BTreeEntry && compareTo((BTreeEntry) o) == 0;
+    }
+
+    public int hashCode() {
+        return 31 * (31 * key.hashCode() + page) + slot;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        key.serialize(out);
+        out.writeInt(page);
+        out.writeInt(slot);
+    }
+
+    /** @return the number of bytes an entry with a key of keyType takes */
+    static int size(Type keyType) {
+        return keyType.getLen() + 8;
+    }
+}
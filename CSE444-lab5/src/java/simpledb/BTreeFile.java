@@ -0,0 +1,400 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one field of a table (see IndexFile).
+ * Page 0 is a BTreeHeaderPage, which holds the root; the other pages are
+ * BTreeInternalPages and BTreeLeafPages. The leaves hold the entries in
+ * order and are linked left to right, so a range is read by finding its
+ * first leaf and following the links, in O(log n) page reads plus one per
+ * leaf of the range.
+ * <p>
+ * Every page is read and written through the BufferPool, so the tree is
+ * locked, logged and recovered like any table. An insert locks the path to
+ * its leaf shared and the leaf exclusively; only if the leaf is full does
+ * it start over with the header and the whole path locked exclusively, and
+ * split the pages that need it, bottom up. Deletes never merge pages: a
+ * leaf may become empty, and stays in the tree until it is refilled.
+ * <p>
+ * Readers release their shared locks as the BufferPool allows (see
+ * BufferPool#doneReadingPage), each only once the page below it is locked.
+ * Pages only ever split to the right, so a reader that reaches a leaf after
+ * it split still finds what moved by following the links.
+ * <p>
+ * An index of a table that already has tuples is built faster, and with
+ * fuller pages, by a BTreeBuilder.
+ */
+public class BTreeFile implements IndexFile {
+
+    private static final int HEADER_PGNO = 0;
+
+    private final File f;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+    private final int id;
+
+    /**
+     * Constructs a B+ tree backed by the specified file, which may be empty
+     * or not exist yet, for an empty tree.
+     *
+     * @param f the file that stores the tree
+     * @param tableId the id of the table the tree indexes
+     * @param keyField the index of the field of the table it indexes
+     * @param keyType the type of that field
+     */
+    public BTreeFile(File f, int tableId, int keyField, Type keyType) {
+        this.f = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.keyType = keyType;
+        td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                           new String[] { "key", "page", "slot" });
+        id = f.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the File backing this tree on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the TupleDesc of the entries: the key, and the page number
+     *   and slot of the tuple
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getIndexedTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** Returns the number of pages in the file, the header included. */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof BTreePageId) || pid.getTableId() != id || pid.pageNumber() < 0)
+            throw new IllegalArgumentException("page " + pid + " is not in this file");
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            // pages past the end read as zeros: an empty header, or a leaf
+            if (f.exists()) {
+                RandomAccessFile rf = new RandomAccessFile(f, "r");
+                try {
+                    rf.seek((long) pid.pageNumber() * data.length);
+                    rf.read(data);
+                } finally {
+                    rf.close();
+                }
+            }
+            return BTreePage.create((BTreePageId) pid, keyType, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can not read page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        try {
+            rf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+            rf.write(page.getPageData());
+        } finally {
+            rf.close();
+        }
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(id, pgNo), perm);
+    }
+
+    private void doneReading(TransactionId tid, Page p) {
+        Database.getBufferPool().doneReadingPage(tid, p.getId());
+    }
+
+    /**
+     * Find the leaf whose range holds e, or the leftmost leaf if e is null,
+     * locking the pages on the way shared and the leaf with perm.
+     *
+     * @return the leaf, or null if the tree is empty
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, BTreeEntry e, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, HEADER_PGNO, Permissions.READ_ONLY);
+        BTreePage page = header;
+        int pgNo = header.getRoot();
+        for (int level = header.getHeight(); pgNo != 0; level--) {
+            BTreePage child = getPage(tid, pgNo, level > 1 ? Permissions.READ_ONLY : perm);
+            doneReading(tid, page);
+            if (level == 1)
+                return (BTreeLeafPage) child;
+            page = child;
+            BTreeInternalPage internal = (BTreeInternalPage) child;
+            pgNo = e == null ? internal.getChild(0) : internal.childFor(e);
+        }
+        doneReading(tid, page);
+        return null;
+    }
+
+    // the entry an entry tuple stands for
+    private BTreeEntry toEntry(Tuple t) throws DbException {
+        if (t.getTupleDesc().numFields() != 3 || !t.getField(0).getType().equals(keyType))
+            throw new DbException("not an entry of this index: " + t);
+        return new BTreeEntry(t.getField(0), ((IntField) t.getField(1)).getValue(),
+                              ((IntField) t.getField(2)).getValue());
+    }
+
+    private Tuple toTuple(BTreeEntry e) {
+        Tuple t = new Tuple(td);
+        t.setField(0, e.key);
+        t.setField(1, new IntField(e.page));
+        t.setField(2, new IntField(e.slot));
+        return t;
+    }
+
+    /**
+     * Inserts an entry, a tuple of this index's TupleDesc (see
+     * IndexFile#entry).
+     *
+     * @throws DbException if the entry is already in the tree
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeEntry e = toEntry(t);
+        BTreeLeafPage leaf = findLeaf(tid, e, Permissions.READ_WRITE);
+        if (leaf != null && !leaf.isFull()) {
+            if (leaf.contains(e))
+                throw new DbException("entry already in index: " + t);
+            leaf.insert(e);
+            ArrayList<Page> dirty = new ArrayList<Page>();
+            dirty.add(leaf);
+            return dirty;
+        }
+        return insertSplitting(tid, e);
+    }
+
+    // insert with the header and path locked exclusively, splitting pages
+    private ArrayList<Page> insertSplitting(TransactionId tid, BTreeEntry e)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, HEADER_PGNO, Permissions.READ_WRITE);
+        if (header.getRoot() == 0) {
+            BTreeLeafPage leaf = (BTreeLeafPage) allocate(tid, BTreePage.LEAF);
+            leaf.insert(e);
+            header.setRoot(leaf.getId().pageNumber(), 1);
+            dirty.add(header);
+            dirty.add(leaf);
+            return dirty;
+        }
+
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        int pgNo = header.getRoot();
+        for (int level = header.getHeight(); level > 1; level--) {
+            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+            path.add(p);
+            pgNo = p.childFor(e);
+        }
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+        if (leaf.contains(e))
+            throw new DbException("entry already in index: " + toTuple(e));
+        dirty.add(leaf);
+        if (!leaf.isFull()) {
+            // emptied by this transaction since it looked
+            leaf.insert(e);
+            return dirty;
+        }
+
+        BTreeLeafPage right = (BTreeLeafPage) allocate(tid, BTreePage.LEAF);
+        dirty.add(right);
+        leaf.split(right);
+        if (e.compareTo(right.get(0)) < 0)
+            leaf.insert(e);
+        else
+            right.insert(e);
+        BTreeEntry separator = right.get(0);
+        int child = right.getId().pageNumber();
+        for (int i = path.size() - 1; i >= 0; i--) {
+            BTreeInternalPage parent = path.get(i);
+            dirty.add(parent);
+            if (!parent.isFull()) {
+                parent.insert(separator, child);
+                return dirty;
+            }
+            BTreeInternalPage sibling = (BTreeInternalPage) allocate(tid, BTreePage.INTERNAL);
+            dirty.add(sibling);
+            separator = parent.split(separator, child, sibling);
+            child = sibling.getId().pageNumber();
+        }
+
+        BTreeInternalPage root = (BTreeInternalPage) allocate(tid, BTreePage.INTERNAL);
+        root.init(header.getRoot(), separator, child);
+        header.setRoot(root.getId().pageNumber(), header.getHeight() + 1);
+        dirty.add(root);
+        dirty.add(header);
+        return dirty;
+    }
+
+    /**
+     * Add an empty page of the given kind at the end of the file, and lock
+     * it exclusively. Only called with the header locked exclusively,
+     * which keeps other transactions from adding pages at the same time. A
+     * page added by a transaction that aborts stays in the file, unused.
+     */
+    private BTreePage allocate(TransactionId tid, byte kind)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = Math.max(HEADER_PGNO + 1, numPages());
+        BTreePageId pid = new BTreePageId(id, pgNo);
+        writePage(BTreePage.create(pid, keyType, BTreePage.emptyPageData(kind)));
+        return getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Deletes an entry, a tuple of this index's TupleDesc (see
+     * IndexFile#entry).
+     *
+     * @throws DbException if the entry is not in the tree
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeEntry e = toEntry(t);
+        // entries are unique, so the one leaf whose range holds e has it
+        BTreeLeafPage leaf = findLeaf(tid, e, Permissions.READ_WRITE);
+        if (leaf == null || !leaf.delete(e))
+            throw new DbException("entry not in index: " + t);
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(leaf);
+        return dirty;
+    }
+
+    /** @return an iterator over all the entries, in order */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new LookupIterator(tid, null, null);
+    }
+
+    public boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** @return an iterator over the matching entries, in order */
+    public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field key) {
+        if (!supports(op))
+            throw new UnsupportedOperationException("B+ tree can not look up " + op);
+        return new LookupIterator(tid, op, key);
+    }
+
+    // reads the entries from the leaf of the first that may match, until
+    // the first past the range
+    private class LookupIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op; // null for all entries
+        private final Field key;
+        private Iterator<BTreeEntry> entries; // of the leaf being read
+        private int next; // the page number of the leaf after it, or 0
+        private BTreeEntry pending;
+        private boolean done;
+
+        LookupIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            boolean fromStart = op == null || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ;
+            BTreeLeafPage leaf = findLeaf(tid, fromStart ? null : BTreeEntry.lowest(key),
+                                          Permissions.READ_ONLY);
+            pending = null;
+            done = leaf == null;
+            entries = null;
+            if (leaf != null)
+                read(leaf);
+        }
+
+        private void read(BTreeLeafPage leaf) {
+            entries = leaf.entries().iterator();
+            next = leaf.getNext();
+            doneReading(tid, leaf);
+        }
+
+        // whether e and all entries after it are past the range
+        private boolean past(BTreeEntry e) {
+            switch (op) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return e.key.compare(Predicate.Op.GREATER_THAN, key);
+            case LESS_THAN:
+                return e.key.compare(Predicate.Op.GREATER_THAN_OR_EQ, key);
+            default:
+                return false;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (entries == null && !done)
+                return false; // not open
+            while (pending == null && !done) {
+                if (entries.hasNext()) {
+                    BTreeEntry e = entries.next();
+                    if (op == null || e.key.compare(op, key))
+                        pending = e;
+                    else if (past(e))
+                        done = true;
+                } else if (next != 0) {
+                    read((BTreeLeafPage) getPage(tid, next, Permissions.READ_ONLY));
+                } else {
+                    done = true;
+                }
+            }
+            return pending != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = toTuple(pending);
+            pending = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            entries = null;
+            pending = null;
+            done = false;
+        }
+    }
+}
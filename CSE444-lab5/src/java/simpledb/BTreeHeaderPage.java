@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeHeaderPage is page 0 of a BTreeFile, and holds the page number of
+ * the root, or 0 while the tree is empty, and the height of the tree.
+ * Readers and writers of the tree start here, so a root split only has to
+ * change this page to move the root. Pages never change level, so the
+ * height tells which pages on the way down are leaves, before they are
+ * read.
+ * <p>
+ * The format is a byte for the kind (unused), then the integer page number
+ * of the root and the integer height; a file that is empty reads as a
+ * header of an empty tree.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private int root;
+    private int height;
+
+    /**
+     * Create the header from bytes read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId pid, Type keyType, byte[] data) throws IOException {
+        super(pid, keyType, data);
+        DataInputStream in = reader(data);
+        root = in.readInt();
+        height = in.readInt();
+    }
+
+    /** @return the page number of the root, or 0 if the tree is empty */
+    public int getRoot() {
+        return root;
+    }
+
+    /** @return the number of levels of the tree, 1 if the root is a leaf */
+    public int getHeight() {
+        return height;
+    }
+
+    void setRoot(int root, int height) {
+        this.root = root;
+        this.height = height;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(root);
+        out.writeInt(height);
+    }
+
+    public byte[] getPageData() {
+        return serialize((byte) 0);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeInternalPage holds n keys and n + 1 child page numbers. Key i is
+ * the lowest entry under child i + 1, so the entries under child i are at
+ * least key i - 1 and below key i.
+ * <p>
+ * The format is the kind byte, an integer count of keys, the integer page
+ * number of child 0, then each key followed by the page number of the
+ * child after it.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 1 + 4 + 4;
+
+    private final ArrayList<BTreeEntry> keys;
+    private final ArrayList<Integer> children;
+
+    /**
+     * Create an internal page from bytes read from disk.
+     */
+    public BTreeInternalPage(BTreePageId pid, Type keyType, byte[] data) throws IOException {
+        super(pid, keyType, data);
+        DataInputStream in = reader(data);
+        int n = in.readInt();
+        if (n < 0 || n > capacity(keyType))
+            throw new IOException("bad internal page " + pid);
+        keys = new ArrayList<BTreeEntry>(n);
+        children = new ArrayList<Integer>(n + 1);
+        children.add(in.readInt());
+        for (int i = 0; i < n; i++) {
+            Field key = readKey(in);
+            keys.add(new BTreeEntry(key, in.readInt(), in.readInt()));
+            children.add(in.readInt());
+        }
+    }
+
+    /** @return the number of keys an internal page holds */
+    public static int capacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (BTreeEntry.size(keyType) + 4);
+    }
+
+    public int getNumKeys() {
+        return keys.size();
+    }
+
+    public boolean isFull() {
+        return keys.size() >= capacity(keyType);
+    }
+
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    BTreeEntry getKey(int i) {
+        return keys.get(i);
+    }
+
+    /** @return the page number of the child whose range holds e */
+    int childFor(BTreeEntry e) {
+        int lo = 0, hi = keys.size();
+        // the number of keys at or below e
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compareTo(e) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return children.get(lo);
+    }
+
+    /** Make this an empty root over two children split at key. */
+    void init(int left, BTreeEntry key, int right) {
+        keys.clear();
+        children.clear();
+        children.add(left);
+        keys.add(key);
+        children.add(right);
+    }
+
+    /**
+     * Make this page hold the given children, split at the given keys, one
+     * fewer than the children, as a bulk build lays them out.
+     */
+    void fill(List<Integer> children, List<BTreeEntry> keys) {
+        if (keys.size() != children.size() - 1 || keys.size() > capacity(keyType))
+            throw new IllegalArgumentException("bad internal page contents");
+        this.keys.clear();
+        this.keys.addAll(keys);
+        this.children.clear();
+        this.children.addAll(children);
+    }
+
+    /**
+     * Add a key and the child after it, which was split off the child
+     * before it; the page must not be full.
+     */
+    void insert(BTreeEntry key, int right) {
+        if (isFull())
+            throw new IllegalStateException("internal page is full");
+        int i = 0;
+        while (i < keys.size() && keys.get(i).compareTo(key) < 0)
+            i++;
+        keys.add(i, key);
+        children.add(i + 1, right);
+    }
+
+    /**
+     * Add a key and the child after it to this full page, and move the
+     * upper half of the keys and children to an empty page.
+     *
+     * @return the middle key, which is in neither page and belongs in the
+     *   parent, before the new page
+     */
+    BTreeEntry split(BTreeEntry key, int child, BTreeInternalPage right) {
+        int i = 0;
+        while (i < keys.size() && keys.get(i).compareTo(key) < 0)
+            i++;
+        keys.add(i, key);
+        children.add(i + 1, child);
+        int mid = keys.size() / 2;
+        BTreeEntry up = keys.get(mid);
+        right.keys.clear();
+        right.children.clear();
+        right.keys.addAll(keys.subList(mid + 1, keys.size()));
+        right.children.addAll(children.subList(mid + 1, children.size()));
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return up;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(keys.size());
+        out.writeInt(children.get(0));
+        for (int i = 0; i < keys.size(); i++) {
+            keys.get(i).write(out);
+            out.writeInt(children.get(i + 1));
+        }
+    }
+
+    public byte[] getPageData() {
+        return serialize(INTERNAL);
+    }
+}
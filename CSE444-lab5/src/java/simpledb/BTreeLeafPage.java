@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeLeafPage holds index entries in order, and the page number of the
+ * next leaf, so the leaves can be read in order as a list.
+ * <p>
+ * The format is the kind byte, an integer count of entries, an integer
+ * page number of the next leaf (0 for none), then the entries, each a key
+ * and two integers for the page number and slot of its tuple.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 1 + 4 + 4;
+
+    private final ArrayList<BTreeEntry> entries;
+    private int next;
+
+    /**
+     * Create a leaf from bytes read from disk, or from zeros for an empty
+     * leaf.
+     */
+    public BTreeLeafPage(BTreePageId pid, Type keyType, byte[] data) throws IOException {
+        super(pid, keyType, data);
+        DataInputStream in = reader(data);
+        int n = in.readInt();
+        if (n < 0 || n > capacity(keyType))
+            throw new IOException("bad leaf " + pid);
+        next = in.readInt();
+        entries = new ArrayList<BTreeEntry>(n);
+        for (int i = 0; i < n; i++) {
+            Field key = readKey(in);
+            entries.add(new BTreeEntry(key, in.readInt(), in.readInt()));
+        }
+    }
+
+    /** @return the number of entries a leaf holds */
+    public static int capacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / BTreeEntry.size(keyType);
+    }
+
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    public boolean isFull() {
+        return entries.size() >= capacity(keyType);
+    }
+
+    /** @return the page number of the next leaf, or 0 if this is the last */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    BTreeEntry get(int i) {
+        return entries.get(i);
+    }
+
+    /** @return a copy of the entries, in order */
+    List<BTreeEntry> entries() {
+        return new ArrayList<BTreeEntry>(entries);
+    }
+
+    /** @return the position of the first entry not below e */
+    int lowerBound(BTreeEntry e) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).compareTo(e) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    boolean contains(BTreeEntry e) {
+        int i = lowerBound(e);
+        return i < entries.size() && entries.get(i).compareTo(e) == 0;
+    }
+
+    /** Insert an entry in order; the leaf must not be full. */
+    void insert(BTreeEntry e) {
+        if (isFull())
+            throw new IllegalStateException("leaf is full");
+        entries.add(lowerBound(e), e);
+    }
+
+    /** @return whether the entry was there to delete */
+    boolean delete(BTreeEntry e) {
+        if (!contains(e))
+            return false;
+        entries.remove(lowerBound(e));
+        return true;
+    }
+
+    /**
+     * Move the upper half of the entries to an empty leaf, which becomes
+     * the next one after this.
+     */
+    void split(BTreeLeafPage right) {
+        List<BTreeEntry> upper = entries.subList(entries.size() / 2, entries.size());
+        right.entries.addAll(upper);
+        upper.clear();
+        right.next = next;
+        next = right.pid.pageNumber();
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(entries.size());
+        out.writeInt(next);
+        for (BTreeEntry e : entries) {
+            e.write(out);
+        }
+    }
+
+    public byte[] getPageData() {
+        return serialize(LEAF);
+    }
+}
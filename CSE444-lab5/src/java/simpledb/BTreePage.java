@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreePage is the common part of the pages of a BTreeFile: dirty state
+ * and before image. Every page but the header starts with a byte telling
+ * its kind, leaf or internal, so a page can be built from its bytes
+ * alone (see {@link #create}). The header is always page 0.
+ * <p>
+ * The keys of a tree are index entries: the key field of a tuple together
+ * with its record id, so that even keys that repeat are unique and every
+ * entry has exactly one place in the tree (see BTreeEntry).
+ */
+public abstract class BTreePage implements Page {
+
+    static final byte LEAF = 1;
+    static final byte INTERNAL = 2;
+
+    protected final BTreePageId pid;
+    protected final Type keyType;
+    private volatile TransactionId dirtier;
+    private byte[] oldData; // the page as of its last log record, or as read
+
+    /**
+     * @param data the bytes the page is built from; kept as the before
+     *   image, so the caller must not change them afterwards
+     */
+    protected BTreePage(BTreePageId pid, Type keyType, byte[] data) {
+        this.pid = pid;
+        this.keyType = keyType;
+        this.oldData = data;
+    }
+
+    /**
+     * Build a page of a BTreeFile from its bytes, of the kind they tell.
+     *
+     * @param keyType the type of the keys in the tree
+     */
+    public static BTreePage create(BTreePageId pid, Type keyType, byte[] data) throws IOException {
+        if (pid.pageNumber() == 0)
+            return new BTreeHeaderPage(pid, keyType, data);
+        if (data[0] == INTERNAL)
+            return new BTreeInternalPage(pid, keyType, data);
+        // a leaf, or a page that was never written, which reads as zeros
+        return new BTreeLeafPage(pid, keyType, data);
+    }
+
+    /**
+     * Build a page of a BTreeFile in the catalog from its bytes, as
+     * recovery does.
+     */
+    public static BTreePage create(BTreePageId pid, byte[] data) throws IOException {
+        return create(pid, Database.getCatalog().getTupleDesc(pid.getTableId()).getFieldType(0), data);
+    }
+
+    /** @return the bytes of an empty page of the given kind */
+    static byte[] emptyPageData(byte kind) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = kind;
+        return data;
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public synchronized Page getBeforeImage() {
+        try {
+            return create(pid, keyType, oldData);
+        } catch (IOException e) {
+            // the bytes were a page of this kind when they were taken
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    // stream over a page's bytes, past the kind byte
+    protected static DataInputStream reader(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.skipBytes(1);
+        return in;
+    }
+
+    protected Field readKey(DataInputStream in) throws IOException {
+        try {
+            return keyType.parse(in);
+        } catch (java.text.ParseException e) {
+            throw new IOException("bad key on " + pid);
+        }
+    }
+
+    // the serialized page: the kind byte, whatever write adds, and zeros
+    protected byte[] serialize(byte kind) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(kind);
+            write(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  // in memory, so never
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        System.arraycopy(bytes.toByteArray(), 0, data, 0, bytes.size());
+        return data;
+    }
+
+    /** Write the contents of the page after its kind byte. */
+    protected abstract void write(DataOutputStream out) throws IOException;
+}
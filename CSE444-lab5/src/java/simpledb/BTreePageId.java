@@ -0,0 +1,52 @@
+package simpledb;
+
+/** Unique identifier for the pages of a BTreeFile. */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree file.
+     *
+     * @param tableId The id of the BTreeFile
+     * @param pgNo The page number in that file; page 0 is the header page
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the BTreeFile this page belongs to */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the file */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        int result = 19;
+        result = 31 * result + tableId;
+        result = 31 * result + pgNo;
+        return result;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId other = (BTreePageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is Aggregate on batches: it computes MIN, MAX, SUM, AVG or
+ * COUNT of one column, over all the rows of its child or grouped by another
+ * column, with the same output rows as Aggregate. The aggregate column is
+ * read as ints, and the groups are found by int when the group column is
+ * INT_TYPE, so no Field is made per row.
+ * <p>
+ * Sums are kept as longs, and only cut to ints for output. The AVG of no
+ * rows is no row at all.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    // what is kept per group
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
+
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private List<Tuple> results;
+    private int pos; // the next result to return
+    private TupleBatch out;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The BatchIterator that is feeding us rows.
+     * @param afield
+     *            The column over which we are computing an aggregate; if it
+     *            is not INT_TYPE, aop must be COUNT
+     * @param gfield
+     *            The column over which we are grouping the result, or
+     *            Aggregator.NO_GROUPING if there is no grouping
+     * @param aop
+     *            The aggregation operator to use; one of MIN, MAX, SUM, AVG
+     *            and COUNT
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        switch (aop) {
+        case MIN:
+        case MAX:
+        case SUM:
+        case AVG:
+        case COUNT:
+            break;
+        default:
+            throw new IllegalArgumentException("can not aggregate " + aop + " in batches");
+        }
+        TupleDesc childtd = child.getTupleDesc();
+        if (childtd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT)
+            throw new IllegalArgumentException("can only count " + childtd.getFieldType(afield));
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        if (gfield != Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                               new String[] { childtd.getFieldName(gfield),
+                                              childtd.getFieldName(afield) });
+        } else {
+            td = new TupleDesc(new Type[] { Type.INT_TYPE },
+                               new String[] { childtd.getFieldName(afield) });
+        }
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private static long[] newState() {
+        return new long[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        if (results == null)
+            results = aggregate();
+        pos = 0;
+    }
+
+    // read the whole child, and make the result rows
+    private List<Tuple> aggregate() throws DbException, TransactionAbortedException {
+        boolean ints = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        long[] all = newState();
+        HashMap<Integer, long[]> byInt = new HashMap<Integer, long[]>();
+        HashMap<Field, long[]> byField = new HashMap<Field, long[]>();
+        boolean intGroups = gfield != Aggregator.NO_GROUPING
+            && child.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE;
+
+        TupleBatch in;
+        while ((in = child.nextBatch()) != null) {
+            int n = in.size();
+            int[] values = ints ? in.intColumn(afield) : null;
+            if (gfield == Aggregator.NO_GROUPING) {
+                if (values == null) {
+                    all[COUNT] += n;
+                    continue;
+                }
+                long sum = 0;
+                long min = all[MIN], max = all[MAX];
+                for (int i = 0; i < n; i++) {
+                    int v = values[i];
+                    sum += v;
+                    if (v < min)
+                        min = v;
+                    if (v > max)
+                        max = v;
+                }
+                all[COUNT] += n;
+                all[SUM] += sum;
+                all[MIN] = min;
+                all[MAX] = max;
+            } else if (intGroups) {
+                int[] groups = in.intColumn(gfield);
+                for (int i = 0; i < n; i++) {
+                    long[] s = byInt.get(groups[i]);
+                    if (s == null) {
+                        s = newState();
+                        byInt.put(groups[i], s);
+                    }
+                    merge(s, values, i);
+                }
+            } else {
+                Field[] groups = in.fieldColumn(gfield);
+                for (int i = 0; i < n; i++) {
+                    long[] s = byField.get(groups[i]);
+                    if (s == null) {
+                        s = newState();
+                        byField.put(groups[i], s);
+                    }
+                    merge(s, values, i);
+                }
+            }
+        }
+
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        if (gfield == Aggregator.NO_GROUPING) {
+            if (aop != Aggregator.Op.AVG || all[COUNT] > 0) {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(result(all)));
+                rows.add(t);
+            }
+        } else if (intGroups) {
+            for (Map.Entry<Integer, long[]> e : byInt.entrySet()) {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(e.getKey()));
+                t.setField(1, new IntField(result(e.getValue())));
+                rows.add(t);
+            }
+        } else {
+            for (Map.Entry<Field, long[]> e : byField.entrySet()) {
+                Tuple t = new Tuple(td);
+                t.setField(0, e.getKey());
+                t.setField(1, new IntField(result(e.getValue())));
+                rows.add(t);
+            }
+        }
+        return rows;
+    }
+
+    // merge row i into the state of its group; values is null if only
+    // counting
+    private static void merge(long[] s, int[] values, int i) {
+        s[COUNT]++;
+        if (values != null) {
+            int v = values[i];
+            s[SUM] += v;
+            if (v < s[MIN])
+                s[MIN] = v;
+            if (v > s[MAX])
+                s[MAX] = v;
+        }
+    }
+
+    private int result(long[] s) {
+        switch (aop) {
+        case MIN:
+            return (int) s[MIN];
+        case MAX:
+            return (int) s[MAX];
+        case SUM:
+            return (int) s[SUM];
+        case AVG:
+            return (int) (s[SUM] / s[COUNT]);
+        default:
+            return (int) s[COUNT];
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (results == null)
+            throw new IllegalStateException("aggregate not open");
+        if (out == null)
+            out = new TupleBatch(td);
+        out.clear();
+        while (pos < results.size() && !out.isFull()) {
+            out.add(results.get(pos++));
+        }
+        return out.isEmpty() ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    public void close() {
+        child.close();
+        results = null;
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+/**
+ * BatchFilter is Filter on batches: each batch of its child becomes a batch
+ * of the rows that satisfy a predicate, which may be smaller. A predicate
+ * on an INT_TYPE column with an IntField operand is checked by a loop over
+ * the column's ints, one loop per operator; any other by Field.compare.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final Predicate p;
+    private final BatchIterator child;
+    private TupleBatch out;
+    private int[] selected;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch in;
+        while ((in = child.nextBatch()) != null) {
+            if (out == null || out.capacity() < in.capacity()) {
+                out = new TupleBatch(getTupleDesc(), in.capacity());
+                selected = new int[in.capacity()];
+            }
+            int n = select(in);
+            if (n > 0) {
+                out.select(in, selected, n);
+                return out;
+            }
+        }
+        return null;
+    }
+
+    // put the rows of in that pass into selected; returns their number
+    private int select(TupleBatch in) {
+        int size = in.size();
+        int f = p.getField();
+        if (getTupleDesc().getFieldType(f) == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+            int[] col = in.intColumn(f);
+            int v = ((IntField) p.getOperand()).getValue();
+            int n = 0;
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < size; i++) {
+                    if (col[i] == v)
+                        selected[n++] = i;
+                }
+                return n;
+            case NOT_EQUALS:
+                for (int i = 0; i < size; i++) {
+                    if (col[i] != v)
+                        selected[n++] = i;
+                }
+                return n;
+            case GREATER_THAN:
+                for (int i = 0; i < size; i++) {
+                    if (col[i] > v)
+                        selected[n++] = i;
+                }
+                return n;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < size; i++) {
+                    if (col[i] >= v)
+                        selected[n++] = i;
+                }
+                return n;
+            case LESS_THAN:
+                for (int i = 0; i < size; i++) {
+                    if (col[i] < v)
+                        selected[n++] = i;
+                }
+                return n;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < size; i++) {
+                    if (col[i] <= v)
+                        selected[n++] = i;
+                }
+                return n;
+            default:
+                break;
+            }
+        }
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (in.getField(i, f).compare(p.getOp(), p.getOperand()))
+                selected[n++] = i;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of DbIterator: each call
+ * returns a TupleBatch of many rows instead of one Tuple, so the cost of a
+ * call is paid once per batch, and operators work on columns of primitive
+ * values (see TupleBatch). BatchToTuple and TupleToBatch connect the two
+ * kinds of plan.
+ * <p>
+ * As with DbIterator, an iterator must be opened before any other method is
+ * called, and opens its children when it is opened.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other
+     * methods.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. A batch holds at least one row; it is
+     * only valid until the next call, which may reuse it.
+     *
+     * @return the next batch, or null if there are no more rows
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /** Resets the iterator to the start. */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /** @return the TupleDesc of the rows */
+    public TupleDesc getTupleDesc();
+
+    /** Closes the iterator, and its children. */
+    public void close();
+}
@@ -0,0 +1,59 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchProject is Project on batches. Its batches share their columns with
+ * those of its child, so projecting copies no values.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    /**
+     * Constructor accepts a child operator to read batches to apply
+     * projection to and a list of fields in the output rows
+     *
+     * @param fieldList
+     *            The ids of the fields child's tupleDesc to project out
+     * @param child
+     *            The child operator
+     */
+    public BatchProject(List<Integer> fieldList, BatchIterator child) {
+        this.child = child;
+        TupleDesc childtd = child.getTupleDesc();
+        outFieldIds = new int[fieldList.size()];
+        Type[] typeAr = new Type[fieldList.size()];
+        String[] fieldAr = new String[fieldList.size()];
+        for (int i = 0; i < fieldAr.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            typeAr[i] = childtd.getFieldType(outFieldIds[i]);
+            fieldAr[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        td = new TupleDesc(typeAr, fieldAr);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch in = child.nextBatch();
+        return in == null ? null : in.project(td, outFieldIds);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchSeqScan reads the tuples of a HeapFile table in batches, as SeqScan
+ * reads them one at a time: in page order, through the BufferPool, with the
+ * same locks. Field names are prefixed with the table alias, as in SeqScan.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final TupleDesc td;
+    private final int batchSize;
+
+    private TupleBatch batch;
+    private int numPages;
+    private int pgNo; // the next page to read; -1 when closed
+    private PageId current; // the page tuples come from
+    private Iterator<Tuple> tuples;
+
+    /**
+     * Creates a scan of the specified table in batches of
+     * TupleBatch.DEFAULT_SIZE rows.
+     *
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param batchSize the most rows in a batch
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int batchSize) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("can only scan a heap file in batches");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.batchSize = batchSize;
+        pgNo = -1;
+
+        TupleDesc td_temp = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeAr = new Type[td_temp.numFields()];
+        String[] fieldAr = new String[td_temp.numFields()];
+        for (int i = 0; i < td_temp.numFields(); i++) {
+            typeAr[i] = td_temp.getFieldType(i);
+            fieldAr[i] = tableAlias + "." + td_temp.getFieldName(i);
+        }
+        this.td = new TupleDesc(typeAr, fieldAr);
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        BufferPool bp = Database.getBufferPool();
+        if (bp.getIsolationLevel(tid).locksFileExtent()) {
+            // keep appenders out until we commit, so a rescan sees no phantoms
+            bp.lockPage(tid, file.extentId(), Permissions.READ_ONLY);
+        }
+        if (batch == null)
+            batch = new TupleBatch(td, batchSize);
+        numPages = file.numPages();
+        pgNo = 0;
+        tuples = Collections.<Tuple>emptyList().iterator();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (pgNo < 0)
+            throw new IllegalStateException("scan not open");
+        batch.clear();
+        while (!batch.isFull()) {
+            if (tuples.hasNext()) {
+                batch.add(tuples.next());
+            } else if (pgNo < numPages) {
+                leaveCurrentPage();
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(tableid, pgNo++), Permissions.READ_ONLY);
+                current = page.getId();
+                tuples = page.iterator();
+            } else {
+                leaveCurrentPage();
+                break;
+            }
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
+    private void leaveCurrentPage() {
+        if (current != null) {
+            Database.getBufferPool().doneReadingPage(tid, current);
+            current = null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        leaveCurrentPage();
+        pgNo = -1;
+        tuples = null;
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchToTuple returns the rows of a BatchIterator one Tuple at a time, so
+ * a plan that works in batches can feed one that works a tuple at a time,
+ * or a client.
+ */
+public class BatchToTuple extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchIterator child;
+    private TupleBatch batch;
+    private int row; // the next row of batch to return
+
+    public BatchToTuple(BatchIterator child) {
+        this.child = child;
+    }
+
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || row == batch.size()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(row++);
+    }
+
+    /** @return no children: the child is a BatchIterator, not a DbIterator */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        throw new UnsupportedOperationException("the child of BatchToTuple is a BatchIterator");
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin joins on any predicate, like Join, but reads the
+ * outer (left) input a block of tuples at a time, and makes one pass over
+ * the inner (right) input per block instead of per tuple. A block holds as
+ * many outer tuples as fit in a given number of pages, so the inner input
+ * is read blockPages * (tuples per page) times less often.
+ * <p>
+ * The output tuples are the same as Join's (the fields of child1, then
+ * those of child2), but not necessarily in the same order.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default size of a block of outer tuples, in pages. */
+    public static final int DEFAULT_BLOCK_PAGES = 64;
+
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final TupleDesc td;
+    private final int blockPages;
+
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    private boolean firstBlock; // child2 is yet to be read
+    private Tuple inner; // the inner tuple being joined with the block
+    private int pos; // the next block tuple to try with inner
+
+    /**
+     * Constructor, with blocks of DEFAULT_BLOCK_PAGES pages.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockPages
+     *            The size of a block of outer tuples, in pages
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                               int blockPages) {
+        if (blockPages <= 0)
+            throw new IllegalArgumentException("block must hold at least one page");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockPages = blockPages;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the number of outer tuples in a block of the given number of
+     *   pages; at least one
+     */
+    public static int blockTuples(TupleDesc outer, int blockPages) {
+        long bytes = (long) blockPages * BufferPool.getPageSize();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / outer.getSize()));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public int getBlockPages() {
+        return blockPages;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        start();
+    }
+
+    private void start() {
+        block.clear();
+        firstBlock = true;
+        inner = null;
+        pos = 0;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block.clear();
+        inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    // read the next block of outer tuples; false if there are none left
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int max = blockTuples(child1.getTupleDesc(), blockPages);
+        while (block.size() < max && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        if (block.isEmpty())
+            return false;
+        if (!firstBlock)
+            child2.rewind();
+        firstBlock = false;
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @see Join#fetchNext
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null) {
+                while (pos < block.size()) {
+                    Tuple outer = block.get(pos++);
+                    if (p.filter(outer, inner))
+                        return Join.merge(td, outer, inner);
+                }
+                inner = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                pos = 0;
+            } else if (!nextBlock()) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
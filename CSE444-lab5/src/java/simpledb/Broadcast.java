@@ -0,0 +1,32 @@
+package simpledb;
+
+/**
+ * Broadcast is an Exchange that sends every tuple of its producers to all
+ * of its outputs, such as a small input joined with each partition of a
+ * big one.
+ */
+public class Broadcast extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param producers
+     *            The plans to run, one per thread; all with the same
+     *            TupleDesc
+     * @param consumers
+     *            The number of outputs
+     */
+    public Broadcast(DbIterator[] producers, int consumers) {
+        super(producers, consumers);
+    }
+
+    protected void route(Tuple t, Chunks out) {
+        for (int i = 0; i < out.size(); i++) {
+            out.send(i, t);
+        }
+    }
+
+    protected String describe() {
+        return "Broadcast";
+    }
+}
@@ -2,9 +2,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -36,7 +36,9 @@ public class BufferPool {
     private Map<PageId, Page> pages_cache;
     private int numPages;
     private LockManager lockManager;
-    private Map<TransactionId, Collection<PageId>> dirtyPageBytid;  // track some page flush to disk, but dirty transaction not commit 
+    private Map<PageId, Long> recLSNs;  // logged pages not yet written back, with their first such LSN
+    private PageWriter pageWriter;  // protected by this
+    private IOException pageWriterFailure;  // not reported yet, protected by this
     
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -46,11 +48,16 @@ public class BufferPool {
     public BufferPool(int numPages) {
         // some code goes here
         pages_cache = new ConcurrentHashMap<>();
-        dirtyPageBytid = new ConcurrentHashMap<>();
+        recLSNs = new HashMap<>();
         this.numPages = numPages;
         lockManager = new LockManager();
     }
     
+    /** @return the most pages this buffer pool caches */
+    public int getNumPages() {
+        return numPages;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -81,8 +88,9 @@ public class BufferPool {
 
         lockManager.accquireLock(tid, pid, perm);
         
-        if (pages_cache.containsKey(pid)) {
-            return pages_cache.get(pid);
+        Page cached = pages_cache.get(pid);
+        if (cached != null) {
+            return cached;
         }
         
         while (pages_cache.size() >= numPages) {
@@ -92,8 +100,12 @@ public class BufferPool {
         try {
             DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
             Page page = file.readPage(pid);
-            pages_cache.put(pid, page);
-            return page;
+            // threads of a ParallelScan may read the same page at once: keep
+            // the first copy, so every thread sees the same one. Each of them
+            // may have made room, so the pool can go over numPages by a page
+            // a thread until the next eviction.
+            cached = pages_cache.putIfAbsent(pid, page);
+            return cached != null ? cached : page;
         } catch (NoSuchElementException e) {
             throw new DbException("page id is wrong, no page in corresponding file");
         }
@@ -121,6 +133,44 @@ public class BufferPool {
         return lockManager.holdsLock(tid, pid);
     }
 
+    /**
+     * Acquire a lock on a page id without reading the page. Used for pseudo
+     * pages such as the end of a HeapFile, which guard a resource rather
+     * than hold data.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.accquireLock(tid, pid, perm);
+    }
+
+    /**
+     * Called by access methods once they no longer need a page they read.
+     * Releases the shared lock on that page if the isolation level of the
+     * transaction allows it; exclusive locks are always kept until commit.
+     *
+     * @param tid the ID of the transaction that read the page
+     * @param pid the ID of the page it is done with
+     */
+    public void doneReadingPage(TransactionId tid, PageId pid) {
+        if (getIsolationLevel(tid).releasesReadLocksEarly()) {
+            lockManager.releaseSharedLock(tid, pid);
+        }
+    }
+
+    /** Set the isolation level that governs the locks tid takes from now on */
+    public void setIsolationLevel(TransactionId tid, IsolationLevel level) {
+        lockManager.setIsolationLevel(tid, level);
+    }
+
+    /** @return the isolation level of tid, or the default if it never set one */
+    public IsolationLevel getIsolationLevel(TransactionId tid) {
+        return lockManager.getIsolationLevel(tid);
+    }
+
     /**
      * Release all locks associated with a given transaction.
      *
@@ -144,25 +194,17 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1|lab2
         if (commit) {
-            HashSet<PageId> flushNotCommit = (HashSet<PageId>) dirtyPageBytid.get(tid);
-            for (PageId pid: pages_cache.keySet()) {
-                Page p = pages_cache.get(pid);
-                if (tid.equals(p.isDirty())) {
-                    // use current page contents as the before-image
-                    // for the next transaction that modifies this page.
-                    flushPage(pid);
-                    p.setBeforeImage();
-                } else if (flushNotCommit != null && flushNotCommit.contains(p.getId())) {
-                    p.setBeforeImage();  // some pages has been flush to disk but transaction commit until now, need set their image too
-                }
-            }
+            // Transaction.commit has logged or written every page
+            // already; this is for callers that commit here directly.
+            // Logging a page makes its current contents the before-image
+            // for the next transaction that modifies it.
+            flushPages(tid);
 //            Database.getLogFile().logCommit(tid);
         } else {
             removePages(tid);
 //            Database.getLogFile().logAbort(tid);
         }
         
-        dirtyPageBytid.remove(tid);        
         lockManager.releaseAllLock(tid);
     }
 
@@ -186,6 +228,10 @@ public class BufferPool {
         // not necessary for lab1
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> result = file.insertTuple(tid, t);
+        // the tuple has its record id now, so its index entries can be made
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            result.addAll(index.insertTuple(tid, IndexFile.entry(index, t)));
+        }
         for (Page page: result) {
             page.markDirty(true, tid);  // this page now are dirty
             // don't need below code since all page read must by buffer pool's getPage API
@@ -212,8 +258,18 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        // the entries need the record id, which deleting the tuple clears
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(tableId);
+        ArrayList<Tuple> entries = new ArrayList<Tuple>(indexes.size());
+        for (IndexFile index : indexes) {
+            entries.add(IndexFile.entry(index, t));
+        }
         ArrayList<Page> result = file.deleteTuple(tid, t);
+        for (int i = 0; i < indexes.size(); i++) {
+            result.addAll(indexes.get(i).deleteTuple(tid, entries.get(i)));
+        }
         for (Page page: result) {
             page.markDirty(true, tid);
 //            if (pages_cache.containsKey(page.getId())) {
@@ -230,6 +286,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
+        checkPageWriter();
         for (PageId pid: pages_cache.keySet()) {
             flushPage(pid);
         }
@@ -248,19 +305,20 @@ public class BufferPool {
         }
     }
     
-    private void addDirtyPageTid(TransactionId tid, PageId pid) {
-        if (!dirtyPageBytid.containsKey(tid)) {
-            dirtyPageBytid.put(tid, new HashSet<>());
-        }
-        dirtyPageBytid.get(tid).add(pid);
-    }
-    
     private synchronized void removePages(TransactionId tid) throws IOException {
         for (PageId pid: pages_cache.keySet()) {
             Page p = pages_cache.get(pid);
             if (tid.equals(p.isDirty())) {
-                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                Page page = file.readPage(pid);
+                Page page;
+                if (recLSNs.containsKey(pid)) {
+                    // a commit logged this page without writing it, so the
+                    // disk is behind; the before image is what it logged
+                    page = PageCodecs.codec(p.getClass())
+                        .newPage(pid, p.getBeforeImage().getPageData());
+                } else {
+                    DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    page = file.readPage(pid);
+                }
                 pages_cache.put(pid, page);
                 page.markDirty(false, null);
             }
@@ -272,6 +330,7 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        checkPageWriter();
         for (PageId pid: pages_cache.keySet()) {
             Page p = pages_cache.get(pid);
             if (tid.equals(p.isDirty())) {
@@ -282,6 +341,33 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Log the pages tid dirtied, without writing them, for a commit that
+     * does not force pages (see Durability). They stay in the pool, clean
+     * but in the dirty page table, until flushPage writes them back; after
+     * a crash, recovery redoes them from the log.
+     */
+    public synchronized void logPages(TransactionId tid) throws IOException {
+        checkPageWriter();
+        for (PageId pid: pages_cache.keySet()) {
+            Page page = pages_cache.get(pid);
+            if (tid.equals(page.isDirty())) {
+                logPage(tid, page);
+                page.markDirty(false, null);
+            }
+        }
+    }
+
+    // append an update record for a page dirtied by tid
+    private void logPage(TransactionId tid, Page page) throws IOException {
+        PageId pid = page.getId();
+        long lsn = Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+        if (!recLSNs.containsKey(pid))
+            recLSNs.put(pid, lsn);
+        // the next log record of this page is a delta against what was just logged
+        page.setBeforeImage();
+    }
+
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
@@ -290,7 +376,8 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         Page page = pages_cache.get(pid);
-        if (page == null || page.isDirty() == null)
+        // clean pages may still need writing if a commit only logged them
+        if (page == null || (page.isDirty() == null && !recLSNs.containsKey(pid)))
             return;
         
         DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
@@ -298,16 +385,107 @@ public class BufferPool {
         // append an update record to the log, with 
         // a before-image and after-image.
         TransactionId dirtier = page.isDirty();
-        addDirtyPageTid(dirtier, pid);  // some page flush to disk but that transaction not commit, we need track that
         if (dirtier != null){
-          Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
-          Database.getLogFile().force();
+          logPage(dirtier, page);
         }
+        // the log must be on disk before the page is
+        Database.getLogFile().forceGrouped();
         
         file.writePage(page);
+        recLSNs.remove(pid);
         page.markDirty(false, null);
     }
 
+    /**
+     * Write back up to max pages that commits logged without writing,
+     * oldest log record first. Pages a running transaction has dirtied
+     * again are left alone.
+     *
+     * @return the number of pages written
+     */
+    public synchronized int writeLoggedPages(int max) throws IOException {
+        List<Map.Entry<PageId, Long>> logged = new ArrayList<>(recLSNs.entrySet());
+        Collections.sort(logged, new Comparator<Map.Entry<PageId, Long>>() {
+                public int compare(Map.Entry<PageId, Long> a, Map.Entry<PageId, Long> b) {
+                    return Long.compare(a.getValue(), b.getValue());
+                }
+            });
+        int n = 0;
+        for (Map.Entry<PageId, Long> e : logged) {
+            if (n == max)
+                break;
+            Page page = pages_cache.get(e.getKey());
+            if (page != null && page.isDirty() == null) {
+                flushPage(e.getKey());
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Record that the PageWriter failed to write back a page. The page
+     * stays logged, so nothing is lost, but the next call to flush or log
+     * pages throws e, so that the failure does not go unnoticed.
+     *
+     * @param e what the write threw
+     */
+    synchronized void pageWriterFailed(IOException e) {
+        if (pageWriterFailure == null)
+            pageWriterFailure = e;
+    }
+
+    // report a failure of the PageWriter, once
+    private void checkPageWriter() throws IOException {
+        IOException e = pageWriterFailure;
+        if (e != null) {
+            pageWriterFailure = null;
+            throw new IOException("background page write failed", e);
+        }
+    }
+
+    /**
+     * Start writing back logged pages in the background (see PageWriter).
+     * Replaces any running writer.
+     *
+     * @param intervalMillis time between rounds of writes
+     */
+    public void startPageWriter(long intervalMillis) {
+        PageWriter w = new PageWriter(this, intervalMillis);
+        PageWriter old;
+        synchronized (this) {
+            old = pageWriter;
+            pageWriter = w;
+        }
+        // not holding the pool, which a writer takes to write
+        if (old != null)
+            old.shutdownAndWait();
+        w.start();
+    }
+
+    /**
+     * Stop writing back logged pages in the background, waiting for a
+     * round in progress to end.
+     */
+    public void stopPageWriter() {
+        PageWriter old;
+        synchronized (this) {
+            old = pageWriter;
+            pageWriter = null;
+        }
+        if (old != null)
+            old.shutdownAndWait();
+    }
+
+    /**
+     * Return the dirty page table: every page with log records that may not
+     * be reflected on disk yet, mapped to the LSN of the first such record.
+     * Recovery need not redo any record of a page older than this LSN.
+     */
+    public synchronized Map<PageId, Long> dirtyPageTable() {
+        return new HashMap<>(recLSNs);
+    }
+
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
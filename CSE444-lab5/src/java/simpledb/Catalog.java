@@ -19,6 +19,8 @@ public class Catalog {
 
     private Map<String, Integer> name2id;
     private Map<Integer, Table> id2items;
+    private Map<Integer, Table> id2index;  // indexes, kept out of tableIdIterator
+    private Map<Integer, List<IndexFile>> table2indexes;
 
     public static class Table {
         public String name;
@@ -40,6 +42,8 @@ public class Catalog {
     public Catalog() {
         name2id = new ConcurrentHashMap<>();
         id2items = new ConcurrentHashMap<>();
+        id2index = new ConcurrentHashMap<>();
+        table2indexes = new ConcurrentHashMap<>();
     }
 
     /**
@@ -81,6 +85,54 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index on a table in the catalog. From now on, the BufferPool
+     * keeps it up to date as tuples are inserted into and deleted from the
+     * table; the entries of tuples already in the table must already be in
+     * the index. The index is found by its id like a table (its pages are
+     * read and recovered like a table's), but it is not a table: it has no
+     * name and is not in tableIdIterator.
+     *
+     * @param index
+     *            the index to add; index.getIndexedTableId() is the table
+     *            it indexes
+     */
+    public void addIndex(IndexFile index) {
+        Table table = getTable(index.getIndexedTableId());
+        String name = table.name + "." + table.td.getFieldName(index.getKeyField());
+        id2index.put(index.getId(), new Table(name, "", index, index.getTupleDesc()));
+        List<IndexFile> indexes = new ArrayList<IndexFile>(getIndexes(index.getIndexedTableId()));
+        indexes.add(index);
+        table2indexes.put(index.getIndexedTableId(), Collections.unmodifiableList(indexes));
+    }
+
+    /**
+     * @return the indexes on the specified table, or an empty list if it
+     *   has none
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        List<IndexFile> indexes = table2indexes.get(tableid);
+        return indexes == null ? Collections.<IndexFile>emptyList() : indexes;
+    }
+
+    /**
+     * @return the index on the specified field of the specified table that
+     *   supports op, or null if there is none; for EQUALS, a hash index if
+     *   there is one, since its lookups read fewer pages
+     */
+    public IndexFile getIndex(int tableid, int field, Predicate.Op op) {
+        IndexFile found = null;
+        for (IndexFile index : getIndexes(tableid)) {
+            if (index.getKeyField() == field && index.supports(op)) {
+                if (index instanceof HashIndexFile)
+                    return index;
+                if (found == null)
+                    found = index;
+            }
+        }
+        return found;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * 
@@ -146,22 +198,91 @@ public class Catalog {
     }
 
     private Table getTable(int id) throws NoSuchElementException {
-        if (!id2items.containsKey(id)) {
+        Table t = id2items.get(id);
+        if (t == null)
+            t = id2index.get(id);
+        if (t == null) {
             throw new NoSuchElementException();
         }
-        return id2items.get(id);
+        return t;
     }
 
-    /** Delete all tables from the catalog */
+    /** Delete all tables, and their indexes, from the catalog */
     public void clear() {
         // some code goes here
         name2id = new ConcurrentHashMap<>();
         id2items = new ConcurrentHashMap<>();
+        id2index = new ConcurrentHashMap<>();
+        table2indexes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Build an empty index from its table with a BTreeBuilder, and add it.
+     */
+    private void buildIndex(BTreeFile index) throws IOException {
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            new BTreeBuilder(index).build(t.getId());
+        } catch (DbException e) {
+            throw new IOException("can not build index: " + e.getMessage(), e);
+        } catch (TransactionAbortedException e) {
+            throw new IOException("can not build index: " + e.getMessage(), e);
+        }
+        // while the table is still locked, so no change to it is missed
+        addIndex(index);
+        t.commit();
+    }
+
+    /**
+     * Add an empty index, and insert the entries of the tuples of its
+     * HeapFile table into it. The entries are inserted through the BufferPool in
+     * a series of transactions, each committed once it has dirtied half the
+     * pool, so only use this while no other transaction runs, as when the
+     * schema is loaded.
+     */
+    private void populateIndex(IndexFile index) throws IOException {
+        BufferPool bp = Database.getBufferPool();
+        HeapFile table = (HeapFile) getDatabaseFile(index.getIndexedTableId());
+        // added first, so the BufferPool finds its pages
+        addIndex(index);
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            HashSet<PageId> dirty = new HashSet<PageId>();
+            for (int pgNo = 0; pgNo < table.numPages(); pgNo++) {
+                HeapPage page = (HeapPage) bp.getPage(t.getId(), new HeapPageId(table.getId(), pgNo),
+                                                      Permissions.READ_ONLY);
+                Iterator<Tuple> tuples = page.iterator();
+                while (tuples.hasNext()) {
+                    for (Page p : index.insertTuple(t.getId(), IndexFile.entry(index, tuples.next()))) {
+                        p.markDirty(true, t.getId());
+                        dirty.add(p.getId());
+                    }
+                }
+                if (dirty.size() >= bp.getNumPages() / 2) {
+                    t.commit();
+                    t = new Transaction();
+                    t.start();
+                    dirty.clear();
+                }
+            }
+        } catch (DbException e) {
+            t.abort();
+            throw new IOException("can not build index: " + e.getMessage(), e);
+        } catch (TransactionAbortedException e) {
+            t.abort();
+            throw new IOException("can not build index: " + e.getMessage(), e);
+        }
+        t.commit();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the
-     * database.
+     * database. A field annotated "index" gets a B+ tree index, stored in
+     * name.field.idx next to the table, and a field annotated "hash" a hash
+     * index, stored in name.field.hidx; an index is built from the table if
+     * its file does not exist yet.
      * 
      * @param catalogFile
      */
@@ -181,6 +302,8 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
+                ArrayList<Integer> hashed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -192,11 +315,15 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(names.size() - 1);
+                        else if (els2[i].trim().equals("hash"))
+                            hashed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -207,6 +334,26 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : indexed) {
+                    File idxFile = new File(baseFolder + "/" + name + "." + namesAr[field] + ".idx");
+                    boolean build = !idxFile.exists() || idxFile.length() == 0;
+                    BTreeFile index = new BTreeFile(idxFile, tabHf.getId(), field, typeAr[field]);
+                    if (build)
+                        buildIndex(index);
+                    else
+                        addIndex(index);
+                    System.out.println("Added index on : " + name + "." + namesAr[field]);
+                }
+                for (int field : hashed) {
+                    File idxFile = new File(baseFolder + "/" + name + "." + namesAr[field] + ".hidx");
+                    boolean build = !idxFile.exists() || idxFile.length() == 0;
+                    HashIndexFile index = new HashIndexFile(idxFile, tabHf.getId(), field, typeAr[field]);
+                    if (build)
+                        populateIndex(index);
+                    else
+                        addIndex(index);
+                    System.out.println("Added hash index on : " + name + "." + namesAr[field]);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * Checkpointer is a background thread that takes a checkpoint of a LogFile
+ * whenever enough log has been appended since the last one, or enough time
+ * has passed. Checkpoints are fuzzy (see LogFile.logCheckpoint), so taking
+ * one does not stall transactions. A checkpoint that fails is reported to
+ * the next commit (see LogFile.checkpointerFailed).
+ */
+public class Checkpointer extends Thread {
+
+    /** Default log volume between checkpoints, in bytes. */
+    public static final long DEFAULT_MAX_BYTES = 16 << 20;
+    /** Default time between checkpoints, in milliseconds. */
+    public static final long DEFAULT_MAX_MILLIS = 60 * 1000;
+
+    private static volatile long defaultMaxBytes = DEFAULT_MAX_BYTES;
+    private static volatile long defaultMaxMillis = DEFAULT_MAX_MILLIS;
+
+    private final LogFile log;
+    private final long maxBytes;
+    private final long maxMillis;
+    private boolean stopped = false;  // protected by this
+    private boolean due = false;  // protected by this
+    private long checkpoints = 0;  // protected by this
+
+    /**
+     * @param maxBytes log volume that triggers a checkpoint, or 0 for none
+     * @param maxMillis time that triggers a checkpoint, or 0 for none
+     */
+    public Checkpointer(LogFile log, long maxBytes, long maxMillis) {
+        super("checkpointer");
+        if (maxBytes < 0 || maxMillis < 0)
+            throw new IllegalArgumentException("negative checkpoint interval");
+        this.log = log;
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxMillis;
+        setDaemon(true);
+    }
+
+    /**
+     * Called by the log after each append, with the bytes appended since the
+     * last checkpoint; wakes the thread once that reaches maxBytes.
+     */
+    void appended(long bytesSinceCheckpoint) {
+        if (maxBytes > 0 && bytesSinceCheckpoint >= maxBytes) {
+            synchronized (this) {
+                if (!due) {
+                    due = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the schedule of the checkpointer each Database starts with its
+     * log from now on; with both 0, it starts none.
+     *
+     * @param maxBytes log volume that triggers a checkpoint, or 0 for none
+     * @param maxMillis time that triggers a checkpoint, or 0 for none
+     */
+    public static void setDefaultSchedule(long maxBytes, long maxMillis) {
+        if (maxBytes < 0 || maxMillis < 0)
+            throw new IllegalArgumentException("negative checkpoint interval");
+        defaultMaxBytes = maxBytes;
+        defaultMaxMillis = maxMillis;
+    }
+
+    /** @return the log volume between a Database's checkpoints, or 0 */
+    public static long getDefaultMaxBytes() {
+        return defaultMaxBytes;
+    }
+
+    /** @return the time between a Database's checkpoints, or 0 */
+    public static long getDefaultMaxMillis() {
+        return defaultMaxMillis;
+    }
+
+    /** Stop the thread; a checkpoint in progress is finished first. */
+    public synchronized void shutdown() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Stop the thread and wait for it to end. Must not be called holding
+     * a lock the thread takes, such as the log's.
+     */
+    public void shutdownAndWait() {
+        shutdown();
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /** @return the number of checkpoints taken so far */
+    public synchronized long checkpoints() {
+        return checkpoints;
+    }
+
+    public void run() {
+        long last = System.currentTimeMillis();
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!stopped && !due) {
+                        long wait = maxMillis == 0 ? 0
+                            : last + maxMillis - System.currentTimeMillis();
+                        if (maxMillis > 0 && wait <= 0)
+                            break;
+                        wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopped)
+                    return;
+                due = false;
+            }
+            last = System.currentTimeMillis();
+            if (log.bytesSinceCheckpoint() == 0)
+                continue;
+            try {
+                log.logCheckpoint();
+                synchronized (this) {
+                    checkpoints++;
+                }
+            } catch (IOException e) {
+                // the next commit reports it; retried when next due
+                log.checkpointerFailed(e);
+            }
+        }
+    }
+}
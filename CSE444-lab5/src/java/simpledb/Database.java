@@ -10,6 +10,10 @@ import java.util.concurrent.atomic.AtomicReference;
  * <p>
  * Provides a set of methods that can be used to access these variables from
  * anywhere.
+ * <p>
+ * Each instance also starts a PageWriter on its buffer pool and a
+ * Checkpointer on its log, with the defaults those classes are configured
+ * with, so that committed pages reach disk and the log can be truncated.
  * 
  * @Threadsafe
  */
@@ -33,6 +37,23 @@ public class Database {
         }
         _logfile = tmp;
         // startControllerThread();
+        startBackground();
+    }
+
+    // write back committed pages and take checkpoints in the background,
+    // as configured by PageWriter and Checkpointer
+    private void startBackground() {
+        if (PageWriter.getDefaultInterval() > 0)
+            _bufferpool.startPageWriter(PageWriter.getDefaultInterval());
+        if (Checkpointer.getDefaultMaxBytes() > 0 || Checkpointer.getDefaultMaxMillis() > 0)
+            _logfile.startCheckpointer(Checkpointer.getDefaultMaxBytes(),
+                                       Checkpointer.getDefaultMaxMillis());
+    }
+
+    // stop them, before this instance is replaced
+    private void stopBackground() {
+        _bufferpool.stopPageWriter();
+        _logfile.stopCheckpointer();
     }
 
     /** Return the log file of the static Database instance */
@@ -59,7 +80,11 @@ public class Database {
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            BufferPool pool = new BufferPool(pages);
+            _instance.get()._bufferpool.stopPageWriter();
+            bufferPoolF.set(_instance.get(), pool);
+            if (PageWriter.getDefaultInterval() > 0)
+                pool.startPageWriter(PageWriter.getDefaultInterval());
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,6 +100,7 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        _instance.get().stopBackground();
         _instance.set(new Database());
     }
 
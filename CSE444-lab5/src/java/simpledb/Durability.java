@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * Durability describes what a transaction's commit waits for, and
+ * therefore what survives a crash right after it returns.
+ * <p>
+ * Every level keeps commits atomic: after recovery a transaction's changes
+ * are either all there or all gone. The levels differ in when pages and
+ * the commit record reach the disk:
+ * <ul>
+ * <li>FORCE writes every page the transaction dirtied, then forces the log
+ * through its COMMIT record. A commit that returned survives any crash, and
+ * recovery need not redo it.
+ * <li>NO_FORCE logs the dirtied pages instead of writing them, then forces
+ * the log through its COMMIT record. A commit that returned survives any
+ * crash, but recovery may have to redo it from the log. The pages stay in
+ * the buffer pool and are written when evicted or flushed, or by a
+ * PageWriter in the background. This is the default: commits then cost a
+ * sequential log force instead of a random write per page.
+ * <li>ASYNC logs the dirtied pages like NO_FORCE but returns without
+ * forcing the log; it is forced in the background every so often (see
+ * LogFile.setAsyncCommitInterval). A crash may lose commits that returned
+ * up to that long before it. Since the log is forced in order, a lost
+ * commit is never older than one that survived: once a later FORCE or
+ * NO_FORCE commit returns, every ASYNC commit before it is durable too.
+ * </ul>
+ * Locks are released when the commit returns, so with ASYNC, others may
+ * see changes that a crash could still take back. They cannot commit
+ * anything depending on them durably without making them durable as well.
+ */
+public enum Durability {
+    FORCE(true, true), NO_FORCE(false, true), ASYNC(false, false);
+
+    /** Durability of transactions that never asked for another one. */
+    public static final Durability DEFAULT = NO_FORCE;
+
+    private final boolean forcesPages;
+    private final boolean forcesLog;
+
+    private Durability(boolean forcesPages, boolean forcesLog) {
+        this.forcesPages = forcesPages;
+        this.forcesLog = forcesLog;
+    }
+
+    /** @return true if commit writes the transaction's dirty pages */
+    public boolean forcesPages() {
+        return forcesPages;
+    }
+
+    /** @return true if commit waits for its COMMIT record to be durable */
+    public boolean forcesLog() {
+        return forcesLog;
+    }
+}
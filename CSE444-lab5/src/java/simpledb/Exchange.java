@@ -0,0 +1,425 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange moves tuples between threads, as in Volcano: each producer plan
+ * is run on a thread of its own, and the tuples it returns are routed to
+ * one or more outputs (see getOutput), each read by a consumer, through a
+ * bounded queue per output. Subclasses decide where a tuple goes: Gather
+ * sends every tuple to its single output, HashRepartition sends it to the
+ * output of a hash of a field, and Broadcast sends it to all outputs.
+ * <p>
+ * The producers start when an output is first opened, and stop when all
+ * the outputs are closed; tuples for an output that is closed early are
+ * dropped. Closing all the outputs and opening them again runs the
+ * producers again. A producer that fails makes every output throw what it
+ * failed with.
+ * <p>
+ * The queues are bounded, so a consumer that reads two exchanges must not
+ * wait on one while the other's producer waits on it: a HashJoin of two
+ * exchanges reads all of one input first (see HashJoin.setBuildLeft).
+ */
+public abstract class Exchange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Chunks an output's queue holds before its producers wait. */
+    public static final int QUEUE_CHUNKS = 4;
+
+    // the most tuples sent to an output at once
+    private static final int CHUNK_TUPLES = TupleBatch.DEFAULT_SIZE;
+
+    // sent to every output by each producer when it is done
+    private static final List<Tuple> DONE = new ArrayList<Tuple>();
+
+    private static int defaultDegree = Runtime.getRuntime().availableProcessors();
+
+    private final DbIterator[] producers;
+    private final Port[] ports;
+
+    private transient Producer[] threads;
+    private transient volatile boolean stopped;
+    private transient volatile Exception failure;
+    private transient int openPorts;
+
+    /** Set the number of threads plans are run on by default. */
+    public static void setDefaultDegree(int degree) {
+        defaultDegree = degree;
+    }
+
+    /** @return the number of threads plans are run on by default */
+    public static int getDefaultDegree() {
+        return defaultDegree;
+    }
+
+    /**
+     * @param producers
+     *            The plans to run, one per thread; all with the same
+     *            TupleDesc
+     * @param consumers
+     *            The number of outputs
+     */
+    protected Exchange(DbIterator[] producers, int consumers) {
+        if (producers.length == 0 || consumers < 1)
+            throw new IllegalArgumentException("an exchange needs a producer and a consumer");
+        TupleDesc td = producers[0].getTupleDesc();
+        for (DbIterator p : producers) {
+            if (!p.getTupleDesc().equals(td))
+                throw new IllegalArgumentException("producers of an exchange return different tuples");
+        }
+        this.producers = producers;
+        ports = new Port[consumers];
+        for (int i = 0; i < consumers; i++) {
+            ports[i] = new Port(i);
+        }
+    }
+
+    /**
+     * Send a tuple from a producer to the outputs it goes to, by calling
+     * send.
+     *
+     * @param t the tuple
+     * @param out the chunks being filled, one per output
+     */
+    protected abstract void route(Tuple t, Chunks out);
+
+    /** @return a description of the exchange, for explain */
+    protected abstract String describe();
+
+    public DbIterator[] getProducers() {
+        return producers;
+    }
+
+    /** @return the number of outputs */
+    public int getConsumers() {
+        return ports.length;
+    }
+
+    /** @return output i, a DbIterator over the tuples routed to it */
+    public DbIterator getOutput(int i) {
+        return ports[i];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producers[0].getTupleDesc();
+    }
+
+    // the first output opened starts the producers
+    private synchronized void opened(Port port) {
+        if (openPorts == 0) {
+            stopped = false;
+            failure = null;
+            for (Port p : ports) {
+                p.queue = new ArrayBlockingQueue<List<Tuple>>(QUEUE_CHUNKS);
+                p.closed = false;
+            }
+            threads = new Producer[producers.length];
+            for (int i = 0; i < producers.length; i++) {
+                threads[i] = new Producer(producers[i]);
+                threads[i].start();
+            }
+        }
+        openPorts++;
+    }
+
+    // the last output closed stops the producers and waits for them
+    private synchronized void closed(Port port) {
+        port.closed = true;
+        if (--openPorts > 0)
+            return;
+        stopped = true;
+        // wakes producers waiting on the output of another exchange
+        for (Producer t : threads) {
+            t.interrupt();
+        }
+        boolean interrupted = false;
+        for (Producer t : threads) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        threads = null;
+    }
+
+    // put a chunk on the queue of an output, unless it or the exchange is
+    // closed meanwhile
+    private void put(Port port, List<Tuple> chunk) {
+        try {
+            while (!port.queue.offer(chunk, 10, TimeUnit.MILLISECONDS)) {
+                if (stopped || port.closed)
+                    return;
+            }
+        } catch (InterruptedException e) {
+            failure = new DbException("exchange producer interrupted");
+        }
+    }
+
+    /**
+     * The chunks of tuples a producer is filling, one per output.
+     */
+    protected final class Chunks {
+        private final ArrayList<List<Tuple>> chunks;
+
+        private Chunks() {
+            chunks = new ArrayList<List<Tuple>>(ports.length);
+            for (int i = 0; i < ports.length; i++) {
+                chunks.add(new ArrayList<Tuple>());
+            }
+        }
+
+        /** @return the number of outputs */
+        public int size() {
+            return chunks.size();
+        }
+
+        /** Send t to output i. */
+        public void send(int i, Tuple t) {
+            if (ports[i].closed)
+                return;
+            List<Tuple> chunk = chunks.get(i);
+            chunk.add(t);
+            if (chunk.size() == CHUNK_TUPLES) {
+                put(ports[i], chunk);
+                chunks.set(i, new ArrayList<Tuple>());
+            }
+        }
+
+        private void flush() {
+            for (int i = 0; i < chunks.size(); i++) {
+                if (!chunks.get(i).isEmpty())
+                    put(ports[i], chunks.get(i));
+                chunks.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * A thread running one producer plan.
+     */
+    private class Producer extends Thread {
+
+        private final DbIterator plan;
+
+        Producer(DbIterator plan) {
+            this.plan = plan;
+        }
+
+        public void run() {
+            Chunks out = new Chunks();
+            try {
+                plan.open();
+                try {
+                    while (!stopped && failure == null && plan.hasNext()) {
+                        route(plan.next(), out);
+                    }
+                } finally {
+                    plan.close();
+                }
+                out.flush();
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                for (Port p : ports) {
+                    put(p, DONE);
+                }
+            }
+        }
+    }
+
+    /**
+     * An output of the exchange.
+     */
+    public class Port extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private transient volatile BlockingQueue<List<Tuple>> queue;
+        private transient volatile boolean closed = true;
+        private transient boolean started; // counted in openPorts
+        private transient int finished; // producers that sent DONE
+        private transient List<Tuple> chunk;
+        private transient int pos; // the next tuple of chunk to return
+
+        Port(int index) {
+            this.index = index;
+        }
+
+        /** @return the exchange this is an output of */
+        public Exchange getExchange() {
+            return Exchange.this;
+        }
+
+        /** @return which output of the exchange this is */
+        public int getIndex() {
+            return index;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return Exchange.this.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (!started) {
+                opened(this);
+                started = true;
+            }
+            finished = 0;
+            chunk = null;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            if (started) {
+                started = false;
+                closed(this);
+            }
+            chunk = null;
+        }
+
+        /**
+         * Runs the producers again; only an exchange with a single output
+         * can be rewound on its own, once open. Rewinding an output not yet
+         * open opens it, as for a SeqScan.
+         */
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (!started) {
+                open();
+                return;
+            }
+            if (ports.length > 1)
+                throw new DbException("the outputs of an exchange can only be rewound by closing them all");
+            close();
+            open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (chunk != null && pos < chunk.size())
+                    return chunk.get(pos++);
+                if (finished == producers.length)
+                    return null;
+                try {
+                    chunk = queue.take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted waiting for an exchange");
+                }
+                pos = 0;
+                if (chunk == DONE) {
+                    finished++;
+                    chunk = null;
+                    rethrow();
+                }
+            }
+        }
+
+        // throw what a producer failed with, if one did
+        private void rethrow() throws DbException, TransactionAbortedException {
+            Exception e = failure;
+            if (e == null)
+                return;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            throw new DbException("exchange producer failed: " + e);
+        }
+
+        /** @return the producers of the exchange, each run on its own thread */
+        @Override
+        public DbIterator[] getChildren() {
+            return producers;
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            throw new UnsupportedOperationException("the producers of an exchange are fixed");
+        }
+    }
+
+    /**
+     * @return whether plans reading this many pages of tables between them
+     *   are worth running on the default number of threads
+     */
+    static boolean worthSplitting(DbIterator... plans) {
+        if (defaultDegree < 2)
+            return false;
+        long pages = 0;
+        for (DbIterator plan : plans) {
+            pages += pages(plan);
+        }
+        return pages >= ParallelScan.MIN_PAGES;
+    }
+
+    // the pages of the tables plan scans
+    private static long pages(DbIterator plan) {
+        if (plan instanceof SeqScan) {
+            DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+            return file instanceof HeapFile ? ((HeapFile) file).numPages() : 0;
+        }
+        if (plan instanceof Port)
+            return pages(((Port) plan).getExchange().producers[0]);
+        long pages = 0;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (child != null)
+                    pages += pages(child);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return plan as an indented tree of operators, showing each exchange
+     *   and how many threads run each fragment of the plan (the part of it
+     *   between exchanges)
+     */
+    public static String explain(DbIterator plan) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("fragment x1\n");
+        explain(plan, "  ", sb, new IdentityHashMap<Exchange, Boolean>());
+        return sb.toString();
+    }
+
+    private static void explain(DbIterator it, String indent, StringBuilder sb,
+                                IdentityHashMap<Exchange, Boolean> seen) {
+        if (it instanceof Port) {
+            Exchange e = ((Port) it).getExchange();
+            sb.append(indent).append(e.describe()).append(" -> output ")
+              .append(((Port) it).getIndex() + 1).append(" of ").append(e.getConsumers()).append('\n');
+            if (seen.put(e, Boolean.TRUE) != null)
+                return;
+            // the producers of an exchange are copies of one fragment, bar
+            // the outputs of other exchanges they read
+            sb.append(indent).append("  fragment x").append(e.producers.length).append('\n');
+            explain(e.producers[0], indent + "    ", sb, seen);
+            return;
+        }
+        sb.append(indent).append(it.getClass().getSimpleName());
+        if (it instanceof SeqScan)
+            sb.append(' ').append(((SeqScan) it).getAlias());
+        if (it instanceof ParallelScan)
+            sb.append(" x").append(((ParallelScan) it).getThreads()).append(" threads");
+        sb.append('\n');
+        if (it instanceof Operator) {
+            for (DbIterator child : ((Operator) it).getChildren()) {
+                if (child != null)
+                    explain(child, indent + "  ", sb, seen);
+            }
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts its child's tuples on one or more fields, like
+ * OrderBy, but holds no more than a memory budget of tuple data (counted at
+ * its size on a page) at once.
+ * <p>
+ * If the whole input fits in the budget, it is never written and is
+ * returned straight from memory. Otherwise it is cut into sorted runs,
+ * written to temporary files (see TupleFile), which are sorted and written
+ * on threads of their own while the child is read on: the budget read so
+ * far makes one run per thread, and the rest of the input runs of a
+ * thread's share of the budget each. A run being read is not counted, so
+ * up to one run more than the budget may be held. Last, the runs are
+ * merged, at most MERGE_FANIN at a time: while there are more, each pass
+ * merges every MERGE_FANIN consecutive runs into one, so a tuple is
+ * rewritten once a pass, and the last merge produces the output as it is
+ * read.
+ * <p>
+ * The sort is stable: tuples that compare equal come out in the order the
+ * child returned them, as from OrderBy.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in bytes of tuple data. */
+    public static final long DEFAULT_MEMORY_BUDGET = 4L << 20;
+    /** Most runs merged at once. */
+    public static final int MERGE_FANIN = 64;
+
+    private static volatile long defaultMemoryBudget = DEFAULT_MEMORY_BUDGET;
+    private static volatile int defaultThreads = Runtime.getRuntime().availableProcessors();
+
+    private DbIterator child;
+    private final int[] fields;
+    private final boolean[] asc;
+    private final Comparator<Tuple> comparator;
+    private long memoryBudget = defaultMemoryBudget;
+    private int threads = defaultThreads;
+
+    private ArrayList<Tuple> sorted; // the input, if it fit in memory
+    private Iterator<Tuple> it;
+    private ArrayList<TupleFile> runs; // otherwise, the runs to merge
+    private PriorityQueue<Head> heads;
+    private LinkedList<RunWriter> writers; // runs being sorted and written
+
+    // the next tuple of a run being merged
+    private static class Head {
+        Tuple tuple;
+        final TupleFile run;
+        final int order; // of the run among those merged, for stability
+
+        Head(TupleFile run, int order) {
+            this.run = run;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Creates a new sort of the tuples from the iterator.
+     *
+     * @param field
+     *            the field to sort on
+     * @param asc
+     *            true if the sort order is ascending
+     * @param child
+     *            the tuples to sort
+     */
+    public ExternalSort(int field, boolean asc, DbIterator child) {
+        this(new int[] { field }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new sort of the tuples from the iterator on several fields:
+     * each orders the tuples that are equal on the fields before it.
+     *
+     * @param fields
+     *            the fields to sort on, first to last
+     * @param asc
+     *            for each field, true if its sort order is ascending
+     * @param child
+     *            the tuples to sort
+     */
+    public ExternalSort(int[] fields, boolean[] asc, DbIterator child) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need an order for each sort field");
+        this.child = child;
+        this.fields = fields;
+        this.asc = asc;
+        comparator = new TupleComparator(fields, asc);
+    }
+
+    /**
+     * Set the memory budget of sorts created from now on.
+     *
+     * @param bytes the most tuple data a sort holds in memory
+     */
+    public static void setDefaultMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        defaultMemoryBudget = bytes;
+    }
+
+    /** @return the memory budget of sorts created from now on */
+    public static long getDefaultMemoryBudget() {
+        return defaultMemoryBudget;
+    }
+
+    /**
+     * Set the memory budget of this sort; takes effect when it is next
+     * opened.
+     *
+     * @param bytes the most tuple data to hold in memory
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        memoryBudget = bytes;
+    }
+
+    /** @return the memory budget of this sort */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set the number of threads sorts created from now on write runs with.
+     */
+    public static void setDefaultThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need a thread at least");
+        defaultThreads = threads;
+    }
+
+    /** @return the number of threads sorts created from now on use */
+    public static int getDefaultThreads() {
+        return defaultThreads;
+    }
+
+    /**
+     * Set the number of threads this sort writes runs with; takes effect
+     * when it is next opened. With one, runs are written as the child is
+     * read.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need a thread at least");
+        this.threads = threads;
+    }
+
+    /** @return the number of threads this sort writes runs with */
+    public int getThreads() {
+        return threads;
+    }
+
+    /** @return whether the sort had to write its input to temporary files */
+    public boolean spilled() {
+        return runs != null;
+    }
+
+    /** @return the first field sorted on */
+    public int getSortField() {
+        return fields[0];
+    }
+
+    /** @return true if the sort order of the first field is ascending */
+    public boolean isASC() {
+        return asc[0];
+    }
+
+    /** @return all the fields sorted on, first to last */
+    public int[] getSortFields() {
+        return fields;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        try {
+            sort();
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("can not spill sort input: " + e.getMessage());
+        } catch (DbException e) {
+            deleteRuns();
+            throw e;
+        } catch (TransactionAbortedException e) {
+            deleteRuns();
+            throw e;
+        }
+    }
+
+    private void sort() throws DbException, TransactionAbortedException, IOException {
+        int size = child.getTupleDesc().getSize();
+        long runBudget = Math.max(1, memoryBudget / threads);
+        ArrayList<Tuple> run = new ArrayList<Tuple>();
+        long bytes = 0;
+        while (child.hasNext()) {
+            if (runs == null && bytes >= memoryBudget) {
+                // the input does not fit: what was read makes a run per
+                // thread, all sorted at once
+                runs = new ArrayList<TupleFile>();
+                writers = new LinkedList<RunWriter>();
+                Tuple[] read = run.toArray(new Tuple[run.size()]);
+                for (int i = 0; i < threads; i++) {
+                    writeRun(read, (int) ((long) read.length * i / threads),
+                             (int) ((long) read.length * (i + 1) / threads));
+                }
+                run = new ArrayList<Tuple>();
+                bytes = 0;
+            } else if (runs != null && bytes >= runBudget) {
+                writeRun(run.toArray(new Tuple[run.size()]), 0, run.size());
+                run = new ArrayList<Tuple>();
+                bytes = 0;
+            }
+            run.add(child.next());
+            bytes += size;
+        }
+        if (runs == null) {
+            Collections.sort(run, comparator);
+            sorted = run;
+            it = sorted.iterator();
+            return;
+        }
+        writeRun(run.toArray(new Tuple[run.size()]), 0, run.size());
+        while (!writers.isEmpty()) {
+            finish(writers.removeFirst());
+        }
+        while (runs.size() > MERGE_FANIN) {
+            // one pass: each group of consecutive runs becomes one run in
+            // its place, so runs stay in input order and the sort stable
+            int merged = 0;
+            for (int from = 0; from < runs.size(); from += MERGE_FANIN) {
+                List<TupleFile> group = runs.subList(from, Math.min(from + MERGE_FANIN, runs.size()));
+                TupleFile longer = group.get(0);
+                if (group.size() > 1) {
+                    longer = new TupleFile(getTupleDesc());
+                    startMerge(group);
+                    for (Tuple t = nextMerged(); t != null; t = nextMerged()) {
+                        longer.add(t);
+                    }
+                    for (TupleFile f : group) {
+                        f.delete();
+                    }
+                }
+                runs.set(merged++, longer);
+            }
+            runs.subList(merged, runs.size()).clear();
+        }
+        startMerge(runs);
+    }
+
+    // sort tuples[from, to) and write it as the next run, on a thread of
+    // its own unless there is only one
+    private void writeRun(Tuple[] tuples, int from, int to) throws IOException {
+        if (from == to)
+            return;
+        RunWriter w = new RunWriter(tuples, from, to, runs.size());
+        runs.add(null);
+        if (threads == 1) {
+            w.run();
+            finish(w);
+            return;
+        }
+        while (writers.size() >= threads) {
+            finish(writers.removeFirst());
+        }
+        writers.add(w);
+        w.start();
+    }
+
+    // wait for a run to be written, and put it in its place
+    private void finish(RunWriter w) throws IOException {
+        boolean interrupted = false;
+        while (w.isAlive()) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (w.run != null)
+            runs.set(w.index, w.run);
+        if (w.failure instanceof IOException)
+            throw (IOException) w.failure;
+        if (w.failure != null)
+            throw (RuntimeException) w.failure;
+    }
+
+    /**
+     * Sorts a range of tuples, and writes them to a TupleFile as a run.
+     */
+    private class RunWriter extends Thread {
+        private final Tuple[] tuples;
+        private final int from, to;
+        final int index; // of the run, in input order
+        TupleFile run;
+        Exception failure;
+
+        RunWriter(Tuple[] tuples, int from, int to, int index) {
+            this.tuples = tuples;
+            this.from = from;
+            this.to = to;
+            this.index = index;
+        }
+
+        public void run() {
+            try {
+                // stable, as Collections.sort
+                Arrays.sort(tuples, from, to, comparator);
+                run = new TupleFile(getTupleDesc());
+                for (int i = from; i < to; i++) {
+                    run.add(tuples[i]);
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private void startMerge(List<TupleFile> group) throws DbException {
+        heads = new PriorityQueue<Head>(Math.max(1, group.size()), new Comparator<Head>() {
+            public int compare(Head h1, Head h2) {
+                int c = comparator.compare(h1.tuple, h2.tuple);
+                return c != 0 ? c : h1.order - h2.order;
+            }
+        });
+        for (int i = 0; i < group.size(); i++) {
+            TupleFile f = group.get(i);
+            f.open();
+            if (f.hasNext()) {
+                Head h = new Head(f, i);
+                h.tuple = f.next();
+                heads.add(h);
+            }
+        }
+    }
+
+    private Tuple nextMerged() throws DbException {
+        Head h = heads.poll();
+        if (h == null)
+            return null;
+        Tuple t = h.tuple;
+        if (h.run.hasNext()) {
+            h.tuple = h.run.next();
+            heads.add(h);
+        } else {
+            h.run.close();
+        }
+        return t;
+    }
+
+    private void deleteRuns() {
+        if (writers != null) {
+            while (!writers.isEmpty()) {
+                try {
+                    finish(writers.removeFirst());
+                } catch (IOException e) {
+                    // its run is deleted below, if it was made
+                }
+            }
+            writers = null;
+        }
+        if (runs != null) {
+            for (TupleFile f : runs) {
+                if (f != null)
+                    f.delete();
+            }
+        }
+        runs = null;
+        heads = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        deleteRuns();
+        sorted = null;
+        it = null;
+    }
+
+    /**
+     * Start over, from the sorted tuples in memory or by merging the runs
+     * again; the child is not read again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (runs != null)
+            startMerge(runs);
+        else
+            it = sorted.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child
+     * operator in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (runs != null)
+            return nextMerged();
+        return it != null && it.hasNext() ? it.next() : null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
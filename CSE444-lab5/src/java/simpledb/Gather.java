@@ -0,0 +1,33 @@
+package simpledb;
+
+/**
+ * Gather is an Exchange that runs several plans, usually copies of one
+ * plan over different parts of the data, on a thread each, and merges
+ * their tuples into one output.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param producers
+     *            The plans to run, one per thread; all with the same
+     *            TupleDesc
+     */
+    public Gather(DbIterator[] producers) {
+        super(producers, 1);
+    }
+
+    /** @return the single output */
+    public DbIterator getOutput() {
+        return getOutput(0);
+    }
+
+    protected void route(Tuple t, Chunks out) {
+        out.send(0, t);
+    }
+
+    protected String describe() {
+        return "Gather";
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * GroupCommit batches log forces of concurrent committers.
+ * <p>
+ * A committer appends its record, then calls {@link #await} with the log
+ * position it needs on disk. The first waiter becomes the leader: it may
+ * linger up to maxWait for more committers to join (or until maxBatch of
+ * them are waiting), then forces the log once for the whole batch. Everyone
+ * whose position was covered by that force returns; anyone left over elects
+ * the next leader. Committers that arrive while a force is running simply
+ * wait for the next one, so even with maxWait 0 the batches grow with load.
+ * <p>
+ * Positions are any monotonically increasing numbering of log appends.
+ *
+ * @Threadsafe
+ */
+public class GroupCommit {
+
+    /** Forces the log and reports how far it is now durable. */
+    public interface Flusher {
+        /**
+         * Force everything appended so far to disk.
+         * @return the position up to which the log is now durable
+         */
+        long flush() throws IOException;
+    }
+
+    /** Default time a leader waits for its batch to fill, in microseconds. */
+    public static final long DEFAULT_MAX_WAIT_MICROS = 200;
+    /** Default number of waiting committers that triggers a force at once. */
+    public static final int DEFAULT_MAX_BATCH = 32;
+
+    private final Flusher flusher;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition durableChanged = lock.newCondition();
+    private final Condition batchFull = lock.newCondition();
+
+    private long durable = 0;  // protected by lock
+    private boolean leaderActive = false;  // protected by lock
+    private int waiting = 0;  // protected by lock
+    private volatile long maxWaitNanos;
+    private volatile int maxBatch;
+
+    private long forces = 0;  // protected by lock
+    private long commits = 0;  // protected by lock
+
+    public GroupCommit(Flusher flusher) {
+        this.flusher = flusher;
+        setPolicy(DEFAULT_MAX_WAIT_MICROS, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * Tune the batching policy.
+     *
+     * @param maxWaitMicros how long a leader waits for its batch to fill;
+     *   0 forces as soon as a leader is elected
+     * @param maxBatch force immediately once this many committers wait
+     */
+    public void setPolicy(long maxWaitMicros, int maxBatch) {
+        if (maxWaitMicros < 0 || maxBatch < 1)
+            throw new IllegalArgumentException("invalid group commit policy");
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Block until the log is durable up to position pos, forcing it as
+     * the leader of a batch if no one else is doing so.
+     *
+     * @param linger whether a leader should wait for the batch to fill
+     *   before forcing. Callers holding other locks, or that know no one
+     *   else is about to commit, should pass false.
+     */
+    public void await(long pos, boolean linger) throws IOException {
+        lock.lock();
+        try {
+            waiting++;
+            commits++;
+            if (waiting >= maxBatch)
+                batchFull.signal();
+            while (durable < pos) {
+                if (leaderActive) {
+                    durableChanged.awaitUninterruptibly();
+                    continue;
+                }
+                leaderActive = true;
+                long flushed = -1;
+                try {
+                    long nanos = linger ? maxWaitNanos : 0;
+                    while (waiting < maxBatch && nanos > 0) {
+                        nanos = batchFull.awaitNanos(nanos);
+                    }
+                    lock.unlock();
+                    try {
+                        flushed = flusher.flush();
+                    } finally {
+                        lock.lock();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    leaderActive = false;
+                    if (flushed > durable) {
+                        durable = flushed;
+                        forces++;
+                    }
+                    // wake followers either way, so one of them can lead if we failed
+                    durableChanged.signalAll();
+                }
+            }
+        } finally {
+            waiting--;
+            lock.unlock();
+        }
+    }
+
+    /** Record that the log was forced up to pos outside of a batch. */
+    public void forced(long pos) {
+        lock.lock();
+        try {
+            if (pos > durable) {
+                durable = pos;
+                durableChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the position up to which the log is known to be durable */
+    public long durable() {
+        lock.lock();
+        try {
+            return durable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the average number of commits covered by one force */
+    public double averageBatchSize() {
+        lock.lock();
+        try {
+            return forces == 0 ? 0 : (double) commits / forces;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
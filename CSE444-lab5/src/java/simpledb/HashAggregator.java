@@ -0,0 +1,504 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * HashAggregator computes MIN, MAX, SUM, AVG or COUNT of one column, over
+ * all the tuples merged into it or grouped by another column, with the same
+ * output as IntegerAggregator and StringAggregator.
+ * <p>
+ * Groups are found in an open-addressing hash table of ints, probed once
+ * per tuple: the probe that misses the key stops at the empty slot it is
+ * added in. INT_TYPE keys are kept as ints, and STRING_TYPE keys as bytes
+ * back to back in one array, so no Field or map entry is made per group.
+ * The count, sum, min and max of each group are longs in one array, four
+ * to a group. Sums can not overflow before 2^32 tuples, so AVG divides
+ * the exact sum; a result that does not fit the INT_TYPE output is a
+ * DbException rather than a wrong value.
+ * <p>
+ * No more than a memory budget of groups is held at once. Once it is
+ * reached, tuples of groups already in the table are still merged into
+ * them, but tuples of new groups are written to temporary files (see
+ * TupleFile), split by a hash of the group into partitions. When the
+ * output is read, each partition is aggregated in turn by a HashAggregator
+ * of its own, with another hash function, so one that still does not fit
+ * is split again. Every partition holds fewer groups than the one it came
+ * from, as the table always takes some.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in bytes of groups. */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L << 20;
+    /** Number of partitions the tuples of new groups are split into. */
+    public static final int FANOUT = 16;
+    /** Groups kept in the table whatever the budget. */
+    public static final int MIN_GROUPS = 64;
+
+    private static volatile long defaultMemoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    // what is kept per group, at acc[group * STATE + ...]
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3, STATE = 4;
+    // bytes of a group besides its key: its state, and two slots of the
+    // table at most half full
+    private static final int GROUP_BYTES = STATE * 8 + 2 * 4 + 4;
+
+    private final int gfield;
+    private final Type gtype;
+    private final int afield;
+    private final Type atype;
+    private final Op what;
+    private final int level; // partitioning rounds so far; seeds the hash
+    private long memoryBudget = defaultMemoryBudget;
+
+    private int[] slots; // group + 1, or 0 if empty; a power of two long
+    private int groups;
+    private long[] acc;
+    private int[] intKeys; // INT_TYPE groups: the key of each group
+    private int[] hashes; // STRING_TYPE groups: the hash of each key
+    private int[] starts; // and where each key starts in keyBytes
+    private byte[] keyBytes;
+    private int keyEnd;
+    private byte[] scratch = new byte[2 * Type.STRING_LEN + 1]; // the key probed
+    private int scratchLen;
+    private long bytes; // memory held by the groups
+    private boolean full; // the budget is reached: new groups are spilled
+
+    private TupleDesc spillTd;
+    private TupleFile[] parts; // when spilled: tuples of new groups, null if none
+    private TupleFile results; // and the groups of all partitions, once read
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field; if it is not INT_TYPE, what
+     *            must be COUNT
+     * @param what
+     *            the aggregation operator; one of MIN, MAX, SUM, AVG and
+     *            COUNT
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        this(gbfield, gbfieldtype, afield, afieldtype, what, 0);
+    }
+
+    private HashAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype,
+                           Op what, int level) {
+        switch (what) {
+        case MIN:
+        case MAX:
+        case SUM:
+        case AVG:
+        case COUNT:
+            break;
+        default:
+            throw new IllegalArgumentException("can not aggregate " + what);
+        }
+        if (afieldtype != Type.INT_TYPE && what != Op.COUNT)
+            throw new IllegalArgumentException("can only count " + afieldtype);
+        this.gfield = gbfield;
+        this.gtype = gbfieldtype;
+        this.afield = afield;
+        this.atype = afieldtype;
+        this.what = what;
+        this.level = level;
+        slots = new int[16];
+        acc = new long[gbfield == NO_GROUPING ? STATE : 8 * STATE];
+        if (gbfield == NO_GROUPING) {
+            initState(0);
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            intKeys = new int[8];
+        } else {
+            hashes = new int[8];
+            starts = new int[9];
+            keyBytes = new byte[256];
+        }
+    }
+
+    /**
+     * Set the memory budget of aggregators created from now on.
+     *
+     * @param bytes the most memory the groups of an aggregator take
+     */
+    public static void setDefaultMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        defaultMemoryBudget = bytes;
+    }
+
+    /** @return the memory budget of aggregators created from now on */
+    public static long getDefaultMemoryBudget() {
+        return defaultMemoryBudget;
+    }
+
+    /**
+     * Set the memory budget of this aggregator; takes effect at the next
+     * new group.
+     *
+     * @param bytes the most memory the groups take
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        memoryBudget = bytes;
+    }
+
+    /** @return whether tuples had to be written to temporary files */
+    public boolean spilled() {
+        return parts != null;
+    }
+
+    private void initState(int g) {
+        int s = g * STATE;
+        acc[s + COUNT] = 0;
+        acc[s + SUM] = 0;
+        acc[s + MIN] = Integer.MAX_VALUE;
+        acc[s + MAX] = Integer.MIN_VALUE;
+    }
+
+    // a hash of h, different at each level
+    private int mix(int h) {
+        h ^= level * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor.
+     *
+     * @throws DbException if the tuple is of a new group, and can not be
+     *         written to its partition
+     */
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        int g;
+        if (gfield == NO_GROUPING) {
+            g = 0;
+        } else {
+            int h;
+            if (intKeys != null) {
+                int key = ((IntField) tup.getField(gfield)).getValue();
+                h = mix(key);
+                g = probeInt(key, h);
+            } else {
+                h = mix(encode(((StringField) tup.getField(gfield)).getValue()));
+                g = probeBytes(h);
+            }
+            if (g < 0) {
+                spill(tup, h);
+                return;
+            }
+        }
+        int s = g * STATE;
+        acc[s + COUNT]++;
+        if (atype == Type.INT_TYPE) {
+            int v = ((IntField) tup.getField(afield)).getValue();
+            acc[s + SUM] += v;
+            if (v < acc[s + MIN])
+                acc[s + MIN] = v;
+            if (v > acc[s + MAX])
+                acc[s + MAX] = v;
+        }
+    }
+
+    // the group of key, added if new and there is room, or -1
+    private int probeInt(int key, int h) {
+        int mask = slots.length - 1;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            int g = slots[i];
+            if (g == 0) {
+                if (full)
+                    return -1;
+                g = addGroup(4);
+                intKeys[g] = key;
+                slots[i] = g + 1;
+                growTable();
+                return g;
+            }
+            if (intKeys[g - 1] == key)
+                return g - 1;
+        }
+    }
+
+    // the group of the key in scratch, added if new and there is room, or -1
+    private int probeBytes(int h) {
+        int mask = slots.length - 1;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            int g = slots[i];
+            if (g == 0) {
+                if (full)
+                    return -1;
+                g = addGroup(scratchLen + 8);
+                hashes[g] = h;
+                if (keyEnd + scratchLen > keyBytes.length)
+                    keyBytes = Arrays.copyOf(keyBytes, Math.max(2 * keyBytes.length,
+                                                                keyEnd + scratchLen));
+                System.arraycopy(scratch, 0, keyBytes, keyEnd, scratchLen);
+                keyEnd += scratchLen;
+                starts[g + 1] = keyEnd;
+                slots[i] = g + 1;
+                growTable();
+                return g;
+            }
+            g--;
+            if (hashes[g] == h && sameKey(g))
+                return g;
+        }
+    }
+
+    private boolean sameKey(int g) {
+        int start = starts[g];
+        if (starts[g + 1] - start != scratchLen)
+            return false;
+        for (int i = 0; i < scratchLen; i++) {
+            if (keyBytes[start + i] != scratch[i])
+                return false;
+        }
+        return true;
+    }
+
+    // write s to scratch, returning the hash of its bytes: a zero and a byte
+    // per char if all fit in one, as on a page, and otherwise a one and two
+    // bytes per char
+    private int encode(String s) {
+        int n = s.length();
+        boolean narrow = true;
+        for (int i = 0; i < n && narrow; i++) {
+            narrow = s.charAt(i) < 0x100;
+        }
+        int len = narrow ? n + 1 : 2 * n + 1;
+        if (len > scratch.length)
+            scratch = new byte[len];
+        scratch[0] = (byte) (narrow ? 0 : 1);
+        int h = scratch[0];
+        for (int i = 0, j = 1; i < n; i++) {
+            char c = s.charAt(i);
+            if (!narrow) {
+                scratch[j++] = (byte) (c >>> 8);
+                h = 31 * h + (c >>> 8);
+            }
+            scratch[j++] = (byte) c;
+            h = 31 * h + (c & 0xFF);
+        }
+        scratchLen = len;
+        return h;
+    }
+
+    // make room for a new group of keyBytes bytes of key
+    private int addGroup(int keyBytes) {
+        int g = groups++;
+        if (groups * STATE > acc.length) {
+            acc = Arrays.copyOf(acc, 2 * acc.length);
+            if (intKeys != null) {
+                intKeys = Arrays.copyOf(intKeys, 2 * intKeys.length);
+            } else {
+                hashes = Arrays.copyOf(hashes, 2 * hashes.length);
+                starts = Arrays.copyOf(starts, hashes.length + 1);
+            }
+        }
+        initState(g);
+        bytes += GROUP_BYTES + keyBytes;
+        if (bytes >= memoryBudget && groups >= MIN_GROUPS)
+            full = true;
+        return g;
+    }
+
+    // keep the table at most half full
+    private void growTable() {
+        if (2 * groups <= slots.length)
+            return;
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int g = 0; g < groups; g++) {
+            int i = (intKeys != null ? mix(intKeys[g]) : hashes[g]) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = g + 1;
+        }
+    }
+
+    // write a tuple of a group not in the table to its partition; the
+    // table takes the low bits of the hash, and partitions the high ones
+    private void spill(Tuple tup, int h) throws DbException {
+        if (parts == null) {
+            parts = new TupleFile[FANOUT];
+            spillTd = new TupleDesc(new Type[] { gtype, atype });
+        }
+        int part = (h >>> 28) % FANOUT;
+        try {
+            if (parts[part] == null)
+                parts[part] = new TupleFile(spillTd);
+            Tuple t = new Tuple(spillTd);
+            t.setField(0, tup.getField(gfield));
+            t.setField(1, tup.getField(afield));
+            parts[part].add(t);
+        } catch (IOException e) {
+            throw new DbException("can not spill aggregate input: " + e.getMessage());
+        }
+    }
+
+    // aggregate each partition in turn, writing its groups to results
+    private void aggregatePartitions() throws DbException, TransactionAbortedException {
+        try {
+            results = new TupleFile(outputDesc());
+            for (int i = 0; i < FANOUT; i++) {
+                if (parts[i] == null)
+                    continue;
+                HashAggregator part = new HashAggregator(0, gtype, 1, atype, what, level + 1);
+                part.setMemoryBudget(memoryBudget);
+                parts[i].open();
+                while (parts[i].hasNext()) {
+                    part.mergeTupleIntoGroup(parts[i].next());
+                }
+                parts[i].delete();
+                parts[i] = null;
+                DbIterator it = part.iterator();
+                it.open();
+                while (it.hasNext()) {
+                    results.add(it.next());
+                }
+                it.close();
+                part.delete();
+            }
+        } catch (IOException e) {
+            throw new DbException("can not spill aggregate output: " + e.getMessage());
+        }
+    }
+
+    /** Delete the temporary files of spilled tuples and groups, if any. */
+    public void delete() {
+        if (parts != null) {
+            for (TupleFile f : parts) {
+                if (f != null)
+                    f.delete();
+            }
+        }
+        if (results != null)
+            results.delete();
+    }
+
+    private TupleDesc outputDesc() {
+        if (gfield == NO_GROUPING)
+            return new TupleDesc(new Type[] { Type.INT_TYPE });
+        return new TupleDesc(new Type[] { gtype, Type.INT_TYPE });
+    }
+
+    // the result of group g, which must fit the INT_TYPE output
+    private int result(int g) throws DbException {
+        int s = g * STATE;
+        long v;
+        switch (what) {
+        case MIN:
+            v = acc[s + MIN];
+            break;
+        case MAX:
+            v = acc[s + MAX];
+            break;
+        case SUM:
+            v = acc[s + SUM];
+            break;
+        case AVG:
+            v = acc[s + SUM] / acc[s + COUNT];
+            break;
+        default:
+            v = acc[s + COUNT];
+        }
+        if (v != (int) v)
+            throw new DbException(what + " of " + v + " does not fit an int");
+        return (int) v;
+    }
+
+    private Field key(int g) {
+        if (intKeys != null)
+            return new IntField(intKeys[g]);
+        int start = starts[g];
+        int len = starts[g + 1] - start;
+        String s = keyBytes[start] == 0
+            ? new String(keyBytes, start + 1, len - 1, StandardCharsets.ISO_8859_1)
+            : new String(keyBytes, start + 1, len - 1, StandardCharsets.UTF_16BE);
+        return new StringField(s, Type.STRING_LEN);
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results. The groups in the
+     * table come first, then those of the partitions, which are aggregated
+     * when it is first opened. Without grouping, the AVG of no tuples is no
+     * tuple at all.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping.
+     */
+    public DbIterator iterator() {
+        return new Groups();
+    }
+
+    private class Groups implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td = outputDesc();
+        private int next = -1; // the next group of the table; -1 if closed
+        private int count;
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (parts != null && results == null)
+                aggregatePartitions();
+            if (results != null)
+                results.open();
+            next = 0;
+            count = gfield != NO_GROUPING ? groups
+                : what != Op.AVG || acc[COUNT] > 0 ? 1 : 0;
+        }
+
+        public boolean hasNext() throws DbException {
+            if (next < 0)
+                throw new IllegalStateException("aggregate not open");
+            return next < count || results != null && results.hasNext();
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (next == count)
+                return results.next();
+            Tuple t = new Tuple(td);
+            if (gfield == NO_GROUPING) {
+                t.setField(0, new IntField(result(next)));
+            } else {
+                t.setField(0, key(next));
+                t.setField(1, new IntField(result(next)));
+            }
+            next++;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (results != null)
+                results.close();
+            next = -1;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashBucketPage holds the entries of a bucket of a HashIndexFile, in no
+ * particular order, and the page number of its next overflow page. The
+ * first page of a bucket also holds its local depth: the number of top
+ * bits of the hash that all its keys share.
+ * <p>
+ * The format is the integer local depth, the integer count of entries,
+ * the integer page number of the next page of the bucket (0 for none),
+ * then the entries, each a key and two integers for the page number and
+ * slot of its tuple.
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+
+    private int depth;
+    private final ArrayList<BTreeEntry> entries;
+    private int next;
+
+    /**
+     * Create a bucket page from bytes read from disk, or from zeros for an
+     * empty one.
+     */
+    public HashBucketPage(HashPageId pid, Type keyType, byte[] data) throws IOException {
+        super(pid, keyType, data);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        depth = in.readInt();
+        int n = in.readInt();
+        if (n < 0 || n > capacity(keyType))
+            throw new IOException("bad hash bucket " + pid);
+        next = in.readInt();
+        entries = new ArrayList<BTreeEntry>(n);
+        for (int i = 0; i < n; i++) {
+            Field key;
+            try {
+                key = keyType.parse(in);
+            } catch (java.text.ParseException e) {
+                throw new IOException("bad key on " + pid);
+            }
+            entries.add(new BTreeEntry(key, in.readInt(), in.readInt()));
+        }
+    }
+
+    /** @return the number of entries a bucket page holds */
+    public static int capacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / BTreeEntry.size(keyType);
+    }
+
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    public boolean isFull() {
+        return entries.size() >= capacity(keyType);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /** @return the page number of the next page of the bucket, or 0 */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    /** @return a copy of the entries */
+    List<BTreeEntry> entries() {
+        return new ArrayList<BTreeEntry>(entries);
+    }
+
+    boolean contains(BTreeEntry e) {
+        return entries.indexOf(e) >= 0;
+    }
+
+    /** Add an entry; the page must not be full. */
+    void insert(BTreeEntry e) {
+        if (isFull())
+            throw new IllegalStateException("bucket page is full");
+        entries.add(e);
+    }
+
+    /** @return whether the entry was there to delete */
+    boolean delete(BTreeEntry e) {
+        return entries.remove(e);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(entries.size());
+        out.writeInt(next);
+        for (BTreeEntry e : entries) {
+            e.write(out);
+        }
+    }
+}
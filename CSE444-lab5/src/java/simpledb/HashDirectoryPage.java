@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * HashDirectoryPage is page 0 of a HashIndexFile: the directory of an
+ * extendible hash table. It has a global depth d and 2^d slots, each the
+ * page number of a bucket; a key goes in the bucket of the slot numbered by
+ * the top d bits of its hash (see HashIndexFile#hash). Several slots share
+ * a bucket whose local depth is below d.
+ * <p>
+ * The format is the integer global depth, then the integer page number of
+ * each slot. An empty file reads as an empty directory: depth 0, and one
+ * slot with page number 0, for no bucket yet.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private int depth;
+    private int[] slots;
+
+    /**
+     * Create the directory from bytes read from disk.
+     */
+    public HashDirectoryPage(HashPageId pid, Type keyType, byte[] data) throws IOException {
+        super(pid, keyType, data);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        depth = in.readInt();
+        if (depth < 0 || depth > maxDepth())
+            throw new IOException("bad hash directory " + pid);
+        slots = new int[1 << depth];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = in.readInt();
+        }
+    }
+
+    /** @return the most global depth whose slots fit on a page */
+    public static int maxDepth() {
+        int slots = (BufferPool.getPageSize() - 4) / 4;
+        return 31 - Integer.numberOfLeadingZeros(slots);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /** @return the page number of the bucket of the given hash, or 0 */
+    public int bucketFor(int hash) {
+        return slots[slot(hash, depth)];
+    }
+
+    /** @return the slot of hash in a directory of the given depth */
+    static int slot(int hash, int depth) {
+        return depth == 0 ? 0 : hash >>> (32 - depth);
+    }
+
+    void setSlot(int slot, int pgNo) {
+        slots[slot] = pgNo;
+    }
+
+    int getSlot(int slot) {
+        return slots[slot];
+    }
+
+    /**
+     * Double the slots; each slot becomes two, both with its bucket.
+     */
+    void grow() {
+        if (depth == maxDepth())
+            throw new IllegalStateException("hash directory is full");
+        int[] grown = new int[slots.length * 2];
+        for (int i = 0; i < grown.length; i++) {
+            grown[i] = slots[i >> 1];
+        }
+        slots = grown;
+        depth++;
+    }
+
+    /** @return the distinct bucket page numbers, in slot order */
+    int[] buckets() {
+        int n = 0;
+        int[] result = new int[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != 0 && (n == 0 || result[n - 1] != slots[i]))
+                result[n++] = slots[i];
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(depth);
+        for (int s : slots) {
+            out.writeInt(s);
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is an extendible hash index on one field of a table (see
+ * IndexFile), for equality lookups: a lookup reads the directory, page 0
+ * (see HashDirectoryPage), and the one bucket it points to, whatever the
+ * size of the index.
+ * <p>
+ * A full bucket splits in two by one more bit of the hash; only its entries
+ * move, and the directory doubles (a copy of its slots, on its one page)
+ * only when the bucket already uses as many bits as the directory. A bucket
+ * that can not split, because the directory is as large as a page allows
+ * or because all its keys hash alike, grows a chain of overflow pages.
+ * Deletes never merge buckets.
+ * <p>
+ * Every page is read and written through the BufferPool, so the index is
+ * locked, logged and recovered like any table. Lookups and inserts lock
+ * the directory shared and their bucket; only an insert into a full bucket
+ * starts over with the directory locked exclusively, to split it. Shared
+ * locks are released as the BufferPool allows (see
+ * BufferPool#doneReadingPage), each only once the next page is locked, so
+ * a reader never sees a bucket halfway through a split.
+ */
+public class HashIndexFile implements IndexFile {
+
+    private static final int DIRECTORY_PGNO = 0;
+
+    private final File f;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+    private final int id;
+
+    /**
+     * Constructs a hash index backed by the specified file, which may be
+     * empty or not exist yet, for an empty index.
+     *
+     * @param f the file that stores the index
+     * @param tableId the id of the table the index indexes
+     * @param keyField the index of the field of the table it indexes
+     * @param keyType the type of that field
+     */
+    public HashIndexFile(File f, int tableId, int keyField, Type keyType) {
+        this.f = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.keyType = keyType;
+        td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                           new String[] { "key", "page", "slot" });
+        id = f.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the TupleDesc of the entries: the key, and the page number
+     *   and slot of the tuple
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getIndexedTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** Returns the number of pages in the file, the directory included. */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the hash of a key; its top bits pick the bucket. Spread out,
+     *   since the hash codes of IntFields are their values.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof HashPageId) || pid.getTableId() != id || pid.pageNumber() < 0)
+            throw new IllegalArgumentException("page " + pid + " is not in this file");
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            // pages past the end read as zeros: an empty directory or bucket
+            if (f.exists()) {
+                RandomAccessFile rf = new RandomAccessFile(f, "r");
+                try {
+                    rf.seek((long) pid.pageNumber() * data.length);
+                    rf.read(data);
+                } finally {
+                    rf.close();
+                }
+            }
+            return HashPage.create((HashPageId) pid, keyType, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can not read page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        try {
+            rf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+            rf.write(page.getPageData());
+        } finally {
+            rf.close();
+        }
+    }
+
+    private HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(id, pgNo), perm);
+    }
+
+    private void doneReading(TransactionId tid, Page p) {
+        Database.getBufferPool().doneReadingPage(tid, p.getId());
+    }
+
+    // the entry an entry tuple stands for
+    private BTreeEntry toEntry(Tuple t) throws DbException {
+        if (t.getTupleDesc().numFields() != 3 || !t.getField(0).getType().equals(keyType))
+            throw new DbException("not an entry of this index: " + t);
+        return new BTreeEntry(t.getField(0), ((IntField) t.getField(1)).getValue(),
+                              ((IntField) t.getField(2)).getValue());
+    }
+
+    private Tuple toTuple(BTreeEntry e) {
+        Tuple t = new Tuple(td);
+        t.setField(0, e.key);
+        t.setField(1, new IntField(e.page));
+        t.setField(2, new IntField(e.slot));
+        return t;
+    }
+
+    /**
+     * Lock the pages of the bucket of a hash with perm, the directory on the
+     * way shared.
+     *
+     * @return the pages of the bucket, in order; empty if there is no bucket
+     */
+    private ArrayList<HashBucketPage> findBucket(TransactionId tid, int hash, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, DIRECTORY_PGNO, Permissions.READ_ONLY);
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        Page last = dir;
+        for (int pgNo = dir.bucketFor(hash); pgNo != 0; ) {
+            HashBucketPage p = (HashBucketPage) getPage(tid, pgNo, perm);
+            doneReading(tid, last);
+            chain.add(p);
+            last = p;
+            pgNo = p.getNext();
+        }
+        doneReading(tid, last);
+        return chain;
+    }
+
+    /**
+     * Inserts an entry, a tuple of this index's TupleDesc (see
+     * IndexFile#entry).
+     *
+     * @throws DbException if the entry is already in the index
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeEntry e = toEntry(t);
+        ArrayList<HashBucketPage> chain = findBucket(tid, hash(e.key), Permissions.READ_WRITE);
+        HashBucketPage room = roomFor(chain, e);
+        if (room == null)
+            return insertSplitting(tid, e);
+        room.insert(e);
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(room);
+        return dirty;
+    }
+
+    // the first page of a bucket with room for e, or null if all are full
+    private HashBucketPage roomFor(List<HashBucketPage> chain, BTreeEntry e) throws DbException {
+        HashBucketPage room = null;
+        for (HashBucketPage p : chain) {
+            if (p.contains(e))
+                throw new DbException("entry already in index: " + toTuple(e));
+            if (room == null && !p.isFull())
+                room = p;
+        }
+        return room;
+    }
+
+    // insert with the directory locked exclusively, splitting the bucket
+    // until there is room, or else growing its overflow chain
+    private ArrayList<Page> insertSplitting(TransactionId tid, BTreeEntry e)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> dirty = new LinkedHashSet<Page>();
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, DIRECTORY_PGNO, Permissions.READ_WRITE);
+        int hash = hash(e.key);
+        while (true) {
+            int pgNo = dir.bucketFor(hash);
+            if (pgNo == 0) {
+                HashBucketPage bucket = allocate(tid);
+                bucket.insert(e);
+                dir.setSlot(0, bucket.getId().pageNumber());
+                dirty.add(dir);
+                dirty.add(bucket);
+                return new ArrayList<Page>(dirty);
+            }
+            ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+            for (; pgNo != 0; pgNo = chain.get(chain.size() - 1).getNext()) {
+                chain.add((HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE));
+            }
+            HashBucketPage room = roomFor(chain, e);
+            if (room != null) {
+                // another transaction made room since this one looked
+                room.insert(e);
+                dirty.add(room);
+                return new ArrayList<Page>(dirty);
+            }
+
+            HashBucketPage first = chain.get(0);
+            if (first.getDepth() < HashDirectoryPage.maxDepth() && !sameHash(chain, hash)) {
+                split(tid, dir, chain, hash, dirty);
+                continue;
+            }
+            HashBucketPage overflow = allocate(tid);
+            overflow.setDepth(first.getDepth());
+            overflow.insert(e);
+            chain.get(chain.size() - 1).setNext(overflow.getId().pageNumber());
+            dirty.add(chain.get(chain.size() - 1));
+            dirty.add(overflow);
+            return new ArrayList<Page>(dirty);
+        }
+    }
+
+    // whether every entry of a bucket has the given hash, so no split can
+    // separate them
+    private static boolean sameHash(List<HashBucketPage> chain, int hash) {
+        for (HashBucketPage p : chain) {
+            for (BTreeEntry e : p.entries()) {
+                if (hash(e.key) != hash)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split a bucket by the next bit of the hash: the slots and entries with
+     * the bit set move to a new bucket. The bucket keeps its pages, some of
+     * them maybe empty.
+     *
+     * @param hash a hash in the bucket, to find its slots by
+     */
+    private void split(TransactionId tid, HashDirectoryPage dir, List<HashBucketPage> chain,
+                       int hash, Set<Page> dirty) throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage first = chain.get(0);
+        int local = first.getDepth();
+        if (local == dir.getDepth())
+            dir.grow();
+        int global = dir.getDepth();
+        dirty.add(dir);
+
+        ArrayList<BTreeEntry> stay = new ArrayList<BTreeEntry>();
+        ArrayList<BTreeEntry> move = new ArrayList<BTreeEntry>();
+        for (HashBucketPage p : chain) {
+            for (BTreeEntry e : p.entries()) {
+                if (((hash(e.key) >>> (31 - local)) & 1) == 0)
+                    stay.add(e);
+                else
+                    move.add(e);
+            }
+            p.clear();
+            dirty.add(p);
+        }
+
+        HashBucketPage sibling = allocate(tid);
+        first.setDepth(local + 1);
+        sibling.setDepth(local + 1);
+        // the slots of the bucket share their top local bits; the upper
+        // half of them have the next bit set
+        int span = 1 << (global - local);
+        int start = (HashDirectoryPage.slot(hash, global) >>> (global - local)) << (global - local);
+        for (int s = start + span / 2; s < start + span; s++) {
+            dir.setSlot(s, sibling.getId().pageNumber());
+        }
+        fill(tid, chain, stay, dirty);
+        ArrayList<HashBucketPage> siblings = new ArrayList<HashBucketPage>();
+        siblings.add(sibling);
+        fill(tid, siblings, move, dirty);
+    }
+
+    // put entries on the pages of a bucket, adding overflow pages if needed
+    private void fill(TransactionId tid, List<HashBucketPage> chain, List<BTreeEntry> entries,
+                      Set<Page> dirty) throws DbException, IOException, TransactionAbortedException {
+        int i = 0;
+        HashBucketPage p = chain.get(i);
+        for (BTreeEntry e : entries) {
+            while (p.isFull()) {
+                if (++i == chain.size()) {
+                    HashBucketPage overflow = allocate(tid);
+                    overflow.setDepth(chain.get(0).getDepth());
+                    p.setNext(overflow.getId().pageNumber());
+                    chain.add(overflow);
+                }
+                p = chain.get(i);
+            }
+            p.insert(e);
+        }
+        dirty.addAll(chain);
+    }
+
+    /**
+     * Add an empty bucket page at the end of the file, and lock it
+     * exclusively. Only called with the directory locked exclusively, which
+     * keeps other transactions from adding pages at the same time. A page
+     * added by a transaction that aborts stays in the file, unused.
+     */
+    private HashBucketPage allocate(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = Math.max(DIRECTORY_PGNO + 1, numPages());
+        HashPageId pid = new HashPageId(id, pgNo);
+        writePage(new HashBucketPage(pid, keyType, new byte[BufferPool.getPageSize()]));
+        return (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Deletes an entry, a tuple of this index's TupleDesc (see
+     * IndexFile#entry).
+     *
+     * @throws DbException if the entry is not in the index
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeEntry e = toEntry(t);
+        for (HashBucketPage p : findBucket(tid, hash(e.key), Permissions.READ_WRITE)) {
+            if (p.delete(e)) {
+                ArrayList<Page> dirty = new ArrayList<Page>();
+                dirty.add(p);
+                return dirty;
+            }
+        }
+        throw new DbException("entry not in index: " + t);
+    }
+
+    /** @return an iterator over all the entries, bucket by bucket */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null);
+    }
+
+    /** @return whether op is EQUALS, the only lookup a hash index can do */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field key) {
+        if (!supports(op))
+            throw new UnsupportedOperationException("hash index can not look up " + op);
+        return new EntryIterator(tid, key);
+    }
+
+    // reads the pages of the bucket of key, or of every bucket
+    private class EntryIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final Field key; // null for all entries
+        private int[] buckets; // the first pages of the buckets to read
+        private int bucket; // the next one
+        private Iterator<BTreeEntry> entries; // of the page being read
+        private HashBucketPage current;
+        private BTreeEntry pending;
+
+        EntryIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, DIRECTORY_PGNO,
+                                                                Permissions.READ_ONLY);
+            if (key == null) {
+                buckets = dir.buckets();
+            } else {
+                int pgNo = dir.bucketFor(hash(key));
+                buckets = pgNo == 0 ? new int[0] : new int[] { pgNo };
+            }
+            bucket = 0;
+            pending = null;
+            entries = Collections.<BTreeEntry>emptyList().iterator();
+            current = null;
+            // the directory stays locked until the first bucket is
+            read(dir, nextPage());
+        }
+
+        // the page to read after current, or 0
+        private int nextPage() {
+            if (current != null && current.getNext() != 0)
+                return current.getNext();
+            return bucket < buckets.length ? buckets[bucket++] : 0;
+        }
+
+        // lock and read page pgNo, then let go of the page read before it
+        private void read(Page before, int pgNo) throws DbException, TransactionAbortedException {
+            if (pgNo != 0) {
+                current = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_ONLY);
+                entries = current.entries().iterator();
+            } else {
+                current = null;
+            }
+            if (before != null)
+                doneReading(tid, before);
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (entries == null)
+                return false; // not open
+            while (pending == null) {
+                if (entries.hasNext()) {
+                    BTreeEntry e = entries.next();
+                    if (key == null || e.key.equals(key))
+                        pending = e;
+                } else if (current != null) {
+                    read(current, nextPage());
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = toTuple(pending);
+            pending = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            entries = null;
+            pending = null;
+            current = null;
+        }
+    }
+}
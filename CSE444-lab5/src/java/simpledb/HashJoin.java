@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashJoin implements an equi-join by building a hash table on one input,
+ * keyed on its join field, and probing it with the tuples of the other.
+ * Each input is read once, instead of the inner one once per outer tuple as
+ * in Join.
+ * <p>
+ * The table is built on the smaller input. Since inputs do not know their
+ * size, both are read in turn until one runs out: that one is hashed, and
+ * the tuples already read from the other are probed before the rest of
+ * it.
+ * <p>
+ * No more than a memory budget of tuple data (counted at its size on a
+ * page) is held at once. If both inputs are still going when the budget is
+ * reached, the join becomes a hybrid hash join: the left input is split by
+ * a hash of the join field into partitions, of which the first stays in
+ * memory as long as it fits and the rest are written to temporary files
+ * (see TupleFile). The right input is then split the same way, except that
+ * tuples of the resident partition are probed right away, and tuples of an
+ * empty left partition are dropped. Last, each pair of spilled partitions
+ * is joined by a HashJoin of its own, with another hash function, so a pair
+ * that still does not fit is partitioned again.
+ * <p>
+ * Partitioning does not help with a partition that is mostly one key. Such
+ * a partition, or one still too big after several rounds, is joined in
+ * chunks instead: the left side is read a budget at a time into the table,
+ * and the right side is probed against each chunk in turn.
+ * <p>
+ * The output tuples are the same as Join's (the fields of child1, then
+ * those of child2), but not necessarily in the same order.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in bytes of tuple data. */
+    public static final long DEFAULT_MEMORY_BUDGET = 4L << 20;
+    /** Number of partitions an input is split into when it is spilled. */
+    public static final int FANOUT = 16;
+    /** Partitioning rounds before giving up and joining in chunks. */
+    public static final int MAX_LEVEL = 4;
+
+    private static volatile long defaultMemoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final TupleDesc td;
+    private final int level; // partitioning rounds so far; seeds the hash
+    private long memoryBudget = defaultMemoryBudget;
+    private boolean leftFirst; // read all of child1 before any of child2
+
+    private HashMap<Field, ArrayList<Tuple>> table; // the build side, by join field
+    private boolean buildLeft; // whether child1 is the build side
+    private Iterator<Tuple> buffered; // probe tuples read while building
+    private Tuple probe;
+    private Iterator<Tuple> matches; // build tuples joining probe
+
+    // when spilled: the partitions of each side, null if empty
+    private TupleFile[] leftParts;
+    private TupleFile[] rightParts;
+    private int nextPart; // the next pair of partitions to join
+    private HashJoin partJoin; // joining the current pair
+    private boolean chunked; // joining child1 a chunk at a time
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    private HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join needs an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.level = level;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Set the memory budget of joins created from now on.
+     *
+     * @param bytes the most tuple data a join holds in memory
+     */
+    public static void setDefaultMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        defaultMemoryBudget = bytes;
+    }
+
+    /** @return the memory budget of joins created from now on */
+    public static long getDefaultMemoryBudget() {
+        return defaultMemoryBudget;
+    }
+
+    /**
+     * Set the memory budget of this join; takes effect when it is next
+     * opened.
+     *
+     * @param bytes the most tuple data to hold in memory
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        memoryBudget = bytes;
+    }
+
+    /** @return the memory budget of this join */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Build the table on child1 whatever its size, reading all of it before
+     * any of child2. An input fed by an Exchange needs this, so the join
+     * does not wait on one exchange while another waits on it.
+     */
+    public void setBuildLeft(boolean leftFirst) {
+        this.leftFirst = leftFirst;
+    }
+
+    /** @return whether the join had to write its inputs to temporary files */
+    public boolean spilled() {
+        return leftParts != null || chunked;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        build();
+    }
+
+    // read both children in turn until one runs out or the budget is
+    // reached; hash the one that ran out, or partition both
+    private void build() throws DbException, TransactionAbortedException {
+        probe = null;
+        matches = null;
+        if (level >= MAX_LEVEL) {
+            startChunks();
+            return;
+        }
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        int size1 = child1.getTupleDesc().getSize();
+        int size2 = child2.getTupleDesc().getSize();
+        long bytes = 0;
+        boolean more1 = true, more2 = true;
+        while (leftFirst && more1 && bytes <= memoryBudget) {
+            more1 = child1.hasNext();
+            if (more1) {
+                left.add(child1.next());
+                bytes += size1;
+            }
+        }
+        while (more1 && more2 && bytes <= memoryBudget) {
+            more1 = child1.hasNext();
+            if (more1) {
+                left.add(child1.next());
+                bytes += size1;
+            }
+            more2 = child2.hasNext();
+            if (more2) {
+                right.add(child2.next());
+                bytes += size2;
+            }
+        }
+        if (more1 && more2) {
+            partition(left, right);
+            return;
+        }
+        buildLeft = !more1;
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        for (Tuple t : buildLeft ? left : right) {
+            add(t);
+        }
+        buffered = (buildLeft ? right : left).iterator();
+    }
+
+    private void add(Tuple t) {
+        Field key = t.getField(buildLeft ? p.getField1() : p.getField2());
+        ArrayList<Tuple> bucket = table.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Tuple>(1);
+            table.put(key, bucket);
+        }
+        bucket.add(t);
+    }
+
+    // the partition of a join field; each level hashes differently, so
+    // that a partition is split again at the next
+    private int partition(Field key) {
+        int h = key.hashCode() + level * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, FANOUT);
+    }
+
+    // split child1 into partitions, keeping the first in the table while
+    // it fits; child2 is split as it is probed
+    private void partition(ArrayList<Tuple> left, ArrayList<Tuple> right)
+            throws DbException, TransactionAbortedException {
+        buildLeft = true;
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        leftParts = new TupleFile[FANOUT];
+        rightParts = new TupleFile[FANOUT];
+        nextPart = 0;
+        int size = child1.getTupleDesc().getSize();
+        // the right tuples already read stay in memory too
+        long room = memoryBudget - (long) right.size() * child2.getTupleDesc().getSize();
+        long resident = 0;
+        try {
+            Iterator<Tuple> it = left.iterator();
+            while (true) {
+                Tuple t;
+                if (it.hasNext())
+                    t = it.next();
+                else if (child1.hasNext())
+                    t = child1.next();
+                else
+                    break;
+                int part = partition(t.getField(p.getField1()));
+                if (part == 0 && table != null) {
+                    add(t);
+                    resident += size;
+                    if (resident > room) {
+                        // the first partition does not fit either
+                        for (ArrayList<Tuple> bucket : table.values()) {
+                            for (Tuple b : bucket) {
+                                spill(leftParts, 0, b);
+                            }
+                        }
+                        table = null;
+                    }
+                } else {
+                    spill(leftParts, part, t);
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("can not spill join input: " + e.getMessage());
+        }
+        left.clear();
+        buffered = right.iterator();
+    }
+
+    private void spill(TupleFile[] parts, int part, Tuple t) throws IOException {
+        if (parts[part] == null) {
+            DbIterator child = parts == leftParts ? child1 : child2;
+            parts[part] = new TupleFile(child.getTupleDesc());
+        }
+        parts[part].add(t);
+    }
+
+    // join child1 (which is not yet read) a chunk at a time
+    private void startChunks() throws DbException, TransactionAbortedException {
+        chunked = true;
+        buildLeft = true;
+        buffered = Collections.<Tuple>emptyList().iterator();
+        nextChunk();
+    }
+
+    private void nextChunk() throws DbException, TransactionAbortedException {
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        int size = child1.getTupleDesc().getSize();
+        long bytes = 0;
+        while (bytes <= memoryBudget && child1.hasNext()) {
+            add(child1.next());
+            bytes += size;
+        }
+    }
+
+    private void deleteParts() {
+        if (partJoin != null) {
+            partJoin.close();
+            partJoin = null;
+        }
+        for (TupleFile[] parts : new TupleFile[][] { leftParts, rightParts }) {
+            if (parts == null)
+                continue;
+            for (TupleFile f : parts) {
+                if (f != null)
+                    f.delete();
+            }
+        }
+        leftParts = null;
+        rightParts = null;
+        chunked = false;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        deleteParts();
+        table = null;
+        buffered = null;
+        probe = null;
+        matches = null;
+    }
+
+    /**
+     * Start over. If the join fit in memory, the hash table is kept and only
+     * the probe side is read again; otherwise the join is redone.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (spilled()) {
+            deleteParts();
+            child1.rewind();
+            child2.rewind();
+            build();
+            return;
+        }
+        (buildLeft ? child2 : child1).rewind();
+        buffered = Collections.<Tuple>emptyList().iterator();
+        probe = null;
+        matches = null;
+    }
+
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (buffered.hasNext())
+            return buffered.next();
+        DbIterator child = buildLeft ? child2 : child1;
+        return child.hasNext() ? child.next() : null;
+    }
+
+    // the build tuples joining probe, if they are in memory; when
+    // partitioned, probe is otherwise kept to join with its partition
+    private Iterator<Tuple> lookup(Tuple probe) throws DbException {
+        Field key = probe.getField(buildLeft ? p.getField2() : p.getField1());
+        if (leftParts != null) {
+            int part = partition(key);
+            if (part != 0 || table == null) {
+                if (leftParts[part] != null) {
+                    try {
+                        spill(rightParts, part, probe);
+                    } catch (IOException e) {
+                        throw new DbException("can not spill join input: " + e.getMessage());
+                    }
+                }
+                return null;
+            }
+        }
+        ArrayList<Tuple> bucket = table.get(key);
+        return bucket == null ? null : bucket.iterator();
+    }
+
+    // once the probe side is done: move on to the next chunk or pair of
+    // partitions, if any
+    private boolean nextPass() throws DbException, TransactionAbortedException {
+        if (chunked) {
+            if (!child1.hasNext())
+                return false;
+            nextChunk();
+            child2.rewind();
+            return true;
+        }
+        if (leftParts == null)
+            return false;
+        table = null;
+        long total = 0;
+        for (TupleFile f : leftParts) {
+            if (f != null)
+                total += f.size();
+        }
+        for (; nextPart < FANOUT; nextPart++) {
+            TupleFile left = leftParts[nextPart], right = rightParts[nextPart];
+            if (left == null || right == null)
+                continue;
+            // splitting again does not help if nearly everything hashed
+            // alike, which is what a few very common keys look like; unless
+            // the right side is small enough to hash instead
+            boolean skewed = left.size() > total * 9 / 10
+                && right.bytes() > memoryBudget / 2;
+            partJoin = new HashJoin(p, left, right, skewed ? MAX_LEVEL : level + 1);
+            partJoin.setMemoryBudget(memoryBudget);
+            partJoin.open();
+            nextPart++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @see Join#fetchNext
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                Tuple match = matches.next();
+                return buildLeft ? Join.merge(td, match, probe) : Join.merge(td, probe, match);
+            }
+            if (partJoin != null) {
+                if (partJoin.hasNext())
+                    return partJoin.next();
+                partJoin.close();
+                leftParts[nextPart - 1].delete();
+                rightParts[nextPart - 1].delete();
+                leftParts[nextPart - 1] = rightParts[nextPart - 1] = null;
+                partJoin = null;
+            }
+            probe = nextProbe();
+            if (probe != null)
+                matches = lookup(probe);
+            else if (!nextPass())
+                return null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
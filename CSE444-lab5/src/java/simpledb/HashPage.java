@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashPage is the common part of the pages of a HashIndexFile: dirty state
+ * and before image. Page 0 is always the directory
+ * (HashDirectoryPage); every other page is a HashBucketPage, so a page can
+ * be built from its number and bytes alone (see {@link #create}).
+ */
+public abstract class HashPage implements Page {
+
+    protected final HashPageId pid;
+    protected final Type keyType;
+    private volatile TransactionId dirtier;
+    private byte[] oldData; // the page as of its last log record, or as read
+
+    /**
+     * @param data the bytes the page is built from; kept as the before
+     *   image, so the caller must not change them afterwards
+     */
+    protected HashPage(HashPageId pid, Type keyType, byte[] data) {
+        this.pid = pid;
+        this.keyType = keyType;
+        this.oldData = data;
+    }
+
+    /**
+     * Build a page of a HashIndexFile from its bytes.
+     *
+     * @param keyType the type of the keys in the index
+     */
+    public static HashPage create(HashPageId pid, Type keyType, byte[] data) throws IOException {
+        if (pid.pageNumber() == 0)
+            return new HashDirectoryPage(pid, keyType, data);
+        // a bucket, or a page that was never written, which reads as zeros
+        return new HashBucketPage(pid, keyType, data);
+    }
+
+    /**
+     * Build a page of a HashIndexFile in the catalog from its bytes, as
+     * recovery does.
+     */
+    public static HashPage create(HashPageId pid, byte[] data) throws IOException {
+        return create(pid, Database.getCatalog().getTupleDesc(pid.getTableId()).getFieldType(0), data);
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public synchronized Page getBeforeImage() {
+        try {
+            return create(pid, keyType, oldData);
+        } catch (IOException e) {
+            // the bytes were a page of this kind when they were taken
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    // the serialized page: whatever write writes, and zeros
+    protected byte[] serialize() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            write(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  // in memory, so never
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        System.arraycopy(bytes.toByteArray(), 0, data, 0, bytes.size());
+        return data;
+    }
+
+    public byte[] getPageData() {
+        return serialize();
+    }
+
+    /** Write the contents of the page. */
+    protected abstract void write(DataOutputStream out) throws IOException;
+}
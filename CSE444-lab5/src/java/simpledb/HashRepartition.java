@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * HashRepartition is an Exchange that splits the tuples of its producers
+ * among its outputs by a hash of one field, so the tuples with equal values
+ * of that field all go to the same output. Two inputs repartitioned on
+ * their join fields into the same number of outputs can be joined output by
+ * output, and an input repartitioned on its group field can be aggregated
+ * output by output.
+ */
+public class HashRepartition extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+
+    /**
+     * @param producers
+     *            The plans to run, one per thread; all with the same
+     *            TupleDesc
+     * @param field
+     *            The field to partition on
+     * @param consumers
+     *            The number of outputs
+     */
+    public HashRepartition(DbIterator[] producers, int field, int consumers) {
+        super(producers, consumers);
+        if (field < 0 || field >= getTupleDesc().numFields())
+            throw new IllegalArgumentException("no field " + field + " to partition on");
+        this.field = field;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the output a value of the field goes to, of consumers outputs;
+     *   the same for equal fields of either type
+     */
+    public static int partition(Field f, int consumers) {
+        int h = f.hashCode() * 0x9e3779b9;
+        h ^= h >>> 16;
+        return Math.floorMod(h, consumers);
+    }
+
+    protected void route(Tuple t, Chunks out) {
+        out.send(partition(t.getField(field), out.size()), t);
+    }
+
+    protected String describe() {
+        return "HashRepartition on " + getTupleDesc().getFieldName(field);
+    }
+}
@@ -18,6 +18,7 @@ public class HeapFile implements DbFile {
     private File f;
     private TupleDesc td;
     private int tableid;   // just avoid repeat computing getId
+    private static final int EXTENT_PGNO = -1;  // page number of the end-of-file pseudo page
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -125,8 +126,36 @@ public class HeapFile implements DbFile {
             }
         }
         // all page in this file is full, need create a new empty page
+        // lock the end of file first, so SERIALIZABLE scans never see a phantom page
+        // and no two appenders add the same page
+        boolean held = bfpool.holdsLock(tid, extentId());
+        bfpool.lockPage(tid, extentId(), Permissions.READ_WRITE);
+        if (numPages() > page_num) {
+            // someone else appended while we waited, try their page first
+            releaseExtent(tid, held);
+            return insertTuple(tid, t);
+        }
         writePage(new HeapPage(new HeapPageId(getId(), page_num), HeapPage.createEmptyPageData()));
-        return actuallyInsertTuple(tid, page_num, t);
+        ArrayList<Page> result = actuallyInsertTuple(tid, page_num, t);
+        releaseExtent(tid, held);
+        return result;
+    }
+
+    // once its page is added, an appender only keeps the end of the file
+    // locked if it scans at a level that locks it, or had it locked before;
+    // its lock on the new page already keeps others from reading the tuple
+    private void releaseExtent(TransactionId tid, boolean held) {
+        BufferPool bfpool = Database.getBufferPool();
+        if (!held && !bfpool.getIsolationLevel(tid).locksFileExtent())
+            bfpool.releasePage(tid, extentId());
+    }
+
+    /**
+     * @return a pseudo page id standing for the end of this file. Appenders
+     *   lock it exclusively and SERIALIZABLE scans lock it shared.
+     */
+    PageId extentId() {
+        return new HeapPageId(getId(), EXTENT_PGNO);
     }
     
     private ArrayList<Page> actuallyInsertTuple(TransactionId tid, int num, Tuple t) 
@@ -155,7 +184,7 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(getId(), numPages(), tid, Permissions.READ_ONLY);
+        return new HeapFileIterator(this, tid, Permissions.READ_ONLY);
     }
 
 }
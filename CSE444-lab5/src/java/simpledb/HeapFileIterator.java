@@ -5,25 +5,34 @@ import java.util.NoSuchElementException;
 
 public class HeapFileIterator implements DbFileIterator {
     
+    private HeapFile file;
     private int tableId;
     private int pgNo;  // -1 means close, greater than 0 means open
     private int numPages;
     private TransactionId tid;
     private Permissions perm;
     private Iterator<Tuple> tuples;
+    private PageId current;  // page the tuples come from, its read lock may be dropped once we move off
     
-    public HeapFileIterator(int tableId, int numPages, TransactionId tid, Permissions perm) {
-        this.tableId = tableId;
-        this.numPages = numPages;
+    public HeapFileIterator(HeapFile file, TransactionId tid, Permissions perm) {
+        this.file = file;
+        this.tableId = file.getId();
         this.tid = tid;
         this.pgNo = -1;
         this.tuples = null;
+        this.current = null;
         this.perm = perm;
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
         if (!isOpen()) {
+            BufferPool bp = Database.getBufferPool();
+            if (bp.getIsolationLevel(tid).locksFileExtent()) {
+                // keep appenders out until we commit, so a rescan sees no phantoms
+                bp.lockPage(tid, file.extentId(), Permissions.READ_ONLY);
+            }
+            numPages = file.numPages();
             pgNo = 0;
             tuples = getTuples();
         } else {
@@ -64,18 +73,28 @@ public class HeapFileIterator implements DbFileIterator {
 
     @Override
     public void close() {
+        leaveCurrentPage();
         pgNo = -1;
         tuples = null;
     }
     
     private Iterator<Tuple> getTuples() throws DbException, TransactionAbortedException, NoSuchElementException {
+        leaveCurrentPage();
         if (pgNo == numPages)
             return null;
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableId, pgNo), perm);
+        current = page.getId();
         pgNo++;
         return page.iterator();
     }
     
+    private void leaveCurrentPage() {
+        if (current != null) {
+            Database.getBufferPool().doneReadingPage(tid, current);
+            current = null;
+        }
+    }
+    
     private boolean isOpen() {
         return pgNo != -1;
     }
@@ -20,6 +20,9 @@ public class HeapPage implements Page {
     final int numSlots;
     private TransactionId dirty_tid; // record transaction make this page dirty
 
+    // the page as of its last log record, or as read: the bytes it was
+    // built from, or, after setBeforeImage, null until the first change,
+    // which copies the contents then (see beforeChange)
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -35,6 +38,8 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps data as its before image without copying it, so
+     * the caller must not change data afterwards.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -60,7 +65,11 @@ public class HeapPage implements Page {
         }
         dis.close();
 
-        setBeforeImage();
+        // data is already our serialized form, so no need to rebuild it
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -82,27 +91,72 @@ public class HeapPage implements Page {
     }
     
     /** Return a view of this page before it was modified
-        -- used by recovery */
-    public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+        -- used by recovery.  The view only holds the page's bytes;
+        build a HeapPage from its getPageData to use it as a page. */
+    public Page getBeforeImage(){
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
         }
-        return null;
+        return new BeforeImage(pid, oldDataRef != null ? oldDataRef : getPageData());
     }
     
     public void setBeforeImage() {
+        // most pages are not changed again before they are evicted, so
+        // wait for a change before copying anything
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    // capture the before image if setBeforeImage deferred it; called before
+    // every change to the page
+    private void beforeChange() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /** @return the class of before images, for PageCodecs to log as heap pages */
+    static Class<? extends Page> beforeImageClass() {
+        return BeforeImage.class;
+    }
+
+    // the serialized page as of getBeforeImage; read only
+    private static class BeforeImage implements Page {
+        private final HeapPageId pid;
+        private final byte[] data;
+
+        BeforeImage(HeapPageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public HeapPageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+            throw new UnsupportedOperationException("before images are read only");
+        }
+
+        public byte[] getPageData() {
+            return data.clone();
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
         }
     }
 
@@ -251,6 +305,7 @@ public class HeapPage implements Page {
         if (!isSlotUsed(rid.tupleno())) {
             throw new DbException("tuple slot is already empty");
         }
+        beforeChange();
         markSlotUsed(rid.tupleno(), false);
         tuples[rid.tupleno()] = null;
         t.setRecordId(null);
@@ -272,6 +327,7 @@ public class HeapPage implements Page {
         // insert into first empty slot
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
+                beforeChange();
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
                 tuples[i] = t;
@@ -349,6 +405,15 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots)
+            throw new NoSuchElementException("no slot " + i + " on " + pid);
+        return isSlotUsed(i) ? tuples[i] : null;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
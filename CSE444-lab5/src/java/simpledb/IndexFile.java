@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * IndexFile is a DbFile that indexes one field of a table, the key. Its
+ * tuples are entries: the key of a tuple of the table, then the page number
+ * and slot of the tuple, as INT fields (see {@link #entry}).
+ * <p>
+ * An index is kept up to date by BufferPool.insertTuple and deleteTuple,
+ * which insert and delete the entries of the tuples of its table; it is
+ * read with {@link #lookup}, usually by an IndexScan.
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the table this indexes */
+    public int getIndexedTableId();
+
+    /** @return the index of the field of the table this indexes */
+    public int getKeyField();
+
+    /** @return whether {@link #lookup} can find the keys that satisfy op */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the entries whose keys k satisfy
+     * "k op key". The iterator must read pages through the BufferPool.
+     *
+     * @throws UnsupportedOperationException if this index does not support op
+     */
+    public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field key);
+
+    /**
+     * @return the entry of a tuple of the indexed table in index; the tuple
+     *   must be stored in the table (have a record id)
+     */
+    public static Tuple entry(IndexFile index, Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple e = new Tuple(index.getTupleDesc());
+        e.setField(0, t.getField(index.getKeyField()));
+        e.setField(1, new IntField(rid.getPageId().pageNumber()));
+        e.setField(2, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    /** @return the record id of the tuple an entry of index refers to */
+    public static RecordId recordId(IndexFile index, Tuple entry) {
+        int page = ((IntField) entry.getField(1)).getValue();
+        int slot = ((IntField) entry.getField(2)).getValue();
+        return new RecordId(new HeapPageId(index.getIndexedTableId(), page), slot);
+    }
+}
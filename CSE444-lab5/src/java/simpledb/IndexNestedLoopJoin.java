@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins on equality by looking each outer (left) tuple's
+ * key up in an index on the inner (right) table's join field (see
+ * IndexFile), instead of reading the inner table: a join of a few outer
+ * tuples with a large table reads only the pages their matches are on.
+ * <p>
+ * The inner input is a plan that only describes what to read: a SeqScan of
+ * the indexed table, alone or under Filters, whose predicates are applied
+ * to the tuples the index finds. It is never opened.
+ * <p>
+ * The output tuples are the same as Join's (the fields of child1, then
+ * those of child2), but not necessarily in the same order.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final IndexFile index;
+    private final TupleDesc td;
+
+    private SeqScan scan; // the scan at the bottom of child2
+    private final ArrayList<Predicate> filters = new ArrayList<Predicate>();
+    private Tuple outer;
+    private DbFileIterator matches; // the entries of outer's key
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The plan of the right(inner) relation: a SeqScan of the
+     *            table index indexes, alone or under Filters
+     * @param index
+     *            An index on the field of the inner relation p joins on
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                               IndexFile index) {
+        if (p.getOperator() != Predicate.Op.EQUALS || !index.supports(Predicate.Op.EQUALS))
+            throw new IllegalArgumentException("index join can only join on equality");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.index = index;
+        check(child2);
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the SeqScan at the bottom of a plan that is one, alone or
+     *   under Filters, and maybe run by a ParallelScan; null for any other
+     *   plan
+     */
+    public static SeqScan scanOf(DbIterator plan) {
+        if (plan instanceof ParallelScan)
+            plan = ((ParallelScan) plan).getPlan();
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        return plan instanceof SeqScan ? (SeqScan) plan : null;
+    }
+
+    // find the scan and filters of the inner plan, and check the index fits
+    private void check(DbIterator inner) {
+        scan = scanOf(inner);
+        if (scan == null)
+            throw new IllegalArgumentException("index join needs a scan of the inner table");
+        if (scan.getTableId() != index.getIndexedTableId() || index.getKeyField() != p.getField2())
+            throw new IllegalArgumentException("index is not on the inner join field");
+        filters.clear();
+        if (inner instanceof ParallelScan)
+            inner = ((ParallelScan) inner).getPlan();
+        for (DbIterator it = inner; it instanceof Filter; it = ((Filter) it).getChildren()[0]) {
+            filters.add(((Filter) it).getPredicate());
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        super.open();
+        outer = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        if (matches != null)
+            matches.close();
+        matches = null;
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (matches != null)
+            matches.close();
+        matches = null;
+        outer = null;
+    }
+
+    // the inner tuple of an entry of outer's key, if it passes the filters
+    private Tuple inner(Tuple entry) throws DbException, TransactionAbortedException {
+        Tuple t = IndexScan.fetch(scan.getTransactionId(), index, entry, Predicate.Op.EQUALS,
+                                  outer.getField(p.getField1()));
+        if (t == null)
+            return null;
+        for (Predicate f : filters) {
+            if (!f.filter(t))
+                return null;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @see Join#fetchNext
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null) {
+                while (matches.hasNext()) {
+                    Tuple t = inner(matches.next());
+                    if (t != null)
+                        return Join.merge(td, outer, t);
+                }
+                matches.close();
+                matches = null;
+            }
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            Field key = outer.getField(p.getField1());
+            if (!key.getType().equals(index.getTupleDesc().getFieldType(0)))
+                continue; // no inner key can equal it
+            matches = index.lookup(scan.getTransactionId(), Predicate.Op.EQUALS, key);
+            matches.open();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        check(children[1]);
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
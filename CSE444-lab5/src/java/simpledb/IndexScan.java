@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, by looking them up in an index on
+ * that field (see IndexFile) instead of reading the whole table. The tuples
+ * come in the order of the index, and are read from the table's pages
+ * through the BufferPool, one page per tuple.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final Predicate.Op op;
+    private final Field key;
+    private final String tableAlias;
+    private final TupleDesc td;
+    private final DbFileIterator entries;
+    private Tuple next;
+
+    /**
+     * Creates a scan of the tuples t of the table an index indexes for
+     * which "t.field op key" holds, field being the indexed field, as a
+     * part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in; it must support op
+     * @param op
+     *            the operator to compare the indexed field with key by
+     * @param key
+     *            the value to compare the indexed field with
+     * @param tableAlias
+     *            the alias of the table, prefixed to its field names as in
+     *            SeqScan
+     */
+    public IndexScan(TransactionId tid, IndexFile index, Predicate.Op op, Field key,
+                     String tableAlias) {
+        if (!index.supports(op))
+            throw new IllegalArgumentException("index can not look up " + op);
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.key = key;
+        this.tableAlias = tableAlias;
+        this.entries = index.lookup(tid, op, key);
+
+        TupleDesc td_temp = Database.getCatalog().getTupleDesc(index.getIndexedTableId());
+        Type[] typeAr = new Type[td_temp.numFields()];
+        String[] fieldAr = new String[td_temp.numFields()];
+        for (int i = 0; i < td_temp.numFields(); i++) {
+            typeAr[i] = td_temp.getFieldType(i);
+            fieldAr[i] = tableAlias + "." + td_temp.getFieldName(i);
+        }
+        this.td = new TupleDesc(typeAr, fieldAr);
+    }
+
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    public Predicate.Op getOperator() {
+        return op;
+    }
+
+    public Field getKey() {
+        return key;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries.open();
+        next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with
+     * the table alias, as SeqScan does.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // the tuple an entry refers to, or null if it is gone or no longer
+    // matches (as it may be, if the index was read without holding locks)
+    private Tuple fetch(Tuple entry) throws DbException, TransactionAbortedException {
+        return fetch(tid, index, entry, op, key);
+    }
+
+    /**
+     * Read the tuple an index entry refers to from its table, as tid.
+     *
+     * @return the tuple, or null if it is gone or its indexed field no
+     *   longer satisfies "field op key"
+     */
+    static Tuple fetch(TransactionId tid, IndexFile index, Tuple entry, Predicate.Op op, Field key)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        RecordId rid = IndexFile.recordId(index, entry);
+        Page page = bp.getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        if (!(page instanceof HeapPage))
+            throw new DbException("index scan can not read " + page.getId());
+        Tuple t = ((HeapPage) page).getTuple(rid.tupleno());
+        bp.doneReadingPage(tid, page.getId());
+        if (t == null || !t.getField(index.getKeyField()).compare(op, key))
+            return null;
+        return t;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        while (next == null && entries.hasNext()) {
+            next = fetch(entries.next());
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        entries.close();
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        entries.rewind();
+        next = null;
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+/**
+ * IsolationLevel describes how long a transaction keeps its page locks, and
+ * therefore which anomalies other transactions may expose it to.
+ * <p>
+ * Exclusive locks are always held until the transaction completes, so no
+ * level ever reads uncommitted data. The levels differ only in their
+ * shared-lock release policy:
+ * <ul>
+ * <li>READ_COMMITTED releases a shared page lock as soon as the scan moves
+ * off the page, so re-reading a page may see newly committed changes.
+ * <li>REPEATABLE_READ holds shared locks until commit, but does not lock the
+ * end of a file, so another transaction may append new tuples (phantoms).
+ * <li>SERIALIZABLE holds shared locks until commit and also locks the end of
+ * every file it scans, which keeps out phantoms.
+ * </ul>
+ */
+public enum IsolationLevel {
+    READ_COMMITTED() {
+        @Override
+        public boolean releasesReadLocksEarly() {
+            return true;
+        }
+
+        @Override
+        public boolean locksFileExtent() {
+            return false;
+        }
+    }, REPEATABLE_READ() {
+        @Override
+        public boolean releasesReadLocksEarly() {
+            return false;
+        }
+
+        @Override
+        public boolean locksFileExtent() {
+            return false;
+        }
+    }, SERIALIZABLE() {
+        @Override
+        public boolean releasesReadLocksEarly() {
+            return false;
+        }
+
+        @Override
+        public boolean locksFileExtent() {
+            return true;
+        }
+    };
+
+    /**
+     * Isolation level of transactions that never asked for another one.
+     * It is not SERIALIZABLE: two transactions that both scan a table and
+     * then append to it would each wait for the other's shared lock on
+     * the end of the file, and one of them would be aborted.
+     */
+    public static final IsolationLevel DEFAULT = REPEATABLE_READ;
+
+    /**
+     * @return true if a shared lock on a page may be released as soon as the
+     *   reader is done with the page, rather than at commit.
+     */
+    public abstract boolean releasesReadLocksEarly();
+
+    /**
+     * @return true if scans must take a shared lock on the end of the file
+     *   they read, so that no other transaction can append to it.
+     */
+    public abstract boolean locksFileExtent();
+
+    /**
+     * Parse an isolation level as written in SQL, e.g. "READ COMMITTED".
+     *
+     * @throws IllegalArgumentException if s does not name a level
+     */
+    public static IsolationLevel parse(String s) {
+        String name = s.trim().toUpperCase().replaceAll("[\\s_]+", "_");
+        for (IsolationLevel level : values()) {
+            if (level.name().equals(name))
+                return level;
+        }
+        throw new IllegalArgumentException("Unknown isolation level " + s);
+    }
+
+    public String toString() {
+        return name().replace('_', ' ');
+    }
+}
@@ -121,15 +121,7 @@ public class Join extends Operator {
         while (child2.hasNext()) {
             Tuple t2 = child2.next();
             if (p.filter(t1, t2)) {
-                Tuple newTuple = new Tuple(td);
-                newTuple.setRecordId(t1.getRecordId());
-                for (int i = 0; i < child1.getTupleDesc().numFields(); i++) {
-                    newTuple.setField(i, t1.getField(i));
-                }
-                for (int i = 0; i < child2.getTupleDesc().numFields(); i++) {
-                    newTuple.setField(child1.getTupleDesc().numFields()+i, t2.getField(i));
-                }
-                return newTuple;
+                return merge(td, t1, t2);
             }
         }
         
@@ -137,6 +129,23 @@ public class Join extends Operator {
         return fetchNext();
     }
 
+    /**
+     * @return the concatenation of t1 and t2, with the schema td of the
+     *   join; shared by the join operators
+     */
+    static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple newTuple = new Tuple(td);
+        newTuple.setRecordId(t1.getRecordId());
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            newTuple.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            newTuple.setField(n1 + i, t2.getField(i));
+        }
+        return newTuple;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -68,12 +68,54 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        SeqScan scan2 = IndexNestedLoopJoin.scanOf(plan2);
+        IndexFile index2 = lj.p == Predicate.Op.EQUALS && scan2 != null
+            ? hashIndex(scan2.getTableId(), t2id) : null;
+        if (index2 != null) {
+            // the inner table is read only where the outer keys are
+            j = new IndexNestedLoopJoin(p, plan1, plan2, index2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            if (!(lj instanceof LogicalSubplanJoinNode) && Exchange.worthSplitting(plan1, plan2))
+                j = partitionedHashJoin(p, plan1, plan2, Exchange.getDefaultDegree());
+            else
+                j = new HashJoin(p, plan1, plan2);
+        } else if (SortMergeJoin.supports(lj.p)) {
+            // inequalities: each tuple joins a prefix of the other side
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else {
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * @return a plan joining plan1 and plan2 on threads threads: both are
+     *   repartitioned on their join fields, each pair of outputs is joined
+     *   by a HashJoin on a thread of its own, and the results are gathered
+     */
+    public static DbIterator partitionedHashJoin(JoinPredicate p, DbIterator plan1,
+                                                 DbIterator plan2, int threads) {
+        HashRepartition left = new HashRepartition(
+            new DbIterator[] { ParallelScan.parallelize(plan1) }, p.getField1(), threads);
+        HashRepartition right = new HashRepartition(
+            new DbIterator[] { ParallelScan.parallelize(plan2) }, p.getField2(), threads);
+        DbIterator[] joins = new DbIterator[threads];
+        for (int i = 0; i < threads; i++) {
+            HashJoin j = new HashJoin(p, left.getOutput(i), right.getOutput(i));
+            j.setBuildLeft(true);
+            joins[i] = j;
+        }
+        return new Gather(joins).getOutput();
+    }
+
+    // the hash index on a field of a table, or null if there is none
+    private static IndexFile hashIndex(int tableid, int field) {
+        IndexFile index = Database.getCatalog().getIndex(tableid, field, Predicate.Op.EQUALS);
+        return index instanceof HashIndexFile ? index : null;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -106,13 +148,63 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // HashJoin: one scan of each side, hashing one and probing
+            // with the other
+            double cost = cost1 + cost2 + card1 + card2;
+            HashIndexFile index = innerHashIndex(j);
+            if (index != null) {
+                // IndexNestedLoopJoin: per outer tuple, the directory and a
+                // bucket of the index and a page of the inner table, at the
+                // cost of a page of its scan. The inner side may be a join,
+                // which is not read by index, so never cost more than a
+                // HashJoin would.
+                HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(index.getIndexedTableId());
+                double perPage = cost2 / Math.max(1, table.numPages());
+                cost = Math.min(cost, cost1 + card1 * (HASH_PROBE_PAGES + 1) * perPage + card1);
+            }
+            return cost;
+        } else if (SortMergeJoin.supports(j.p)) {
+            // SortMergeJoin: sort both sides, then merge them
+            return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1 + card2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // BlockNestedLoopJoin: one scan of the inner side per block of
+            // outer tuples, and every pair compared
+            double blocks = Math.ceil((double) card1 / blockTuples(j));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        }
+    }
+
+    // pages an IndexNestedLoopJoin reads from a hash index per probe
+    private static final int HASH_PROBE_PAGES = 2;
+
+    // the hash index on the inner field of a join of tables, or null
+    private HashIndexFile innerHashIndex(LogicalJoinNode j) {
+        Integer tableId = p == null || j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (tableId == null || !(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            return null;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return null;
         }
+        return (HashIndexFile) hashIndex(tableId, field);
+    }
+
+    // comparisons to sort card tuples
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    // outer tuples in a block of a BlockNestedLoopJoin; the outer side may
+    // be a join, which only has wider tuples than its table, so this is an
+    // upper bound
+    private int blockTuples(LogicalJoinNode j) {
+        Integer tableId = p == null ? null : p.getTableId(j.t1Alias);
+        TupleDesc outer = tableId == null ? Utility.getTupleDesc(1)
+            : Database.getCatalog().getTupleDesc(tableId);
+        return BlockNestedLoopJoin.blockTuples(outer, BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
     }
 
     /**
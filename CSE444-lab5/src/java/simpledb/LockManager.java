@@ -1,7 +1,6 @@
 package simpledb;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -9,6 +8,12 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.mina.util.ConcurrentHashSet;
 
+/**
+ * LockManager keeps the page locks of transactions. It may be called from
+ * several threads at once, including several threads of one transaction,
+ * as a ParallelScan's workers are: every map is concurrent, and the state of
+ * one page is only changed while holding that page's lock object.
+ */
 public class LockManager {
     private static final int SHARED_LOCK = 0;
     private static final int EXCLUSIVE_LOCK = 1;
@@ -16,12 +21,14 @@ public class LockManager {
     private Map<PageId, Object> lockObject;
     private Map<TransactionId, Collection<TransactionId>> dependencyGraph;
     private Map<TransactionId, Collection<PageId>> locksByTransaction;
+    private Map<TransactionId, IsolationLevel> isolationLevels;
     
     public LockManager() {
-        locks = new HashMap<>();
+        locks = new ConcurrentHashMap<>();
         lockObject = new ConcurrentHashMap<>();
         dependencyGraph = new ConcurrentHashMap<>();
         locksByTransaction = new ConcurrentHashMap<>();
+        isolationLevels = new ConcurrentHashMap<>();
     }
     
     public static class Lock {
@@ -60,22 +67,52 @@ public class LockManager {
                 }
             }
         }
+        removeLockInTransaction(tid, pid);
+    }
+    
+    /**
+     * Release the lock tid holds on pid only if it is a shared lock; an
+     * exclusive lock must be kept until the transaction completes. The
+     * check and the release are made under the page's lock object, so
+     * the lock can not be upgraded in between.
+     */
+    public void releaseSharedLock(TransactionId tid, PageId pid) {
+        Object lock = getLock(pid);
+        synchronized (lock) {
+            Lock l = locks.get(pid);
+            if (l == null || l.lockType != SHARED_LOCK) {
+                return;
+            }
+            l.tids.remove(tid);
+            if (l.tids.isEmpty()) {
+                locks.remove(pid);
+            }
+        }
+        removeLockInTransaction(tid, pid);
+    }
 
-        if (locksByTransaction.containsKey(tid)) {
-            Set<PageId> pids = (ConcurrentHashSet<PageId>) locksByTransaction.get(tid);
-            pids.remove(pid);
-            if (pids.isEmpty()) {
-                locksByTransaction.remove(tid);
+    private void removeLockInTransaction(TransactionId tid, PageId pid) {
+        Collection<PageId> pids = locksByTransaction.get(tid);
+        if (pids != null) {
+            synchronized (pids) {
+                pids.remove(pid);
+                if (pids.isEmpty()) {
+                    locksByTransaction.remove(tid, pids);
+                }
             }
         }
     }
     
     public void releaseAllLock(TransactionId tid) {
+        isolationLevels.remove(tid);
         if (!locksByTransaction.containsKey(tid)) {
             return;
         }
         
-        Set<PageId> pids = (ConcurrentHashSet<PageId>) locksByTransaction.get(tid);
+        Collection<PageId> pids = locksByTransaction.get(tid);
+        if (pids == null) {
+            return;
+        }
         Set<PageId> pidsCopy = new ConcurrentHashSet<>();
         for (PageId pid: pids) {
             pidsCopy.add(pid);
@@ -87,7 +124,17 @@ public class LockManager {
     }
     
     public boolean holdsLock(TransactionId tid, PageId pid) {
-        return locks.containsKey(pid) && locks.get(pid).getTransactions().contains(tid);
+        Lock lock = locks.get(pid);
+        return lock != null && lock.getTransactions().contains(tid);
+    }
+    
+    public void setIsolationLevel(TransactionId tid, IsolationLevel level) {
+        isolationLevels.put(tid, level);
+    }
+    
+    public IsolationLevel getIsolationLevel(TransactionId tid) {
+        IsolationLevel level = isolationLevels.get(tid);
+        return level == null ? IsolationLevel.DEFAULT : level;
     }
     
     private void accquireExclusiveLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
@@ -124,7 +171,9 @@ public class LockManager {
                    locks.get(pid).getTransactions().add(tid);
                    removeDependencies(tid);
                } else {
-                   if (!hasAddDep) {
+                   // another thread of tid may have removed its dependencies
+                   // by getting a lock meanwhile
+                   if (!hasAddDep || !dependencyGraph.containsKey(tid)) {
                        addDependencies(tid, locks.get(pid).getTransactions());
                        hasAddDep = true;
                    }
@@ -151,19 +200,26 @@ public class LockManager {
     }
     
     private Object getLock(PageId pid) {
-        if (!lockObject.containsKey(pid)) {
-            lockObject.put(pid, new Object());
+        Object lock = lockObject.get(pid);
+        if (lock == null) {
+            Object created = new Object();
+            lock = lockObject.putIfAbsent(pid, created);
+            if (lock == null) {
+                lock = created;
+            }
         }
-        return lockObject.get(pid);
+        return lock;
     }
     
     private void addDependencies(TransactionId tid, Set<TransactionId> waittids) throws TransactionAbortedException {
-        if (!dependencyGraph.containsKey(tid)) {
-            dependencyGraph.put(tid, new ConcurrentHashSet<>());
-        }
+        dependencyGraph.putIfAbsent(tid, new ConcurrentHashSet<>());
         
         boolean hasAdd = false;
-        ConcurrentHashSet<TransactionId> hasWait = (ConcurrentHashSet<TransactionId>) dependencyGraph.get(tid);
+        Collection<TransactionId> hasWait = dependencyGraph.get(tid);
+        if (hasWait == null) {
+            // removed by another thread of tid that got its lock
+            return;
+        }
         for (TransactionId waittid: waittids) {
             hasWait.add(waittid);
             hasAdd = true;
@@ -175,16 +231,24 @@ public class LockManager {
     }
     
     private void removeDependencies(TransactionId tid) {
-        if (dependencyGraph.containsKey(tid)) {
-            dependencyGraph.remove(tid);
-        }
+        dependencyGraph.remove(tid);
     }
     
     private void addLockInTransaction(TransactionId tid, PageId pid) {
-        if (!locksByTransaction.containsKey(tid)) {
-            locksByTransaction.put(tid, new ConcurrentHashSet<>());
+        while (true) {
+            locksByTransaction.putIfAbsent(tid, new ConcurrentHashSet<>());
+            Collection<PageId> pids = locksByTransaction.get(tid);
+            if (pids == null) {
+                continue;
+            }
+            synchronized (pids) {
+                // releaseLock may have dropped the set while it was empty
+                if (locksByTransaction.get(tid) == pids) {
+                    pids.add(pid);
+                    return;
+                }
+            }
         }
-        locksByTransaction.get(tid).add(pid);
     }
     
     /**
@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * LogBuffer collects appended log records in memory and writes them to the
+ * log sequentially, in large writes to its LogSegments.
+ * <p>
+ * Records are addressed by log sequence number (LSN), which is the
+ * position in the log (see LogSegments) at which the record starts, so LSNs
+ * handed out here are the same positions recovery and rollback read back. The buffer is a pair of
+ * direct ByteBuffers: appenders fill the active one while a flusher writes
+ * the other out, so a slow write never blocks appends for long.
+ * <p>
+ * Appends must be serialized by the caller (LogFile does so with its own
+ * lock); flushes may come from any thread.
+ *
+ * @Threadsafe
+ */
+public class LogBuffer {
+
+    /** Default size of each of the two buffers, in bytes. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private ByteBuffer active;  // protected by this
+    private ByteBuffer spare;  // protected by this
+    private final LogSegments segments;
+    private long activeStart;  // LSN of the first byte in active, protected by this
+    private long written;  // everything before this LSN is in the file, protected by this
+    private boolean flushing = false;  // a flusher owns spare, protected by this
+
+    public LogBuffer(LogSegments segments, int capacity) {
+        this.segments = segments;
+        active = ByteBuffer.allocateDirect(capacity);
+        spare = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Start appending at position end, e.g. when the log is started over
+     * or recovered. Any buffered records must have been flushed first.
+     */
+    public synchronized void reset(long end) {
+        waitForFlusher();
+        active.clear();
+        activeStart = end;
+        written = end;
+    }
+
+    /** @return the LSN the next appended record will get */
+    public synchronized long end() {
+        return activeStart + active.position();
+    }
+
+    /**
+     * Append a serialized record.
+     *
+     * @return the LSN of the record
+     */
+    public synchronized long append(byte[] record, int off, int len) throws IOException {
+        long lsn = end();
+        if (len > active.remaining()) {
+            // make room: write out what we have while holding the buffer
+            waitForFlusher();
+            writeActive();
+            if (len > active.capacity()) {
+                segments.write(ByteBuffer.wrap(record, off, len), activeStart);
+                activeStart += len;
+                written = activeStart;
+                return lsn;
+            }
+        }
+        active.put(record, off, len);
+        return lsn;
+    }
+
+    /**
+     * Make sure every record before lsn has been written to the log
+     * (not necessarily forced to disk). The write itself happens without
+     * holding the buffer, so appends can continue meanwhile.
+     */
+    public void flushTo(long lsn) throws IOException {
+        ByteBuffer out;
+        long start;
+        synchronized (this) {
+            waitForFlusher();
+            if (written >= lsn || active.position() == 0)
+                return;
+            out = active;
+            active = spare;
+            spare = out;
+            start = activeStart;
+            activeStart += out.position();
+            flushing = true;
+        }
+        long end = start + out.position();
+        try {
+            out.flip();
+            segments.write(out, start);
+        } finally {
+            out.clear();
+            synchronized (this) {
+                flushing = false;
+                if (end > written)
+                    written = end;
+                notifyAll();
+            }
+        }
+    }
+
+    /** Write out everything appended so far, e.g. before reading the file. */
+    public synchronized void drain() throws IOException {
+        waitForFlusher();
+        writeActive();
+    }
+
+    // write the active buffer inline; caller holds this and no flusher runs
+    private void writeActive() throws IOException {
+        if (active.position() == 0)
+            return;
+        active.flip();
+        segments.write(active, activeStart);
+        activeStart += active.limit();
+        written = activeStart;
+        active.clear();
+    }
+
+    private void waitForFlusher() {
+        boolean interrupted = false;
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
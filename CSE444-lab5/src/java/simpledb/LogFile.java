@@ -3,7 +3,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.nio.ByteBuffer;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -35,46 +35,76 @@ must not be declared synchronized and must begin with a block like:
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The format of the log is as follows:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
+<li> The log file itself holds a single long integer, the LSN of the
 last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records are stored in fixed-size segment files next to
+it (see LogSegments), which together form one address space.  A
+record's log sequence number (LSN) is its position in that space.
+Log records are variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer representing the LSN at
+which the record began.  The log ends at the first record that does
+not parse or whose trailing LSN is not its own.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and DELTA
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
+<li> UPDATE and DELTA records first hold the LSN of the same
+transaction's previous UPDATE or DELTA record, or -1 for its first one.
+These pointers chain each transaction's changes from newest to oldest,
+so rolling it back reads only its own records.
+
+<li>UPDATE RECORDS then consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
-<li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+<li> DELTA records describe the same kind of change as UPDATE records,
+but only carry the bytes that changed: a page id (see writePageId)
+followed by a PageDelta.  A page is logged with a full UPDATE record
+the first time it is written after a checkpoint (or startup), and with
+DELTA records after that, each relative to the previous one.
+
+<li> CHECKPOINT records consist of the offset at which the checkpoint
+began, then the active transactions at the time
+the checkpoint was taken and their first and last log record on disk.  The format
+of the transaction list is an integer count of the number of transactions, as well
+as a long integer transaction id, a long integer first record offset and
+the long integer offset of its last UPDATE or DELTA record (or -1)
+for each active transaction.  This is followed by the dirty page table:
+an integer count of pages, and for each a page id (see writePageId) and
+the long integer offset of the oldest record of that page that may not
+be on disk yet.
 
 </ul>
 
+<p> Records are not written to the segments directly.  They are
+serialized into a LogBuffer under the log lock and reach the segments
+in large sequential writes, either when the buffer fills or when
+someone needs them durable (see force()).  Anything that reads the log
+back must drain the buffer first.
+
+<p> Truncating the log drops whole segments before the oldest LSN that
+recovery may still need, so it copies nothing and holds the log lock
+only briefly.
+
 */
 
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final RandomAccessFile raf; // holds the checkpoint LSN
+    private final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,16 +112,49 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
+    static final long NO_PREV_LSN = -1;
+    /** Default bytes of undo information cached per live transaction. */
+    public static final long DEFAULT_UNDO_CACHE_BYTES = 1 << 20;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    // more than any PageId serializes to; guards against reading garbage
+    private final static int MAX_PAGE_ID_INTS = 16;
+    // rollback reads backwards, so read ahead about a record at a time
+    private final static int ROLLBACK_READ_SIZE = 4096;
 
-    long currentOffset = -1;//protected by this
+    long currentOffset = -1;//LSN of the next record, protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    // LSN of each live transaction's last UPDATE or DELTA record, protected by this
+    HashMap<Long,Long> tidToLastLogRecord = new HashMap<Long,Long>();
+    // recent undo information of each live transaction, protected by this
+    private final HashMap<Long, UndoLog> undoLogs = new HashMap<Long, UndoLog>();
+    private long undoCacheBytes = DEFAULT_UNDO_CACHE_BYTES; // protected by this
+    // pages with a full image in the log since the last checkpoint, protected by this
+    HashSet<PageId> imagedPages = new HashSet<PageId>();
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    long appended = 0; // records appended since startup, protected by this
+    private long appendedBytes = 0; // protected by this
+    private long checkpointBytes = 0; // appendedBytes at the last checkpoint, protected by this
+    private Checkpointer checkpointer; // protected by this
+    private LogFlusher flusher; // started by the first ASYNC commit, protected by this
+    private long asyncCommitMillis = LogFlusher.DEFAULT_INTERVAL_MILLIS; // protected by this
+    private IOException flusherFailure; // the force the LogFlusher failed, protected by this
+    private IOException checkpointerFailure; // not reported yet, protected by this
+    private final LogBuffer buffer;
+    private final RecordBuffer record = new RecordBuffer(); // protected by this
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final GroupCommit groupCommit = new GroupCommit(new GroupCommit.Flusher() {
+            public long flush() throws IOException {
+                return forceAppended();
+            }
+        });
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -102,11 +165,13 @@ public class LogFile {
         do it, while if someone starts adding log file entries, then first
         throw out the initial log file contents.
 
-        @param f The log file's name
+        @param f The log file's name; its segments are named after it
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, LogSegments.DEFAULT_SEGMENT_SIZE);
+        buffer = new LogBuffer(segments, LogBuffer.DEFAULT_CAPACITY);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -125,14 +190,55 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        appended++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            writeCheckpointLSN(NO_CHECKPOINT_ID);
+            currentOffset = segments.restart();
+            imagedPages.clear();
+            buffer.reset(currentOffset);
         }
+        record.reset();
+    }
+
+    // hand the record serialized into recordOut since preAppend() to the
+    // log buffer, and return its LSN
+    private long append() throws IOException {
+        long lsn = buffer.append(record.bytes(), 0, record.size());
+        appendedBytes += record.size();
+        if (checkpointer != null)
+            checkpointer.appended(appendedBytes - checkpointBytes);
+        currentOffset = buffer.end();
+        return lsn;
+    }
+
+    // write everything buffered to the segments, before reading them back
+    private void drain() throws IOException {
+        buffer.drain();
+    }
+
+    // the LSN of the last checkpoint, from the log file
+    private long readCheckpointLSN() throws IOException {
+        if (raf.length() < LONG_SIZE)
+            return NO_CHECKPOINT_ID;
+        raf.seek(0);
+        return raf.readLong();
+    }
+
+    private void writeCheckpointLSN(long lsn) throws IOException {
+        raf.seek(0);
+        raf.writeLong(lsn);
+        raf.getChannel().force(true);
+    }
+
+    /** @return the LSN the next log record will get */
+    public synchronized long getCurrentOffset() {
+        return currentOffset;
+    }
+
+    /** @return the segment file holding the given LSN */
+    public File segmentFile(long lsn) {
+        return segments.fileFor(lsn);
     }
 
     public synchronized int getTotalRecords() {
@@ -158,12 +264,13 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                record.reset();
+                recordOut.writeInt(ABORT_RECORD);
+                recordOut.writeLong(tid.getId());
+                recordOut.writeLong(currentOffset);
+                append();
                 force();
-                tidToFirstLogRecord.remove(tid.getId());
+                forget(tid.getId());
             }
         }
     }
@@ -171,128 +278,354 @@ public class LogFile {
     /** Write a commit record to disk for the specified tid,
         and force the log to disk.
 
+        The record is appended under the log lock, but the force is
+        shared with other committers through group commit, so this
+        returns once some leader has forced a batch containing it.
+
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        logCommit(tid, true);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Write a commit record for the specified tid, and possibly
+        wait for it to be durable.
+
+        @param tid The committing transaction.
+        @param force whether to wait for the record to be forced, as
+          in logCommit(tid).  If not, it is forced along with whatever
+          is forced next, by the background LogFlusher at the latest
+          (see Durability.ASYNC).
+    */
+    public void logCommit(TransactionId tid, boolean force) throws IOException {
+        long pos;
+        boolean siblings;
+        synchronized (this) {
+            checkFlusher();
+            checkCheckpointer();
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            recordOut.writeInt(COMMIT_RECORD);
+            recordOut.writeLong(tid.getId());
+            recordOut.writeLong(currentOffset);
+            append();
+            forget(tid.getId());
+            pos = appended;
+            // only worth waiting for a batch if others may commit soon
+            siblings = !tidToFirstLogRecord.isEmpty();
+            if (!force) {
+                if (flusher == null && asyncCommitMillis > 0) {
+                    flusher = new LogFlusher(this, asyncCommitMillis);
+                    flusher.start();
+                }
+                return;
+            }
+        }
+        groupCommit.await(pos, siblings);
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+    /** Set how often the log is forced in the background once there
+        are ASYNC commits, which bounds how many of them a crash can
+        lose.
+        @param millis the interval; 0 forces only when something
+          else does, e.g. a commit that waits for the log
+    */
+    public synchronized void setAsyncCommitInterval(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("negative async commit interval");
+        asyncCommitMillis = millis;
+        stopFlusher();
+    }
+
+    private void stopFlusher() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher = null;
+        }
+    }
+
+    /** Record that the LogFlusher failed to force the log.  The ASYNC
+        commits it was forcing may never become durable, so from then
+        on every commit and force of this log throws, rather than tell
+        a caller its commit is durable when it may not be.
+        @param e what the force threw
+    */
+    synchronized void flusherFailed(IOException e) {
+        if (flusherFailure == null)
+            flusherFailure = e;
+    }
+
+    // refuse to commit or force once the LogFlusher failed; the caller
+    // holds this
+    private void checkFlusher() throws IOException {
+        if (flusherFailure != null)
+            throw new IOException("background log force failed", flusherFailure);
+    }
+
+    /** Force the log if some record appended so far is not durable
+        yet, joining a batch already being forced if there is one. */
+    public void forcePending() throws IOException {
+        long pos;
+        synchronized (this) {
+            checkFlusher();
+            pos = appended;
+        }
+        if (groupCommit.durable() < pos)
+            groupCommit.await(pos, false);
+    }
+
+    /** @return true if every record appended so far is durable */
+    public synchronized boolean isForced() {
+        return groupCommit.durable() >= appended;
+    }
+
+    // drop what we keep about a transaction once it has finished
+    private void forget(long tidid) {
+        tidToFirstLogRecord.remove(tidid);
+        tidToLastLogRecord.remove(tidid);
+        undoLogs.remove(tidid);
+    }
+
+    /** Set how much undo information to keep in memory for each live
+        transaction.  Rolling back changes covered by it reads nothing
+        from the log.
+        @param bytes the limit per transaction; 0 disables the cache
+    */
+    public synchronized void setUndoCacheSize(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("negative undo cache size");
+        undoCacheBytes = bytes;
+        undoLogs.clear();
+    }
+
+    /** Force every record appended so far, joining a batch already
+        being forced if there is one.  Unlike logCommit this never
+        waits for others to join, since callers like
+        BufferPool.flushPage hold the buffer pool lock.
+    */
+    public void forceGrouped() throws IOException {
+        if (Thread.holdsLock(this)) {
+            // a leader would need our lock to force, so do it ourselves
+            force();
+            return;
+        }
+        long pos;
+        synchronized (this) {
+            checkFlusher();
+            pos = appended;
+        }
+        // e.g. writing back a page whose commit was forced already
+        if (groupCommit.durable() >= pos)
+            return;
+        groupCommit.await(pos, false);
+    }
+
+    /** Set the group commit policy.
+        @param maxWaitMicros how long a commit may wait for others to
+          join its log force
+        @param maxBatch force at once when this many commits are waiting
+        @see GroupCommit#setPolicy
+    */
+    public void setGroupCommitPolicy(long maxWaitMicros, int maxBatch) {
+        groupCommit.setPolicy(maxWaitMicros, maxBatch);
+    }
+
+    /** @return the average number of commits made durable by one force */
+    public double averageCommitBatch() {
+        return groupCommit.averageBatchSize();
+    }
+
+    /** Write an UPDATE or DELTA record to disk for the specified tid
+        and page (with provided         before and after images.)
+
+        Only the first write of a page after a checkpoint logs both
+        images in full; later ones log a DELTA record against before.
+        The caller must therefore make the page's before image match
+        what was logged (see Page.setBeforeImage) once this returns.
+
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the record
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        Long prev = tidToLastLogRecord.get(tid.getId());
+        long prevLSN = prev == null ? NO_PREV_LSN : prev;
+        UndoRecord undo;
+        long lsn;
+        if (!imagedPages.add(after.getId())) {
+            /* delta record consists of
+
+               record type
+               transaction id
+               previous record of the transaction
+               page id (see writePageId)
+               changed ranges (see PageDelta.write)
+               start offset
+            */
+            PageDelta delta = PageDelta.diff(before.getPageData(), after.getPageData());
+            recordOut.writeInt(DELTA_RECORD);
+            recordOut.writeLong(tid.getId());
+            recordOut.writeLong(prevLSN);
+            writePageId(recordOut, after.getId());
+            delta.write(recordOut);
+            recordOut.writeLong(currentOffset);
+            lsn = append();
+            undo = new UndoRecord(lsn, prevLSN, after.getId(), null, null, delta);
+        } else {
+            /* update record conists of
+
+               record type
+               transaction id
+               previous record of the transaction
+               before page data (see writePageData)
+               after page data
+               start offset
+            */
+            recordOut.writeInt(UPDATE_RECORD);
+            recordOut.writeLong(tid.getId());
+            recordOut.writeLong(prevLSN);
+
+            writePageData(recordOut,before);
+            writePageData(recordOut,after);
+            recordOut.writeLong(currentOffset);
+            lsn = append();
+            undo = new UndoRecord(lsn, prevLSN, before.getId(),
+                                  PageCodecs.codec(before.getClass()), before.getPageData(), null);
+        }
+        tidToLastLogRecord.put(tid.getId(), lsn);
+        if (undoCacheBytes > 0) {
+            UndoLog log = undoLogs.get(tid.getId());
+            if (log == null) {
+                log = new UndoLog();
+                undoLogs.put(tid.getId(), log);
+            }
+            log.add(undo, undoCacheBytes);
+        }
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput out, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
         //page data is:
-        // page class name
-        // id class name
+        // page codec (see writeCodec), or
+        //   page class name and id class name
         // id class bytes
         // id class data
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        int tag = PageCodecs.tag(p.getClass());
+        if (tag != PageCodecs.UNTAGGED && tag == PageCodecs.tag(pid.getClass())) {
+            writeCodec(out, tag);
+        } else {
+            out.writeUTF(p.getClass().getName());
+            out.writeUTF(pid.getClass().getName());
+        }
 
-        raf.writeInt(pageInfo.length);
+        out.writeInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+            out.writeInt(pageInfo[i]);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        out.writeInt(pageData.length);
+        out.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        // id codec or class name, then its serialized ints, as in writePageData
+        int pageInfo[] = pid.serialize();
+        int tag = PageCodecs.tag(pid.getClass());
+        if (tag != PageCodecs.UNTAGGED) {
+            writeCodec(out, tag);
+        } else {
+            out.writeUTF(pid.getClass().getName());
+        }
+        out.writeInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            out.writeInt(pageInfo[i]);
+        }
+    }
+
+    // a codec tag is written as an empty string followed by the tag, so
+    // readers can tell it from a class name, which is never empty
+    private static void writeCodec(DataOutput out, int tag) throws IOException {
+        out.writeShort(0);
+        out.writeShort(tag);
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    // read a codec tag or class name written by writeCodec or writeUTF
+    private static PageCodec readCodec(DataInput in) throws IOException {
+        int len = in.readUnsignedShort();
+        if (len == 0)
+            return PageCodecs.codec(in.readUnsignedShort());
+        return PageCodecs.codec(readName(in, len));
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+    // the rest of a writeUTF string of len bytes; class names are ASCII
+    private static String readName(DataInput in, int len) throws IOException {
+        byte[] name = new byte[len];
+        in.readFully(name);
+        return new String(name, "UTF-8");
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    PageId readPageId(DataInput in) throws IOException {
+        return readPageId(in, readCodec(in));
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    private static PageId readPageId(DataInput in, PageCodec codec) throws IOException {
+        int numIdArgs = in.readInt();
+        if (numIdArgs < 0 || numIdArgs > MAX_PAGE_ID_INTS)
+            throw new IOException("bad page id in log");
+        int idArgs[] = new int[numIdArgs];
+        for (int i = 0; i<numIdArgs;i++) {
+            idArgs[i] = in.readInt();
+        }
+        return codec.newPageId(idArgs);
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    // a page's codec and id, as written by writePageData before its bytes
+    private static class PageHeader {
+        final PageCodec codec;
+        final PageId pid;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        PageHeader(PageCodec codec, PageId pid) {
+            this.codec = codec;
+            this.pid = pid;
+        }
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+    private static PageHeader readPageHeader(DataInput in) throws IOException {
+        int len = in.readUnsignedShort();
+        PageCodec codec;
+        PageCodec idCodec;
+        if (len == 0) {
+            codec = idCodec = PageCodecs.codec(in.readUnsignedShort());
+        } else {
+            codec = PageCodecs.codec(readName(in, len));
+            idCodec = readCodec(in);
         }
-        return newPage;
+        return new PageHeader(codec, readPageId(in, idCodec));
+    }
 
+    Page readPageData(DataInput in) throws IOException {
+        PageHeader h = readPageHeader(in);
+        byte[] pageData = new byte[in.readInt()];
+        in.readFully(pageData);
+        return h.codec.newPage(h.pid, pageData);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,150 +640,183 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        recordOut.writeInt(BEGIN_RECORD);
+        recordOut.writeLong(tid.getId());
+        recordOut.writeLong(currentOffset);
+        tidToFirstLogRecord.put(tid.getId(), append());
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+
+        The checkpoint is fuzzy: it flushes no pages, and only holds
+        the buffer pool lock long enough to copy the dirty page table.
+        Recovery redoes from the oldest LSN in that table, or from
+        where the checkpoint began if that is older, so records
+        appended while the checkpoint was taken are not lost.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        long beginCpOffset;
+        synchronized (this) {
+            preAppend();
+            beginCpOffset = currentOffset;
+        }
+        Map<PageId, Long> dpt = Database.getBufferPool().dirtyPageTable();
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            long startCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            // the next write of each page logs a full image
+            imagedPages.clear();
+            record.reset();
+            startCpOffset = currentOffset;
+            recordOut.writeInt(CHECKPOINT_RECORD);
+            recordOut.writeLong(-1); //no tid , but leave space for convenience
+            recordOut.writeLong(beginCpOffset);
+
+            //write list of outstanding transactions
+            recordOut.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                recordOut.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                recordOut.writeLong(tidToFirstLogRecord.get(key));
+                Long last = tidToLastLogRecord.get(key);
+                recordOut.writeLong(last == null ? NO_PREV_LSN : last);
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            recordOut.writeInt(dpt.size());
+            for (Map.Entry<PageId, Long> e : dpt.entrySet()) {
+                writePageId(recordOut, e.getKey());
+                recordOut.writeLong(e.getValue());
             }
+            recordOut.writeLong(startCpOffset);
+            append();
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            force();
+            writeCheckpointLSN(startCpOffset);
+            checkpointBytes = appendedBytes;
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
+        synchronized (this) {
+            // an earlier failure no longer holds the log back
+            checkpointerFailure = null;
+        }
     }
 
-    /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+    /** Start taking checkpoints in the background, whenever maxBytes of
+        log have been appended since the last one, or every maxMillis
+        if anything was appended at all.  Replaces any running
+        schedule.
+        @param maxBytes log volume that triggers a checkpoint, or 0 for none
+        @param maxMillis time that triggers a checkpoint, or 0 for none
+    */
+    public void startCheckpointer(long maxBytes, long maxMillis) {
+        Checkpointer c = new Checkpointer(this, maxBytes, maxMillis);
+        Checkpointer old;
+        synchronized (this) {
+            old = checkpointer;
+            checkpointer = c;
+        }
+        // not holding the log, which a checkpoint takes
+        if (old != null)
+            old.shutdownAndWait();
+        c.start();
+    }
+
+    /** Record that the Checkpointer failed to take a checkpoint or
+        truncate the log.  Nothing is lost, but the log keeps growing
+        and recovery gets longer, so the next commit throws e instead
+        of going ahead; a checkpoint that succeeds first forgets it.
+        @param e what the checkpoint threw
+    */
+    synchronized void checkpointerFailed(IOException e) {
+        if (checkpointerFailure == null)
+            checkpointerFailure = e;
+    }
+
+    // report a failure of the Checkpointer, once; the caller holds this
+    private void checkCheckpointer() throws IOException {
+        IOException e = checkpointerFailure;
+        if (e != null) {
+            checkpointerFailure = null;
+            throw new IOException("background checkpoint failed", e);
+        }
+    }
+
+    /** Stop taking checkpoints in the background, waiting for one in
+        progress to end. */
+    public void stopCheckpointer() {
+        Checkpointer old;
+        synchronized (this) {
+            old = checkpointer;
+            checkpointer = null;
+        }
+        if (old != null)
+            old.shutdownAndWait();
+    }
 
-        long minLogRecord = cpLoc;
+    /** @return bytes of log appended since the last checkpoint */
+    public synchronized long bytesSinceCheckpoint() {
+        return appendedBytes - checkpointBytes;
+    }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
+    /** Truncate any unneeded portion of the log to reduce its space
+        consumption.  Only whole segments before the oldest record
+        recovery could need are dropped, so nothing is copied. */
+    public void logTruncate() throws IOException {
+        long minLogRecord;
+        synchronized (this) {
+            preAppend();
+            drain();
+            long cpLoc = readCheckpointLSN();
+
+            if (cpLoc == NO_CHECKPOINT_ID)
+                return;
+
+            minLogRecord = cpLoc;
+            LogInput in = new LogInput(segments, cpLoc);
+            int cpType = in.readInt();
             @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+            long cpTid = in.readLong();
 
             if (cpType != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
+            minLogRecord = Math.min(minLogRecord, in.readLong());
+            int numOutstanding = in.readInt();
 
             for (int i = 0; i < numOutstanding; i++) {
                 @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
+                long tid = in.readLong();
+                long firstLogRecord = in.readLong();
+                @SuppressWarnings("unused")
+                long lastLogRecord = in.readLong();
                 if (firstLogRecord < minLogRecord) {
                     minLogRecord = firstLogRecord;
                 }
             }
-        }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
 
-            } catch (EOFException e) {
-                break;
+            int numDirty = in.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                readPageId(in);
+                minLogRecord = Math.min(minLogRecord, in.readLong());
             }
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        // we can drop every segment before minLogRecord; nothing after
+        // it is touched, so appends need not wait for this
+        int dropped = segments.truncate(minLogRecord);
+        Debug.log("TRUNCATING LOG; DROPPED " + dropped + " SEGMENTS BEFORE " + minLogRecord);
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -467,41 +833,66 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
-                rollback(tid.getId(), currentOffset);
+                rollback(tid.getId());
             }
         }
     }
     
-    private void rollback(Long tidid, Long recordStart)
+    // Undo a transaction's changes, newest first, by following its
+    // chain of previous-record pointers back to its first record.  The
+    // newest changes usually come from its undo cache rather than the
+    // log, and pages are rebuilt in memory and written once each.
+    private void rollback(long tidid)
             throws NoSuchElementException, IOException {
             synchronized (Database.getBufferPool()) {
                 synchronized(this) {
                     preAppend();
                     // some code goes here
-                    // file pointer will remain recordStart position after rollback
                     if (!tidToFirstLogRecord.containsKey(tidid)) {
                         return;
                     }
-                    long recordStartCopy = recordStart;
-                    long startOffset = tidToFirstLogRecord.get(tidid);  
-                    while (recordStart > startOffset) {
-                        // find a record start offset and seek here
-                        raf.seek(recordStart-LONG_SIZE);
-                        recordStart = raf.readLong();
-                        raf.seek(recordStart);
-                        if (raf.readInt() == UPDATE_RECORD) {
-                            raf.seek(recordStart + INT_SIZE);
-                            if (raf.readLong() == tidid) {
-                                raf.seek(recordStart + INT_SIZE + LONG_SIZE);
-                                Page p = readPageData(raf);
-                                PageId pid = p.getId();
-                                Database.getBufferPool().discardPage(pid);
-                                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                                file.writePage(p);
-                            }
+                    long startOffset = tidToFirstLogRecord.get(tidid);
+                    Long last = tidToLastLogRecord.get(tidid);
+                    long lsn = last == null ? NO_PREV_LSN : last;
+                    UndoLog cached = undoLogs.get(tidid);
+                    Iterator<UndoRecord> newest = cached == null ? null
+                        : cached.records.descendingIterator();
+                    Map<PageId, PageImage> pages = new LinkedHashMap<PageId, PageImage>();
+                    LogInput in = null;
+                    while (lsn != NO_PREV_LSN && lsn >= startOffset) {
+                        UndoRecord u = newest != null && newest.hasNext() ? newest.next() : null;
+                        if (u != null && u.lsn == lsn) {
+                            u.undo(pages);
+                            lsn = u.prevLSN;
+                            continue;
+                        }
+                        newest = null;
+                        if (in == null) {
+                            drain();
+                            in = new LogInput(segments, lsn, ROLLBACK_READ_SIZE);
+                        }
+                        in.seek(lsn);
+                        int type = in.readInt();
+                        in.readLong();
+                        lsn = in.readLong();
+                        if (type == UPDATE_RECORD) {
+                            PageHeader h = readPageHeader(in);
+                            byte[] before = new byte[in.readInt()];
+                            in.readFully(before);
+                            pages.put(h.pid, new PageImage(h.codec, before));
+                        } else if (type == DELTA_RECORD) {
+                            PageId pid = readPageId(in);
+                            PageDelta.read(in).apply(PageImage.of(pages, pid).data, false);
+                        } else {
+                            throw new IOException("undo chain of " + tidid + " hits a record of type " + type);
                         }
                     }
-                    raf.seek(recordStartCopy);
+                    for (Map.Entry<PageId, PageImage> e : pages.entrySet()) {
+                        PageId pid = e.getKey();
+                        Database.getBufferPool().discardPage(pid);
+                        Database.getCatalog().getDatabaseFile(pid.getTableId())
+                            .writePage(e.getValue().toPage(pid));
+                    }
                 }
             }
         }
@@ -510,92 +901,296 @@ public class LogFile {
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
-        try {
-            logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
-        } catch (IOException e) {
-            System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
-            e.printStackTrace();
+    public void shutdown() {
+        stopCheckpointer();
+        synchronized (this) {
+            stopFlusher();
+            try {
+                logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+                drain();
+                raf.close();
+                segments.close();
+            } catch (IOException e) {
+                System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
+                e.printStackTrace();
+            }
         }
     }
 
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+
+        Recovery runs in three passes over the log, after ARIES:
+        <ul>
+        <li> Analysis reads forward from where the last checkpoint
+        began, starting
+        from its transaction table and dirty page table, to find the
+        transactions that never finished (losers), every page that
+        may need redo with the LSN of its oldest such record, and the
+        end of the last complete record.
+        <li> Redo repeats history from the oldest LSN in the dirty page
+        table, skipping records of pages not in it or older than
+        their entry.  Page changes are replayed by RedoWorkers, in
+        parallel across pages; at each ABORT record the workers are
+        drained and the transaction is rolled back, as it was before
+        the crash.
+        <li> Undo rolls back the losers and logs an ABORT record for
+        each, so a later recovery will not undo them again after
+        redoing newer changes.
+        </ul>
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
-                raf.seek(0);
-                // seek to first checkpoint if has checkpoint
-                long checkPoint = raf.readLong();
-                if (checkPoint != -1) {
-                    raf.seek(checkPoint);
-                    raf.readInt(); raf.readLong();
-                    int length = raf.readInt();
-                    for (int i = 0; i < length; i++) {
-                        long tidid = raf.readLong();
-                        long offset = raf.readLong();
-                        tidToFirstLogRecord.put(tidid, offset);
-                    }
-                    raf.readLong();
+                drain();
+                if (raf.length() < LONG_SIZE) {
+                    writeCheckpointLSN(NO_CHECKPOINT_ID);
                 }
-                while (raf.getFilePointer() < raf.length()) {
-                    int type = raf.readInt();
-                    long tidid = raf.readLong();
-                    
-                    switch (type) {
-                        case ABORT_RECORD:
-                            rollback(tidid, raf.getFilePointer()-LONG_SIZE-INT_SIZE);
-                            raf.readInt();
-                            raf.readLong();
-                            tidToFirstLogRecord.remove(tidid);
-                            break;
-                        case COMMIT_RECORD:
-                            tidToFirstLogRecord.remove(tidid);
-                            break;
-                        case BEGIN_RECORD:
-                            tidToFirstLogRecord.put(tidid, raf.getFilePointer()-LONG_SIZE-INT_SIZE);
-                            break;
-                        case UPDATE_RECORD:
-                            readPageData(raf);
-                            Page after = readPageData(raf);
-                            PageId pid = after.getId();
-                            Database.getBufferPool().discardPage(pid);
-                            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                            file.writePage(after);
-                            break;
-                    }
-                    raf.readLong();
+                Analysis a = analyze();
+                // drop whatever follows the last complete record: a
+                // record torn by the crash, or an old one in a recycled segment
+                segments.clear(a.end);
+                tidToFirstLogRecord.putAll(a.firstRecords);
+                tidToLastLogRecord.putAll(a.lastRecords);
+                undoLogs.clear();
+                redo(a);
+                currentOffset = a.end;
+                buffer.reset(currentOffset);
+                undo(a.losers);
+            }
+         }
+    }
+
+    /** Set the number of threads recover() replays page changes on.
+        Defaults to the number of processors.
+    */
+    public void setRecoveryThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one redo thread");
+        recoveryThreads = threads;
+    }
+
+    // what the analysis pass learned about the log
+    private static class Analysis {
+        // first record of every transaction seen, including finished ones
+        final Map<Long, Long> firstRecords = new HashMap<Long, Long>();
+        // last UPDATE or DELTA record of every transaction seen
+        final Map<Long, Long> lastRecords = new HashMap<Long, Long>();
+        final Set<Long> losers = new HashSet<Long>();
+        final Map<PageId, Long> dirtyPages = new HashMap<PageId, Long>();
+        long redoStart;
+        long end;
+    }
+
+    private Analysis analyze() throws IOException {
+        Analysis a = new Analysis();
+        long cp = readCheckpointLSN();
+        LogInput in = new LogInput(segments, segments.start());
+        if (cp != NO_CHECKPOINT_ID) {
+            in = new LogInput(segments, cp);
+            in.readInt(); in.readLong();
+            long begin = in.readLong();
+            int numXactions = in.readInt();
+            for (int i = 0; i < numXactions; i++) {
+                long tidid = in.readLong();
+                a.firstRecords.put(tidid, in.readLong());
+                long last = in.readLong();
+                if (last != NO_PREV_LSN)
+                    a.lastRecords.put(tidid, last);
+                a.losers.add(tidid);
+            }
+            int numDirty = in.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                PageId pid = readPageId(in);
+                a.dirtyPages.put(pid, in.readLong());
+            }
+            // the checkpoint is fuzzy: records appended while it was
+            // taken are not reflected in it, so look at those too
+            in = new LogInput(segments, begin);
+        }
+        a.redoStart = in.position();
+        for (long recLSN : a.dirtyPages.values()) {
+            a.redoStart = Math.min(a.redoStart, recLSN);
+        }
+
+        while (true) {
+            a.end = in.position();
+            try {
+                int type = in.readInt();
+                long tidid = in.readLong();
+                PageId pid = null;
+                switch (type) {
+                    case BEGIN_RECORD:
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        break;
+                    case UPDATE_RECORD:
+                        in.readLong();
+                        pid = skipPageData(in);
+                        skipPageData(in);
+                        break;
+                    case DELTA_RECORD:
+                        in.readLong();
+                        pid = readPageId(in);
+                        PageDelta.read(in);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpoint(in);
+                        break;
+                    default:
+                        throw new EOFException("bad log record type " + type);
+                }
+                if (in.readLong() != a.end) {
+                    // not a record of ours; e.g. left over in a recycled segment
+                    return a;
                 }
-                currentOffset = raf.getFilePointer();
-                Set<Long> remainTransaction = new HashSet<>();
-                for (long tidid: tidToFirstLogRecord.keySet()) {
-                    remainTransaction.add(tidid);
+                if (type == BEGIN_RECORD) {
+                    a.firstRecords.put(tidid, a.end);
+                    a.losers.add(tidid);
+                } else if (type == COMMIT_RECORD || type == ABORT_RECORD) {
+                    a.losers.remove(tidid);
                 }
-                for (long tidid: remainTransaction) {
-                    rollback(tidid, raf.getFilePointer());
-                    tidToFirstLogRecord.remove(tidid);
+                if (pid != null) {
+                    a.lastRecords.put(tidid, a.end);
+                    if (!a.dirtyPages.containsKey(pid))
+                        a.dirtyPages.put(pid, a.end);
                 }
+            } catch (IOException e) {
+                // a record that does not parse ends the log, unless the
+                // log could not be read at all
+                if (in.failure() != null)
+                    throw in.failure();
+                return a;
             }
-         }
+        }
+    }
+
+    private void redo(Analysis a) throws IOException {
+        RedoWorkers workers = new RedoWorkers(recoveryThreads);
+        try {
+            LogInput in = new LogInput(segments, a.redoStart);
+            while (in.position() < a.end) {
+                long lsn = in.position();
+                int type = in.readInt();
+                long tidid = in.readLong();
+                switch (type) {
+                    case UPDATE_RECORD: {
+                        in.readLong();
+                        noteLastRecord(tidid, lsn);
+                        PageId pid = skipPageData(in);
+                        if (needsRedo(a, pid, lsn)) {
+                            // hand over the raw after image, see writePageData
+                            PageCodec codec = readPageHeader(in).codec;
+                            byte[] after = workers.buffer(in.readInt());
+                            in.readFully(after);
+                            Database.getBufferPool().discardPage(pid);
+                            workers.redo(lsn, pid, codec, after);
+                        } else {
+                            skipPageData(in);
+                        }
+                        break;
+                    }
+                    case DELTA_RECORD: {
+                        in.readLong();
+                        noteLastRecord(tidid, lsn);
+                        PageId pid = readPageId(in);
+                        PageDelta delta = PageDelta.read(in);
+                        if (needsRedo(a, pid, lsn)) {
+                            Database.getBufferPool().discardPage(pid);
+                            workers.redo(lsn, pid, delta);
+                        }
+                        break;
+                    }
+                    case BEGIN_RECORD:
+                        if (!tidToFirstLogRecord.containsKey(tidid))
+                            tidToFirstLogRecord.put(tidid, lsn);
+                        break;
+                    case ABORT_RECORD:
+                        // the rollback before this record was not logged, so
+                        // repeat it here, once every earlier change is on disk.
+                        // Changes older than redoStart were not redone.
+                        if (!tidToFirstLogRecord.containsKey(tidid))
+                            tidToFirstLogRecord.put(tidid, a.redoStart);
+                        workers.barrier();
+                        rollback(tidid);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpoint(in);
+                        break;
+                }
+                in.readLong();
+            }
+        } finally {
+            workers.finish();
+        }
+    }
+
+    // redo may start before records analysis saw, so keep the newest
+    private void noteLastRecord(long tidid, long lsn) {
+        Long last = tidToLastLogRecord.get(tidid);
+        if (last == null || last < lsn)
+            tidToLastLogRecord.put(tidid, lsn);
+    }
+
+    private static boolean needsRedo(Analysis a, PageId pid, long lsn) {
+        Long recLSN = a.dirtyPages.get(pid);
+        return recLSN != null && lsn >= recLSN;
+    }
+
+    private void undo(Set<Long> losers) throws IOException {
+        for (long tidid : losers) {
+            rollback(tidid);
+            preAppend();
+            recordOut.writeInt(ABORT_RECORD);
+            recordOut.writeLong(tidid);
+            recordOut.writeLong(currentOffset);
+            append();
+        }
+        tidToFirstLogRecord.clear();
+        tidToLastLogRecord.clear();
+        undoLogs.clear();
+        force();
+    }
+
+    // skip a page written by writePageData, returning its id
+    private PageId skipPageData(DataInput in) throws IOException {
+        PageId pid = readPageHeader(in).pid;
+        skipFully(in, in.readInt());
+        return pid;
+    }
+
+    private static void skipFully(DataInput in, int n) throws IOException {
+        if (in.skipBytes(n) < n)
+            throw new EOFException();
+    }
+
+    private void skipCheckpoint(DataInput in) throws IOException {
+        in.readLong();
+        int numXactions = in.readInt();
+        skipFully(in, numXactions * 3 * LONG_SIZE);
+        int numDirty = in.readInt();
+        for (int i = 0; i < numDirty; i++) {
+            readPageId(in);
+            in.readLong();
+        }
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
+    public synchronized void print() throws IOException {
         // some code goes here
-        raf.seek(0);
-        if (raf.readLong() != -1) {
+        drain();
+        if (readCheckpointLSN() != -1) {
             System.out.println("has checkpoint");
         } else {
             System.out.println("no checkpoint");
         }
-        while (raf.getFilePointer() < raf.length()) {
-            int type = raf.readInt();
-            long tidid = raf.readLong();
+        LogInput in = new LogInput(segments, segments.start());
+        while (in.position() < currentOffset) {
+            int type = in.readInt();
+            long tidid = in.readLong();
             switch (type) {
                 case ABORT_RECORD:
                     System.out.println("Transaction " + tidid + " abort");
@@ -607,17 +1202,227 @@ public class LogFile {
                     System.out.println("Transaction " + tidid + " begin");
                     break;
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    readPageData(raf);
+                    in.readLong();
+                    Page before = readPageData(in);
+                    readPageData(in);
                     System.out.println("Transaction " + tidid + " modify data in page " + before.getId());
                     break;
+                case DELTA_RECORD:
+                    in.readLong();
+                    PageId pid = readPageId(in);
+                    PageDelta delta = PageDelta.read(in);
+                    System.out.println("Transaction " + tidid + " modify " + delta.numRanges() + " ranges in page " + pid);
+                    break;
+                case CHECKPOINT_RECORD:
+                    System.out.println("Checkpoint");
+                    skipCheckpoint(in);
+                    break;
             }
-            raf.readLong();
+            in.readLong();
        }
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        checkFlusher();
+        drain();
+        segments.force();
+        groupCommit.forced(appended);
+    }
+
+    // force on behalf of a group commit leader, without holding the log
+    // lock during the fsync so that others can keep appending.
+    private long forceAppended() throws IOException {
+        long pos, lsn;
+        synchronized (this) {
+            pos = appended;
+            lsn = currentOffset;
+        }
+        buffer.flushTo(lsn);
+        segments.force();
+        return pos;
+    }
+
+    // a page being rebuilt by rollback
+    private static class PageImage {
+        final PageCodec codec;
+        final byte[] data;
+
+        PageImage(PageCodec codec, byte[] data) {
+            this.codec = codec;
+            this.data = data;
+        }
+
+        // the image of pid in pages, read from its file if not there yet
+        static PageImage of(Map<PageId, PageImage> pages, PageId pid) {
+            PageImage image = pages.get(pid);
+            if (image == null) {
+                Database.getBufferPool().discardPage(pid);
+                Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                image = new PageImage(PageCodecs.codec(p.getClass()), p.getPageData());
+                pages.put(pid, image);
+            }
+            return image;
+        }
+
+        Page toPage(PageId pid) throws IOException {
+            return codec.newPage(pid, data);
+        }
+    }
+
+    // what undoing one UPDATE or DELTA record takes: a before image, or a delta
+    private static class UndoRecord {
+        final long lsn;
+        final long prevLSN;
+        final PageId pid;
+        final PageCodec codec;
+        final byte[] before;
+        final PageDelta delta;
+
+        UndoRecord(long lsn, long prevLSN, PageId pid, PageCodec codec, byte[] before,
+                   PageDelta delta) {
+            this.lsn = lsn;
+            this.prevLSN = prevLSN;
+            this.pid = pid;
+            this.codec = codec;
+            this.before = before;
+            this.delta = delta;
+        }
+
+        long size() {
+            return before != null ? before.length : delta.size();
+        }
+
+        void undo(Map<PageId, PageImage> pages) {
+            if (before != null)
+                pages.put(pid, new PageImage(codec, before.clone()));
+            else
+                delta.apply(PageImage.of(pages, pid).data, false);
+        }
+    }
+
+    // the newest undo records of a transaction, within a byte budget
+    private static class UndoLog {
+        final ArrayDeque<UndoRecord> records = new ArrayDeque<UndoRecord>();
+        long bytes = 0;
+
+        void add(UndoRecord r, long limit) {
+            records.addLast(r);
+            bytes += r.size();
+            while (bytes > limit && !records.isEmpty()) {
+                bytes -= records.removeFirst().size();
+            }
+        }
+    }
+
+    // the record being serialized, with direct access to its bytes
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(2 * BufferPool.PAGE_SIZE + 256);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    // reader of the log for recovery and rollback.  It reads the
+    // segments with positional reads, so several readers (redo, and the
+    // rollbacks it does) do not disturb each other.
+    private static class LogInput extends DataInputStream {
+        LogInput(LogSegments segments, long position) {
+            this(segments, position, LogBuffer.DEFAULT_CAPACITY);
+        }
+
+        LogInput(LogSegments segments, long position, int bufferSize) {
+            super(new SegmentInput(segments, position, bufferSize));
+        }
+
+        /** @return the LSN of the next byte to be read */
+        long position() {
+            return ((SegmentInput) in).position;
+        }
+
+        /** Continue reading at the given LSN. */
+        void seek(long position) {
+            ((SegmentInput) in).seek(position);
+        }
+
+        /** @return the error reading the segments failed with, if any */
+        IOException failure() {
+            return ((SegmentInput) in).failure;
+        }
+    }
+
+    private static class SegmentInput extends InputStream {
+        private final LogSegments segments;
+        private final ByteBuffer buf;
+        long position;  // LSN of the next byte returned
+        private long filePosition;  // LSN of the next byte to read into buf
+        IOException failure;
+
+        SegmentInput(LogSegments segments, long position, int bufferSize) {
+            this.segments = segments;
+            this.buf = ByteBuffer.allocate(bufferSize);
+            this.position = position;
+            this.filePosition = position;
+            buf.limit(0);
+        }
+
+        void seek(long pos) {
+            long bufStart = filePosition - buf.limit();
+            if (pos >= bufStart && pos <= filePosition) {
+                buf.position((int) (pos - bufStart));
+            } else {
+                filePosition = pos;
+                buf.limit(0);
+            }
+            position = pos;
+        }
+
+        private boolean fill() throws IOException {
+            buf.clear();
+            int n;
+            try {
+                n = segments.read(buf, filePosition);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            buf.flip();
+            if (n <= 0)
+                return false;
+            filePosition += n;
+            return true;
+        }
+
+        public int read() throws IOException {
+            if (!buf.hasRemaining() && !fill())
+                return -1;
+            position++;
+            return buf.get() & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!buf.hasRemaining() && !fill())
+                return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            position += n;
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            if (n <= buf.remaining()) {
+                buf.position(buf.position() + (int) n);
+            } else {
+                filePosition = position + n;
+                buf.limit(0);
+            }
+            position += n;
+            return n;
+        }
     }
 
 }
@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * LogFlusher is a background thread that forces a LogFile every so often,
+ * so that the commits of ASYNC transactions (see Durability) become durable
+ * within an interval of returning. Rounds in which nothing was appended
+ * force nothing. If a force fails, the thread stops, and the log refuses
+ * any further commit (see LogFile.flusherFailed).
+ */
+public class LogFlusher extends Thread {
+
+    /** Default time between forces, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+    private final LogFile log;
+    private final long intervalMillis;
+    private boolean stopped = false;  // protected by this
+
+    public LogFlusher(LogFile log, long intervalMillis) {
+        super("log-flusher");
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("log flush interval must be positive");
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+        setDaemon(true);
+    }
+
+    /** Stop the thread; a force in progress is finished first. */
+    public synchronized void shutdown() {
+        stopped = true;
+        notifyAll();
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    long until = System.currentTimeMillis() + intervalMillis;
+                    long wait;
+                    while (!stopped && (wait = until - System.currentTimeMillis()) > 0) {
+                        wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopped)
+                    return;
+            }
+            try {
+                log.forcePending();
+            } catch (IOException e) {
+                // commits and forces of the log throw it from now on
+                log.flusherFailed(e);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LogSegments stores the log as a sequence of fixed-size segment files, and
+ * presents them as one address space of log sequence numbers (LSNs).
+ * <p>
+ * Segment i holds the LSNs [i * segmentSize, (i + 1) * segmentSize) and is
+ * named after its log file plus the 16 hex digit LSN of its first byte, e.g.
+ * "log.0000000000400000". Records may span segments. LSNs only ever grow:
+ * a log that is started over continues after the highest segment ever used.
+ * <p>
+ * Truncating the log drops whole segments, which costs a rename or delete
+ * per segment and no copying. Dropped segments are kept on a free list (as
+ * "log.&lt;lsn&gt;.free") and recycled as new segments, and new segments are
+ * created at their full length, so appending never extends a file and a
+ * force only needs to sync data, not file sizes.
+ * <p>
+ * A consequence is that the bytes after the end of the log are not
+ * necessarily zero: a recycled segment still holds the records it had
+ * before. Those records carry their old LSNs, which are always lower than
+ * the LSNs they now sit at, so readers recognize the end of the log by a
+ * record whose trailing start offset is not its own LSN (see LogFile).
+ *
+ * @Threadsafe
+ */
+public class LogSegments {
+
+    /** Default size of a segment, in bytes. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 22;
+    /** Number of dropped segments kept for recycling. */
+    public static final int MAX_FREE = 4;
+
+    private static final String FREE_SUFFIX = ".free";
+
+    private final File log;
+    private final int segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();  // by index, protected by this
+    private final ArrayDeque<File> free = new ArrayDeque<>();  // protected by this
+    private long maxIndex = -1;  // highest segment index ever seen, protected by this
+    private long written;  // end of the data written so far, protected by this
+    private long forced;  // everything before this LSN is on disk, protected by this
+
+    private static class Segment {
+        final long index;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        volatile boolean synced = false;  // the file's length is on disk
+
+        Segment(long index, File f) throws IOException {
+            this.index = index;
+            this.raf = new RandomAccessFile(f, "rw");
+            this.channel = raf.getChannel();
+        }
+    }
+
+    /**
+     * Open the segments of the given log file.
+     *
+     * @param log the log file; segments are named after it
+     * @param segmentSize the size of each segment, in bytes
+     */
+    public LogSegments(File log, int segmentSize) throws IOException {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("segment size must be positive");
+        this.log = log;
+        this.segmentSize = segmentSize;
+        File dir = log.getAbsoluteFile().getParentFile();
+        String prefix = log.getName() + ".";
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (!name.startsWith(prefix))
+                continue;
+            String rest = name.substring(prefix.length());
+            boolean isFree = rest.endsWith(FREE_SUFFIX);
+            if (isFree)
+                rest = rest.substring(0, rest.length() - FREE_SUFFIX.length());
+            long lsn;
+            try {
+                lsn = Long.parseLong(rest, 16);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            File f = new File(dir, name);
+            if (lsn % segmentSize != 0) {
+                // written with another segment size; useless to us
+                f.delete();
+                continue;
+            }
+            long index = lsn / segmentSize;
+            maxIndex = Math.max(maxIndex, index);
+            if (isFree)
+                free.add(f);
+            else
+                segments.put(index, new Segment(index, f));
+        }
+        written = forced = start();
+    }
+
+    /** @return the size of each segment, in bytes */
+    public int segmentSize() {
+        return segmentSize;
+    }
+
+    private File file(long index) {
+        return new File(log.getAbsoluteFile().getParentFile(),
+                        String.format("%s.%016x", log.getName(), index * segmentSize));
+    }
+
+    /** @return the segment file that holds the given LSN */
+    public File fileFor(long lsn) {
+        return file(lsn / segmentSize);
+    }
+
+    /**
+     * @return the LSN of the oldest byte in the log, or where the log will
+     *   start if there are no segments yet
+     */
+    public synchronized long start() {
+        if (segments.isEmpty())
+            return (maxIndex + 1) * segmentSize;
+        return segments.firstKey() * segmentSize;
+    }
+
+    /**
+     * Drop every segment and start an empty log after them.
+     *
+     * @return the LSN of the first record of the new log
+     */
+    public synchronized long restart() throws IOException {
+        while (!segments.isEmpty()) {
+            drop(segments.pollFirstEntry().getValue());
+        }
+        written = forced = start();
+        return written;
+    }
+
+    /**
+     * Drop the segments that only hold LSNs before lsn. This is cheap: no
+     * data is copied, whole segments are recycled or deleted, and the files
+     * are dealt with after letting go of the segments, so writes and forces
+     * are not held up.
+     *
+     * @return the number of segments dropped
+     */
+    public int truncate(long lsn) throws IOException {
+        ArrayList<Segment> dropped = new ArrayList<>();
+        synchronized (this) {
+            while (!segments.isEmpty() && (segments.firstKey() + 1) * segmentSize <= lsn) {
+                dropped.add(segments.pollFirstEntry().getValue());
+            }
+        }
+        for (Segment s : dropped) {
+            drop(s);
+        }
+        return dropped.size();
+    }
+
+    /**
+     * Discard everything at and after lsn, e.g. a record torn by a crash,
+     * so that it is not mistaken for log records once the log has grown past
+     * it again. The rest of lsn's segment is zeroed and later segments are
+     * deleted; they are not recycled, since their records would be at their
+     * own LSNs again.
+     */
+    public synchronized void clear(long lsn) throws IOException {
+        long index = lsn / segmentSize;
+        while (!segments.isEmpty() && segments.lastKey() > index) {
+            Segment s = segments.pollLastEntry().getValue();
+            s.raf.close();
+            file(s.index).delete();
+        }
+        Segment s = segments.get(index);
+        if (s != null) {
+            // shrinking and regrowing the file zeroes the tail without writing it
+            s.raf.setLength(lsn - index * segmentSize);
+            s.raf.setLength(segmentSize);
+            s.channel.force(true);
+        }
+        written = forced = lsn;
+    }
+
+    // recycle or delete a segment that is no longer part of the log
+    private void drop(Segment s) throws IOException {
+        s.raf.close();
+        File f = file(s.index);
+        synchronized (this) {
+            if (free.size() < MAX_FREE) {
+                File to = new File(f.getPath() + FREE_SUFFIX);
+                if (f.renameTo(to)) {
+                    free.add(to);
+                    return;
+                }
+            }
+        }
+        f.delete();
+    }
+
+    // the segment with the given index, created if need be
+    private synchronized Segment segment(long index) throws IOException {
+        Segment s = segments.get(index);
+        if (s == null) {
+            File f = file(index);
+            File recycled = free.poll();
+            if (recycled == null || !recycled.renameTo(f)) {
+                if (recycled != null)
+                    recycled.delete();
+                f.delete();
+            }
+            s = new Segment(index, f);
+            if (s.raf.length() != segmentSize)
+                s.raf.setLength(segmentSize);
+            segments.put(index, s);
+            maxIndex = Math.max(maxIndex, index);
+        }
+        return s;
+    }
+
+    /**
+     * Write all of b at the given LSN, creating segments as needed. Writes
+     * must not run concurrently with each other (LogBuffer serializes them)
+     * but may with reads and forces.
+     */
+    public void write(ByteBuffer b, long lsn) throws IOException {
+        int limit = b.limit();
+        try {
+            while (b.hasRemaining()) {
+                long index = lsn / segmentSize;
+                Segment s = segment(index);
+                int room = (int) Math.min(b.remaining(), (index + 1) * segmentSize - lsn);
+                b.limit(b.position() + room);
+                while (b.hasRemaining()) {
+                    lsn += s.channel.write(b, lsn - index * segmentSize);
+                }
+                b.limit(limit);
+            }
+        } finally {
+            b.limit(limit);
+        }
+        synchronized (this) {
+            written = Math.max(written, lsn);
+        }
+    }
+
+    /**
+     * Read bytes starting at lsn into b, never across a segment boundary.
+     *
+     * @return the number of bytes read, or -1 if there is no segment at lsn
+     */
+    public int read(ByteBuffer b, long lsn) throws IOException {
+        long index = lsn / segmentSize;
+        Segment s;
+        synchronized (this) {
+            s = segments.get(index);
+        }
+        if (s == null)
+            return -1;
+        int limit = b.limit();
+        int room = (int) Math.min(b.remaining(), (index + 1) * segmentSize - lsn);
+        b.limit(b.position() + room);
+        try {
+            return s.channel.read(b, lsn - index * segmentSize);
+        } finally {
+            b.limit(limit);
+        }
+    }
+
+    /**
+     * Make everything written so far durable. Only the segments written
+     * since the last force are synced, without holding the segments, so
+     * writes can continue meanwhile.
+     */
+    public void force() throws IOException {
+        long from, to;
+        ArrayList<Segment> dirty = new ArrayList<>();
+        synchronized (this) {
+            from = forced;
+            to = written;
+            for (Map.Entry<Long, Segment> e
+                     : segments.subMap(from / segmentSize, true, to / segmentSize, true).entrySet()) {
+                dirty.add(e.getValue());
+            }
+        }
+        for (Segment s : dirty) {
+            try {
+                // the length only needs syncing once, since it never changes
+                s.channel.force(!s.synced);
+                s.synced = true;
+            } catch (ClosedChannelException e) {
+                // dropped meanwhile, so no longer part of the log
+            }
+        }
+        synchronized (this) {
+            forced = Math.max(forced, to);
+        }
+    }
+
+    /** Close all segment files. */
+    public synchronized void close() throws IOException {
+        for (Segment s : segments.values()) {
+            s.raf.close();
+        }
+    }
+}
@@ -22,6 +22,13 @@ import java.util.NoSuchElementException;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /**
+     * Most estimated selectivity of a range filter for which an index is
+     * used; each tuple an index finds costs a page read, so beyond this a
+     * scan is cheaper. Equality filters always use an index.
+     */
+    public static final double INDEX_SCAN_SELECTIVITY = 0.1;
+
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
@@ -33,8 +40,10 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean hasOrderBy = false;
+    private ArrayList<String> oByFields = new ArrayList<String>();
+    private ArrayList<Boolean> oByAsc = new ArrayList<Boolean>();
+    private int limit = -1, offset = 0; // no LIMIT if limit < 0
     private String query;
 //    private Query owner;
 
@@ -203,19 +212,32 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields added
+        later only order the tuples that are equal on the fields added before them.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAsc.add(asc);
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT, and maybe an OFFSET, to the query: only limit tuples are returned, after
+        skipping offset tuples.  Over an ORDER BY, only the tuples returned are sorted.
+        @param limit the most tuples to return
+        @param offset the number of tuples to skip first, 0 for none
+     * @throws ParsingException if either is negative
+    */
+    public void setLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0)
+            throw new ParsingException("LIMIT and OFFSET can not be negative");
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -334,13 +356,23 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            // the first selective enough filter on an indexed field of a
+            // table replaces its scan with a lookup
+            IndexFile index = null;
+            if (subplan instanceof SeqScan
+                && (lf.p == Predicate.Op.EQUALS || sel <= INDEX_SCAN_SELECTIVITY))
+                index = Database.getCatalog().getIndex(this.getTableId(lf.tableAlias), p.getField(), lf.p);
+            if (index != null)
+                subplanMap.put(lf.tableAlias, new IndexScan(t, index, lf.p, f, lf.tableAlias));
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
@@ -408,6 +440,10 @@ public class LogicalPlan {
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
 
+        // a query of one big table scans it on all the cores; the inputs of
+        // joins are left alone, as a join may rewind them many times
+        node = ParallelScan.parallelize(node);
+
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
@@ -460,12 +496,23 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int afield = td.fieldNameToIndex(aggField);
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                if (gfield != Aggregator.NO_GROUPING && Exchange.worthSplitting(node)) {
+                    // each group is aggregated on the thread its hash goes to
+                    int threads = Exchange.getDefaultDegree();
+                    HashRepartition groups = new HashRepartition(
+                        new DbIterator[] { ParallelScan.parallelize(node) }, gfield, threads);
+                    DbIterator[] aggs = new DbIterator[threads];
+                    for (int i = 0; i < threads; i++) {
+                        aggs[i] = new Aggregate(groups.getOutput(i), afield, gfield, getAggOp(aggOp));
+                    }
+                    aggNode = new Gather(aggs).getOutput();
+                } else {
+                    aggNode = new Aggregate(node, afield, gfield, getAggOp(aggOp));
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,10 +522,31 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                try {
+                    fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + oByFields.get(i) + " in ORDER BY");
+                }
+                asc[i] = oByAsc.get(i);
+            }
+            if (limit >= 0 && (long) limit + offset <= Integer.MAX_VALUE)
+                // only the tuples returned need sorting
+                node = new TopN(limit + offset, fields, asc, node);
+            else
+                node = new OrderBy(fields, asc, node);
+        }
+
+        if (limit >= 0) {
+            node = new Limit(limit, offset, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        DbIterator plan = new Project(outFields, outTypes, node);
+        if (explain)
+            System.out.println(Exchange.explain(plan));
+        return plan;
     }
 
     public static void main(String argv[]) {
@@ -7,7 +7,8 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST either be registered with PageCodecs,
+ * or have a single constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -47,7 +48,8 @@ public interface Page {
     public byte[] getPageData();
 
     /** Provide a representation of this page before any modifications were made
-        to it.  Used by recovery.
+        to it.  Used by recovery, which only needs its id and page data,
+        so it may be a read-only view rather than a full page.
     */
     public Page getBeforeImage();
 
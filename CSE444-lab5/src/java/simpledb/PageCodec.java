@@ -0,0 +1,26 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCodec builds the pages and page ids of one kind of page from their
+ * serialized form, as recovery and rollback read them back from the log.
+ *
+ * @see PageCodecs
+ */
+public interface PageCodec {
+
+    /**
+     * @param data the integers from PageId.serialize
+     * @return the page id they describe
+     * @throws IOException if data does not describe a page id of this kind
+     */
+    public PageId newPageId(int[] data) throws IOException;
+
+    /**
+     * @param pid the id of the page
+     * @param data the bytes from Page.getPageData
+     * @return the page they describe
+     */
+    public Page newPage(PageId pid, byte[] data) throws IOException;
+}
@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageCodecs is the registry of PageCodecs, keyed by a small integer tag
+ * that the log writes in place of the page and page id class names.
+ * <p>
+ * Every registered codec constructs its pages and ids directly. Pages
+ * whose classes are not registered are logged by class name and built
+ * through reflection, using the constructors Page and PageId require; so
+ * are all pages in logs written before tags existed.
+ *
+ * @Threadsafe
+ */
+public class PageCodecs {
+
+    /** Tag of pages logged by class name. */
+    public static final int UNTAGGED = 0;
+    /** Tag of HeapPage and HeapPageId. */
+    public static final int HEAP = 1;
+    /** Tag of the pages of a BTreeFile and BTreePageId. */
+    public static final int BTREE = 2;
+    /** Tag of the pages of a HashIndexFile and HashPageId. */
+    public static final int HASH = 3;
+
+    private static final Map<Integer, PageCodec> byTag = new ConcurrentHashMap<Integer, PageCodec>();
+    private static final Map<Class<?>, Integer> tags = new ConcurrentHashMap<Class<?>, Integer>();
+    // every codec in use, including those built for untagged classes
+    private static final Map<Class<?>, PageCodec> byClass = new ConcurrentHashMap<Class<?>, PageCodec>();
+    private static final Map<String, PageCodec> byName = new ConcurrentHashMap<String, PageCodec>();
+
+    static {
+        register(HEAP, HeapPage.class, HeapPageId.class, new PageCodec() {
+                public PageId newPageId(int[] data) throws IOException {
+                    if (data.length != 2)
+                        throw new IOException("bad heap page id");
+                    return new HeapPageId(data[0], data[1]);
+                }
+
+                public Page newPage(PageId pid, byte[] data) throws IOException {
+                    return new HeapPage((HeapPageId) pid, data);
+                }
+            });
+        // heap before images are logged, and rebuilt, as heap pages
+        registerPageClass(HEAP, HeapPage.beforeImageClass());
+        PageCodec btree = new PageCodec() {
+                public PageId newPageId(int[] data) throws IOException {
+                    if (data.length != 2)
+                        throw new IOException("bad B+ tree page id");
+                    return new BTreePageId(data[0], data[1]);
+                }
+
+                public Page newPage(PageId pid, byte[] data) throws IOException {
+                    return BTreePage.create((BTreePageId) pid, data);
+                }
+            };
+        register(BTREE, BTreeLeafPage.class, BTreePageId.class, btree);
+        registerPageClass(BTREE, BTreeInternalPage.class);
+        registerPageClass(BTREE, BTreeHeaderPage.class);
+        register(HASH, HashBucketPage.class, HashPageId.class, new PageCodec() {
+                public PageId newPageId(int[] data) throws IOException {
+                    if (data.length != 2)
+                        throw new IOException("bad hash page id");
+                    return new HashPageId(data[0], data[1]);
+                }
+
+                public Page newPage(PageId pid, byte[] data) throws IOException {
+                    return HashPage.create((HashPageId) pid, data);
+                }
+            });
+        registerPageClass(HASH, HashDirectoryPage.class);
+    }
+
+    private PageCodecs() {
+    }
+
+    /**
+     * Register the codec for a kind of page and its ids.
+     *
+     * @param tag the tag to log them with, a positive short that no other
+     *   codec has; it must not change once logs have been written with it
+     */
+    public static synchronized void register(int tag, Class<? extends Page> pageClass,
+                                             Class<? extends PageId> idClass, PageCodec codec) {
+        if (tag <= UNTAGGED || tag > Short.MAX_VALUE)
+            throw new IllegalArgumentException("bad codec tag " + tag);
+        if (byTag.containsKey(tag))
+            throw new IllegalArgumentException("codec tag " + tag + " is taken");
+        byTag.put(tag, codec);
+        tags.put(pageClass, tag);
+        tags.put(idClass, tag);
+        byClass.put(pageClass, codec);
+        byClass.put(idClass, codec);
+    }
+
+    /**
+     * Log another page class with the codec registered under tag, for a
+     * codec that builds pages of several classes.
+     */
+    public static synchronized void registerPageClass(int tag, Class<? extends Page> pageClass) {
+        PageCodec codec = byTag.get(tag);
+        if (codec == null)
+            throw new IllegalArgumentException("no codec tag " + tag);
+        tags.put(pageClass, tag);
+        byClass.put(pageClass, codec);
+    }
+
+    /** @return the tag of a page or page id class, or UNTAGGED */
+    public static int tag(Class<?> c) {
+        Integer tag = tags.get(c);
+        return tag == null ? UNTAGGED : tag;
+    }
+
+    /** @return the codec registered under tag */
+    public static PageCodec codec(int tag) throws IOException {
+        PageCodec codec = byTag.get(tag);
+        if (codec == null)
+            throw new IOException("unknown page codec tag " + tag);
+        return codec;
+    }
+
+    /** @return the codec for a page or page id class */
+    public static PageCodec codec(Class<?> c) {
+        PageCodec codec = byClass.get(c);
+        if (codec == null) {
+            codec = new ReflectiveCodec(c);
+            byClass.put(c, codec);
+        }
+        return codec;
+    }
+
+    /** @return the codec for the page or page id class of the given name */
+    public static PageCodec codec(String className) throws IOException {
+        PageCodec codec = byName.get(className);
+        if (codec == null) {
+            try {
+                codec = codec(Class.forName(className));
+            } catch (ClassNotFoundException e) {
+                throw new IOException("unknown class in log: " + className, e);
+            }
+            byName.put(className, codec);
+        }
+        return codec;
+    }
+
+    // builds untagged pages, or page ids, with their required constructor
+    private static class ReflectiveCodec implements PageCodec {
+        private final Class<?> c;
+        private final Constructor<?> cons;
+
+        ReflectiveCodec(Class<?> c) {
+            this.c = c;
+            Constructor<?>[] all = c.getDeclaredConstructors();
+            this.cons = all.length == 0 ? null : all[0];
+        }
+
+        public PageId newPageId(int[] data) throws IOException {
+            if (!PageId.class.isAssignableFrom(c) || cons == null
+                || data.length != cons.getParameterTypes().length)
+                throw new IOException("bad page id in log");
+            Object[] args = new Object[data.length];
+            for (int i = 0; i < data.length; i++) {
+                args[i] = data[i];
+            }
+            return (PageId) newInstance(args);
+        }
+
+        public Page newPage(PageId pid, byte[] data) throws IOException {
+            if (!Page.class.isAssignableFrom(c) || cons == null)
+                throw new IOException("bad page in log");
+            return (Page) newInstance(pid, data);
+        }
+
+        private Object newInstance(Object... args) throws IOException {
+            try {
+                return cons.newInstance(args);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // the log names a class that is not what it should be
+                throw new IOException("cannot build " + c.getName(), e);
+            }
+        }
+    }
+}
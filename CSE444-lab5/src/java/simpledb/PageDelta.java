@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * PageDelta is the set of byte ranges in which two images of a page differ,
+ * with the bytes of both images for each range.
+ * <p>
+ * Inserting or deleting a tuple only changes the tuple's slot and a bit of
+ * the header, so logging the delta instead of two full page images shrinks
+ * an update record from two pages to a few dozen bytes. Applying the after
+ * bytes redoes the change; applying the before bytes undoes it. Both are
+ * only correct on a page that is exactly in the other image's state, so the
+ * deltas of a page must be logged and replayed in order.
+ */
+public class PageDelta {
+
+    /**
+     * Ranges closer than this are merged, since a range costs more to
+     * describe than a few unchanged bytes.
+     */
+    private static final int MERGE_GAP = 8;
+
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(int[] offsets, byte[][] before, byte[][] after) {
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Compute the delta between two images of the same page.
+     */
+    public static PageDelta diff(byte[] oldData, byte[] newData) {
+        if (oldData.length != newData.length)
+            throw new IllegalArgumentException("page images differ in size");
+        ArrayList<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < newData.length) {
+            if (oldData[i] == newData[i]) {
+                i++;
+                continue;
+            }
+            int start = i, end = i + 1, gap = 0;
+            for (i = end; i < newData.length && gap <= MERGE_GAP; i++) {
+                if (oldData[i] != newData[i]) {
+                    end = i + 1;
+                    gap = 0;
+                } else {
+                    gap++;
+                }
+            }
+            ranges.add(new int[] {start, end});
+            i = end;
+        }
+
+        int[] offsets = new int[ranges.size()];
+        byte[][] before = new byte[ranges.size()][];
+        byte[][] after = new byte[ranges.size()][];
+        for (int r = 0; r < ranges.size(); r++) {
+            int start = ranges.get(r)[0], len = ranges.get(r)[1] - start;
+            offsets[r] = start;
+            before[r] = new byte[len];
+            after[r] = new byte[len];
+            System.arraycopy(oldData, start, before[r], 0, len);
+            System.arraycopy(newData, start, after[r], 0, len);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+
+    /** @return the number of changed byte ranges */
+    public int numRanges() {
+        return offsets.length;
+    }
+
+    /** @return the number of bytes the delta holds, before and after */
+    public int size() {
+        int n = 0;
+        for (byte[] b : after) {
+            n += 2 * b.length;
+        }
+        return n;
+    }
+
+    /**
+     * Write the ranges: an integer count, then for each range an integer
+     * offset, an integer length, and the before and after bytes.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(after[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    /**
+     * Read ranges written by {@link #write}.
+     *
+     * @throws IOException if the ranges do not fit in a page
+     */
+    public static PageDelta read(DataInput in) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int n = in.readInt();
+        if (n < 0 || n > pageSize)
+            throw new IOException("bad page delta");
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            if (offsets[r] < 0 || len < 0 || len > pageSize - offsets[r])
+                throw new IOException("bad page delta");
+            before[r] = new byte[len];
+            after[r] = new byte[len];
+            in.readFully(before[r]);
+            in.readFully(after[r]);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+
+    /**
+     * Apply the delta in place to the serialized page data.
+     *
+     * @param redo apply the after bytes if true, the before bytes otherwise
+     */
+    public void apply(byte[] data, boolean redo) {
+        byte[][] images = redo ? after : before;
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(images[r], 0, data, offsets[r], images[r].length);
+        }
+    }
+
+    /**
+     * Build a new image of page p with the delta applied.
+     *
+     * @param redo apply the after bytes if true, the before bytes otherwise
+     */
+    public Page apply(Page p, boolean redo) throws IOException {
+        byte[] data = p.getPageData();
+        apply(data, redo);
+        return PageCodecs.codec(p.getClass()).newPage(p.getId(), data);
+    }
+}
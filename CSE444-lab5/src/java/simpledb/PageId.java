@@ -6,8 +6,9 @@ public interface PageId {
     /** Return a representation of this page id object as a collection of
         integers (used for logging)
 
-        This class MUST have a constructor that accepts n integer parameters,
-        where n is the number of integers returned in the array from serialize.
+        This class MUST either be registered with PageCodecs, or have a
+        constructor that accepts n integer parameters, where n is the number
+        of integers returned in the array from serialize.
     */
     public int[] serialize();
 
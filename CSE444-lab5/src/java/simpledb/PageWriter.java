@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageWriter is a background thread that writes back the pages that
+ * NO_FORCE and ASYNC commits (see Durability) only logged. Keeping their
+ * number small keeps recovery short, lets the log be truncated past their
+ * records, and spares eviction from writing pages on a transaction's
+ * behalf.
+ * <p>
+ * Every interval it writes all such pages, oldest log record first, a few
+ * at a time so that transactions waiting on the buffer pool get in between.
+ * A write that fails is reported to the next caller that flushes or logs
+ * pages (see BufferPool.pageWriterFailed), and retried the next round.
+ */
+public class PageWriter extends Thread {
+
+    /** Default time between rounds, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    /** Pages written per visit to the buffer pool. */
+    public static final int BATCH_PAGES = 16;
+
+    private static volatile long defaultIntervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+    private final BufferPool pool;
+    private final long intervalMillis;
+    private boolean stopped = false;  // protected by this
+    private long written = 0;  // protected by this
+
+    public PageWriter(BufferPool pool, long intervalMillis) {
+        super("page-writer");
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("page writer interval must be positive");
+        this.pool = pool;
+        this.intervalMillis = intervalMillis;
+        setDaemon(true);
+    }
+
+    /**
+     * Set the interval of the writer each Database starts with its buffer
+     * pool from now on.
+     *
+     * @param millis time between rounds of writes, or 0 to start none
+     */
+    public static void setDefaultInterval(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("negative page writer interval");
+        defaultIntervalMillis = millis;
+    }
+
+    /** @return the interval of the writer a Database starts, or 0 if none */
+    public static long getDefaultInterval() {
+        return defaultIntervalMillis;
+    }
+
+    /** Stop the thread; a batch in progress is finished first. */
+    public synchronized void shutdown() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Stop the thread and wait for it to end. Must not be called holding
+     * a lock the thread takes, such as the buffer pool's.
+     */
+    public void shutdownAndWait() {
+        shutdown();
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /** @return the number of pages written so far */
+    public synchronized long pagesWritten() {
+        return written;
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    long until = System.currentTimeMillis() + intervalMillis;
+                    long wait;
+                    while (!stopped && (wait = until - System.currentTimeMillis()) > 0) {
+                        wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopped)
+                    return;
+            }
+            try {
+                int n;
+                do {
+                    n = pool.writeLoggedPages(BATCH_PAGES);
+                    synchronized (this) {
+                        written += n;
+                    }
+                } while (n == BATCH_PAGES && !isStopped());
+            } catch (IOException e) {
+                // the pages stay logged; the next flush or commit reports it
+                pool.pageWriterFailed(e);
+            }
+        }
+    }
+}
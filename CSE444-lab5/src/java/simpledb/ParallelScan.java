@@ -0,0 +1,345 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelScan runs a scan of a HeapFile, with the Filters and Project over
+ * it, on several threads at once. The pages of the table are cut into
+ * morsels of a few pages each; every thread takes the next morsel nobody has
+ * taken yet, filters and projects its tuples, and hands them over in chunks
+ * through a bounded queue, so a fast thread just takes more morsels.
+ * <p>
+ * The threads read pages through the BufferPool under the transaction of
+ * the scan, so they take the same locks SeqScan would. The tuples are the
+ * ones the wrapped plan returns, but not in the same order.
+ */
+public class ParallelScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default size of a morsel, in pages. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    /** Smallest table, in pages, that parallelize runs on several threads. */
+    public static final int MIN_PAGES = 4 * DEFAULT_MORSEL_PAGES;
+
+    // the most tuples a thread hands over at once
+    private static final int CHUNK_TUPLES = TupleBatch.DEFAULT_SIZE;
+
+    // put by each thread when it is done
+    private static final List<Tuple> DONE = new ArrayList<Tuple>();
+
+    private static int defaultThreads = Runtime.getRuntime().availableProcessors();
+
+    private DbIterator plan;
+    private SeqScan scan;
+    private final ArrayList<Predicate> filters = new ArrayList<Predicate>();
+    private List<Integer> fields; // projected out, or null to keep them all
+    private final int threads;
+    private final int morselPages;
+
+    private transient Worker[] workers;
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient AtomicInteger nextMorsel;
+    private transient volatile boolean stopped;
+    private transient volatile Exception failure;
+    private transient int numPages;
+    private transient int finished; // threads that put DONE
+    private transient List<Tuple> chunk;
+    private transient int pos; // the next tuple of chunk to return
+
+    /** Set the number of threads scans use by default. */
+    public static void setDefaultThreads(int threads) {
+        defaultThreads = threads;
+    }
+
+    /** @return the number of threads scans use by default */
+    public static int getDefaultThreads() {
+        return defaultThreads;
+    }
+
+    /**
+     * Constructor, with the default number of threads and morsels of
+     * DEFAULT_MORSEL_PAGES pages.
+     *
+     * @param plan
+     *            A SeqScan of a HeapFile, under any number of Filters and at
+     *            most one Project on top
+     */
+    public ParallelScan(DbIterator plan) {
+        this(plan, defaultThreads, DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * @param threads the number of threads to scan with
+     * @param morselPages the number of pages a thread takes at once
+     */
+    public ParallelScan(DbIterator plan, int threads, int morselPages) {
+        if (threads < 1 || morselPages < 1)
+            throw new IllegalArgumentException("need a thread and a page at least");
+        this.threads = threads;
+        this.morselPages = morselPages;
+        setPlan(plan);
+    }
+
+    /**
+     * @return plan run on the default number of threads if it is a scan
+     *   ParallelScan can run and its table has MIN_PAGES pages or more;
+     *   plan itself otherwise
+     */
+    public static DbIterator parallelize(DbIterator plan) {
+        if (defaultThreads < 2)
+            return plan;
+        SeqScan scan = scanOf(plan);
+        if (scan == null)
+            return plan;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof HeapFile) || ((HeapFile) file).numPages() < MIN_PAGES)
+            return plan;
+        return new ParallelScan(plan);
+    }
+
+    /**
+     * @return the SeqScan at the bottom of plan, if it is one under Filters
+     *   and at most one Project; null for any other plan
+     */
+    public static SeqScan scanOf(DbIterator plan) {
+        if (plan instanceof Project)
+            plan = ((Project) plan).getChildren()[0];
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        return plan instanceof SeqScan ? (SeqScan) plan : null;
+    }
+
+    // find the scan, filters and projection of plan
+    private void setPlan(DbIterator plan) {
+        SeqScan s = scanOf(plan);
+        if (s == null)
+            throw new IllegalArgumentException("can only scan in parallel under Filters and a Project");
+        if (!(Database.getCatalog().getDatabaseFile(s.getTableId()) instanceof HeapFile))
+            throw new IllegalArgumentException("can only scan a HeapFile in parallel");
+        this.plan = plan;
+        scan = s;
+        fields = null;
+        filters.clear();
+        DbIterator it = plan;
+        if (it instanceof Project) {
+            fields = ((Project) it).getFields();
+            it = ((Project) it).getChildren()[0];
+        }
+        for (; it instanceof Filter; it = ((Filter) it).getChildren()[0]) {
+            filters.add(((Filter) it).getPredicate());
+        }
+    }
+
+    /** @return the plan run in parallel */
+    public DbIterator getPlan() {
+        return plan;
+    }
+
+    /** @return the number of threads the scan runs on */
+    public int getThreads() {
+        return threads;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return plan.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        TransactionId tid = scan.getTransactionId();
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        BufferPool bp = Database.getBufferPool();
+        if (bp.getIsolationLevel(tid).locksFileExtent()) {
+            // keep appenders out until we commit, as HeapFileIterator does
+            bp.lockPage(tid, file.extentId(), Permissions.READ_ONLY);
+        }
+        numPages = file.numPages();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    private void start() {
+        stopped = false;
+        failure = null;
+        finished = 0;
+        chunk = null;
+        nextMorsel = new AtomicInteger();
+        queue = new ArrayBlockingQueue<List<Tuple>>(2 * threads);
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker();
+            workers[i].start();
+        }
+    }
+
+    // make the threads give up, and wait for them
+    private void stop() {
+        if (workers == null)
+            return;
+        stopped = true;
+        boolean interrupted = false;
+        for (Worker w : workers) {
+            while (w.isAlive()) {
+                try {
+                    w.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        workers = null;
+        queue = null;
+        chunk = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (chunk != null && pos < chunk.size())
+                return chunk.get(pos++);
+            if (finished == workers.length)
+                return null;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted waiting for scan threads");
+            }
+            pos = 0;
+            if (chunk == DONE) {
+                finished++;
+                chunk = null;
+                rethrow();
+            }
+        }
+    }
+
+    // throw what a thread failed with, if one did
+    private void rethrow() throws DbException, TransactionAbortedException {
+        Exception e = failure;
+        if (e == null)
+            return;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        throw new DbException("scan thread failed: " + e);
+    }
+
+    /** @return the wrapped plan, which is not run itself */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { plan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (plan != children[0])
+            setPlan(children[0]);
+    }
+
+    /**
+     * A thread of the scan: takes morsels until there are none left, and
+     * puts the tuples that pass the filters, projected, on the queue.
+     */
+    private class Worker extends Thread {
+
+        private List<Tuple> out = new ArrayList<Tuple>();
+
+        public void run() {
+            try {
+                scanMorsels();
+                if (!out.isEmpty())
+                    put(out);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                put(DONE);
+            }
+        }
+
+        private void scanMorsels() throws DbException, TransactionAbortedException {
+            TransactionId tid = scan.getTransactionId();
+            int tableId = scan.getTableId();
+            TupleDesc td = getTupleDesc();
+            BufferPool bp = Database.getBufferPool();
+            int m;
+            while (!quit() && (m = nextMorsel.getAndIncrement()) < (numPages + morselPages - 1) / morselPages) {
+                int end = Math.min(numPages, (m + 1) * morselPages);
+                for (int pgNo = m * morselPages; pgNo < end && !quit(); pgNo++) {
+                    HeapPageId pid = new HeapPageId(tableId, pgNo);
+                    HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        if (passes(t))
+                            add(fields == null ? t : project(t, td));
+                    }
+                    bp.doneReadingPage(tid, pid);
+                }
+            }
+        }
+
+        // give up once the scan is closed or a thread failed
+        private boolean quit() {
+            return stopped || failure != null;
+        }
+
+        private boolean passes(Tuple t) {
+            for (int i = 0; i < filters.size(); i++) {
+                if (!filters.get(i).filter(t))
+                    return false;
+            }
+            return true;
+        }
+
+        private Tuple project(Tuple t, TupleDesc td) {
+            Tuple p = new Tuple(td);
+            p.setRecordId(t.getRecordId());
+            for (int i = 0; i < fields.size(); i++) {
+                p.setField(i, t.getField(fields.get(i)));
+            }
+            return p;
+        }
+
+        private void add(Tuple t) {
+            out.add(t);
+            if (out.size() == CHUNK_TUPLES) {
+                put(out);
+                out = new ArrayList<Tuple>();
+            }
+        }
+
+        // wait for room on the queue, unless the scan is closed and nobody
+        // reads it any more
+        private void put(List<Tuple> tuples) {
+            try {
+                while (!queue.offer(tuples, 10, TimeUnit.MILLISECONDS)) {
+                    if (stopped)
+                        return;
+                }
+            } catch (InterruptedException e) {
+                failure = new DbException("scan thread interrupted");
+            }
+        }
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -134,6 +136,11 @@ public class Parser {
 
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
+        // the LIMIT taken off the statement is the outermost query's, not
+        // that of any subquery parsed below
+        int queryLimit = limit, queryOffset = offset;
+        limit = -1;
+        offset = 0;
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
@@ -253,20 +260,19 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
+        if (queryLimit >= 0)
+            lp.setLimit(queryLimit, queryOffset);
         return lp;
     }
 
@@ -463,9 +469,87 @@ public class Parser {
         }
     }
 
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(.*?)\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // the LIMIT and OFFSET of the statement being parsed; no LIMIT if
+    // limit < 0
+    private int limit = -1, offset = 0;
+
+    /**
+     * Zql does not know LIMIT, so take a trailing LIMIT n [OFFSET m] off a
+     * statement before handing it over; parseQueryLogicalPlan adds it to the
+     * plan of the query.
+     *
+     * @return s without its LIMIT clause, ended by a ';'
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches())
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(2));
+            offset = m.group(3) == null ? 0 : Integer.parseInt(m.group(3));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT or OFFSET too large");
+        }
+        return m.group(1) + ";";
+    }
+
+    private static final Pattern ISOLATION_STATEMENT = Pattern.compile(
+            "\\s*SET\\s+TRANSACTION\\s+ISOLATION\\s+LEVEL\\s+(.*?)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Handle SET TRANSACTION ISOLATION LEVEL level. Like SET TRANSACTION, this
+     * starts a new transaction if none is running; otherwise it changes the
+     * isolation level of the current one.
+     *
+     * @return false if s is not an isolation level statement
+     */
+    public boolean handleIsolationStatement(String s)
+            throws simpledb.ParsingException {
+        Matcher m = ISOLATION_STATEMENT.matcher(s);
+        if (!m.matches())
+            return false;
+
+        IsolationLevel level;
+        try {
+            level = IsolationLevel.parse(m.group(1));
+        } catch (IllegalArgumentException e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        }
+        if (curtrans == null) {
+            curtrans = new Transaction();
+            curtrans.setIsolationLevel(level);
+            curtrans.start();
+            inUserTrans = true;
+            System.out.println("Started a new transaction tid = "
+                    + curtrans.getId().getId());
+        } else {
+            curtrans.setIsolationLevel(level);
+        }
+        System.out.println("Transaction " + curtrans.getId().getId()
+                + " isolation level is " + level);
+        return true;
+    }
+
+    private static byte[] readStatementBytes(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
@@ -503,8 +587,19 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // Zql does not know SET TRANSACTION ISOLATION LEVEL, so look at
+            // the raw text before handing it over
+            byte[] statementBytes = readStatementBytes(is);
+            if (handleIsolationStatement(new String(statementBytes, "UTF-8")))
+                return;
+            statementBytes = stripLimit(new String(statementBytes, "UTF-8")).getBytes("UTF-8");
+
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(statementBytes));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery || s instanceof ZInsert)) {
+                limit = -1;
+                throw new simpledb.ParsingException("LIMIT only applies to queries");
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -575,6 +670,10 @@ public class Parser {
             System.out.println("Invalid SQL expression: \n \t " + e);
         } catch (Zql.TokenMgrError e) {
             System.out.println("Invalid SQL expression: \n \t " + e);
+        } finally {
+            // not left over for the next statement if this one failed
+            limit = -1;
+            offset = 0;
         }
     }
 
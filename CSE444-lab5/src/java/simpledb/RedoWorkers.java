@@ -0,0 +1,255 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * RedoWorkers replays logged page changes on a pool of threads during
+ * recovery.
+ * <p>
+ * Work is partitioned by PageId: every change to a given page goes to the
+ * same worker, in the order it was handed in, so each page sees its log
+ * records in LSN order while different pages are redone in parallel. A
+ * worker keeps the pages it is rebuilding in memory as serialized page data,
+ * so a run of deltas to one page costs one read and one write of the page,
+ * and only writes pages back at a barrier, when it holds too many (least
+ * recently used first), or at the end.
+ * <p>
+ * Each cached page remembers the LSN of the last record applied to it, and
+ * records at or below that LSN are skipped, so handing in a record twice is
+ * harmless.
+ */
+public class RedoWorkers {
+
+    /** Share of the heap the workers may fill with pages being rebuilt. */
+    private static final int HEAP_FRACTION = 4;
+    private static final int QUEUE_SIZE = 1024;
+    private static final int POOL_SIZE = 256;
+
+    private final Worker[] workers;
+    private final int maxCachedPages;  // per worker
+    // page images handed back by the workers, for reuse by buffer()
+    private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(POOL_SIZE);
+    private volatile Exception failure;
+
+    // one unit of work; exactly one of image, delta and barrier is set
+    private static class Task {
+        final PageId pid;
+        final long lsn;
+        final PageCodec codec;
+        final byte[] image;
+        final PageDelta delta;
+        final CountDownLatch barrier;
+
+        Task(PageId pid, long lsn, PageCodec codec, byte[] image, PageDelta delta,
+             CountDownLatch barrier) {
+            this.pid = pid;
+            this.lsn = lsn;
+            this.codec = codec;
+            this.image = image;
+            this.delta = delta;
+            this.barrier = barrier;
+        }
+    }
+
+    private static final Task STOP = new Task(null, -1, null, null, null, null);
+
+    // a page being rebuilt
+    private static class CachedPage {
+        PageCodec codec;
+        byte[] data;
+        long lsn;
+    }
+
+    private class Worker extends Thread {
+        final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final LinkedHashMap<PageId, CachedPage> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+        Worker(int i) {
+            super("redo-" + i);
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (true) {
+                Task t;
+                try {
+                    t = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    if (t == STOP) {
+                        writeBack();
+                        return;
+                    } else if (t.barrier != null) {
+                        writeBack();
+                    } else if (failure == null) {
+                        apply(t);
+                    }
+                } catch (Exception e) {
+                    failure = e;
+                } finally {
+                    if (t.barrier != null)
+                        t.barrier.countDown();
+                }
+            }
+        }
+
+        private void apply(Task t) throws IOException {
+            CachedPage p = pages.get(t.pid);
+            if (p != null && p.lsn >= t.lsn) {
+                release(t.image);
+                return;
+            }
+            if (p == null) {
+                p = new CachedPage();
+                pages.put(t.pid, p);
+            }
+            if (t.image != null) {
+                release(p.data);
+                p.codec = t.codec;
+                p.data = t.image;
+            } else {
+                if (p.data == null) {
+                    Page onDisk = file(t.pid).readPage(t.pid);
+                    p.codec = PageCodecs.codec(onDisk.getClass());
+                    p.data = onDisk.getPageData();
+                }
+                t.delta.apply(p.data, true);
+            }
+            p.lsn = t.lsn;
+            if (pages.size() > maxCachedPages) {
+                Iterator<Map.Entry<PageId, CachedPage>> it = pages.entrySet().iterator();
+                Map.Entry<PageId, CachedPage> eldest = it.next();
+                write(eldest.getKey(), eldest.getValue());
+                release(eldest.getValue().data);
+                it.remove();
+            }
+        }
+
+        private void writeBack() throws IOException {
+            for (Map.Entry<PageId, CachedPage> e : pages.entrySet()) {
+                write(e.getKey(), e.getValue());
+                release(e.getValue().data);
+            }
+            pages.clear();
+        }
+
+        private void write(PageId pid, CachedPage p) throws IOException {
+            file(pid).writePage(p.codec.newPage(pid, p.data));
+        }
+    }
+
+    /**
+     * Start n worker threads.
+     */
+    public RedoWorkers(int n) {
+        long budget = Runtime.getRuntime().maxMemory() / HEAP_FRACTION;
+        maxCachedPages = (int) Math.max(64, budget / BufferPool.getPageSize() / n);
+        workers = new Worker[n];
+        for (int i = 0; i < n; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    private static DbFile file(PageId pid) {
+        return Database.getCatalog().getDatabaseFile(pid.getTableId());
+    }
+
+    /**
+     * @return an array for a page image of the given size, to be filled
+     *   and handed to redo; arrays of images already written are reused
+     */
+    public byte[] buffer(int size) {
+        byte[] b = buffers.poll();
+        return b != null && b.length == size ? b : new byte[size];
+    }
+
+    // the pages built from images do not keep them, so once written they
+    // can be reused
+    private void release(byte[] image) {
+        if (image != null)
+            buffers.offer(image);
+    }
+
+    private void submit(Worker w, Task t) throws IOException {
+        try {
+            w.queue.put(t);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted during redo");
+        }
+    }
+
+    /**
+     * Redo a change by installing the full after image of the page.
+     *
+     * @param codec the codec of the page the image is serialized from
+     * @param image the serialized page, as from Page.getPageData; possibly
+     *   from buffer(), and not to be used by the caller afterwards
+     */
+    public void redo(long lsn, PageId pid, PageCodec codec, byte[] image) throws IOException {
+        submit(workers[Math.floorMod(pid.hashCode(), workers.length)],
+               new Task(pid, lsn, codec, image, null, null));
+    }
+
+    /** Redo a change by applying a delta to the page. */
+    public void redo(long lsn, PageId pid, PageDelta delta) throws IOException {
+        submit(workers[Math.floorMod(pid.hashCode(), workers.length)],
+               new Task(pid, lsn, null, null, delta, null));
+    }
+
+    /**
+     * Wait until everything handed in so far is applied and written to
+     * disk, e.g. before changing pages directly.
+     *
+     * @throws IOException if any redo failed
+     */
+    public void barrier() throws IOException {
+        CountDownLatch latch = new CountDownLatch(workers.length);
+        for (Worker w : workers) {
+            submit(w, new Task(null, -1, null, null, null, latch));
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted during redo");
+        }
+        checkFailure();
+    }
+
+    /**
+     * Write back all remaining pages and stop the workers.
+     *
+     * @throws IOException if any redo failed
+     */
+    public void finish() throws IOException {
+        for (Worker w : workers) {
+            submit(w, STOP);
+        }
+        for (Worker w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted during redo");
+            }
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure != null)
+            throw new IOException(failure);
+    }
+}
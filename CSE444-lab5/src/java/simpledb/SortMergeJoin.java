@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs sorted on their join fields by reading
+ * them in step. Inputs that are not already sorted ascending on their join
+ * field (by an OrderBy or ExternalSort below them) are sorted with an
+ * ExternalSort, so they may be larger than memory.
+ * <p>
+ * For an equality, each left tuple joins the run of right tuples with its
+ * key; the run is kept while the left key stays the same, so runs of equal
+ * keys on both sides cost one pass over each. For an inequality, the
+ * matches of each tuple on one side are a prefix of the other side, which
+ * only grows as the first side goes on: left &gt; right (or &gt;=) joins
+ * each left tuple with the right tuples read so far, and left &lt; right
+ * (or &lt;=) each right tuple with the left tuples read so far. Either way
+ * no pair that does not join is ever looked at.
+ * <p>
+ * The run or prefix is held in memory up to a memory budget, and beyond it
+ * in a temporary file (see TupleFile).
+ * <p>
+ * The output tuples are the same as Join's (the fields of child1, then
+ * those of child2), but not necessarily in the same order.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final TupleDesc td;
+    private long memoryBudget = ExternalSort.getDefaultMemoryBudget();
+
+    private DbIterator sorted1;
+    private DbIterator sorted2;
+    private boolean outerLeft; // whether child1 drives the merge
+    private DbIterator outerInput;
+    private DbIterator innerInput;
+    private int outerField;
+    private int innerField;
+    private Tuple outer;
+    private Tuple pending; // the next inner tuple not yet in the run
+    private Run run;
+    private boolean inRun; // joining outer with the run
+
+    // tuples of the inner side that join the current outer tuple
+    private class Run {
+        private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        private TupleFile spilled; // what did not fit in tuples
+        private final int size = innerInput.getTupleDesc().getSize();
+        private int pos;
+
+        void add(Tuple t) throws DbException {
+            if (tuples.isEmpty() || (long) (tuples.size() + 1) * size <= memoryBudget) {
+                tuples.add(t);
+                return;
+            }
+            try {
+                if (spilled == null)
+                    spilled = new TupleFile(innerInput.getTupleDesc());
+                spilled.add(t);
+            } catch (IOException e) {
+                throw new DbException("can not spill join input: " + e.getMessage());
+            }
+        }
+
+        // the first tuple is always in memory
+        boolean isEmpty() {
+            return tuples.isEmpty();
+        }
+
+        Field key() {
+            return tuples.get(0).getField(innerField);
+        }
+
+        void start() throws DbException {
+            pos = 0;
+            if (spilled != null)
+                spilled.open();
+        }
+
+        Tuple next() throws DbException {
+            if (pos < tuples.size())
+                return tuples.get(pos++);
+            return spilled != null && spilled.hasNext() ? spilled.next() : null;
+        }
+
+        void clear() {
+            tuples.clear();
+            if (spilled != null) {
+                spilled.delete();
+                spilled = null;
+            }
+        }
+    }
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be EQUALS or
+     *            one of the inequalities GREATER_THAN, GREATER_THAN_OR_EQ,
+     *            LESS_THAN and LESS_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join can not do " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return whether a sort-merge join can join on op */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the tuples of it come sorted ascending on the given
+     *   field, as far as can be told from its operator
+     */
+    public static boolean sortedOn(DbIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof ExternalSort) {
+            ExternalSort s = (ExternalSort) it;
+            return s.isASC() && s.getSortField() == field;
+        }
+        return false;
+    }
+
+    /**
+     * Set the memory budget of this join, and of the sorts of its inputs;
+     * takes effect when it is next opened.
+     *
+     * @param bytes the most tuple data to hold in memory
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        memoryBudget = bytes;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private DbIterator sorted(DbIterator child, int field) {
+        if (sortedOn(child, field))
+            return child;
+        ExternalSort s = new ExternalSort(field, true, child);
+        s.setMemoryBudget(memoryBudget);
+        return s;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        sorted1 = sorted(child1, p.getField1());
+        sorted2 = sorted(child2, p.getField2());
+        sorted1.open();
+        sorted2.open();
+        // for <, the left tuples below a right tuple are its matches
+        Predicate.Op op = p.getOperator();
+        outerLeft = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+        outerInput = outerLeft ? sorted1 : sorted2;
+        innerInput = outerLeft ? sorted2 : sorted1;
+        outerField = outerLeft ? p.getField1() : p.getField2();
+        innerField = outerLeft ? p.getField2() : p.getField1();
+        run = new Run();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        outer = null;
+        inRun = false;
+        run.clear();
+        pending = innerInput.hasNext() ? innerInput.next() : null;
+    }
+
+    public void close() {
+        super.close();
+        if (sorted1 != null) {
+            sorted1.close();
+            sorted2.close();
+        }
+        if (run != null)
+            run.clear();
+        sorted1 = sorted2 = outerInput = innerInput = null;
+        run = null;
+        outer = pending = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        sorted1.rewind();
+        sorted2.rewind();
+        start();
+    }
+
+    // whether outer and inner join
+    private boolean joins(Tuple outer, Tuple inner) {
+        return outerLeft ? p.filter(outer, inner) : p.filter(inner, outer);
+    }
+
+    // make run the inner tuples that join outer
+    private void advance() throws DbException, TransactionAbortedException {
+        Field key = outer.getField(outerField);
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            if (!run.isEmpty() && run.key().equals(key))
+                return;
+            run.clear();
+            while (pending != null
+                   && pending.getField(innerField).compare(Predicate.Op.LESS_THAN, key)) {
+                pending = innerInput.hasNext() ? innerInput.next() : null;
+            }
+        }
+        // the prefix of an inequality only grows, and a run of equal keys
+        // is all joining tuples starting at pending
+        while (pending != null && joins(outer, pending)) {
+            run.add(pending);
+            pending = innerInput.hasNext() ? innerInput.next() : null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @see Join#fetchNext
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inRun) {
+                Tuple inner = run.next();
+                if (inner != null)
+                    return outerLeft ? Join.merge(td, outer, inner) : Join.merge(td, inner, outer);
+                inRun = false;
+            }
+            if (!outerInput.hasNext())
+                return null;
+            outer = outerInput.next();
+            advance();
+            if (!run.isEmpty()) {
+                run.start();
+                inRun = true;
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
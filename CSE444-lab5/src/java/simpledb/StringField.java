@@ -55,15 +55,17 @@ public class StringField implements Field {
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
 		String s = value;
-		int overflow = maxSize - s.length();
-		if (overflow < 0) {
-			String news = s.substring(0, maxSize);
-			s = news;
-		}
-		dos.writeInt(s.length());
-		dos.writeBytes(s);
-		while (overflow-- > 0)
-			dos.write((byte) 0);
+		int len = Math.min(s.length(), maxSize);
+		// built in one array and written at once: a write a byte is
+		// most of the cost of writing tuples to temporary files
+		byte[] buf = new byte[maxSize + 4];
+		buf[0] = (byte) (len >>> 24);
+		buf[1] = (byte) (len >>> 16);
+		buf[2] = (byte) (len >>> 8);
+		buf[3] = (byte) len;
+		for (int i = 0; i < len; i++)
+			buf[i + 4] = (byte) s.charAt(i);
+		dos.write(buf);
 	}
 
 	/**
@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN returns the first n tuples of its child in the order of an OrderBy
+ * on the same fields, holding no more than n tuples at once instead of the
+ * whole input. The child is read through a bounded heap whose root is the
+ * last of the n best tuples so far; a tuple that sorts before the root
+ * takes its place. Tuples that compare equal come out in the order the
+ * child returned them, as from OrderBy.
+ * <p>
+ * LIMIT n OFFSET m over ORDER BY is a Limit over a TopN of n + m tuples.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private final int[] fields;
+    private final boolean[] asc;
+    private final int n;
+
+    private ArrayList<Tuple> top; // sorted, once the child is read
+    private Iterator<Tuple> it;
+
+    // a tuple in the heap, with its position in the input for ties
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * @param n
+     *            the number of tuples to return
+     * @param fields
+     *            the fields to sort on, first to last
+     * @param asc
+     *            for each field, true if its sort order is ascending
+     * @param child
+     *            the tuples to sort
+     */
+    public TopN(int n, int[] fields, boolean[] asc, DbIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("can not keep " + n + " tuples");
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need an order for each sort field");
+        this.n = n;
+        this.fields = fields;
+        this.asc = asc;
+        this.child = child;
+    }
+
+    /** @return the number of tuples kept */
+    public int getN() {
+        return n;
+    }
+
+    public int[] getOrderByFields() {
+        return fields;
+    }
+
+    public boolean[] getAscending() {
+        return asc;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        top = select();
+        it = top.iterator();
+        super.open();
+    }
+
+    // read the child, keeping the n tuples that sort first
+    private ArrayList<Tuple> select() throws DbException, TransactionAbortedException {
+        final Comparator<Tuple> order = new TupleComparator(fields, asc);
+        // later in the order is greater, so the root of a max-heap of
+        // these is the tuple to drop first
+        Comparator<Entry> byOrder = new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                int c = order.compare(e1.tuple, e2.tuple);
+                return c != 0 ? c : Long.compare(e1.seq, e2.seq);
+            }
+        };
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        if (n == 0)
+            return result;
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(
+            Math.min(n, 1024), Collections.reverseOrder(byOrder));
+        long seq = 0;
+        while (child.hasNext()) {
+            Entry e = new Entry(child.next(), seq++);
+            if (heap.size() < n) {
+                heap.add(e);
+            } else if (byOrder.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        ArrayList<Entry> entries = new ArrayList<Entry>(heap);
+        Collections.sort(entries, byOrder);
+        for (Entry e : entries) {
+            result.add(e.tuple);
+        }
+        return result;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+        it = null;
+    }
+
+    /** Start over from the tuples kept; the child is not read again. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return it != null && it.hasNext() ? it.next() : null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -8,7 +8,11 @@ import java.io.*;
  */
 
 public class Transaction {
+    private static volatile Durability defaultDurability = Durability.DEFAULT;
+
     private final TransactionId tid;
+    private volatile IsolationLevel isolation = IsolationLevel.DEFAULT;
+    private volatile Durability durability = defaultDurability;
     volatile boolean started = false;
 
     public Transaction() {
@@ -18,6 +22,7 @@ public class Transaction {
     /** Start the transaction running */
     public void start() {
         started = true;
+        Database.getBufferPool().setIsolationLevel(tid, isolation);
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -29,6 +34,42 @@ public class Transaction {
         return tid;
     }
 
+    /**
+     * Set the isolation level of this transaction. Locks already taken keep
+     * the policy they were acquired under; only later reads are affected.
+     */
+    public void setIsolationLevel(IsolationLevel isolation) {
+        this.isolation = isolation;
+        if (started) {
+            Database.getBufferPool().setIsolationLevel(tid, isolation);
+        }
+    }
+
+    public IsolationLevel getIsolationLevel() {
+        return isolation;
+    }
+
+    /**
+     * Set the durability of transactions created from now on that do not
+     * set their own.
+     */
+    public static void setDefaultDurability(Durability durability) {
+        defaultDurability = durability;
+    }
+
+    public static Durability getDefaultDurability() {
+        return defaultDurability;
+    }
+
+    /** Set what this transaction's commit waits for; see Durability. */
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -47,9 +88,15 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
-                Database.getLogFile().logCommit(tid);
+                Durability d = durability;
+                if (d.forcesPages()) {
+                    //write all the dirty pages for this transaction out
+                    Database.getBufferPool().flushPages(tid);
+                } else {
+                    //only log them; recovery redoes them after a crash
+                    Database.getBufferPool().logPages(tid);
+                }
+                Database.getLogFile().logCommit(tid, d.forcesLog());
             }
 
             try {
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of a TupleDesc by column, as
+ * BatchIterators pass them: the values of an INT_TYPE column in an int
+ * array, and those of any other column as Fields. Operators on a batch work
+ * a column at a time, in loops over primitive arrays, and make no Tuple per
+ * row.
+ * <p>
+ * A batch is reused: an operator fills the same batch on every call, so a
+ * batch is only valid until the next call to the iterator it came from.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints; // per column; null for columns not INT_TYPE
+    private final Field[][] fields; // per column; null for INT_TYPE columns
+    private final RecordId[] rids;
+    private int size;
+
+    /**
+     * Create an empty batch of DEFAULT_SIZE rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param capacity the most rows the batch holds
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("batch must hold at least one row");
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+        rids = new RecordId[capacity];
+    }
+
+    // a batch over the given columns of another
+    private TupleBatch(TupleDesc td, TupleBatch from, int[] columns) {
+        this.td = td;
+        capacity = from.capacity;
+        ints = new int[columns.length][];
+        fields = new Field[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = from.ints[columns[i]];
+            fields[i] = from.fields[columns[i]];
+        }
+        rids = from.rids;
+        size = from.size;
+    }
+
+    /**
+     * @return a batch of the given columns of this one, in the given order;
+     *   it shares their values with this batch, so copies none
+     */
+    public TupleBatch project(TupleDesc td, int[] columns) {
+        return new TupleBatch(td, this, columns);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the most rows the batch holds */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows in the batch */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Remove all the rows. */
+    public void clear() {
+        // let go of the Fields, but the ints may stay
+        for (Field[] column : fields) {
+            if (column != null)
+                Arrays.fill(column, 0, size, null);
+        }
+        Arrays.fill(rids, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @return the values of INT_TYPE column i; only the first size() are
+     *   rows of the batch
+     */
+    public int[] intColumn(int i) {
+        if (ints[i] == null)
+            throw new IllegalArgumentException("column " + i + " is not INT_TYPE");
+        return ints[i];
+    }
+
+    /**
+     * @return the values of column i, which is not INT_TYPE; only the first
+     *   size() are rows of the batch
+     */
+    public Field[] fieldColumn(int i) {
+        if (fields[i] == null)
+            throw new IllegalArgumentException("column " + i + " is INT_TYPE");
+        return fields[i];
+    }
+
+    /** @return the value of column col in row row */
+    public Field getField(int row, int col) {
+        return ints[col] != null ? new IntField(ints[col][row]) : fields[col][row];
+    }
+
+    /** @return the record id of row row, or null if it has none */
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /** @return row row as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(row, i));
+        }
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Add a tuple as the last row; its TupleDesc must have the types of
+     * this batch's.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][size] = ((IntField) t.getField(i)).getValue();
+            else
+                fields[i][size] = t.getField(i);
+        }
+        rids[size] = t.getRecordId();
+        size++;
+    }
+
+    /**
+     * Replace the rows of this batch by the selected rows of another of the
+     * same types.
+     *
+     * @param from the batch to copy rows from
+     * @param selected the rows to copy, in order
+     * @param n the number of rows selected; at most capacity()
+     */
+    public void select(TupleBatch from, int[] selected, int n) {
+        if (n > capacity)
+            throw new IllegalArgumentException("more rows than the batch holds");
+        clear();
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null) {
+                int[] src = from.ints[c];
+                int[] dst = ints[c];
+                for (int i = 0; i < n; i++) {
+                    dst[i] = src[selected[i]];
+                }
+            } else {
+                Field[] src = from.fields[c];
+                Field[] dst = fields[c];
+                for (int i = 0; i < n; i++) {
+                    dst[i] = src[selected[i]];
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            rids[i] = from.rids[selected[i]];
+        }
+        size = n;
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleFile is a temporary file of tuples, for operators whose inputs do not
+ * fit in memory. Tuples are appended to it, and read back in the order
+ * they were added, as many times as it is rewound. Tuples may be added
+ * while the file is open; they are read after the next rewind. Each tuple
+ * is stored as its fields serialized back to back, as in a HeapPage slot.
+ * <p>
+ * The file is deleted by {@link #delete}, not by close, so it can be opened
+ * again.
+ */
+public class TupleFile implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TupleDesc td;
+    private transient File file;
+    private transient DataOutputStream out;
+    private transient DataInputStream in; // while open
+    private int size;
+    private int readable; // tuples added before the last open or rewind
+    private int read; // tuples read since open or rewind
+
+    /**
+     * Create an empty temporary file for tuples with the given TupleDesc.
+     */
+    public TupleFile(TupleDesc td) throws IOException {
+        this.td = td;
+        file = File.createTempFile("simpledb", ".tuples");
+        out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file), BufferPool.getPageSize()));
+    }
+
+    /**
+     * Append a tuple.
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("tuple file deleted");
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(out);
+        }
+        size++;
+    }
+
+    /** @return the number of tuples in the file */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of bytes the tuples take */
+    public long bytes() {
+        return (long) size * td.getSize();
+    }
+
+    public void open() throws DbException {
+        if (out == null)
+            throw new IllegalStateException("tuple file deleted");
+        try {
+            out.flush();
+            if (in != null)
+                in.close();
+            in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BufferPool.getPageSize()));
+        } catch (IOException e) {
+            throw new DbException("can not read tuple file: " + e.getMessage());
+        }
+        readable = size;
+        read = 0;
+    }
+
+    public boolean hasNext() {
+        if (in == null)
+            throw new IllegalStateException("tuple file not open");
+        return read < readable;
+    }
+
+    public Tuple next() throws DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.setField(i, td.getFieldType(i).parse(in));
+            }
+        } catch (ParseException e) {
+            throw new DbException("can not read tuple file");
+        }
+        read++;
+        return t;
+    }
+
+    public void rewind() throws DbException {
+        if (in == null)
+            throw new IllegalStateException("tuple file not open");
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // only read from, so nothing is lost
+            }
+            in = null;
+        }
+    }
+
+    /** Close the file and delete it. */
+    public void delete() {
+        close();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // about to be deleted anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+}
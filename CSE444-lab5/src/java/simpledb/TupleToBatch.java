@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * TupleToBatch reads the tuples of a DbIterator into batches, so a plan
+ * that works a tuple at a time can feed one that works in batches.
+ */
+public class TupleToBatch implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final DbIterator child;
+    private final int batchSize;
+    private TupleBatch batch;
+
+    /**
+     * Constructor, with batches of TupleBatch.DEFAULT_SIZE rows.
+     */
+    public TupleToBatch(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param batchSize the most rows in a batch
+     */
+    public TupleToBatch(DbIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc(), batchSize);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.add(child.next());
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
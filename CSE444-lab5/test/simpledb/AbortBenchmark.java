@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Times the rollback of one transaction against how much other work was
+ * logged while it ran. The transaction inserts into four pages three
+ * times each, writing them out as it goes; between its rounds, other
+ * transactions each insert once into other pages and commit. Only the
+ * rollback is timed.
+ * <p>
+ * The table and log are made in the current directory. No PageWriter or
+ * Checkpointer runs.
+ * <p>
+ * Usage: java simpledb.AbortBenchmark [transactions...]
+ */
+public class AbortBenchmark {
+
+    private static final int PAGES = 2000;
+    private static final int ROLLBACK_PAGES = 4;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { 1000, 10000, 50000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+        PageWriter.setDefaultInterval(0);
+        Checkpointer.setDefaultSchedule(0, 0);
+        File f = new File("abort.db");
+
+        System.out.println("   others    rollback of " + ROUNDS * ROLLBACK_PAGES + " changes");
+        for (int others : sizes) {
+            Database.reset();
+            deleteLog();
+            Database.reset();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+            byte[] empty = HeapPage.createEmptyPageData();
+            for (int i = 0; i < PAGES; i++)
+                out.write(empty);
+            out.close();
+            HeapFile hf = Utility.openHeapFile(2, f);
+
+            HeapPage[] current = new HeapPage[PAGES];
+            for (int i = 0; i < PAGES; i++)
+                current[i] = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            LogFile log = Database.getLogFile();
+            TransactionId victim = new TransactionId();
+            log.logXactionBegin(victim);
+            int n = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int p = 0; p < ROLLBACK_PAGES; p++) {
+                    insert(log, victim, current[p], n++);
+                    hf.writePage(current[p]);
+                }
+                for (int k = 0; k < others / ROUNDS; k++) {
+                    TransactionId tid = new TransactionId();
+                    log.logXactionBegin(tid);
+                    insert(log, tid, current[ROLLBACK_PAGES + k % (PAGES - ROLLBACK_PAGES)], k);
+                    log.logCommit(tid);
+                }
+            }
+            log.force();
+
+            long start = System.nanoTime();
+            log.rollback(victim);
+            double ms = (System.nanoTime() - start) / 1e6;
+            HeapPage first = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+            if (first.getNumEmptySlots() != first.numSlots)
+                throw new RuntimeException("rollback left tuples on page 0");
+            System.out.println(String.format("%9d  %20.1fms", others, ms));
+        }
+        f.delete();
+        deleteLog();
+        System.exit(0);
+    }
+
+    // insert a tuple into p, as tid, and log the change
+    private static void insert(LogFile log, TransactionId tid, HeapPage p, int n)
+        throws IOException {
+        HeapPage before = new HeapPage(p.getId(), p.getPageData());
+        try {
+            p.insertTuple(Utility.getHeapTuple(new int[] { n, p.getId().pageNumber() }));
+        } catch (DbException e) {
+            throw new IOException(e.getMessage());
+        }
+        log.logWrite(tid, before, p);
+        p.setBeforeImage();
+    }
+
+    private static void deleteLog() {
+        File[] files = new File(".").getAbsoluteFile().listFiles();
+        for (File f : files == null ? new File[0] : files) {
+            if (f.getName().equals("log") || f.getName().startsWith("log."))
+                f.delete();
+        }
+    }
+}
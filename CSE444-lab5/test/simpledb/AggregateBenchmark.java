@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Times grouped aggregation by IntegerAggregator against HashAggregator,
+ * and prints tuples per second of each: a SUM grouped by int keys and a
+ * COUNT grouped by string keys, with about as many groups as tuples. Each
+ * is run with all the groups in memory, and then with HashAggregator's
+ * default memory budget, which makes it spill. The tuples are made in memory first, so this
+ * measures the aggregators rather than the scan.
+ * <p>
+ * Usage: java simpledb.AggregateBenchmark [tuples] [runs]
+ */
+public class AggregateBenchmark {
+
+    private interface Run {
+        long run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final List<Tuple> ints = tuples(rows, false);
+        final List<Tuple> strings = tuples(rows, true);
+
+        String[] names = { "int keys", "string keys", "int spilled", "string spilled" };
+        Run[] old = {
+            new Run() {
+                public long run() throws Exception {
+                    IntegerAggregator a = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+                    for (Tuple t : ints) {
+                        a.mergeTupleIntoGroup(t);
+                    }
+                    return drain(a.iterator());
+                }
+            },
+            new Run() {
+                public long run() throws Exception {
+                    IntegerAggregator a = new IntegerAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+                    for (Tuple t : strings) {
+                        a.mergeTupleIntoGroup(t);
+                    }
+                    return drain(a.iterator());
+                }
+            },
+        };
+        Run[] hashed = new Run[4];
+        for (int i = 0; i < hashed.length; i++) {
+            final List<Tuple> tuples = i % 2 == 0 ? ints : strings;
+            final Aggregator.Op op = i % 2 == 0 ? Aggregator.Op.SUM : Aggregator.Op.COUNT;
+            final long budget = i < 2 ? Long.MAX_VALUE : HashAggregator.DEFAULT_MEMORY_BUDGET;
+            hashed[i] = new Run() {
+                public long run() throws Exception {
+                    HashAggregator a = new HashAggregator(0, tuples.get(0).getTupleDesc().getFieldType(0),
+                                                          1, Type.INT_TYPE, op);
+                    a.setMemoryBudget(budget);
+                    for (Tuple t : tuples) {
+                        a.mergeTupleIntoGroup(t);
+                    }
+                    long n = drain(a.iterator());
+                    a.delete();
+                    return n;
+                }
+            };
+        }
+
+        System.out.println(rows + " tuples, best of " + runs + " runs");
+        for (int i = 0; i < names.length; i++) {
+            double h = best(hashed[i], runs);
+            if (i < old.length) {
+                double o = best(old[i], runs);
+                System.out.println(String.format("%-15s map %12.0f tuples/s   hash %12.0f tuples/s   %.2fx",
+                                                 names[i], rows / o, rows / h, o / h));
+            } else {
+                System.out.println(String.format("%-15s %16s   hash %12.0f tuples/s",
+                                                 names[i], "", rows / h));
+            }
+        }
+        System.exit(0);
+    }
+
+    // (key, value) tuples with keys drawn from about as many values as
+    // there are tuples
+    private static List<Tuple> tuples(int rows, boolean strings) {
+        TupleDesc td = new TupleDesc(new Type[] {
+            strings ? Type.STRING_TYPE : Type.INT_TYPE, Type.INT_TYPE });
+        Random r = new Random(rows);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows);
+        for (int i = 0; i < rows; i++) {
+            int key = r.nextInt(rows);
+            Tuple t = new Tuple(td);
+            t.setField(0, strings ? new StringField("customer#" + key, Type.STRING_LEN)
+                                  : new IntField(key));
+            t.setField(1, new IntField(r.nextInt(1000)));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    // the fastest of runs runs, after one to warm up, in seconds
+    private static double best(Run run, int runs) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i <= runs; i++) {
+            long start = System.nanoTime();
+            run.run();
+            double secs = (System.nanoTime() - start) / 1e9;
+            if (i > 0)
+                best = Math.min(best, secs);
+        }
+        return best;
+    }
+
+    private static long drain(DbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+}
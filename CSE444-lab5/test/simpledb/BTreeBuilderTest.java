@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeBuilderTest extends SimpleDbTestBase {
+
+  private static final int KEYS = 400;
+  private static final int ROWS = 3000;
+
+  private HeapFile table;
+
+  private static Field key(int i) {
+    return new StringField(String.format("k%04d", i), Type.STRING_LEN);
+  }
+
+  // a table of ROWS tuples, key (i * 7) % KEYS for row i
+  @Before public void createTable() throws Exception {
+    Database.resetBufferPool(1000);
+    File f = File.createTempFile("build", ".dat");
+    f.deleteOnExit();
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+                                 new String[] { "s", "n" });
+    table = new HeapFile(f, td);
+    Database.getCatalog().addTable(table, "t");
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < ROWS; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, key(i * 7 % KEYS));
+      t.setField(1, new IntField(i));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private BTreeFile build(double fill, int threads) throws Exception {
+    File f = File.createTempFile("build", ".idx");
+    f.deleteOnExit();
+    BTreeFile index = new BTreeFile(f, table.getId(), 0, Type.STRING_TYPE);
+    BTreeBuilder builder = new BTreeBuilder(index);
+    builder.setFillFactor(fill);
+    builder.setThreads(threads);
+    builder.setMemoryBudget(16 * 1024);
+    TransactionId tid = new TransactionId();
+    assertEquals(ROWS, builder.build(tid));
+    Database.getCatalog().addIndex(index);
+    Database.getBufferPool().transactionComplete(tid);
+    return index;
+  }
+
+  private static List<Tuple> read(DbFileIterator it) throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(it.next());
+    }
+    it.close();
+    return tuples;
+  }
+
+  /**
+   * The built tree holds every entry in (key, record id) order, and each
+   * points at its tuple
+   */
+  @Test public void entriesInOrder() throws Exception {
+    BTreeFile index = build(BTreeBuilder.DEFAULT_FILL_FACTOR, 4);
+    TransactionId tid = new TransactionId();
+    List<Tuple> entries = read(index.iterator(tid));
+    assertEquals(ROWS, entries.size());
+    BTreeEntry last = null;
+    for (Tuple e : entries) {
+      BTreeEntry be = new BTreeEntry(e.getField(0), ((IntField) e.getField(1)).getValue(),
+                                     ((IntField) e.getField(2)).getValue());
+      assertTrue(last == null || last.compareTo(be) < 0);
+      last = be;
+      RecordId rid = IndexFile.recordId(index, e);
+      HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                                                               Permissions.READ_ONLY);
+      assertEquals(e.getField(0), p.getTuple(rid.tupleno()).getField(0));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Lookups find what they find in a tree built by inserts, whatever the
+   * fill factor and threads, and the fill factor sets the size of the tree
+   */
+  @Test public void lookups() throws Exception {
+    BTreeFile full = build(1.0, 1);
+    BTreeFile half = build(0.5, 3);
+    int leaves = (ROWS + BTreeLeafPage.capacity(Type.STRING_TYPE) - 1)
+        / BTreeLeafPage.capacity(Type.STRING_TYPE);
+    assertTrue(full.numPages() < leaves * 12 / 10 + 2);
+    assertTrue(half.numPages() > leaves * 19 / 10);
+
+    TransactionId tid = new TransactionId();
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                                                Predicate.Op.GREATER_THAN_OR_EQ }) {
+      for (int k : new int[] { 0, 5, 123, KEYS - 1 }) {
+        int expected = 0;
+        for (int i = 0; i < ROWS; i++) {
+          if (key(i * 7 % KEYS).compare(op, key(k)))
+            expected++;
+        }
+        assertEquals(expected, read(full.lookup(tid, op, key(k))).size());
+        assertEquals(expected, read(half.lookup(tid, op, key(k))).size());
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A built tree takes inserts, splitting its full pages
+   */
+  @Test public void insertAfterBuild() throws Exception {
+    BTreeFile index = build(1.0, 2);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 500; i++) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, key(5));
+      t.setField(1, new IntField(ROWS + i));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    int expected = 500;
+    for (int i = 0; i < ROWS; i++) {
+      if (i * 7 % KEYS == 5)
+        expected++;
+    }
+    tid = new TransactionId();
+    assertEquals(expected, read(index.lookup(tid, Predicate.Op.EQUALS, key(5))).size());
+    assertEquals(ROWS + 500, read(index.iterator(tid)).size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An empty table builds an empty tree; a tree that is not empty is not
+   * built over
+   */
+  @Test public void emptyAndNotEmpty() throws Exception {
+    File f = File.createTempFile("build", ".dat");
+    f.deleteOnExit();
+    HeapFile empty = new HeapFile(f, table.getTupleDesc());
+    Database.getCatalog().addTable(empty, "e");
+    File idx = File.createTempFile("build", ".idx");
+    idx.deleteOnExit();
+    BTreeFile index = new BTreeFile(idx, empty.getId(), 0, Type.STRING_TYPE);
+    TransactionId tid = new TransactionId();
+    assertEquals(0, new BTreeBuilder(index).build(tid));
+    Database.getBufferPool().transactionComplete(tid);
+    Database.getCatalog().addIndex(index);
+    tid = new TransactionId();
+    assertEquals(0, read(index.iterator(tid)).size());
+    Database.getBufferPool().transactionComplete(tid);
+
+    BTreeFile built = build(1.0, 1);
+    try {
+      new BTreeBuilder(built).build(new TransactionId());
+      fail("built over an index");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeBuilderTest.class);
+  }
+}
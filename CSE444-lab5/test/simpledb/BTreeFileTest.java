@@ -0,0 +1,221 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+  private static final int KEYS = 400;
+  private static final int ROWS = 2000;
+
+  private HeapFile table;
+  private BTreeFile index;
+
+  // string keys, so pages hold few entries and the tree grows three levels
+  // deep with few rows
+  private static Field key(int i) {
+    return new StringField(String.format("k%04d", i), Type.STRING_LEN);
+  }
+
+  @Before public void createIndex() throws Exception {
+    Database.resetBufferPool(1000);
+    File f = File.createTempFile("btree", ".dat");
+    f.deleteOnExit();
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+                                 new String[] { "s", "n" });
+    table = new HeapFile(f, td);
+    Database.getCatalog().addTable(table, "t");
+    File idx = File.createTempFile("btree", ".idx");
+    idx.deleteOnExit();
+    index = new BTreeFile(idx, table.getId(), 0, Type.STRING_TYPE);
+    Database.getCatalog().addIndex(index);
+  }
+
+  // insert ROWS tuples, key (i * 7) % KEYS for row i, and commit
+  private void fill() throws Exception {
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < ROWS; i++) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, key(i * 7 % KEYS));
+      t.setField(1, new IntField(i));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private List<Tuple> lookup(Predicate.Op op, Field key) throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = index.lookup(tid, op, key);
+    it.open();
+    ArrayList<Tuple> entries = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      entries.add(it.next());
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return entries;
+  }
+
+  private int height() throws Exception {
+    TransactionId tid = new TransactionId();
+    BTreeHeaderPage header = (BTreeHeaderPage) Database.getBufferPool().getPage(
+        tid, new BTreePageId(index.getId(), 0), Permissions.READ_ONLY);
+    Database.getBufferPool().transactionComplete(tid);
+    return header.getHeight();
+  }
+
+  /**
+   * Every operator finds the entries, and only the entries, whose keys
+   * satisfy it, in order
+   */
+  @Test public void lookups() throws Exception {
+    fill();
+    assertTrue(height() >= 3);
+
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                           Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                           Predicate.Op.GREATER_THAN_OR_EQ };
+    int[] probes = { -1, 0, 1, 137, KEYS - 1, KEYS };
+    int perKey = ROWS / KEYS;
+    for (Predicate.Op op : ops) {
+      for (int probe : probes) {
+        int expected = 0;
+        for (int k = 0; k < KEYS; k++) {
+          if (key(k).compare(op, key(probe)))
+            expected += perKey;
+        }
+        List<Tuple> entries = lookup(op, key(probe));
+        assertEquals(op + " " + probe, expected, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+          assertTrue(entries.get(i).getField(0).compare(op, key(probe)));
+          if (i > 0)
+            assertFalse(entries.get(i).getField(0).compare(
+                Predicate.Op.LESS_THAN, entries.get(i - 1).getField(0)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Entries point at the tuples they index
+   */
+  @Test public void entriesFindTuples() throws Exception {
+    fill();
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = index.iterator(tid);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple e = it.next();
+      RecordId rid = IndexFile.recordId(index, e);
+      HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                                                               Permissions.READ_ONLY);
+      assertEquals(e.getField(0), p.getTuple(rid.tupleno()).getField(0));
+      n++;
+    }
+    it.close();
+    assertEquals(ROWS, n);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Deleting tuples deletes their entries; an entry can not be deleted
+   * twice, nor inserted twice
+   */
+  @Test public void deletes() throws Exception {
+    fill();
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (((IntField) t.getField(1)).getValue() % 2 == 0)
+        doomed.add(t);
+    }
+    it.close();
+    Tuple entry = IndexFile.entry(index, doomed.get(0));
+    for (Tuple t : doomed) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    try {
+      index.deleteTuple(tid, entry);
+      fail("deleted an entry twice");
+    } catch (DbException e) {
+      // expected
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    assertEquals(ROWS / 2, lookup(Predicate.Op.GREATER_THAN_OR_EQ, key(0)).size());
+    // row i has key 7i mod KEYS, so the even rows have the even keys
+    assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, key(7)).size());
+    assertEquals(0, lookup(Predicate.Op.EQUALS, key(8)).size());
+
+    tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, index.getId(), entry);
+    try {
+      Database.getBufferPool().insertTuple(tid, index.getId(), entry);
+      fail("inserted an entry twice");
+    } catch (DbException e) {
+      // expected
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The inserts of an aborted transaction, splits and all, are undone
+   */
+  @Test public void abort() throws Exception {
+    fill();
+    int height = height();
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < ROWS; i++) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, key(5));
+      t.setField(1, new IntField(i));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid, false);
+
+    assertEquals(height, height());
+    assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, key(5)).size());
+    assertEquals(ROWS, lookup(Predicate.Op.LESS_THAN, key(KEYS)).size());
+  }
+
+  /**
+   * A committed tree reads back from disk
+   */
+  @Test public void persists() throws Exception {
+    fill();
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertTrue(height() >= 3);
+    assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, key(KEYS - 1)).size());
+    assertEquals(ROWS, lookup(Predicate.Op.GREATER_THAN, key(-1)).size());
+  }
+
+  /**
+   * A tree with no entries finds none
+   */
+  @Test public void empty() throws Exception {
+    assertEquals(0, lookup(Predicate.Op.EQUALS, key(1)).size());
+    assertEquals(0, lookup(Predicate.Op.LESS_THAN, key(1)).size());
+    assertEquals(0, index.numPages());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
@@ -0,0 +1,67 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times inequality joins of two random tables by Join's nested loops and
+ * by SortMergeJoin, and prints the time of each. The left keys are in
+ * [0, rows) and the right keys in [0, 100 * rows), so about 0.5% of the
+ * pairs match a &gt; join. The &lt;= join, which matches nearly all of
+ * them, is only run up to 5000 rows, and Join not past 20000 rows.
+ * <p>
+ * Usage: java simpledb.BandJoinBenchmark [rows...]
+ */
+public class BandJoinBenchmark {
+
+    private static final int MAX_NESTED_LOOP_ROWS = 20000;
+    private static final int MAX_WIDE_JOIN_ROWS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { 1000, 5000, 20000, 100000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+        Predicate.Op[] ops = { Predicate.Op.GREATER_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+
+        System.out.println("     rows  op          Join     SortMerge        tuples out");
+        for (int rows : sizes) {
+            Database.reset();
+            HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, null);
+            HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, rows, 100 * rows, null, null);
+            for (Predicate.Op op : ops) {
+                if (op == Predicate.Op.LESS_THAN_OR_EQ && rows > MAX_WIDE_JOIN_ROWS)
+                    continue;
+                JoinPredicate p = new JoinPredicate(0, op, 0);
+                String nested = "-";
+                if (rows <= MAX_NESTED_LOOP_ROWS) {
+                    TransactionId tid = new TransactionId();
+                    long start = System.nanoTime();
+                    drain(new Join(p, new SeqScan(tid, t1.getId(), "t1"), new SeqScan(tid, t2.getId(), "t2")));
+                    nested = String.format("%.0fms", (System.nanoTime() - start) / 1e6);
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                long n = drain(new SortMergeJoin(p, new SeqScan(tid, t1.getId(), "t1"),
+                                                 new SeqScan(tid, t2.getId(), "t2")));
+                double ms = (System.nanoTime() - start) / 1e6;
+                Database.getBufferPool().transactionComplete(tid);
+                System.out.println(String.format("%9d  %-3s %12s  %10.1fms  %16d", rows, op, nested, ms, n));
+            }
+        }
+        System.exit(0);
+    }
+
+    private static long drain(DbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+}
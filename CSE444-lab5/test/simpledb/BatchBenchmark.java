@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.*;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times the same plans a tuple at a time and in batches, and prints rows
+ * per second of each: a scan, a filter over it, a projection over that,
+ * and a grouped sum over the filter. The table is read from the
+ * BufferPool after a first pass, so this measures the operators rather than
+ * the disk.
+ * <p>
+ * Usage: java simpledb.BatchBenchmark [rows] [runs]
+ */
+public class BatchBenchmark {
+
+    private interface Plan {
+        long run(TransactionId tid) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(4, rows, 1000, null, null, "c");
+        Database.resetBufferPool(table.numPages() + 10);
+        final int id = table.getId();
+        final Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+        final ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(0, 1));
+        final Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+
+        String[] names = { "scan", "filter", "project", "aggregate" };
+        Plan[] tuples = {
+            new Plan() {
+                public long run(TransactionId tid) throws Exception {
+                    return drain(new SeqScan(tid, id, "t"));
+                }
+            },
+            new Plan() {
+                public long run(TransactionId tid) throws Exception {
+                    return drain(new Filter(p, new SeqScan(tid, id, "t")));
+                }
+            },
+            new Plan() {
+                public long run(TransactionId tid) throws Exception {
+                    return drain(new Project(fields, types, new Filter(p, new SeqScan(tid, id, "t"))));
+                }
+            },
+            new Plan() {
+                public long run(TransactionId tid) throws Exception {
+                    DbIterator f = new Filter(p, new SeqScan(tid, id, "t"));
+                    f.open();
+                    return drain(new Aggregate(f, 2, 0, Aggregator.Op.SUM));
+                }
+            },
+        };
+        Plan[] batches = {
+            new Plan() {
+                public long run(TransactionId tid) throws Exception {
+                    return drain(new BatchSeqScan(tid, id, "t"));
+                }
+            },
+            new Plan() {
+                public long run(TransactionId tid) throws Exception {
+                    return drain(new BatchFilter(p, new BatchSeqScan(tid, id, "t")));
+                }
+            },
+            new Plan() {
+                public long run(TransactionId tid) throws Exception {
+                    return drain(new BatchProject(fields, new BatchFilter(p, new BatchSeqScan(tid, id, "t"))));
+                }
+            },
+            new Plan() {
+                public long run(TransactionId tid) throws Exception {
+                    return drain(new BatchAggregate(new BatchFilter(p, new BatchSeqScan(tid, id, "t")),
+                                                    2, 0, Aggregator.Op.SUM));
+                }
+            },
+        };
+
+        System.out.println(rows + " rows, best of " + runs + " runs");
+        for (int i = 0; i < names.length; i++) {
+            double t = best(tuples[i], runs);
+            double b = best(batches[i], runs);
+            System.out.println(String.format("%-10s tuples %12.0f rows/s   batches %12.0f rows/s   %.2fx",
+                                             names[i], rows / t, rows / b, t / b));
+        }
+        System.exit(0);
+    }
+
+    // the fastest of runs runs, after one to warm up, in seconds
+    private static double best(Plan plan, int runs) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i <= runs; i++) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            plan.run(tid);
+            double secs = (System.nanoTime() - start) / 1e9;
+            Database.getBufferPool().transactionComplete(tid);
+            if (i > 0)
+                best = Math.min(best, secs);
+        }
+        return best;
+    }
+
+    private static long drain(DbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static long drain(BatchIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null) {
+            n += b.size();
+        }
+        it.close();
+        return n;
+    }
+}
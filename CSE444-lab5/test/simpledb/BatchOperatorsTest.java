@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchOperatorsTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 3000;
+  // smaller than a page holds, and not a divisor of the rows
+  private static final int BATCH = 100;
+
+  private HeapFile table;
+  private TransactionId tid;
+
+  @Before public void createTable() throws Exception {
+    table = SystemTestUtil.createRandomHeapFile(3, ROWS, 50, null, null, "c");
+    tid = new TransactionId();
+  }
+
+  private static List<ArrayList<Integer>> read(DbIterator it) throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(SystemTestUtil.tupleToList(it.next()));
+    }
+    it.close();
+    return tuples;
+  }
+
+  private BatchSeqScan batchScan() {
+    return new BatchSeqScan(tid, table.getId(), "t", BATCH);
+  }
+
+  private SeqScan scan() {
+    return new SeqScan(tid, table.getId(), "t");
+  }
+
+  /**
+   * A batch scan reads the tuples a scan does, in full batches but the last
+   */
+  @Test public void seqScan() throws Exception {
+    BatchSeqScan s = batchScan();
+    assertEquals(scan().getTupleDesc(), s.getTupleDesc());
+    s.open();
+    int rows = 0;
+    TupleBatch b;
+    while ((b = s.nextBatch()) != null) {
+      assertTrue(b.size() == BATCH || rows + b.size() == ROWS);
+      rows += b.size();
+    }
+    assertEquals(ROWS, rows);
+    assertNull(s.nextBatch());
+    s.close();
+    SystemTestUtil.matchTuples(new BatchToTuple(batchScan()), read(scan()));
+  }
+
+  /**
+   * A batch filter passes the rows a filter does, for every operator
+   */
+  @Test public void filter() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+                           Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                           Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+                           Predicate.Op.LIKE };
+    for (Predicate.Op op : ops) {
+      for (int v : new int[] { -1, 0, 25, 49 }) {
+        Predicate p = new Predicate(1, op, new IntField(v));
+        SystemTestUtil.matchTuples(new BatchToTuple(new BatchFilter(p, batchScan())),
+                                   read(new Filter(p, scan())));
+      }
+    }
+  }
+
+  /**
+   * A batch projection keeps the fields a projection does
+   */
+  @Test public void project() throws Exception {
+    List<Integer> fields = Arrays.asList(2, 0, 2);
+    BatchProject p = new BatchProject(fields, batchScan());
+    Project expected = new Project(new ArrayList<Integer>(fields),
+                                   new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+                                   scan());
+    assertEquals(expected.getTupleDesc(), p.getTupleDesc());
+    SystemTestUtil.matchTuples(new BatchToTuple(p), read(expected));
+  }
+
+  /**
+   * A batch aggregate computes what an aggregate does, grouped or not
+   */
+  @Test public void aggregate() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (Aggregator.Op op : ops) {
+      for (int group : new int[] { Aggregator.NO_GROUPING, 0 }) {
+        BatchAggregate a = new BatchAggregate(batchScan(), 1, group, op);
+        Aggregate expected = new Aggregate(scan(), 1, group, op);
+        assertEquals(expected.getTupleDesc(), a.getTupleDesc());
+        SystemTestUtil.matchTuples(new BatchToTuple(a), read(expected));
+      }
+    }
+  }
+
+  /**
+   * Groups of fields that are not ints are counted too
+   */
+  @Test public void aggregateStrings() throws Exception {
+    DbIterator strings = TestUtil.createTupleList(2, new Object[] { "a", 2, "a", 4, "b", 6 });
+    BatchAggregate a = new BatchAggregate(new TupleToBatch(strings, 2), 1, 0, Aggregator.Op.SUM);
+    a.open();
+    TupleBatch b = a.nextBatch();
+    assertEquals(2, b.size());
+    HashMap<Field, Integer> sums = new HashMap<Field, Integer>();
+    for (int i = 0; i < b.size(); i++) {
+      sums.put(b.getField(i, 0), b.intColumn(1)[i]);
+    }
+    assertEquals(Integer.valueOf(6), sums.get(new StringField("a", Type.STRING_LEN)));
+    assertEquals(Integer.valueOf(6), sums.get(new StringField("b", Type.STRING_LEN)));
+    assertNull(a.nextBatch());
+    a.close();
+  }
+
+  /**
+   * Tuples through batches and back are the same tuples, record ids and
+   * all, and a plan can be started over
+   */
+  @Test public void adapters() throws Exception {
+    BatchToTuple it = new BatchToTuple(new TupleToBatch(scan(), BATCH));
+    SeqScan expected = scan();
+    it.open();
+    expected.open();
+    for (int pass = 0; pass < 2; pass++) {
+      while (expected.hasNext()) {
+        Tuple t = expected.next();
+        Tuple u = it.next();
+        assertTrue(TestUtil.compareTuples(t, u));
+        assertEquals(t.getRecordId(), u.getRecordId());
+      }
+      assertTrue(!it.hasNext());
+      it.rewind();
+      expected.rewind();
+    }
+    it.close();
+    expected.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchOperatorsTest.class);
+  }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  // the output of op, sorted
+  private static ArrayList<String> run(DbIterator op) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    Collections.sort(out);
+    return out;
+  }
+
+  // one-column tuples 0 .. n - 1
+  private static DbIterator range(int n) {
+    int[] data = new int[n];
+    for (int i = 0; i < n; i++)
+      data[i] = i;
+    return TestUtil.createTupleList(1, data);
+  }
+
+  /**
+   * An outer input of many blocks gives the same result as Join, also
+   * after a rewind
+   */
+  @Test public void manyBlocks() throws Exception {
+    int n = 3 * BlockNestedLoopJoin.blockTuples(Utility.getTupleDesc(1), 1) + 7;
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, range(n), range(20), 1);
+    op.open();
+    ArrayList<String> actual = run(op);
+    assertEquals(n * 20 - 20, actual.size());
+
+    Join expected = new Join(pred, range(n), range(20));
+    expected.open();
+    assertEquals(run(expected), actual);
+
+    op.rewind();
+    assertEquals(actual, run(op));
+    op.close();
+  }
+
+  /**
+   * The cost of a nested-loop join falls with the number of blocks, and is
+   * above the cost of hashing or sorting
+   */
+  @Test public void estimateJoinCost() {
+    JoinOptimizer jo = new JoinOptimizer(null, new java.util.Vector<LogicalJoinNode>());
+    LogicalJoinNode ne = new LogicalJoinNode("a", "b", "a.x", "b.y", Predicate.Op.NOT_EQUALS);
+    LogicalJoinNode lt = new LogicalJoinNode("a", "b", "a.x", "b.y", Predicate.Op.LESS_THAN);
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "a.x", "b.y", Predicate.Op.EQUALS);
+    int perBlock = BlockNestedLoopJoin.blockTuples(Utility.getTupleDesc(1),
+                                                   BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    int card = 10 * perBlock;
+    double nested = jo.estimateJoinCost(ne, card, card, 100, 100);
+    assertEquals(100 + 10 * 100 + (double) card * card, nested, 1e-6);
+    double naive = 100 + (double) card * 100 + (double) card * card;
+    assertTrue(nested < naive);
+
+    double merged = jo.estimateJoinCost(lt, card, card, 100, 100);
+    double hashed = jo.estimateJoinCost(eq, card, card, 100, 100);
+    assertTrue(hashed > 0);
+    assertTrue(hashed < merged);
+    assertTrue(merged < nested);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
@@ -2,6 +2,11 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -69,6 +74,92 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * A field annotated "index" in a schema gets an index, built from the
+     * table, which is found by id but is not a table
+     */
+    @Test public void loadSchemaIndex() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        ArrayList<ArrayList<Integer>> tuples =
+            new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 100; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        }
+        HeapFileEncoder.convert(tuples, new File(dir, "idx.dat"),
+                                BufferPool.getPageSize(), 2);
+        File schema = new File(dir, "schema.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("idx (a int pk, b int index)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("idx");
+        assertEquals(1, Database.getCatalog().getIndexes(tableId).size());
+        IndexFile index = Database.getCatalog().getIndex(tableId, 1, Predicate.Op.EQUALS);
+        assertEquals(index, Database.getCatalog().getDatabaseFile(index.getId()));
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            Assert.assertTrue(it.next() != index.getId());
+        }
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator entries = index.lookup(tid, Predicate.Op.EQUALS, new IntField(3));
+        entries.open();
+        int n = 0;
+        while (entries.hasNext()) {
+            entries.next();
+            n++;
+        }
+        entries.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(10, n);
+        Assert.assertTrue(new File(dir, "idx.b.idx").exists());
+    }
+
+    /**
+     * A field annotated "hash" gets a hash index, filled from the table,
+     * which equality lookups prefer to a B+ tree on the same field
+     */
+    @Test public void loadSchemaHash() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        ArrayList<ArrayList<Integer>> tuples =
+            new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 100; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        }
+        HeapFileEncoder.convert(tuples, new File(dir, "h.dat"),
+                                BufferPool.getPageSize(), 2);
+        File schema = new File(dir, "schema.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("h (a int pk, b int index hash)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("h");
+        assertEquals(2, Database.getCatalog().getIndexes(tableId).size());
+        IndexFile index = Database.getCatalog().getIndex(tableId, 1, Predicate.Op.EQUALS);
+        Assert.assertTrue(index instanceof HashIndexFile);
+        Assert.assertTrue(Database.getCatalog().getIndex(tableId, 1, Predicate.Op.LESS_THAN)
+                          instanceof BTreeFile);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator entries = index.lookup(tid, Predicate.Op.EQUALS, new IntField(3));
+        entries.open();
+        int n = 0;
+        while (entries.hasNext()) {
+            entries.next();
+            n++;
+        }
+        entries.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(10, n);
+        Assert.assertTrue(new File(dir, "h.b.hidx").exists());
+    }
+
     /**
      * JUnit suite target
      */
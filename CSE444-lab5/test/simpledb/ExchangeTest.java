@@ -0,0 +1,208 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 6000;
+  private static final int THREADS = 4;
+
+  private HeapFile table;
+  private TransactionId tid;
+  private int defaultDegree;
+
+  @Before public void createTable() throws Exception {
+    table = SystemTestUtil.createRandomHeapFile(2, ROWS, 2000, null, null, "c");
+    tid = new TransactionId();
+    defaultDegree = Exchange.getDefaultDegree();
+  }
+
+  @After public void restoreDegree() {
+    Exchange.setDefaultDegree(defaultDegree);
+  }
+
+  private static List<ArrayList<Integer>> read(DbIterator it) throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(SystemTestUtil.tupleToList(it.next()));
+    }
+    it.close();
+    return tuples;
+  }
+
+  private SeqScan scan(String alias) {
+    return new SeqScan(tid, table.getId(), alias);
+  }
+
+  private Filter range(int from, int to) {
+    return new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from)),
+                      new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(to)),
+                                 scan("t")));
+  }
+
+  /**
+   * A gather returns the tuples of all its producers
+   */
+  @Test public void gather() throws Exception {
+    Gather g = new Gather(new DbIterator[] { range(0, 500), range(500, 1200), range(1200, 2000) });
+    SystemTestUtil.matchTuples(g.getOutput(), read(scan("t")));
+    // and again, once rewound
+    DbIterator out = g.getOutput();
+    out.open();
+    out.next();
+    out.rewind();
+    int n = 0;
+    while (out.hasNext()) {
+      out.next();
+      n++;
+    }
+    out.close();
+    assertEquals(ROWS, n);
+  }
+
+  /**
+   * A repartition sends each value of its field to one output only, and
+   * every tuple to some output
+   */
+  @Test public void hashRepartition() throws Exception {
+    HashRepartition r = new HashRepartition(new DbIterator[] { scan("t") }, 0, THREADS);
+    DbIterator[] counts = new DbIterator[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      counts[i] = new Aggregate(r.getOutput(i), 1, 0, Aggregator.Op.COUNT);
+    }
+    SystemTestUtil.matchTuples(new Gather(counts).getOutput(),
+                               read(new Aggregate(scan("t"), 1, 0, Aggregator.Op.COUNT)));
+  }
+
+  /**
+   * Each output of a broadcast gets every tuple
+   */
+  @Test public void broadcast() throws Exception {
+    Broadcast b = new Broadcast(new DbIterator[] { scan("t") }, THREADS);
+    DbIterator[] outs = new DbIterator[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      outs[i] = b.getOutput(i);
+    }
+    List<ArrayList<Integer>> once = read(scan("t"));
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < THREADS; i++) {
+      expected.addAll(once);
+    }
+    SystemTestUtil.matchTuples(new Gather(outs).getOutput(), expected);
+  }
+
+  /**
+   * A join of repartitioned inputs on a thread per partition finds the
+   * tuples a single join does, even when the joins spill
+   */
+  @Test public void partitionedHashJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    List<ArrayList<Integer>> expected = read(new HashJoin(p, scan("a"), scan("b")));
+    SystemTestUtil.matchTuples(JoinOptimizer.partitionedHashJoin(p, scan("a"), scan("b"), THREADS),
+                               expected);
+    long budget = HashJoin.getDefaultMemoryBudget();
+    HashJoin.setDefaultMemoryBudget(1000);
+    try {
+      SystemTestUtil.matchTuples(JoinOptimizer.partitionedHashJoin(p, scan("a"), scan("b"), THREADS),
+                                 expected);
+    } finally {
+      HashJoin.setDefaultMemoryBudget(budget);
+    }
+  }
+
+  /**
+   * A producer that fails makes the output throw, and closing an output
+   * before the end stops the producers
+   */
+  @Test public void failureAndEarlyClose() throws Exception {
+    DbIterator broken = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)), scan("t")) {
+      private static final long serialVersionUID = 1L;
+      private int n;
+      protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (++n == 100)
+          throw new DbException("broken");
+        return getChildren()[0].hasNext() ? getChildren()[0].next() : null;
+      }
+    };
+    DbIterator out = new Gather(new DbIterator[] { broken, scan("t") }).getOutput();
+    out.open();
+    try {
+      while (out.hasNext()) {
+        out.next();
+      }
+      fail("expected the producer's failure");
+    } catch (DbException e) {
+      assertEquals("broken", e.getMessage());
+    }
+    out.close();
+
+    out = new Gather(new DbIterator[] { scan("t"), scan("t") }).getOutput();
+    out.open();
+    out.next();
+    out.close();
+  }
+
+  private static LogicalPlan sumByGroup(HeapFile f) throws Exception {
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(f.getId(), "t");
+    lp.addProjectField("t.c0", null);
+    lp.addProjectField("t.c1", "SUM");
+    lp.addAggregate("SUM", "t.c1", "t.c0");
+    return lp;
+  }
+
+  /**
+   * The planner aggregates groups on several threads when asked to, and
+   * explain shows how many threads run each fragment
+   */
+  @Test public void planner() throws Exception {
+    HeapFile big = SystemTestUtil.createRandomHeapFile(
+        2, ParallelScan.MIN_PAGES * 510, 100, null, null, "c");
+    String name = Database.getCatalog().getTableName(big.getId());
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(name, new TableStats(big.getId(), 1000));
+
+    Exchange.setDefaultDegree(THREADS);
+    DbIterator plan = sumByGroup(big).physicalPlan(tid, stats, false);
+    String explain = Exchange.explain(plan);
+    assertTrue(explain, explain.contains("Gather -> output 1 of 1"));
+    assertTrue(explain, explain.contains("fragment x" + THREADS));
+    assertTrue(explain, explain.contains("HashRepartition on t.c0 -> output 1 of " + THREADS));
+
+    DbIterator single = new Aggregate(new SeqScan(tid, big.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+    SystemTestUtil.matchTuples(plan, read(single));
+
+    LogicalPlan join = new LogicalPlan();
+    join.addScan(big.getId(), "a");
+    join.addScan(big.getId(), "b");
+    join.addJoin("a.c0", "b.c1", Predicate.Op.EQUALS);
+    join.addProjectField("null.*", null);
+    explain = Exchange.explain(join.physicalPlan(tid, stats, false));
+    assertTrue(explain, explain.contains("HashJoin"));
+    assertTrue(explain, explain.contains("HashRepartition on a.c0 -> output 1 of " + THREADS));
+    assertTrue(explain, explain.contains("HashRepartition on b.c1 -> output 1 of " + THREADS));
+
+    Exchange.setDefaultDegree(1);
+    plan = sumByGroup(big).physicalPlan(tid, stats, false);
+    assertTrue(!Exchange.explain(plan).contains("Gather"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+  // one-column tuples with keys (i * 37) % n, all distinct for n prime
+  private static DbIterator shuffled(int n) {
+    int[] data = new int[n];
+    for (int i = 0; i < n; i++)
+      data[i] = (i * 37) % n;
+    return TestUtil.createTupleList(1, data);
+  }
+
+  private static void checkSorted(DbIterator op, int n, boolean asc) throws Exception {
+    for (int i = 0; i < n; i++) {
+      assertTrue(op.hasNext());
+      assertEquals(new IntField(asc ? i : n - 1 - i), op.next().getField(0));
+    }
+    assertFalse(op.hasNext());
+  }
+
+  /**
+   * An input that fits in memory is sorted there
+   */
+  @Test public void inMemory() throws Exception {
+    ExternalSort op = new ExternalSort(0, true, shuffled(101));
+    op.open();
+    checkSorted(op, 101, true);
+    assertFalse(op.spilled());
+    op.rewind();
+    checkSorted(op, 101, true);
+    op.close();
+  }
+
+  /**
+   * A larger input is sorted in runs and merged, also in more than one
+   * pass, and either way round
+   */
+  @Test public void spills() throws Exception {
+    int n = 3001;
+    for (boolean asc : new boolean[] { true, false }) {
+      ExternalSort op = new ExternalSort(0, asc, shuffled(n));
+      // 10 tuples a run, so over MERGE_FANIN runs
+      op.setMemoryBudget(40);
+      op.open();
+      assertTrue(op.spilled());
+      checkSorted(op, n, asc);
+      op.rewind();
+      checkSorted(op, n, asc);
+      op.close();
+    }
+  }
+
+  /**
+   * Equal keys keep their input order, across runs and merge passes
+   */
+  @Test public void stable() throws Exception {
+    int n = 2000;
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = (i * 37) % 10;
+      data[2 * i + 1] = i;
+    }
+    ExternalSort op = new ExternalSort(0, true, TestUtil.createTupleList(2, data));
+    op.setMemoryBudget(40);
+    op.open();
+    assertTrue(op.spilled());
+    Tuple last = null;
+    for (int i = 0; i < n; i++) {
+      Tuple t = op.next();
+      if (last != null && last.getField(0).equals(t.getField(0)))
+        assertTrue(last.getField(1).compare(Predicate.Op.LESS_THAN, t.getField(1)));
+      last = t;
+    }
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * More than MERGE_FANIN^2 runs take several merge passes, which keep the
+   * sort stable
+   */
+  @Test public void manyPasses() throws Exception {
+    int n = ExternalSort.MERGE_FANIN * ExternalSort.MERGE_FANIN + 100;
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = (i * 37) % 101;
+      data[2 * i + 1] = i;
+    }
+    ExternalSort op = new ExternalSort(0, true, TestUtil.createTupleList(2, data));
+    // one tuple a run
+    op.setMemoryBudget(Type.INT_TYPE.getLen() * 2);
+    op.setThreads(1);
+    op.open();
+    assertTrue(op.spilled());
+    Tuple last = null;
+    for (int i = 0; i < n; i++) {
+      Tuple t = op.next();
+      if (last != null) {
+        assertFalse(last.getField(0).compare(Predicate.Op.GREATER_THAN, t.getField(0)));
+        if (last.getField(0).equals(t.getField(0)))
+          assertTrue(last.getField(1).compare(Predicate.Op.LESS_THAN, t.getField(1)));
+      }
+      last = t;
+    }
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * Runs written on several threads are merged in input order, so the sort
+   * stays stable
+   */
+  @Test public void parallelRuns() throws Exception {
+    int n = 3000;
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = (i * 37) % 10;
+      data[2 * i + 1] = i;
+    }
+    for (int threads : new int[] { 2, 4, 7 }) {
+      ExternalSort op = new ExternalSort(0, true, TestUtil.createTupleList(2, data));
+      op.setMemoryBudget(400);
+      op.setThreads(threads);
+      op.open();
+      assertTrue(op.spilled());
+      Tuple last = null;
+      for (int i = 0; i < n; i++) {
+        Tuple t = op.next();
+        if (last != null) {
+          assertFalse(last.getField(0).compare(Predicate.Op.GREATER_THAN, t.getField(0)));
+          if (last.getField(0).equals(t.getField(0)))
+            assertTrue(last.getField(1).compare(Predicate.Op.LESS_THAN, t.getField(1)));
+        }
+        last = t;
+      }
+      assertFalse(op.hasNext());
+      op.close();
+    }
+  }
+
+  /**
+   * Later fields order the tuples equal on earlier ones, each its own way
+   * round, in memory or not
+   */
+  @Test public void multiColumn() throws Exception {
+    int n = 1000;
+    int[] data = new int[3 * n];
+    for (int i = 0; i < n; i++) {
+      data[3 * i] = (i * 37) % 7;
+      data[3 * i + 1] = (i * 11) % 13;
+      data[3 * i + 2] = i;
+    }
+    for (long budget : new long[] { ExternalSort.DEFAULT_MEMORY_BUDGET, 120 }) {
+      ExternalSort op = new ExternalSort(new int[] { 0, 1 }, new boolean[] { true, false },
+                                         TestUtil.createTupleList(3, data));
+      op.setMemoryBudget(budget);
+      op.setThreads(3);
+      op.open();
+      Tuple last = op.next();
+      for (int i = 1; i < n; i++) {
+        Tuple t = op.next();
+        int a0 = ((IntField) last.getField(0)).getValue(), b0 = ((IntField) t.getField(0)).getValue();
+        int a1 = ((IntField) last.getField(1)).getValue(), b1 = ((IntField) t.getField(1)).getValue();
+        assertTrue(a0 < b0 || (a0 == b0 && a1 >= b1));
+        last = t;
+      }
+      assertFalse(op.hasNext());
+      op.close();
+    }
+  }
+
+  /**
+   * OrderBy sorts with a budget, and opening it again sorts the child
+   * again rather than adding to what it sorted before
+   */
+  @Test public void orderByReopen() throws Exception {
+    int n = 1009;
+    OrderBy op = new OrderBy(0, false, shuffled(n));
+    op.setMemoryBudget(100);
+    for (int pass = 0; pass < 2; pass++) {
+      op.open();
+      assertTrue(op.spilled());
+      checkSorted(op, n, false);
+      op.rewind();
+      checkSorted(op, n, false);
+      op.close();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExternalSortTest.class);
+  }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Times commits against the number of committing threads, and prints
+ * commits per second and the median and 99th percentile commit latency.
+ * Each thread starts and commits empty transactions in a loop for the
+ * given number of seconds, so every commit is a COMMIT record and a wait
+ * for the log to be forced, and the threads share those forces only by
+ * group commit.
+ * <p>
+ * The log is made in the current directory. No PageWriter or Checkpointer
+ * runs.
+ * <p>
+ * Usage: java simpledb.GroupCommitBenchmark [seconds] [threads...]
+ */
+public class GroupCommitBenchmark {
+
+    private static class Committer extends Thread {
+        final long end;
+        long[] latencies = new long[1024];
+        int commits;
+        Exception failure;
+
+        Committer(long end) {
+            this.end = end;
+        }
+
+        public void run() {
+            try {
+                while (System.nanoTime() < end) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    long start = System.nanoTime();
+                    t.commit();
+                    if (commits == latencies.length)
+                        latencies = Arrays.copyOf(latencies, 2 * commits);
+                    latencies[commits++] = System.nanoTime() - start;
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int[] threads = { 1, 2, 4, 8, 16, 32 };
+        if (args.length > 1) {
+            threads = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                threads[i - 1] = Integer.parseInt(args[i]);
+        }
+        PageWriter.setDefaultInterval(0);
+        Checkpointer.setDefaultSchedule(0, 0);
+        Database.reset();
+
+        System.out.println("  threads    commits/s        p50        p99");
+        for (int n : threads) {
+            long end = System.nanoTime() + seconds * 1000000000L;
+            Committer[] committers = new Committer[n];
+            for (int i = 0; i < n; i++) {
+                committers[i] = new Committer(end);
+                committers[i].start();
+            }
+            int count = 0;
+            for (Committer c : committers) {
+                c.join();
+                if (c.failure != null)
+                    throw c.failure;
+                count += c.commits;
+            }
+            long[] all = new long[count];
+            int k = 0;
+            for (Committer c : committers) {
+                System.arraycopy(c.latencies, 0, all, k, c.commits);
+                k += c.commits;
+            }
+            Arrays.sort(all);
+            System.out.println(String.format("%9d  %11.0f  %7.2fms  %7.2fms", n, count / (double) seconds,
+                                             all[count / 2] / 1e6, all[(int) (count * 0.99)] / 1e6));
+        }
+        System.exit(0);
+    }
+}
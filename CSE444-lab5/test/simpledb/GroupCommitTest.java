@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class GroupCommitTest {
+  private static final int COMMITTERS = 16;
+
+  private final AtomicLong appended = new AtomicLong();
+  private final AtomicInteger forces = new AtomicInteger();
+  private GroupCommit gc;
+
+  @Before public void setUp() {
+    gc = new GroupCommit(new GroupCommit.Flusher() {
+      public long flush() throws IOException {
+        forces.incrementAndGet();
+        return appended.get();
+      }
+    });
+  }
+
+  /** Appends one record and waits for it to become durable. */
+  private class Committer extends Thread {
+    volatile boolean done = false;
+
+    public void run() {
+      try {
+        gc.await(appended.incrementAndGet(), true);
+        done = true;
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Concurrent committers all return, sharing fewer forces than commits.
+   */
+  @Test public void batchesConcurrentCommits() throws Exception {
+    gc.setPolicy(100000, COMMITTERS);
+    Committer[] committers = new Committer[COMMITTERS];
+    for (int i = 0; i < COMMITTERS; ++i) {
+      committers[i] = new Committer();
+      committers[i].start();
+    }
+    for (Committer c : committers) {
+      c.join(5000);
+      assertTrue(c.done);
+    }
+    assertTrue(forces.get() < COMMITTERS);
+    assertTrue(gc.averageBatchSize() > 1);
+  }
+
+  /**
+   * A position already forced by someone else needs no further force.
+   */
+  @Test public void skipsForcedPositions() throws Exception {
+    appended.set(3);
+    gc.forced(3);
+    gc.await(2, true);
+    assertEquals(0, forces.get());
+    gc.await(appended.incrementAndGet(), false);
+    assertEquals(1, forces.get());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GroupCommitTest.class);
+  }
+}
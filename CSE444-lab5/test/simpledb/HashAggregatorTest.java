@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashAggregatorTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 20000;
+
+  private static final Aggregator.Op[] OPS = {
+    Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+    Aggregator.Op.AVG, Aggregator.Op.COUNT
+  };
+
+  // (group, value) tuples; groups are ints or strings of about groups
+  // distinct values, and values are big enough for the int sum of all of
+  // them, but not of a group, to overflow.
+  // Wide strings have chars of more than a byte, which pages (and so
+  // spilled tuples) can not hold.
+  private static List<Tuple> tuples(boolean strings, boolean wide, int groups) {
+    TupleDesc td = new TupleDesc(new Type[] {
+        strings ? Type.STRING_TYPE : Type.INT_TYPE, Type.INT_TYPE });
+    Random r = new Random(groups);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < ROWS; i++) {
+      int g = r.nextInt(groups) - groups / 2;
+      Tuple t = new Tuple(td);
+      t.setField(0, strings ? new StringField("group " + g + (wide && g % 7 == 0 ? "\u00e9\u4e2d" : ""),
+                                              Type.STRING_LEN)
+                            : new IntField(g));
+      t.setField(1, new IntField(r.nextInt() >> 6));
+      tuples.add(t);
+    }
+    return tuples;
+  }
+
+  // what each group aggregates to, worked out with longs
+  private static Map<Field, Integer> expected(List<Tuple> tuples, Aggregator.Op op) {
+    HashMap<Field, long[]> groups = new HashMap<Field, long[]>();
+    for (Tuple t : tuples) {
+      long[] s = groups.get(t.getField(0));
+      if (s == null) {
+        s = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+        groups.put(t.getField(0), s);
+      }
+      long v = ((IntField) t.getField(1)).getValue();
+      s[0]++;
+      s[1] += v;
+      s[2] = Math.min(s[2], v);
+      s[3] = Math.max(s[3], v);
+    }
+    HashMap<Field, Integer> results = new HashMap<Field, Integer>();
+    for (Map.Entry<Field, long[]> e : groups.entrySet()) {
+      long[] s = e.getValue();
+      long v = op == Aggregator.Op.MIN ? s[2] : op == Aggregator.Op.MAX ? s[3]
+          : op == Aggregator.Op.SUM ? s[1] : op == Aggregator.Op.AVG ? s[1] / s[0] : s[0];
+      results.put(e.getKey(), (int) v);
+    }
+    return results;
+  }
+
+  private static Map<Field, Integer> results(DbIterator it) throws Exception {
+    HashMap<Field, Integer> results = new HashMap<Field, Integer>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      Integer old = results.put(t.getField(0), ((IntField) t.getField(1)).getValue());
+      assertEquals("group " + t.getField(0) + " twice", null, old);
+    }
+    it.close();
+    return results;
+  }
+
+  private static void check(boolean strings, int groups, long budget) throws Exception {
+    boolean spills = budget < groups * 100;
+    List<Tuple> tuples = tuples(strings, !spills, groups);
+    Type gtype = tuples.get(0).getTupleDesc().getFieldType(0);
+    for (Aggregator.Op op : OPS) {
+      HashAggregator agg = new HashAggregator(0, gtype, 1, Type.INT_TYPE, op);
+      agg.setMemoryBudget(budget);
+      for (Tuple t : tuples) {
+        agg.mergeTupleIntoGroup(t);
+      }
+      assertEquals(spills, agg.spilled());
+      DbIterator it = agg.iterator();
+      Map<Field, Integer> expected = expected(tuples, op);
+      assertEquals(op.toString(), expected, results(it));
+      // and again, once rewound
+      it.open();
+      it.next();
+      it.rewind();
+      int n = 0;
+      while (it.hasNext()) {
+        it.next();
+        n++;
+      }
+      it.close();
+      assertEquals(expected.size(), n);
+      agg.delete();
+    }
+  }
+
+  /**
+   * Groups of int keys, in memory and spilled once or twice
+   */
+  @Test public void intGroups() throws Exception {
+    check(false, 5000, HashAggregator.DEFAULT_MEMORY_BUDGET);
+    check(false, 5000, 20000);
+    check(false, 5000, 100);
+  }
+
+  /**
+   * Groups of string keys, some not of one byte a char when in memory,
+   * and spilled once or twice
+   */
+  @Test public void stringGroups() throws Exception {
+    check(true, 3000, HashAggregator.DEFAULT_MEMORY_BUDGET);
+    check(true, 3000, 20000);
+    check(true, 3000, 100);
+  }
+
+  /**
+   * Without grouping: long sums, string counts, and no AVG of nothing
+   */
+  @Test public void noGrouping() throws Exception {
+    List<Tuple> tuples = tuples(true, false, 10);
+    HashAggregator sum = new HashAggregator(Aggregator.NO_GROUPING, null, 1, Type.INT_TYPE,
+                                            Aggregator.Op.AVG);
+    HashAggregator count = new HashAggregator(Aggregator.NO_GROUPING, null, 0, Type.STRING_TYPE,
+                                              Aggregator.Op.COUNT);
+    long total = 0;
+    for (Tuple t : tuples) {
+      sum.mergeTupleIntoGroup(t);
+      count.mergeTupleIntoGroup(t);
+      total += ((IntField) t.getField(1)).getValue();
+    }
+    DbIterator it = sum.iterator();
+    it.open();
+    assertEquals(new IntField((int) (total / ROWS)), it.next().getField(0));
+    assertFalse(it.hasNext());
+    it.close();
+    it = count.iterator();
+    it.open();
+    assertEquals(new IntField(ROWS), it.next().getField(0));
+    it.close();
+
+    it = new HashAggregator(Aggregator.NO_GROUPING, null, 0, Type.INT_TYPE,
+                            Aggregator.Op.AVG).iterator();
+    it.open();
+    assertFalse(it.hasNext());
+    it.close();
+  }
+
+  /**
+   * A SUM past Integer.MAX_VALUE is an error, not a wrapped value; AVG of
+   * the same values is exact
+   */
+  @Test public void sumOverflow() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 3; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(1));
+      t.setField(1, new IntField(Integer.MAX_VALUE - i));
+      tuples.add(t);
+    }
+    HashAggregator sum = new HashAggregator(0, Type.INT_TYPE, 1, Type.INT_TYPE, Aggregator.Op.SUM);
+    HashAggregator avg = new HashAggregator(0, Type.INT_TYPE, 1, Type.INT_TYPE, Aggregator.Op.AVG);
+    for (Tuple t : tuples) {
+      sum.mergeTupleIntoGroup(t);
+      avg.mergeTupleIntoGroup(t);
+    }
+    DbIterator it = sum.iterator();
+    it.open();
+    try {
+      it.next();
+      assertTrue("expected DbException", false);
+    } catch (DbException e) {
+    }
+    it.close();
+    it = avg.iterator();
+    it.open();
+    assertEquals(new IntField(Integer.MAX_VALUE - 1), it.next().getField(1));
+    it.close();
+  }
+
+  /**
+   * An Aggregate that spilled gives the same groups when reopened
+   */
+  @Test public void aggregateReopen() throws Exception {
+    List<Tuple> tuples = tuples(false, false, 5000);
+    long budget = HashAggregator.getDefaultMemoryBudget();
+    HashAggregator.setDefaultMemoryBudget(10000);
+    try {
+      Aggregate agg = new Aggregate(new TupleIterator(tuples.get(0).getTupleDesc(), tuples),
+                                    1, 0, Aggregator.Op.SUM);
+      Map<Field, Integer> expected = expected(tuples, Aggregator.Op.SUM);
+      assertEquals(expected, results(agg));
+      assertEquals(expected, results(agg));
+    } finally {
+      HashAggregator.setDefaultMemoryBudget(budget);
+    }
+  }
+
+  /**
+   * Operators other than MIN, MAX, SUM, AVG and COUNT are refused, as is
+   * anything but COUNT of strings
+   */
+  @Test public void unsupported() {
+    try {
+      new HashAggregator(0, Type.INT_TYPE, 1, Type.INT_TYPE, Aggregator.Op.SUM_COUNT);
+      assertTrue("expected IllegalArgumentException", false);
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new HashAggregator(0, Type.INT_TYPE, 1, Type.STRING_TYPE, Aggregator.Op.SUM);
+      assertTrue("expected IllegalArgumentException", false);
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashAggregatorTest.class);
+  }
+}
@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+  private static final int KEYS = 400;
+  private static final int ROWS = 2000;
+
+  private HeapFile table;
+  private HashIndexFile index;
+
+  // string keys, so buckets hold few entries and split often with few rows
+  private static Field key(int i) {
+    return new StringField(String.format("k%04d", i), Type.STRING_LEN);
+  }
+
+  @Before public void createIndex() throws Exception {
+    Database.resetBufferPool(1000);
+    File f = File.createTempFile("hash", ".dat");
+    f.deleteOnExit();
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+                                 new String[] { "s", "n" });
+    table = new HeapFile(f, td);
+    Database.getCatalog().addTable(table, "t");
+    File idx = File.createTempFile("hash", ".hidx");
+    idx.deleteOnExit();
+    index = new HashIndexFile(idx, table.getId(), 0, Type.STRING_TYPE);
+    Database.getCatalog().addIndex(index);
+  }
+
+  // insert rows tuples with the keys given by row, and commit or abort
+  private void insert(int rows, int key, boolean commit) throws Exception {
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < rows; i++) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, key(key < 0 ? i * 7 % KEYS : key));
+      t.setField(1, new IntField(i));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid, commit);
+  }
+
+  // insert ROWS tuples, key (i * 7) % KEYS for row i, and commit
+  private void fill() throws Exception {
+    insert(ROWS, -1, true);
+  }
+
+  private List<Tuple> lookup(Field key) throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = index.lookup(tid, Predicate.Op.EQUALS, key);
+    it.open();
+    ArrayList<Tuple> entries = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      entries.add(it.next());
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return entries;
+  }
+
+  private HashDirectoryPage directory() throws Exception {
+    TransactionId tid = new TransactionId();
+    HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(
+        tid, new HashPageId(index.getId(), 0), Permissions.READ_ONLY);
+    Database.getBufferPool().transactionComplete(tid);
+    return dir;
+  }
+
+  /**
+   * Every key finds its entries, and only them, after the buckets have
+   * split and the directory grown
+   */
+  @Test public void lookups() throws Exception {
+    fill();
+    int perBucket = HashBucketPage.capacity(Type.STRING_TYPE);
+    assertTrue(directory().getDepth() > 0);
+    assertTrue(directory().buckets().length >= ROWS / perBucket);
+
+    for (int k = -1; k <= KEYS; k++) {
+      List<Tuple> entries = lookup(key(k));
+      assertEquals("key " + k, k < 0 || k == KEYS ? 0 : ROWS / KEYS, entries.size());
+      for (Tuple e : entries) {
+        assertEquals(key(k), e.getField(0));
+      }
+    }
+  }
+
+  /**
+   * Entries point at the tuples they index, and the iterator finds every
+   * entry once
+   */
+  @Test public void entriesFindTuples() throws Exception {
+    fill();
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = index.iterator(tid);
+    it.open();
+    HashSet<RecordId> seen = new HashSet<RecordId>();
+    while (it.hasNext()) {
+      Tuple e = it.next();
+      RecordId rid = IndexFile.recordId(index, e);
+      HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                                                               Permissions.READ_ONLY);
+      assertEquals(e.getField(0), p.getTuple(rid.tupleno()).getField(0));
+      assertTrue(seen.add(rid));
+    }
+    it.close();
+    assertEquals(ROWS, seen.size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * More entries of one key than a bucket holds go on overflow pages,
+   * since no split can separate them
+   */
+  @Test public void overflow() throws Exception {
+    int rows = 3 * HashBucketPage.capacity(Type.STRING_TYPE) + 1;
+    insert(rows, 5, true);
+    assertEquals(rows, lookup(key(5)).size());
+    assertTrue(index.numPages() >= 5);
+    fill();
+    assertEquals(rows + ROWS / KEYS, lookup(key(5)).size());
+    assertEquals(ROWS / KEYS, lookup(key(6)).size());
+  }
+
+  /**
+   * Deleting tuples deletes their entries; an entry can not be deleted
+   * twice, nor inserted twice
+   */
+  @Test public void deletes() throws Exception {
+    fill();
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (((IntField) t.getField(1)).getValue() % 2 == 0)
+        doomed.add(t);
+    }
+    it.close();
+    Tuple entry = IndexFile.entry(index, doomed.get(0));
+    for (Tuple t : doomed) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    try {
+      index.deleteTuple(tid, entry);
+      fail("deleted an entry twice");
+    } catch (DbException e) {
+      // expected
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    // row i has key 7i mod KEYS, so the even rows have the even keys
+    assertEquals(ROWS / KEYS, lookup(key(7)).size());
+    assertEquals(0, lookup(key(8)).size());
+
+    tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, index.getId(), entry);
+    try {
+      Database.getBufferPool().insertTuple(tid, index.getId(), entry);
+      fail("inserted an entry twice");
+    } catch (DbException e) {
+      // expected
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The inserts of an aborted transaction, splits and all, are undone
+   */
+  @Test public void abort() throws Exception {
+    fill();
+    int depth = directory().getDepth();
+    insert(ROWS, 5, false);
+    insert(ROWS, KEYS + 1, false);
+
+    assertEquals(depth, directory().getDepth());
+    assertEquals(ROWS / KEYS, lookup(key(5)).size());
+    assertEquals(0, lookup(key(KEYS + 1)).size());
+  }
+
+  /**
+   * A committed index reads back from disk
+   */
+  @Test public void persists() throws Exception {
+    fill();
+    int depth = directory().getDepth();
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(depth, directory().getDepth());
+    assertEquals(ROWS / KEYS, lookup(key(KEYS - 1)).size());
+    assertEquals(ROWS / KEYS, lookup(key(0)).size());
+  }
+
+  /**
+   * An index with no entries finds none, and only looks up equality
+   */
+  @Test public void empty() throws Exception {
+    assertEquals(0, lookup(key(1)).size());
+    assertTrue(index.supports(Predicate.Op.EQUALS));
+    assertFalse(index.supports(Predicate.Op.LESS_THAN));
+    try {
+      index.lookup(new TransactionId(), Predicate.Op.LESS_THAN, key(1));
+      fail("looked up a range in a hash index");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashIndexFileTest.class);
+  }
+}
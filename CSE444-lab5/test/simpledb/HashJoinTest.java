@@ -0,0 +1,197 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    3, 9, 9,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 9, 9,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * HashJoin only does equi-joins
+   */
+  @Test(expected=IllegalArgumentException.class)
+  public void rejectsInequality() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), hashing the smaller left input
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), hashing the smaller right input
+   */
+  @Test public void eqJoinSmallerRight() throws Exception {
+    DbIterator scan3 = TestUtil.createTupleList(width1 + 1,
+        new int[] { 1, 2, 3,
+                    3, 4, 5,
+                    3, 4, 6,
+                    5, 6, 7,
+                    7, 8, 9,
+                    9, 9, 9,
+                    9, 9, 9 });
+    DbIterator small = TestUtil.createTupleList(width1,
+        new int[] { 3, 1,
+                    7, 2 });
+    DbIterator expected = TestUtil.createTupleList(width1 + 1 + width1,
+        new int[] { 3, 4, 5, 3, 1,
+                    3, 4, 6, 3, 1,
+                    7, 8, 9, 7, 2 });
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan3, small);
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(4, count);
+    assertTrue(TestUtil.checkExhausted(op));
+
+    op.rewind();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.close();
+  }
+
+  // two-column tuples (key, i) with the given keys
+  private static DbIterator keyed(int[] keys) {
+    int[] data = new int[2 * keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      data[2 * i] = keys[i];
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  // the output of op, sorted
+  private static ArrayList<String> run(DbIterator op) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    Collections.sort(out);
+    return out;
+  }
+
+  private static int[] keys(int n, int mod, int mul) {
+    int[] keys = new int[n];
+    for (int i = 0; i < n; i++)
+      keys[i] = (i * mul) % mod;
+    return keys;
+  }
+
+  /**
+   * Inputs over the memory budget are partitioned to disk, with the same
+   * result as in memory
+   */
+  @Test public void spills() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    int[] left = keys(2000, 700, 7), right = keys(3000, 900, 13);
+    HashJoin op = new HashJoin(pred, keyed(left), keyed(right));
+    op.setMemoryBudget(1024);
+    op.open();
+    ArrayList<String> actual = run(op);
+    assertTrue(op.spilled());
+
+    Join expected = new Join(pred, keyed(left), keyed(right));
+    expected.open();
+    assertEquals(run(expected), actual);
+    assertFalse(actual.isEmpty());
+
+    op.rewind();
+    assertEquals(actual, run(op));
+    op.close();
+  }
+
+  /**
+   * A key too common to partition away is joined in chunks
+   */
+  @Test public void skewedKey() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    int[] left = keys(600, 1, 1), right = keys(400, 2, 1);
+    left[0] = 1;
+    HashJoin op = new HashJoin(pred, keyed(left), keyed(right));
+    op.setMemoryBudget(512);
+    op.open();
+    ArrayList<String> actual = run(op);
+    assertTrue(op.spilled());
+    assertEquals(599 * 200 + 200, actual.size());
+
+    Join expected = new Join(pred, keyed(left), keyed(right));
+    expected.open();
+    assertEquals(run(expected), actual);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
@@ -1,11 +1,14 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -173,6 +176,25 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageWriteTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(new int[] {1, 2}));
+        assertArrayEquals(HeapPageWriteTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        // the image is taken over from the current contents by the next change
+        byte[] committed = page.getPageData();
+        page.setBeforeImage();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] {3, 4}));
+        Page before = page.getBeforeImage();
+        assertEquals(pid, before.getId());
+        assertArrayEquals(committed, before.getPageData());
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
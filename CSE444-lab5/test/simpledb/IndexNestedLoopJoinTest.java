@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private HeapFile outer;
+  private HeapFile inner;
+  private HashIndexFile index;
+
+  @Before public void createIndex() throws Exception {
+    outer = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, null, "a");
+    inner = SystemTestUtil.createRandomHeapFile(2, 1000, 200, null, null, "b");
+    File f = File.createTempFile("index", ".hidx");
+    f.deleteOnExit();
+    index = new HashIndexFile(f, inner.getId(), 1, Type.INT_TYPE);
+    Database.getCatalog().addIndex(index);
+
+    // the table was written directly, so enter its tuples by hand
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = inner.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Database.getBufferPool().insertTuple(tid, index.getId(), IndexFile.entry(index, it.next()));
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static List<ArrayList<Integer>> read(DbIterator it) throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(SystemTestUtil.tupleToList(it.next()));
+    }
+    it.close();
+    return tuples;
+  }
+
+  /**
+   * An index join returns the tuples a hash join does
+   */
+  @Test public void matchesHashJoin() throws Exception {
+    TransactionId tid = new TransactionId();
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "a"),
+                                                    new SeqScan(tid, inner.getId(), "b"), index);
+    List<ArrayList<Integer>> found = read(j);
+    assertTrue(found.size() > 0);
+    SystemTestUtil.matchTuples(new HashJoin(p, new SeqScan(tid, outer.getId(), "a"),
+                                            new SeqScan(tid, inner.getId(), "b")), found);
+
+    // and again after a rewind
+    j.open();
+    j.rewind();
+    int n = 0;
+    while (j.hasNext()) {
+      j.next();
+      n++;
+    }
+    j.close();
+    assertEquals(found.size(), n);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Filters over the inner scan apply to the tuples the index finds
+   */
+  @Test public void innerFilters() throws Exception {
+    TransactionId tid = new TransactionId();
+    JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+    Predicate f = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+    IndexNestedLoopJoin j = new IndexNestedLoopJoin(
+        p, new SeqScan(tid, outer.getId(), "a"),
+        new Filter(f, new SeqScan(tid, inner.getId(), "b")), index);
+    SystemTestUtil.matchTuples(
+        new HashJoin(p, new SeqScan(tid, outer.getId(), "a"),
+                     new Filter(f, new SeqScan(tid, inner.getId(), "b"))), read(j));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The inner plan must be a scan of the indexed table, joined on the
+   * indexed field
+   */
+  @Test public void checksInner() throws Exception {
+    TransactionId tid = new TransactionId();
+    try {
+      new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                              new SeqScan(tid, outer.getId(), "a"),
+                              new SeqScan(tid, inner.getId(), "b"), index);
+      fail("joined on a field the index is not on");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                              new SeqScan(tid, outer.getId(), "a"),
+                              new OrderBy(1, true, new SeqScan(tid, inner.getId(), "b")), index);
+      fail("joined with a plan that is not a scan");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The optimizer joins by index when the inner side is a scan of a table
+   * with a hash index on the join field
+   */
+  @Test public void instantiateJoin() throws Exception {
+    TransactionId tid = new TransactionId();
+    DbIterator a = new SeqScan(tid, outer.getId(), "a");
+    DbIterator b = new SeqScan(tid, inner.getId(), "b");
+    LogicalJoinNode indexed = new LogicalJoinNode("a", "b", "a.a0", "b.b1", Predicate.Op.EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(indexed, a, b) instanceof IndexNestedLoopJoin);
+    LogicalJoinNode other = new LogicalJoinNode("a", "b", "a.a0", "b.b0", Predicate.Op.EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(other, a, b) instanceof HashJoin);
+    LogicalJoinNode swapped = new LogicalJoinNode("b", "a", "b.b1", "a.a0", Predicate.Op.EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(swapped, b, a) instanceof HashJoin);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+  private HeapFile table;
+  private BTreeFile index;
+
+  @Before public void createIndex() throws Exception {
+    table = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, null, "c");
+    File f = File.createTempFile("index", ".idx");
+    f.deleteOnExit();
+    index = new BTreeFile(f, table.getId(), 1, Type.INT_TYPE);
+    Database.getCatalog().addIndex(index);
+
+    // the table was written directly, so enter its tuples by hand
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Database.getBufferPool().insertTuple(tid, index.getId(), IndexFile.entry(index, it.next()));
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static List<ArrayList<Integer>> read(DbIterator it) throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(SystemTestUtil.tupleToList(it.next()));
+    }
+    it.close();
+    return tuples;
+  }
+
+  /**
+   * An index scan returns the tuples a filtered scan does, in key order
+   */
+  @Test public void matchesFilter() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                           Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                           Predicate.Op.GREATER_THAN_OR_EQ };
+    TransactionId tid = new TransactionId();
+    for (Predicate.Op op : ops) {
+      for (int key : new int[] { -1, 0, 50, 99 }) {
+        IndexScan scan = new IndexScan(tid, index, op, new IntField(key), "t");
+        List<ArrayList<Integer>> found = read(scan);
+        for (int i = 1; i < found.size(); i++) {
+          assertTrue(found.get(i - 1).get(1) <= found.get(i).get(1));
+        }
+        SystemTestUtil.matchTuples(new Filter(new Predicate(1, op, new IntField(key)),
+                                              new SeqScan(tid, table.getId(), "t")), found);
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Field names carry the alias; rewind starts over
+   */
+  @Test public void tupleDescAndRewind() throws Exception {
+    TransactionId tid = new TransactionId();
+    IndexScan scan = new IndexScan(tid, index, Predicate.Op.GREATER_THAN, new IntField(90), "t");
+    assertEquals("t.c1", scan.getTupleDesc().getFieldName(1));
+    scan.open();
+    int n = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    scan.rewind();
+    int m = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      m++;
+    }
+    scan.close();
+    assertEquals(n, m);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The planner scans an index for a selective filter on its field, and
+   * the table for anything else
+   */
+  @Test public void planner() throws Exception {
+    String name = Database.getCatalog().getTableName(table.getId());
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(name, new TableStats(table.getId(), 1000));
+    TransactionId tid = new TransactionId();
+
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(table.getId(), "t");
+    lp.addFilter("t.c1", Predicate.Op.EQUALS, "5");
+    lp.addProjectField("*", null);
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof IndexScan);
+
+    lp = new LogicalPlan();
+    lp.addScan(table.getId(), "t");
+    lp.addFilter("t.c0", Predicate.Op.EQUALS, "5");
+    lp.addProjectField("*", null);
+    plan = lp.physicalPlan(tid, stats, false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Filter);
+
+    lp = new LogicalPlan();
+    lp.addScan(table.getId(), "t");
+    lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "5");
+    lp.addProjectField("*", null);
+    plan = lp.physicalPlan(tid, stats, false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Filter);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexScanTest.class);
+  }
+}
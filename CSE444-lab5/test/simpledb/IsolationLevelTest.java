@@ -0,0 +1,256 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class IsolationLevelTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1;
+  private TransactionId tid1, tid2;
+
+  /** Time to wait before checking the state of lock contention, in ms */
+  private static final int TIMEOUT = 100;
+
+  /** Tuples that fit on one page of a two-column table */
+  private static final int TUPLES_PER_PAGE = 504;
+
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test: a table of exactly two
+   * full pages, so the next insert has to append a page.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 2 * TUPLES_PER_PAGE; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(2, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.flushAllPages();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    this.tid1 = new TransactionId();
+    this.tid2 = new TransactionId();
+  }
+
+  /** Read n tuples of the table as tid, leaving the iterator open */
+  private DbFileIterator scan(TransactionId tid, int n) throws Exception {
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    for (int i = 0; i < n; ++i) {
+      assertTrue(it.hasNext());
+      it.next();
+    }
+    return it;
+  }
+
+  private int count(DbFileIterator it) throws Exception {
+    int count = 0;
+    it.rewind();
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    return count;
+  }
+
+  private void grabLock(TransactionId tid, PageId pid, Permissions perm,
+      boolean expected) throws Exception {
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertEquals(expected, t.acquired());
+    t.stop();
+  }
+
+  /** Inserts one tuple in a new thread; appends a page to a full table. */
+  private static class Inserter extends Thread {
+    private final TransactionId tid;
+    private final int tableId;
+    private volatile boolean done = false;
+
+    Inserter(TransactionId tid, int tableId) {
+      this.tid = tid;
+      this.tableId = tableId;
+    }
+
+    public void run() {
+      try {
+        Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(-1, 2));
+        done = true;
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * READ COMMITTED drops the read lock on a page once the scan moves past
+   * it, but still holds the lock on the page being read.
+   */
+  @Test public void readCommittedReleasesReadLocks() throws Exception {
+    bp.setIsolationLevel(tid1, IsolationLevel.READ_COMMITTED);
+    scan(tid1, TUPLES_PER_PAGE + 1);
+
+    assertFalse(bp.holdsLock(tid1, p0));
+    assertTrue(bp.holdsLock(tid1, p1));
+    grabLock(tid2, p0, Permissions.READ_WRITE, true);
+    grabLock(new TransactionId(), p1, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * READ COMMITTED never reads a page another transaction is writing.
+   */
+  @Test public void readCommittedNoDirtyReads() throws Exception {
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+    bp.setIsolationLevel(tid1, IsolationLevel.READ_COMMITTED);
+    grabLock(tid1, p0, Permissions.READ_ONLY, false);
+  }
+
+  /**
+   * READ COMMITTED keeps its exclusive locks even on pages it scans past.
+   */
+  @Test public void readCommittedKeepsWriteLocks() throws Exception {
+    bp.setIsolationLevel(tid1, IsolationLevel.READ_COMMITTED);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    scan(tid1, TUPLES_PER_PAGE + 1);
+
+    assertTrue(bp.holdsLock(tid1, p0));
+    grabLock(tid2, p0, Permissions.READ_ONLY, false);
+  }
+
+  /**
+   * REPEATABLE READ holds its read locks until commit, so no one can change
+   * a page it has read.
+   */
+  @Test public void repeatableReadHoldsReadLocks() throws Exception {
+    bp.setIsolationLevel(tid1, IsolationLevel.REPEATABLE_READ);
+    scan(tid1, TUPLES_PER_PAGE + 1);
+
+    assertTrue(bp.holdsLock(tid1, p0));
+    grabLock(tid2, p0, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * REPEATABLE READ does not lock the end of the file, so a rescan may see
+   * tuples appended by a transaction that committed in between.
+   */
+  @Test public void repeatableReadAllowsPhantoms() throws Exception {
+    bp.setIsolationLevel(tid1, IsolationLevel.REPEATABLE_READ);
+    DbFileIterator it = scan(tid1, 2 * TUPLES_PER_PAGE);
+
+    Inserter inserter = new Inserter(tid2, empty.getId());
+    inserter.start();
+    inserter.join(TIMEOUT * 10);
+    assertTrue(inserter.done);
+    bp.transactionComplete(tid2);
+
+    assertEquals(2 * TUPLES_PER_PAGE + 1, count(it));
+  }
+
+  /**
+   * SERIALIZABLE locks the end of every file it scans, so appends wait
+   * until it commits and a rescan sees the same tuples.
+   */
+  @Test public void serializableBlocksPhantoms() throws Exception {
+    bp.setIsolationLevel(tid1, IsolationLevel.SERIALIZABLE);
+    DbFileIterator it = scan(tid1, 2 * TUPLES_PER_PAGE);
+
+    Inserter inserter = new Inserter(tid2, empty.getId());
+    inserter.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(inserter.done);
+    assertEquals(2 * TUPLES_PER_PAGE, count(it));
+
+    it.close();
+    bp.transactionComplete(tid1);
+    inserter.join(TIMEOUT * 10);
+    assertTrue(inserter.done);
+  }
+
+  /**
+   * By default a scan does not lock the end of the file, so two
+   * transactions can each scan a table and then append to it: the first
+   * append does not wait for the other scan, and the second waits only
+   * for the first append to commit.
+   */
+  @Test public void defaultScanThenAppend() throws Exception {
+    assertEquals(IsolationLevel.REPEATABLE_READ, bp.getIsolationLevel(tid1));
+    scan(tid1, 2 * TUPLES_PER_PAGE).close();
+    scan(tid2, 2 * TUPLES_PER_PAGE).close();
+
+    Inserter first = new Inserter(tid1, empty.getId());
+    first.start();
+    first.join(TIMEOUT * 10);
+    assertTrue(first.done);
+
+    Inserter second = new Inserter(tid2, empty.getId());
+    second.start();
+    bp.transactionComplete(tid1);
+    second.join(TIMEOUT * 10);
+    assertTrue(second.done);
+    bp.transactionComplete(tid2);
+  }
+
+  /**
+   * Below SERIALIZABLE an append only locks the end of the file while it
+   * adds its page, so other transactions can append before it commits.
+   */
+  @Test public void appendReleasesExtentLock() throws Exception {
+    PageId extent = empty.extentId();
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    bp.setIsolationLevel(tid1, IsolationLevel.READ_COMMITTED);
+    bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(-1, 2));
+    assertEquals(3, empty.numPages());
+    assertFalse(bp.holdsLock(tid1, extent));
+    assertTrue(bp.holdsLock(tid1, p2));
+    bp.lockPage(tid2, extent, Permissions.READ_WRITE);
+    assertTrue(bp.holdsLock(tid2, extent));
+  }
+
+  /**
+   * A SERIALIZABLE append keeps the end of the file locked until it
+   * commits.
+   */
+  @Test public void serializableAppendKeepsExtentLock() throws Exception {
+    PageId extent = empty.extentId();
+    bp.setIsolationLevel(tid1, IsolationLevel.SERIALIZABLE);
+    bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(-1, 2));
+    assertTrue(bp.holdsLock(tid1, extent));
+    bp.transactionComplete(tid1);
+    assertFalse(bp.holdsLock(tid1, extent));
+  }
+
+  /**
+   * SET TRANSACTION ISOLATION LEVEL starts a transaction at that level.
+   */
+  @Test public void parserSetsIsolationLevel() throws Exception {
+    Parser p = new Parser();
+    p.processNextStatement("SET TRANSACTION ISOLATION LEVEL READ COMMITTED;");
+    Transaction t = p.getTransaction();
+    assertEquals(IsolationLevel.READ_COMMITTED, t.getIsolationLevel());
+    assertEquals(IsolationLevel.READ_COMMITTED, bp.getIsolationLevel(t.getId()));
+
+    p.processNextStatement("set transaction isolation level repeatable read;");
+    assertEquals(IsolationLevel.REPEATABLE_READ, p.getTransaction().getIsolationLevel());
+    t.abort();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IsolationLevelTest.class);
+  }
+}
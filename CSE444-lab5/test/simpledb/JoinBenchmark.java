@@ -0,0 +1,61 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times an equi-join of two random tables by Join's nested loops and by
+ * HashJoin, and prints the time of each: the tables are those of
+ * systemtest.JoinTest, two int columns with keys in [0, rows), made
+ * larger. Join is not run on more than 20000 rows, where it takes
+ * minutes.
+ * <p>
+ * Usage: java simpledb.JoinBenchmark [rows...]
+ */
+public class JoinBenchmark {
+
+    private static final int MAX_NESTED_LOOP_ROWS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { 1000, 5000, 20000, 100000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        System.out.println("     rows          Join      HashJoin        tuples out");
+        for (int rows : sizes) {
+            Database.reset();
+            HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, null);
+            HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, null);
+            String nested = "-";
+            if (rows <= MAX_NESTED_LOOP_ROWS) {
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                drain(new Join(p, new SeqScan(tid, t1.getId(), "t1"), new SeqScan(tid, t2.getId(), "t2")));
+                nested = String.format("%.0fms", (System.nanoTime() - start) / 1e6);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            long n = drain(new HashJoin(p, new SeqScan(tid, t1.getId(), "t1"),
+                                        new SeqScan(tid, t2.getId(), "t2")));
+            double ms = (System.nanoTime() - start) / 1e6;
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.println(String.format("%9d  %12s  %10.1fms  %16d", rows, nested, ms, n));
+        }
+        System.exit(0);
+    }
+
+    private static long drain(DbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+}
@@ -0,0 +1,193 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  // one-column tuples with keys (i * 37) % n
+  private static int[] shuffled(int n) {
+    int[] data = new int[n];
+    for (int i = 0; i < n; i++)
+      data[i] = (i * 37) % n;
+    return data;
+  }
+
+  /**
+   * A child that counts the tuples read from it
+   */
+  private static class Counting extends Operator {
+    private static final long serialVersionUID = 1L;
+    private final DbIterator child;
+    int read;
+
+    Counting(DbIterator child) {
+      this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+      return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+      child.open();
+      super.open();
+    }
+
+    public void close() {
+      super.close();
+      child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+      child.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+      if (!child.hasNext())
+        return null;
+      read++;
+      return child.next();
+    }
+
+    public DbIterator[] getChildren() {
+      return new DbIterator[] { child };
+    }
+
+    public void setChildren(DbIterator[] children) {
+    }
+  }
+
+  private static List<Integer> values(DbIterator it) throws Exception {
+    ArrayList<Integer> values = new ArrayList<Integer>();
+    while (it.hasNext()) {
+      values.add(((IntField) it.next().getField(0)).getValue());
+    }
+    return values;
+  }
+
+  /**
+   * Limit skips the offset, returns at most limit tuples, and reads no
+   * more of its child than it needs
+   */
+  @Test public void limitAndOffset() throws Exception {
+    int[] data = { 10, 11, 12, 13, 14, 15, 16, 17 };
+    Counting child = new Counting(TestUtil.createTupleList(1, data));
+    Limit op = new Limit(3, 2, child);
+    op.open();
+    assertEquals(Arrays.asList(12, 13, 14), values(op));
+    assertEquals(5, child.read);
+    op.rewind();
+    assertEquals(Arrays.asList(12, 13, 14), values(op));
+    op.close();
+
+    op = new Limit(10, 6, TestUtil.createTupleList(1, data));
+    op.open();
+    assertEquals(Arrays.asList(16, 17), values(op));
+    op.close();
+
+    child = new Counting(TestUtil.createTupleList(1, data));
+    op = new Limit(0, 0, child);
+    op.open();
+    assertFalse(op.hasNext());
+    assertEquals(0, child.read);
+    op.close();
+  }
+
+  /**
+   * TopN returns the first tuples OrderBy does, ties in input order, on
+   * any fields either way round
+   */
+  @Test public void topN() throws Exception {
+    int n = 500;
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = (i * 37) % 23;
+      data[2 * i + 1] = i;
+    }
+    int[][] fields = { { 0 }, { 0 }, { 0, 1 } };
+    boolean[][] asc = { { true }, { false }, { false, false } };
+    for (int k = 0; k < fields.length; k++) {
+      for (int size : new int[] { 0, 1, 7, 50, n, n + 10 }) {
+        OrderBy all = new OrderBy(fields[k], asc[k], TestUtil.createTupleList(2, data));
+        TopN top = new TopN(size, fields[k], asc[k], TestUtil.createTupleList(2, data));
+        all.open();
+        top.open();
+        for (int pass = 0; pass < 2; pass++) {
+          for (int i = 0; i < Math.min(size, n); i++) {
+            assertTrue(TestUtil.compareTuples(all.next(), top.next()));
+          }
+          assertFalse(top.hasNext());
+          all.rewind();
+          top.rewind();
+        }
+        all.close();
+        top.close();
+      }
+    }
+  }
+
+  /**
+   * The parser takes LIMIT and OFFSET off a query, and the plan sorts only
+   * the tuples it returns
+   */
+  @Test public void parser() throws Exception {
+    int n = 997;
+    HeapFile table = SystemTestUtil.createRandomHeapFile(1, 0, null, null, "c");
+    Database.getCatalog().addTable(table, "limited");
+    TransactionId tid = new TransactionId();
+    for (int v : shuffled(n)) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, new IntField(v));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(Database.getCatalog().getTableName(table.getId()),
+              new TableStats(table.getId(), 1000));
+
+    Parser p = new Parser();
+    LogicalPlan lp = p.generateLogicalPlan(tid,
+        "SELECT limited.c0 FROM limited ORDER BY limited.c0 DESC LIMIT 5 OFFSET 3;");
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    String explain = Exchange.explain(plan);
+    assertTrue(explain, explain.contains("Limit"));
+    assertTrue(explain, explain.contains("TopN"));
+    assertFalse(explain, explain.contains("OrderBy"));
+    plan.open();
+    assertEquals(Arrays.asList(n - 4, n - 5, n - 6, n - 7, n - 8), values(plan));
+    plan.close();
+
+    lp = p.generateLogicalPlan(tid, "select limited.c0 from limited where limited.c0 < 100 limit 7");
+    plan = lp.physicalPlan(tid, stats, false);
+    plan.open();
+    List<Integer> some = values(plan);
+    plan.close();
+    assertEquals(7, some.size());
+    for (int v : some) {
+      assertTrue(v < 100);
+    }
+
+    // no LIMIT: every tuple
+    lp = p.generateLogicalPlan(tid, "SELECT limited.c0 FROM limited ORDER BY limited.c0;");
+    plan = lp.physicalPlan(tid, stats, false);
+    plan.open();
+    assertEquals(n, values(plan).size());
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Times appending records to the log, and prints records per second. Each
+ * run logs BEGIN records, the smallest the log has, and forces the log
+ * once at the end, so this measures what an append itself costs rather
+ * than serializing pages or waiting for the disk.
+ * <p>
+ * The log is made in the current directory. No PageWriter or Checkpointer
+ * runs.
+ * <p>
+ * Usage: java simpledb.LogAppendBenchmark [records] [runs]
+ */
+public class LogAppendBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        PageWriter.setDefaultInterval(0);
+        Checkpointer.setDefaultSchedule(0, 0);
+
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i <= runs; i++) {
+            Database.reset();
+            deleteLog();
+            Database.reset();
+            LogFile log = Database.getLogFile();
+            long start = System.nanoTime();
+            for (int k = 0; k < records; k++)
+                log.logXactionBegin(new TransactionId());
+            log.force();
+            double secs = (System.nanoTime() - start) / 1e9;
+            if (i > 0)
+                best = Math.min(best, secs);
+        }
+        System.out.println(String.format("%d records, best of %d runs: %.0f records/s",
+                                         records, runs, records / best));
+        deleteLog();
+        System.exit(0);
+    }
+
+    private static void deleteLog() {
+        File[] files = new File(".").getAbsoluteFile().listFiles();
+        for (File f : files == null ? new File[0] : files) {
+            if (f.getName().equals("log") || f.getName().startsWith("log."))
+                f.delete();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogBufferTest {
+  private static final int CAPACITY = 64;
+
+  private File f;
+  private LogSegments segments;
+  private LogBuffer buffer;
+
+  @Before public void setUp() throws Exception {
+    f = File.createTempFile("logbuffer", ".log");
+    segments = new LogSegments(f, 4096);
+    buffer = new LogBuffer(segments, CAPACITY);
+    buffer.reset(8);
+  }
+
+  @After public void tearDown() throws Exception {
+    segments.close();
+    segments.fileFor(0).delete();
+    f.delete();
+  }
+
+  private static byte[] record(int len, int fill) {
+    byte[] b = new byte[len];
+    for (int i = 0; i < len; ++i)
+      b[i] = (byte) (fill + i);
+    return b;
+  }
+
+  private byte[] read(long lsn, int len) throws Exception {
+    ByteBuffer b = ByteBuffer.allocate(len);
+    segments.read(b, lsn);
+    return b.array();
+  }
+
+  /**
+   * LSNs are the file offsets records end up at.
+   */
+  @Test public void lsnsAreOffsets() throws Exception {
+    byte[] r1 = record(10, 1), r2 = record(20, 2);
+    long l1 = buffer.append(r1, 0, r1.length);
+    long l2 = buffer.append(r2, 0, r2.length);
+    assertEquals(8, l1);
+    assertEquals(18, l2);
+    assertEquals(38, buffer.end());
+
+    // nothing reaches the file until it is flushed
+    assertArrayEquals(new byte[r1.length], read(l1, r1.length));
+    buffer.flushTo(l2);
+    assertArrayEquals(r1, read(l1, r1.length));
+    assertArrayEquals(r2, read(l2, r2.length));
+  }
+
+  /**
+   * Records that do not fit push out the buffer, and records larger than
+   * the whole buffer are written straight through.
+   */
+  @Test public void overflow() throws Exception {
+    byte[] small = record(CAPACITY - 8, 3), big = record(3 * CAPACITY, 4);
+    long l1 = buffer.append(small, 0, small.length);
+    long l2 = buffer.append(small, 0, small.length);
+    long l3 = buffer.append(big, 0, big.length);
+    long l4 = buffer.append(small, 0, small.length);
+    assertEquals(l1 + small.length, l2);
+    assertEquals(l2 + small.length, l3);
+    assertEquals(l3 + big.length, l4);
+
+    buffer.drain();
+    assertArrayEquals(small, read(l2, small.length));
+    assertArrayEquals(big, read(l3, big.length));
+    assertArrayEquals(small, read(l4, small.length));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogBufferTest.class);
+  }
+}
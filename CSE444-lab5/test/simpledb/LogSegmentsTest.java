@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogSegmentsTest {
+  private static final int SEGMENT_SIZE = 64;
+
+  private File dir;
+  private File log;
+  private LogSegments segments;
+
+  @Before public void setUp() throws Exception {
+    dir = File.createTempFile("logsegments", "");
+    dir.delete();
+    dir.mkdir();
+    log = new File(dir, "log");
+    segments = new LogSegments(log, SEGMENT_SIZE);
+  }
+
+  @After public void tearDown() throws Exception {
+    segments.close();
+    for (File f : dir.listFiles())
+      f.delete();
+    dir.delete();
+  }
+
+  private static byte[] bytes(int len, int fill) {
+    byte[] b = new byte[len];
+    for (int i = 0; i < len; ++i)
+      b[i] = (byte) (fill + i);
+    return b;
+  }
+
+  private int freeSegments() {
+    int n = 0;
+    for (String name : dir.list())
+      if (name.endsWith(".free"))
+        n++;
+    return n;
+  }
+
+  private byte[] read(LogSegments s, long lsn, int len) throws Exception {
+    ByteBuffer b = ByteBuffer.allocate(len);
+    while (b.hasRemaining()) {
+      int n = s.read(b, lsn + b.position());
+      if (n < 0)
+        break;
+    }
+    return b.array();
+  }
+
+  /**
+   * Writes span segments, which are created at full length.
+   */
+  @Test public void spansSegments() throws Exception {
+    byte[] data = bytes(3 * SEGMENT_SIZE - 10, 1);
+    segments.write(ByteBuffer.wrap(data), 5);
+    segments.force();
+    assertArrayEquals(data, read(segments, 5, data.length));
+    for (long i = 0; i < 3; i++) {
+      File f = segments.fileFor(i * SEGMENT_SIZE);
+      assertEquals(SEGMENT_SIZE, f.length());
+    }
+    assertEquals(-1, segments.read(ByteBuffer.allocate(1), 3 * SEGMENT_SIZE));
+
+    // segments are found again when the log is reopened
+    segments.close();
+    segments = new LogSegments(log, SEGMENT_SIZE);
+    assertEquals(0, segments.start());
+    assertArrayEquals(data, read(segments, 5, data.length));
+  }
+
+  /**
+   * Truncation drops whole segments only, and they are recycled.
+   */
+  @Test public void truncateRecycles() throws Exception {
+    segments.write(ByteBuffer.wrap(bytes(3 * SEGMENT_SIZE, 2)), 0);
+    assertEquals(1, segments.truncate(2 * SEGMENT_SIZE - 1));
+    assertEquals(SEGMENT_SIZE, segments.start());
+    assertFalse(segments.fileFor(0).exists());
+    assertEquals(1, freeSegments());
+
+    segments.write(ByteBuffer.wrap(bytes(SEGMENT_SIZE, 3)), 3 * SEGMENT_SIZE);
+    assertEquals(0, freeSegments());
+    assertTrue(segments.fileFor(3 * SEGMENT_SIZE).exists());
+    assertArrayEquals(bytes(SEGMENT_SIZE, 3), read(segments, 3 * SEGMENT_SIZE, SEGMENT_SIZE));
+  }
+
+  /**
+   * A restarted log continues after every segment used so far, and a
+   * cleared tail reads back as zeros.
+   */
+  @Test public void restartAndClear() throws Exception {
+    segments.write(ByteBuffer.wrap(bytes(2 * SEGMENT_SIZE, 4)), 0);
+    long start = segments.restart();
+    assertEquals(2 * SEGMENT_SIZE, start);
+    assertEquals(-1, segments.read(ByteBuffer.allocate(1), 0));
+
+    segments.write(ByteBuffer.wrap(bytes(2 * SEGMENT_SIZE, 5)), start);
+    segments.clear(start + 10);
+    assertArrayEquals(bytes(10, 5), read(segments, start, 10));
+    assertArrayEquals(new byte[SEGMENT_SIZE - 10], read(segments, start + 10, SEGMENT_SIZE - 10));
+    assertEquals(-1, segments.read(ByteBuffer.allocate(1), start + SEGMENT_SIZE));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogSegmentsTest.class);
+  }
+}
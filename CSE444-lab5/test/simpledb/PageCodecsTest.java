@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCodecsTest extends SimpleDbTestBase {
+    private HeapPage page;
+
+    @Before public void setUp() throws Exception {
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                                       SystemTestUtil.getUUID());
+        page = new HeapPage(new HeapPageId(-1, 3), HeapPageWriteTest.EXAMPLE_DATA.clone());
+    }
+
+    private static DataInputStream in(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    /**
+     * Heap pages are logged with their tag instead of class names, and read
+     * back through the codec.
+     */
+    @Test public void taggedRoundTrip() throws Exception {
+        LogFile log = Database.getLogFile();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        log.writePageData(new DataOutputStream(bytes), page);
+        // tag header, two id ints, length and data
+        assertEquals(4 + 4 + 8 + 4 + BufferPool.getPageSize(), bytes.size());
+
+        Page read = log.readPageData(in(bytes));
+        assertTrue(read instanceof HeapPage);
+        assertEquals(page.getId(), read.getId());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+
+        bytes.reset();
+        log.writePageId(new DataOutputStream(bytes), page.getId());
+        assertEquals(page.getId(), log.readPageId(in(bytes)));
+    }
+
+    /**
+     * Every kind of B+ tree page is logged with the B+ tree tag, and read
+     * back as the same kind.
+     */
+    @Test public void btreeRoundTrip() throws Exception {
+        HeapFile table = Utility.createEmptyHeapFile(
+            java.io.File.createTempFile("codec", ".dat").getAbsolutePath(), 2);
+        java.io.File f = java.io.File.createTempFile("codec", ".idx");
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, table.getId(), 1, Type.INT_TYPE);
+        Database.getCatalog().addIndex(index);
+
+        BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(index.getId(), 2), Type.INT_TYPE,
+                                               BTreePage.emptyPageData(BTreePage.LEAF));
+        leaf.insert(new BTreeEntry(new IntField(7), 0, 1));
+        leaf.insert(new BTreeEntry(new IntField(3), 4, 5));
+        leaf.setNext(9);
+        BTreeInternalPage internal = new BTreeInternalPage(
+            new BTreePageId(index.getId(), 1), Type.INT_TYPE,
+            BTreePage.emptyPageData(BTreePage.INTERNAL));
+        internal.init(2, new BTreeEntry(new IntField(7), 0, 1), 3);
+        BTreeHeaderPage header = new BTreeHeaderPage(new BTreePageId(index.getId(), 0),
+                                                     Type.INT_TYPE, new byte[BufferPool.getPageSize()]);
+        header.setRoot(1, 2);
+
+        LogFile log = Database.getLogFile();
+        for (Page p : new Page[] { leaf, internal, header }) {
+            assertEquals(PageCodecs.BTREE, PageCodecs.tag(p.getClass()));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            log.writePageData(new DataOutputStream(bytes), p);
+            Page read = log.readPageData(in(bytes));
+            assertSame(p.getClass(), read.getClass());
+            assertEquals(p.getId(), read.getId());
+            assertArrayEquals(p.getPageData(), read.getPageData());
+        }
+        // the before image is the page as it was built
+        assertEquals(0, ((BTreeLeafPage) leaf.getBeforeImage()).getNumEntries());
+    }
+
+    /**
+     * The pages of a hash index are logged under their tag, and read back
+     * as they were.
+     */
+    @Test public void hashRoundTrip() throws Exception {
+        HeapFile table = Utility.createEmptyHeapFile(
+            java.io.File.createTempFile("codec", ".dat").getAbsolutePath(), 2);
+        java.io.File f = java.io.File.createTempFile("codec", ".hidx");
+        f.deleteOnExit();
+        HashIndexFile index = new HashIndexFile(f, table.getId(), 1, Type.INT_TYPE);
+        Database.getCatalog().addIndex(index);
+
+        HashBucketPage bucket = new HashBucketPage(new HashPageId(index.getId(), 1), Type.INT_TYPE,
+                                                   new byte[BufferPool.getPageSize()]);
+        bucket.insert(new BTreeEntry(new IntField(7), 0, 1));
+        bucket.insert(new BTreeEntry(new IntField(3), 4, 5));
+        bucket.setDepth(1);
+        bucket.setNext(2);
+        HashDirectoryPage dir = new HashDirectoryPage(new HashPageId(index.getId(), 0),
+                                                      Type.INT_TYPE, new byte[BufferPool.getPageSize()]);
+        dir.grow();
+        dir.setSlot(0, 1);
+        dir.setSlot(1, 3);
+
+        LogFile log = Database.getLogFile();
+        for (Page p : new Page[] { bucket, dir }) {
+            assertEquals(PageCodecs.HASH, PageCodecs.tag(p.getClass()));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            log.writePageData(new DataOutputStream(bytes), p);
+            Page read = log.readPageData(in(bytes));
+            assertSame(p.getClass(), read.getClass());
+            assertEquals(p.getId(), read.getId());
+            assertArrayEquals(p.getPageData(), read.getPageData());
+        }
+    }
+
+    /**
+     * Pages logged by class name, as before tags existed, are still read.
+     */
+    @Test public void readsClassNames() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(HeapPage.class.getName());
+        out.writeUTF(HeapPageId.class.getName());
+        out.writeInt(2);
+        out.writeInt(-1);
+        out.writeInt(3);
+        byte[] data = page.getPageData();
+        out.writeInt(data.length);
+        out.write(data);
+
+        Page read = Database.getLogFile().readPageData(in(bytes));
+        assertEquals(page.getId(), read.getId());
+        assertArrayEquals(data, read.getPageData());
+    }
+
+    /**
+     * Class names resolve to the registered codec; unknown ones are errors.
+     */
+    @Test public void classNames() throws Exception {
+        assertSame(PageCodecs.codec(PageCodecs.HEAP), PageCodecs.codec(HeapPageId.class.getName()));
+        assertEquals(PageCodecs.UNTAGGED, PageCodecs.tag(RecordId.class));
+        try {
+            PageCodecs.codec("simpledb.NoSuchPage");
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecsTest.class);
+    }
+}
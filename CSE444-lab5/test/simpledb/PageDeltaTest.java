@@ -0,0 +1,76 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageDeltaTest extends SimpleDbTestBase {
+    private HeapPage before;
+    private HeapPage after;
+
+    @Before public void setUp() throws Exception {
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                                       SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-1, -1);
+        before = new HeapPage(pid, HeapPageWriteTest.EXAMPLE_DATA.clone());
+        after = new HeapPage(pid, HeapPageWriteTest.EXAMPLE_DATA.clone());
+        after.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+    }
+
+    /**
+     * Inserting a tuple changes one header byte and one slot.
+     */
+    @Test public void diffIsSmall() throws Exception {
+        PageDelta delta = PageDelta.diff(before.getPageData(), after.getPageData());
+        assertEquals(2, delta.numRanges());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        delta.write(new DataOutputStream(bytes));
+        assertTrue(bytes.size() < 64);
+    }
+
+    /**
+     * Redo turns the before image into the after image and undo goes back,
+     * also after a round trip through the log format.
+     */
+    @Test public void redoUndo() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PageDelta.diff(before.getPageData(), after.getPageData())
+            .write(new DataOutputStream(bytes));
+        PageDelta delta = PageDelta.read(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        Page redone = delta.apply(before, true);
+        assertArrayEquals(after.getPageData(), redone.getPageData());
+        Page undone = delta.apply(redone, false);
+        assertArrayEquals(before.getPageData(), undone.getPageData());
+    }
+
+    /**
+     * Identical images have an empty delta.
+     */
+    @Test public void noChange() throws Exception {
+        byte[] data = before.getPageData();
+        assertEquals(0, PageDelta.diff(data, data.clone()).numRanges());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times a filtered scan by SeqScan and by ParallelScan on more and more
+ * threads, and prints rows per second of each and the speedup over
+ * SeqScan. The table is read from the BufferPool after a first pass, so
+ * this measures how the scan scales rather than the disk; it can not scale
+ * past the number of processors, which is printed first.
+ * <p>
+ * Usage: java simpledb.ParallelScanBenchmark [rows] [runs] [threads...]
+ */
+public class ParallelScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int[] threads = { 1, 2, 4, 8 };
+        if (args.length > 2) {
+            threads = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++)
+                threads[i - 2] = Integer.parseInt(args[i]);
+        }
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, rows, 1000, null, null, "c");
+        Database.resetBufferPool(table.numPages() + 10);
+        int id = table.getId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+
+        System.out.println(rows + " rows, best of " + runs + " runs, "
+                           + Runtime.getRuntime().availableProcessors() + " processors");
+        double base = best(id, p, 0, runs);
+        System.out.println(String.format("%-9s %12.0f rows/s", "SeqScan", rows / base));
+        for (int n : threads) {
+            double t = best(id, p, n, runs);
+            System.out.println(String.format("%2d thread%s %12.0f rows/s   %.2fx",
+                                             n, n == 1 ? " " : "s", rows / t, base / t));
+        }
+        System.exit(0);
+    }
+
+    // the fastest of runs scans, after one to warm up, in seconds; on
+    // threads threads, or by SeqScan alone if 0
+    private static double best(int id, Predicate p, int threads, int runs) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i <= runs; i++) {
+            TransactionId tid = new TransactionId();
+            DbIterator plan = new Filter(p, new SeqScan(tid, id, "t"));
+            if (threads > 0)
+                plan = new ParallelScan(plan, threads, ParallelScan.DEFAULT_MORSEL_PAGES);
+            long start = System.nanoTime();
+            drain(plan);
+            double secs = (System.nanoTime() - start) / 1e9;
+            Database.getBufferPool().transactionComplete(tid);
+            if (i > 0)
+                best = Math.min(best, secs);
+        }
+        return best;
+    }
+
+    private static long drain(DbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+
+  private HeapFile table;
+  private TransactionId tid;
+  private int defaultThreads;
+
+  @Before public void createTable() throws Exception {
+    table = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, null, "c");
+    tid = new TransactionId();
+    defaultThreads = ParallelScan.getDefaultThreads();
+  }
+
+  @After public void restoreThreads() {
+    ParallelScan.setDefaultThreads(defaultThreads);
+  }
+
+  private static List<ArrayList<Integer>> read(DbIterator it) throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(SystemTestUtil.tupleToList(it.next()));
+    }
+    it.close();
+    return tuples;
+  }
+
+  private SeqScan scan() {
+    return new SeqScan(tid, table.getId(), "t");
+  }
+
+  private DbIterator plan() {
+    DbIterator f = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(60)),
+                              new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(10)),
+                                         scan()));
+    return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                       new Type[] { Type.INT_TYPE, Type.INT_TYPE }, f);
+  }
+
+  /**
+   * A parallel scan returns the tuples of the plan it runs, however many
+   * threads and pages a morsel
+   */
+  @Test public void sameTuples() throws Exception {
+    assertTrue(table.numPages() > 4);
+    List<ArrayList<Integer>> expected = read(plan());
+    for (int threads : new int[] { 1, 2, 4 }) {
+      for (int morsel : new int[] { 1, 3, 100 }) {
+        ParallelScan p = new ParallelScan(plan(), threads, morsel);
+        assertEquals(plan().getTupleDesc(), p.getTupleDesc());
+        SystemTestUtil.matchTuples(p, expected);
+      }
+    }
+    SystemTestUtil.matchTuples(new ParallelScan(scan(), 3, 2), read(scan()));
+  }
+
+  /**
+   * A parallel scan can be started over, and closed before it is done
+   */
+  @Test public void rewindAndClose() throws Exception {
+    List<ArrayList<Integer>> expected = read(plan());
+    ParallelScan p = new ParallelScan(plan(), 3, 1);
+    p.open();
+    for (int i = 0; i < 10 && p.hasNext(); i++) {
+      p.next();
+    }
+    p.rewind();
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    while (p.hasNext()) {
+      tuples.add(SystemTestUtil.tupleToList(p.next()));
+    }
+    assertEquals(expected.size(), tuples.size());
+    p.rewind();
+    p.next();
+    p.close();
+    SystemTestUtil.matchTuples(p, expected);
+  }
+
+  /**
+   * The threads lock the pages they read for the transaction of the scan
+   */
+  @Test public void locksForTransaction() throws Exception {
+    ParallelScan p = new ParallelScan(scan(), 4, 1);
+    read(p);
+    for (int i = 0; i < table.numPages(); i++) {
+      assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), i)));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    for (int i = 0; i < table.numPages(); i++) {
+      assertTrue(!Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), i)));
+    }
+  }
+
+  /**
+   * Only plans a parallel scan can run, on tables big enough, are run in
+   * parallel, and a join finds the scan under one
+   */
+  @Test public void parallelize() throws Exception {
+    ParallelScan.setDefaultThreads(1);
+    DbIterator plan = plan();
+    assertSame(plan, ParallelScan.parallelize(plan));
+
+    ParallelScan.setDefaultThreads(4);
+    assertSame(plan, ParallelScan.parallelize(plan));
+    HeapFile big = SystemTestUtil.createRandomHeapFile(
+        2, ParallelScan.MIN_PAGES * 510, 100, null, null, "c");
+    assertTrue(big.numPages() >= ParallelScan.MIN_PAGES);
+    SeqScan s = new SeqScan(tid, big.getId(), "b");
+    DbIterator p = ParallelScan.parallelize(s);
+    assertTrue(p instanceof ParallelScan);
+    assertEquals(4, ((ParallelScan) p).getThreads());
+    assertSame(s, IndexNestedLoopJoin.scanOf(p));
+
+    DbIterator join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan(), s);
+    assertSame(join, ParallelScan.parallelize(join));
+  }
+
+  /**
+   * Threads of one transaction can take and drop locks on the same pages
+   * at once, and leave none behind
+   */
+  @Test public void concurrentLocking() throws Exception {
+    final BufferPool bp = Database.getBufferPool();
+    final int pages = 200;
+    Thread[] threads = new Thread[8];
+    final Exception[] failed = new Exception[1];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int round = 0; round < 20; round++) {
+              for (int pg = 0; pg < pages; pg++) {
+                bp.lockPage(tid, new HeapPageId(table.getId(), pg), Permissions.READ_ONLY);
+              }
+            }
+          } catch (Exception e) {
+            failed[0] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(null, failed[0]);
+    for (int pg = 0; pg < pages; pg++) {
+      assertTrue(bp.holdsLock(tid, new HeapPageId(table.getId(), pg)));
+    }
+    bp.transactionComplete(tid);
+
+    // another transaction can now write every page
+    TransactionId writer = new TransactionId();
+    for (int pg = 0; pg < pages; pg++) {
+      HeapPageId pid = new HeapPageId(table.getId(), pg);
+      assertTrue(!bp.holdsLock(tid, pid));
+      bp.lockPage(writer, pid, Permissions.READ_WRITE);
+    }
+    bp.transactionComplete(writer);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelScanTest.class);
+  }
+}
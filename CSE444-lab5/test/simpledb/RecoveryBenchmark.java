@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Times crash recovery against the size of the log. Each round logs four
+ * inserts into every page of an empty table, ten to a transaction, all
+ * committed and none written back: the first record of each page is a
+ * full image and the rest are deltas. The Database is then started over,
+ * as after a crash, and LogFile.recover is timed with each number of
+ * redo threads. Throughput is the page records redone per second.
+ * <p>
+ * The table and log are made in the current directory. No PageWriter or
+ * Checkpointer runs, so the whole log is redone.
+ * <p>
+ * Usage: java simpledb.RecoveryBenchmark [pages...]
+ */
+public class RecoveryBenchmark {
+
+    private static final int UPDATES_PER_PAGE = 4;
+    private static final int UPDATES_PER_TRANSACTION = 10;
+    private static final int[] THREADS = { 1, 4 };
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { 1000, 4000, 16000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+        PageWriter.setDefaultInterval(0);
+        Checkpointer.setDefaultSchedule(0, 0);
+        File f = new File("recovery.db");
+
+        String header = "    pages   log size";
+        for (int threads : THREADS)
+            header += String.format("  %-26s", threads + (threads == 1 ? " thread" : " threads"));
+        System.out.println(header.replaceAll("\\s+$", ""));
+        for (int pages : sizes) {
+            System.out.print(String.format("%9d", pages));
+            for (int i = 0; i < THREADS.length; i++) {
+                long size = logUpdates(f, pages);
+                Database.reset();
+                Utility.openHeapFile(2, f);
+                Database.getLogFile().setRecoveryThreads(THREADS[i]);
+                long start = System.nanoTime();
+                Database.getLogFile().recover();
+                double ms = (System.nanoTime() - start) / 1e6;
+                if (i == 0)
+                    System.out.print(String.format("  %7.1fMB", size / 1048576.0));
+                System.out.print(String.format("  %7.0fms %8.0f pages/s", ms,
+                                               UPDATES_PER_PAGE * pages / (ms / 1000)));
+            }
+            System.out.println();
+        }
+        f.delete();
+        deleteLog();
+        System.exit(0);
+    }
+
+    // make an empty table of pages pages and a fresh log of updates to it;
+    // returns the size of the log
+    private static long logUpdates(File f, int pages) throws IOException {
+        Database.reset();
+        deleteLog();
+        Database.reset();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        byte[] empty = HeapPage.createEmptyPageData();
+        for (int i = 0; i < pages; i++)
+            out.write(empty);
+        out.close();
+        HeapFile hf = Utility.openHeapFile(2, f);
+
+        // the pages as the log has them; they are never written back
+        HeapPage[] current = new HeapPage[pages];
+        for (int i = 0; i < pages; i++)
+            current[i] = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+        LogFile log = Database.getLogFile();
+        long first = log.getCurrentOffset();
+        int updates = UPDATES_PER_PAGE * pages;
+        for (int u = 0; u < updates; u += UPDATES_PER_TRANSACTION) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int k = u; k < u + UPDATES_PER_TRANSACTION && k < updates; k++) {
+                HeapPage p = current[k % pages];
+                HeapPage before = new HeapPage(p.getId(), p.getPageData());
+                try {
+                    p.insertTuple(Utility.getHeapTuple(new int[] { k, k % pages }));
+                } catch (DbException e) {
+                    throw new IOException(e.getMessage());
+                }
+                log.logWrite(tid, before, p);
+                p.setBeforeImage();
+            }
+            log.logCommit(tid);
+        }
+        log.force();
+        return log.getCurrentOffset() - first;
+    }
+
+    private static void deleteLog() {
+        File[] files = new File(".").getAbsoluteFile().listFiles();
+        for (File f : files == null ? new File[0] : files) {
+            if (f.getName().equals("log") || f.getName().startsWith("log."))
+                f.delete();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 7, 8,
+                    3, 4,
+                    1, 2,
+                    5, 6 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 3, 4, 5,
+                    5, 6, 7,
+                    1, 2, 3,
+                    3, 9, 9,
+                    4, 5, 6,
+                    2, 3, 4 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 9, 9,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 3, 9, 9,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 3, 9, 9,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * There is no merge order for NOT_EQUALS or LIKE
+   */
+  @Test(expected=IllegalArgumentException.class)
+  public void rejectsNotEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate, with a run
+   * of equal keys on the right
+   */
+  @Test public void eqJoin() throws Exception {
+    SortMergeJoin op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                                         scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(4, run(op).size());
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    SortMergeJoin op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                                         scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+    assertEquals(13, run(op).size());
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &lt; predicate, the same
+   * join as &gt; with the inputs swapped
+   */
+  @Test public void ltJoin() throws Exception {
+    SortMergeJoin lt = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                                         scan2, scan1);
+    lt.open();
+    assertEquals(13, run(lt).size());
+  }
+
+  // two-column tuples (key, i) with the given keys
+  private static DbIterator keyed(int[] keys) {
+    int[] data = new int[2 * keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      data[2 * i] = keys[i];
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  // the rest of the output of op, sorted
+  private static ArrayList<String> run(DbIterator op) throws Exception {
+    op.rewind();
+    ArrayList<String> out = new ArrayList<String>();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    Collections.sort(out);
+    return out;
+  }
+
+  private static int[] keys(int n, int mod, int mul) {
+    int[] keys = new int[n];
+    for (int i = 0; i < n; i++)
+      keys[i] = (i * mul) % mod;
+    return keys;
+  }
+
+  /**
+   * Every comparison agrees with Join when the inputs, runs and prefixes are
+   * larger than the memory budget
+   */
+  @Test public void spills() throws Exception {
+    int[] left = keys(500, 50, 7), right = keys(300, 60, 13);
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+                           Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+                           Predicate.Op.LESS_THAN_OR_EQ };
+    for (Predicate.Op o : ops) {
+      JoinPredicate pred = new JoinPredicate(0, o, 0);
+      SortMergeJoin op = new SortMergeJoin(pred, keyed(left), keyed(right));
+      op.setMemoryBudget(256);
+      op.open();
+      Join expected = new Join(pred, keyed(left), keyed(right));
+      expected.open();
+      ArrayList<String> actual = run(op);
+      assertFalse(actual.isEmpty());
+      assertEquals(o.toString(), run(expected), actual);
+      op.close();
+    }
+  }
+
+  /**
+   * Inputs below a matching OrderBy are taken as sorted
+   */
+  @Test public void sortedInputs() throws Exception {
+    OrderBy sorted1 = new OrderBy(0, true, scan1);
+    OrderBy sorted2 = new OrderBy(0, true, scan2);
+    assertTrue(SortMergeJoin.sortedOn(sorted1, 0));
+    assertFalse(SortMergeJoin.sortedOn(sorted1, 1));
+    assertFalse(SortMergeJoin.sortedOn(new OrderBy(0, false, scan1), 0));
+    assertFalse(SortMergeJoin.sortedOn(scan1, 0));
+
+    SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                                        sorted1, sorted2);
+
+    j.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, j);
+  }
+
+  /**
+   * The optimizer hashes equi-joins, even of sorted inputs, and merges
+   * other comparisons it can
+   */
+  @Test public void instantiateJoin() throws Exception {
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a.x"), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b.y"), new ArrayList<Tuple>());
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "a.x0", "b.y0", Predicate.Op.EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(eq, a, b) instanceof HashJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(eq, new OrderBy(0, true, a), b) instanceof HashJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(eq, new OrderBy(0, true, a), new OrderBy(0, true, b))
+               instanceof HashJoin);
+
+    LogicalJoinNode gt = new LogicalJoinNode("a", "b", "a.x0", "b.y1", Predicate.Op.GREATER_THAN);
+    assertTrue(JoinOptimizer.instantiateJoin(gt, a, b) instanceof SortMergeJoin);
+    LogicalJoinNode ne = new LogicalJoinNode("a", "b", "a.x0", "b.y1", Predicate.Op.NOT_EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(ne, a, b) instanceof BlockNestedLoopJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
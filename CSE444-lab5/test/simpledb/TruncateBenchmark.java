@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Times a checkpoint, and the log truncation it ends with, against the
+ * size of the log. The log holds four inserts into every page of an empty
+ * table, ten to a transaction; one transaction begun about halfway
+ * through the log is never finished, so truncation must keep the second
+ * half. A committer thread logs empty transactions throughout, and the
+ * worst time one of them took during the checkpoint is printed as well.
+ * <p>
+ * The table and log are made in the current directory. No PageWriter or
+ * Checkpointer runs.
+ * <p>
+ * Usage: java simpledb.TruncateBenchmark [pages...]
+ */
+public class TruncateBenchmark {
+
+    private static final int UPDATES_PER_PAGE = 4;
+    private static final int UPDATES_PER_TRANSACTION = 10;
+
+    private static volatile boolean done;
+    private static volatile long worstCommit;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { 1000, 4000, 16000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+        PageWriter.setDefaultInterval(0);
+        Checkpointer.setDefaultSchedule(0, 0);
+        File f = new File("truncate.db");
+
+        System.out.println("    pages   log size   checkpoint   worst commit   log after");
+        for (int pages : sizes) {
+            long size = logUpdates(f, pages);
+            final LogFile log = Database.getLogFile();
+            done = false;
+            Thread committer = new Thread() {
+                public void run() {
+                    try {
+                        while (!done) {
+                            long start = System.nanoTime();
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            log.logCommit(tid);
+                            worstCommit = Math.max(worstCommit, System.nanoTime() - start);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            committer.start();
+            Thread.sleep(200);
+            worstCommit = 0;
+            long start = System.nanoTime();
+            log.logCheckpoint();
+            double ms = (System.nanoTime() - start) / 1e6;
+            Thread.sleep(50);
+            done = true;
+            committer.join();
+            System.out.println(String.format("%9d  %7.1fMB  %9.1fms  %11.1fms  %8.1fMB",
+                                             pages, size / 1048576.0, ms, worstCommit / 1e6,
+                                             logBytes() / 1048576.0));
+        }
+        f.delete();
+        deleteLog();
+        System.exit(0);
+    }
+
+    // make an empty table of pages pages and a fresh log of updates to it,
+    // with a transaction left open halfway through; returns the size of
+    // the log files
+    private static long logUpdates(File f, int pages) throws IOException {
+        Database.reset();
+        deleteLog();
+        Database.reset();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        byte[] empty = HeapPage.createEmptyPageData();
+        for (int i = 0; i < pages; i++)
+            out.write(empty);
+        out.close();
+        HeapFile hf = Utility.openHeapFile(2, f);
+
+        // the pages as the log has them; they are never written back
+        HeapPage[] current = new HeapPage[pages];
+        for (int i = 0; i < pages; i++)
+            current[i] = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+        LogFile log = Database.getLogFile();
+        int updates = UPDATES_PER_PAGE * pages;
+        // the first update of each page logs a full image and the rest
+        // are small, so half the pages' first updates are about half the log
+        int half = pages / 2 / UPDATES_PER_TRANSACTION * UPDATES_PER_TRANSACTION;
+        for (int u = 0; u < updates; u += UPDATES_PER_TRANSACTION) {
+            if (u == half)
+                log.logXactionBegin(new TransactionId());
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int k = u; k < u + UPDATES_PER_TRANSACTION && k < updates; k++) {
+                HeapPage p = current[k % pages];
+                HeapPage before = new HeapPage(p.getId(), p.getPageData());
+                try {
+                    p.insertTuple(Utility.getHeapTuple(new int[] { k, k % pages }));
+                } catch (DbException e) {
+                    throw new IOException(e.getMessage());
+                }
+                log.logWrite(tid, before, p);
+                p.setBeforeImage();
+            }
+            log.logCommit(tid);
+        }
+        log.force();
+        return logBytes();
+    }
+
+    private static File[] logFiles() {
+        File[] files = new File(".").getAbsoluteFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.equals("log") || name.startsWith("log.");
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    // the log's size, not counting segments on the free list
+    private static long logBytes() {
+        long n = 0;
+        for (File f : logFiles()) {
+            if (!f.getName().endsWith(".free"))
+                n += f.length();
+        }
+        return n;
+    }
+
+    private static void deleteLog() {
+        for (File f : logFiles())
+            f.delete();
+    }
+}
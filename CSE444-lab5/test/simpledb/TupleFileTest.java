@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleFileTest extends SimpleDbTestBase {
+
+  /**
+   * Tuples read back in the order they were added, also after a rewind
+   */
+  @Test public void addAndRead() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    TupleFile f = new TupleFile(td);
+    for (int i = 0; i < 100; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+      f.add(t);
+    }
+    assertEquals(100, f.size());
+    assertEquals(100L * td.getSize(), f.bytes());
+
+    f.open();
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < 100; i++) {
+        assertTrue(f.hasNext());
+        Tuple t = f.next();
+        assertEquals(new IntField(i), t.getField(0));
+        assertEquals(new StringField("s" + i, Type.STRING_LEN), t.getField(1));
+      }
+      assertFalse(f.hasNext());
+      f.rewind();
+    }
+    f.close();
+    f.delete();
+  }
+
+  /**
+   * Tuples added while reading show up after a rewind
+   */
+  @Test public void addWhileOpen() throws Exception {
+    TupleFile f = new TupleFile(Utility.getTupleDesc(1));
+    f.add(Utility.getHeapTuple(1));
+    f.open();
+    f.add(Utility.getHeapTuple(2));
+    assertEquals(new IntField(1), f.next().getField(0));
+    assertFalse(f.hasNext());
+    f.rewind();
+    assertEquals(new IntField(1), f.next().getField(0));
+    assertEquals(new IntField(2), f.next().getField(0));
+    assertFalse(f.hasNext());
+    f.delete();
+  }
+
+  /**
+   * Reading past the end fails
+   */
+  @Test(expected=NoSuchElementException.class)
+  public void pastEnd() throws Exception {
+    TupleFile f = new TupleFile(Utility.getTupleDesc(1));
+    f.open();
+    try {
+      f.next();
+    } finally {
+      f.delete();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleFileTest.class);
+  }
+}
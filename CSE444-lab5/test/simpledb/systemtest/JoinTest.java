@@ -51,6 +51,17 @@ public class JoinTest extends SimpleDbTestBase {
         SystemTestUtil.matchTuples(joinOp, expectedResults);
 
         joinOp.close();
+
+        // the hash join must agree
+        HashJoin hashJoin = new HashJoin(p, new SeqScan(tid, table1.getId(), ""),
+                                         new SeqScan(tid, table2.getId(), ""));
+        SystemTestUtil.matchTuples(hashJoin, expectedResults);
+
+        // and so must the sort-merge join
+        SortMergeJoin mergeJoin = new SortMergeJoin(p, new SeqScan(tid, table1.getId(), ""),
+                                                    new SeqScan(tid, table2.getId(), ""));
+        SystemTestUtil.matchTuples(mergeJoin, expectedResults);
+
         Database.getBufferPool().transactionComplete(tid);
     }
 
@@ -152,6 +152,31 @@ public class LogTest extends SimpleDbTestBase {
             throw new RuntimeException("LogTest:setBeforeImage() not called? patch failed?");
     }
 
+    @Test public void TestNoClassNamesLogged()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // heap pages and their before images are logged by codec tag,
+        // not by class name; doInsert flushes a page mid-transaction
+        doInsert(hf1, 1, 2);
+
+        File[] segments = new File(".").getAbsoluteFile().getParentFile().listFiles();
+        int read = 0;
+        for (File f : segments) {
+            if (!f.getName().startsWith("log.") || f.getName().endsWith(".free"))
+                continue;
+            byte[] bytes = new byte[(int) f.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            in.readFully(bytes);
+            in.close();
+            String text = new String(bytes, "ISO-8859-1");
+            assertFalse(f.getName(), text.contains("simpledb."));
+            read++;
+        }
+        assertTrue(read > 0);
+    }
+
     @Test public void TestFlushAll()
             throws IOException, DbException, TransactionAbortedException {
         setup();
@@ -243,6 +268,41 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestAbortFromLog()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // with no undo information cached, T1's several changes are
+        // undone from its chain of records in the log, skipping T2's
+
+        Database.getLogFile().setUndoCacheSize(0);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3, 0);
+        Database.getBufferPool().flushAllPages();
+
+        doInsert(hf2, 23, 24);
+
+        insertRow(hf1, t1, 4, 0);
+        Database.getBufferPool().flushAllPages();
+        insertRow(hf2, t1, 25, 0);
+        abort(t1);
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, false);
+        look(hf2, t, 23, true);
+        look(hf2, t, 24, true);
+        look(hf2, t, 25, false);
+        t.commit();
+    }
+
     @Test public void TestAbortCrash()
             throws IOException, DbException, TransactionAbortedException {
         setup();
@@ -427,6 +487,418 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestOpenCrashCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts but does not commit
+        // crash: recovery undoes T1
+        // T2 inserts on the same page and commits
+        // crash again: T1 must not be undone over T2
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 30, 0);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+
+        crash();
+
+        doInsert(hf1, 31, -1);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 30, false);
+        look(hf1, t, 31, true);
+        t.commit();
+    }
+
+    @Test public void TestTornRecordCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // the crash leaves half a record at the end of the log
+        // recovery ignores it, and the log stays usable afterwards
+
+        LogFile logFile = Database.getLogFile();
+        logFile.force();
+        long end = logFile.getCurrentOffset();
+        RandomAccessFile log = new RandomAccessFile(logFile.segmentFile(end), "rw");
+        log.seek(end % LogSegments.DEFAULT_SEGMENT_SIZE);
+        log.writeInt(3);
+        log.writeLong(12345);
+        log.writeShort(7);
+        log.close();
+
+        crash();
+
+        doInsert(hf1, 32, -1);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 32, true);
+        t.commit();
+    }
+
+    @Test public void TestBackgroundCheckpointCrash()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // checkpoints are taken in the background while T1 has
+        // logged (flushed) changes and T2 commits
+        // crash
+        // recovery still undoes T1 and keeps T2
+
+        LogFile log = Database.getLogFile();
+        log.startCheckpointer(1, 0);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 33, 0);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+
+        doInsert(hf2, 34, 35);
+
+        for (int i = 0; i < 100 && log.bytesSinceCheckpoint() > 0; i++)
+            Thread.sleep(10);
+        log.stopCheckpointer();
+        assertEquals(0, log.bytesSinceCheckpoint());
+
+        insertRow(hf1, t1, 36, 0);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 33, false);
+        look(hf1, t, 36, false);
+        look(hf2, t, 34, true);
+        look(hf2, t, 35, true);
+        t.commit();
+    }
+
+    // insert and commit a tuple with the given durability
+    void commitInsert(HeapFile hf, int v, Durability d)
+        throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.setDurability(d);
+        t.start();
+        insertRow(hf, t, v, 0);
+        t.commit();
+    }
+
+    int emptySlotsOnDisk(HeapFile hf) {
+        return ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).getNumEmptySlots();
+    }
+
+    @Test public void TestNoForceCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // NO_FORCE commits leave their pages unwritten
+        // a later transaction aborts over them
+        // crash
+        // recovery redoes the commits
+
+        int before = emptySlotsOnDisk(hf1);
+        commitInsert(hf1, 40, Durability.NO_FORCE);
+        commitInsert(hf1, 41, Durability.NO_FORCE);
+        assertEquals(before, emptySlotsOnDisk(hf1));
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 42, 0);
+        t1.abort();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 40, true);
+        look(hf1, t, 41, true);
+        look(hf1, t, 42, false);
+        t.commit();
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 40, true);
+        look(hf1, t, 41, true);
+        look(hf1, t, 42, false);
+        t.commit();
+    }
+
+    @Test public void TestNoForceAbortCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // two NO_FORCE commits dirty the same page in turn
+        // T3 logs (flushes) a change to it, then aborts
+        // crash
+        // recovery keeps both commits and not T3
+
+        commitInsert(hf1, 70, Durability.NO_FORCE);
+        commitInsert(hf1, 71, Durability.NO_FORCE);
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insertRow(hf1, t3, 72, 0);
+        abort(t3);
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 70, true);
+        look(hf1, t, 71, true);
+        look(hf1, t, 72, false);
+        t.commit();
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 70, true);
+        look(hf1, t, 71, true);
+        look(hf1, t, 72, false);
+        t.commit();
+    }
+
+    @Test public void TestBackgroundByDefault()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        // *** Test:
+        // a Database writes back pages and takes checkpoints in the
+        // background without being asked to
+        long interval = PageWriter.getDefaultInterval();
+        long maxBytes = Checkpointer.getDefaultMaxBytes();
+        long maxMillis = Checkpointer.getDefaultMaxMillis();
+        PageWriter.setDefaultInterval(10);
+        Checkpointer.setDefaultSchedule(1000, 0);
+        try {
+            setup();
+            for (int i = 0; i < 20; i++)
+                commitInsert(hf1, 100 + i, Durability.NO_FORCE);
+            BufferPool bp = Database.getBufferPool();
+            LogFile log = Database.getLogFile();
+            for (int i = 0; i < 200 && (!bp.dirtyPageTable().isEmpty()
+                                        || log.bytesSinceCheckpoint() >= 1000); i++)
+                Thread.sleep(10);
+            assertTrue(bp.dirtyPageTable().isEmpty());
+            assertTrue(log.bytesSinceCheckpoint() < 1000);
+        } finally {
+            PageWriter.setDefaultInterval(interval);
+            Checkpointer.setDefaultSchedule(maxBytes, maxMillis);
+            Database.reset();
+        }
+    }
+
+    @Test public void TestPageWriter()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // pages a NO_FORCE commit only logged are written back in the
+        // background, leaving the dirty page table
+
+        BufferPool bp = Database.getBufferPool();
+        bp.stopPageWriter(); // the one Database started
+        bp.flushAllPages();
+        int before = emptySlotsOnDisk(hf1);
+        commitInsert(hf1, 80, Durability.NO_FORCE);
+        assertFalse(bp.dirtyPageTable().isEmpty());
+        bp.startPageWriter(10);
+        for (int i = 0; i < 100 && !bp.dirtyPageTable().isEmpty(); i++)
+            Thread.sleep(10);
+        bp.stopPageWriter();
+        assertTrue(bp.dirtyPageTable().isEmpty());
+        assertEquals(before - 1, emptySlotsOnDisk(hf1));
+    }
+
+    @Test public void TestPageWriterFailure()
+            throws IOException, InterruptedException {
+        // *** Test:
+        // a page the PageWriter fails to write back is reported by the
+        // next flush, once
+
+        BufferPool bp = new BufferPool(BufferPool.DEFAULT_PAGES) {
+                private boolean failed = false;
+
+                public synchronized int writeLoggedPages(int max) throws IOException {
+                    if (failed)
+                        return 0;
+                    failed = true;
+                    throw new IOException("disk gone");
+                }
+            };
+        bp.startPageWriter(10);
+        IOException failure = null;
+        for (int i = 0; i < 100 && failure == null; i++) {
+            Thread.sleep(10);
+            try {
+                bp.flushAllPages();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        bp.stopPageWriter();
+        assertNotNull(failure);
+        assertEquals("disk gone", failure.getCause().getMessage());
+        bp.flushAllPages();
+    }
+
+    @Test public void TestLogFlusherFailure()
+            throws IOException, InterruptedException {
+        // *** Test:
+        // once the LogFlusher fails to force the log, the log refuses
+        // every commit and force
+
+        File f = new File("failing.log");
+        LogFile log = new LogFile(f) {
+                public void forcePending() throws IOException {
+                    throw new IOException("disk gone");
+                }
+            };
+        try {
+            LogFlusher flusher = new LogFlusher(log, 10);
+            flusher.start();
+            flusher.join(1000);
+            assertFalse(flusher.isAlive());
+            try {
+                log.logCommit(new TransactionId(), false);
+                fail("commit accepted after a failed force");
+            } catch (IOException e) {
+                assertEquals("disk gone", e.getCause().getMessage());
+            }
+            try {
+                log.force();
+                fail("force succeeded after a failed force");
+            } catch (IOException e) {
+                assertEquals("disk gone", e.getCause().getMessage());
+            }
+        } finally {
+            deleteLog(f);
+        }
+    }
+
+    @Test public void TestCheckpointerFailure()
+            throws IOException, InterruptedException {
+        // *** Test:
+        // a checkpoint the Checkpointer fails to take is reported by the
+        // next commit, once
+
+        File f = new File("failing.log");
+        final int[] attempts = new int[1];
+        LogFile log = new LogFile(f) {
+                public void logCheckpoint() throws IOException {
+                    synchronized (attempts) {
+                        attempts[0]++;
+                    }
+                    throw new IOException("disk full");
+                }
+            };
+        try {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.startCheckpointer(0, 10);
+            for (int i = 0; i < 100; i++) {
+                synchronized (attempts) {
+                    if (attempts[0] > 0)
+                        break;
+                }
+                Thread.sleep(10);
+            }
+            log.stopCheckpointer();
+            try {
+                log.logCommit(tid);
+                fail("commit did not report the failed checkpoint");
+            } catch (IOException e) {
+                assertEquals("disk full", e.getCause().getMessage());
+            }
+            log.logCommit(tid);
+        } finally {
+            deleteLog(f);
+        }
+    }
+
+    // delete a log made by a test, and its segments
+    void deleteLog(File f) {
+        File[] files = f.getAbsoluteFile().getParentFile().listFiles();
+        for (File g : files == null ? new File[0] : files) {
+            if (g.getName().equals(f.getName()) || g.getName().startsWith(f.getName() + "."))
+                g.delete();
+        }
+    }
+
+    @Test public void TestAsyncCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // an ASYNC commit is lost by a crash before the log is forced,
+        // but becomes durable with the next commit that forces it
+
+        Database.getLogFile().setAsyncCommitInterval(0);
+        commitInsert(hf1, 50, Durability.ASYNC);
+        commitInsert(hf2, 51, Durability.ASYNC);
+        assertFalse(Database.getLogFile().isForced());
+        commitInsert(hf2, 52, Durability.NO_FORCE);
+        commitInsert(hf1, 53, Durability.ASYNC);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 50, true);
+        look(hf2, t, 51, true);
+        look(hf2, t, 52, true);
+        look(hf1, t, 53, false);
+        t.commit();
+    }
+
+    @Test public void TestAsyncCommitBackgroundForce()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // the log is forced in the background after ASYNC commits
+
+        LogFile log = Database.getLogFile();
+        log.setAsyncCommitInterval(10);
+        commitInsert(hf1, 60, Durability.ASYNC);
+        for (int i = 0; i < 100 && !log.isForced(); i++)
+            Thread.sleep(10);
+        log.setAsyncCommitInterval(0);
+        assertTrue(log.isForced());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 60, true);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);